@@ -0,0 +1,79 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.debug.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.lsp4j.debug.InitializeRequestArguments;
+import org.eclipse.lsp4j.debug.launch.DSPLauncher;
+import org.eclipse.lsp4j.debug.services.IDebugProtocolClient;
+import org.eclipse.lsp4j.debug.services.IDebugProtocolServer;
+import org.eclipse.lsp4j.debug.services.IDebugProtocolServerEndpointProxy;
+import org.eclipse.lsp4j.jsonrpc.Endpoint;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DebugEndpointProxyTest {
+
+	private static final List<Class<?>> SERVICE_INTERFACES = Arrays.asList(IDebugProtocolServer.class,
+			IDebugProtocolClient.class);
+
+	private final List<String> methods = new ArrayList<>();
+	private final List<Object> parameters = new ArrayList<>();
+
+	private final Endpoint endpoint = new Endpoint() {
+
+		@Override
+		public CompletableFuture<?> request(String method, Object parameter) {
+			methods.add(method);
+			parameters.add(parameter);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void notify(String method, Object parameter) {
+			methods.add(method);
+			parameters.add(parameter);
+		}
+	};
+
+	@Test public void testGeneratedProxies() {
+		for (Class<?> service : SERVICE_INTERFACES) {
+			String proxyClassName = service.getName() + ServiceEndpoints.GENERATED_PROXY_SUFFIX;
+			Assert.assertEquals(proxyClassName, ServiceEndpoints.toServiceObject(endpoint, service).getClass().getName());
+			Assert.assertEquals(proxyClassName, ServiceEndpoints.toServiceObject(endpoint, Collections.singletonList(service),
+					service.getClassLoader()).getClass().getName());
+		}
+
+		Launcher<IDebugProtocolServer> launcher = DSPLauncher.createClientLauncher(new IDebugProtocolClient() {},
+				new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+		Assert.assertTrue(launcher.getRemoteProxy() instanceof IDebugProtocolServerEndpointProxy);
+	}
+
+	@Test public void testGeneratedProxyMessages() {
+		IDebugProtocolServer server = ServiceEndpoints.toServiceObject(endpoint, IDebugProtocolServer.class);
+		InitializeRequestArguments arguments = new InitializeRequestArguments();
+		server.initialize(arguments);
+
+		Assert.assertEquals(Arrays.asList("initialize"), methods);
+		Assert.assertEquals(Arrays.asList(arguments), parameters);
+	}
+
+}
@@ -0,0 +1,375 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.generator;
+
+import java.io.IOException;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.eclipse.lsp4j.jsonrpc.Endpoint;
+import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethod;
+import org.eclipse.lsp4j.jsonrpc.services.AnnotationUtil;
+import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
+import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
+import org.eclipse.lsp4j.jsonrpc.services.JsonSegment;
+import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
+
+/**
+ * Generates the source of a proxy class for a service interface, see {@link ServiceEndpoints#GENERATED_PROXY_SUFFIX}.
+ * The generated proxy implements the RPC methods of the interface by calling {@link Endpoint#request(String, Object)}
+ * and {@link Endpoint#notify(String, Object)} with constant method names, and it creates the proxies of delegate
+ * segments with {@link ServiceEndpoints#toServiceObject(Endpoint, Class)}. Methods that are neither RPC methods nor
+ * delegate segments keep their default implementation.
+ *
+ * <p>The proxies are generated by the build after the service interfaces have been compiled, see
+ * {@code gradle/endpoint-proxies.gradle}. {@link #main(String[])} is run with the class path of the service interfaces:</p>
+ * <pre>
+ * java org.eclipse.lsp4j.generator.EndpointProxyGenerator [-header &lt;file&gt;] &lt;source folder&gt; &lt;interface&gt;...
+ * </pre>
+ */
+public class EndpointProxyGenerator {
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		String header = "";
+		int index = 0;
+		if (args.length > 1 && "-header".equals(args[0])) {
+			header = new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8);
+			index = 2;
+		}
+		if (args.length < index + 2)
+			throw new IllegalArgumentException("Usage: EndpointProxyGenerator [-header <file>] <source folder> <interface>...");
+		Path sourceFolder = Paths.get(args[index]);
+		for (int i = index + 1; i < args.length; i++) {
+			EndpointProxyGenerator generator = new EndpointProxyGenerator(Class.forName(args[i]));
+			Path file = sourceFolder.resolve(generator.getProxyClassName().replace('.', '/') + ".java");
+			Files.createDirectories(file.getParent());
+			Files.write(file, generator.generate(header).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static final Class<?>[] RESERVED_TYPES = { Object.class, String.class, Override.class, Deprecated.class,
+			SuppressWarnings.class, NullPointerException.class, UnsupportedOperationException.class };
+
+	private final Class<?> interface_;
+	private final String packageName;
+	private final String simpleName;
+
+	private final Map<String, Class<?>> imports = new TreeMap<>();
+
+	public EndpointProxyGenerator(Class<?> interface_) {
+		if (!interface_.isInterface() || interface_.getEnclosingClass() != null)
+			throw new IllegalArgumentException("Proxies can only be generated for top-level interfaces: " + interface_.getName());
+		this.interface_ = interface_;
+		this.packageName = interface_.getPackage() != null ? interface_.getPackage().getName() : "";
+		this.simpleName = interface_.getSimpleName() + ServiceEndpoints.GENERATED_PROXY_SUFFIX;
+	}
+
+	/**
+	 * The fully qualified name of the generated proxy class.
+	 */
+	public String getProxyClassName() {
+		return packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+	}
+
+	/**
+	 * Generate the source of the proxy class.
+	 *
+	 * @param header - text that is inserted before the package declaration, e.g. a license header
+	 */
+	public String generate(String header) {
+		imports.clear();
+		Map<String, String> rpcNames = new LinkedHashMap<>();
+		findRpcMethods(interface_, new HashSet<>(), rpcNames);
+		Map<String, JsonRpcMethod> supportedMethods = ServiceEndpoints.getSupportedMethods(interface_);
+		Map<String, Method> delegateMethods = new TreeMap<>();
+		AnnotationUtil.findDelegateSegments(interface_, new HashSet<>(), method -> {
+			if (delegateMethods.put(method.getName(), method) != null)
+				throw new IllegalStateException("Duplicate RPC method " + method);
+		});
+
+		// Reserve the simple names of the proxy class, its supertypes and the types used by the generated code
+		imports.put(simpleName, null);
+		for (Class<?> clazz : RESERVED_TYPES) {
+			typeName(clazz);
+		}
+		String interfaceName = typeName(interface_);
+		String endpointName = typeName(Endpoint.class);
+
+		StringBuilder body = new StringBuilder();
+		body.append("\tprivate final ").append(endpointName).append(" delegate;\n");
+		for (Method method : delegateMethods.values()) {
+			body.append("\tprivate final ").append(typeName(method.getGenericReturnType())).append(' ')
+				.append(getDelegateFieldName(method)).append(";\n");
+		}
+		body.append('\n');
+
+		body.append("\tpublic ").append(simpleName).append('(').append(endpointName).append(" delegate) {\n");
+		body.append("\t\tif (delegate == null)\n");
+		body.append("\t\t\tthrow new NullPointerException(\"delegate\");\n");
+		body.append("\t\tthis.delegate = delegate;\n");
+		for (Method method : delegateMethods.values()) {
+			body.append("\t\tthis.").append(getDelegateFieldName(method)).append(" = ")
+				.append(typeName(ServiceEndpoints.class)).append(".toServiceObject(delegate, ")
+				.append(typeName(method.getReturnType())).append(".class);\n");
+		}
+		body.append("\t}\n");
+
+		boolean unchecked = false;
+		for (Method method : getInterfaceMethods()) {
+			JsonRpcMethod rpcMethod = getRpcMethod(rpcNames.get(method.getName()), supportedMethods);
+			Method delegateMethod = delegateMethods.get(method.getName());
+			if (rpcMethod == null && delegateMethod == null && method.isDefault())
+				continue;
+			body.append('\n');
+			if (method.isAnnotationPresent(Deprecated.class))
+				body.append("\t@Deprecated\n");
+			body.append("\t@Override\n");
+			appendSignature(body, method);
+			body.append(" {\n");
+			if (rpcMethod != null) {
+				String params = getParams(method);
+				if (rpcMethod.isNotification()) {
+					body.append("\t\tdelegate.notify(\"").append(rpcMethod.getMethodName()).append("\", ").append(params).append(");\n");
+					if (method.getReturnType() != void.class)
+						body.append("\t\treturn null;\n");
+				} else {
+					if (!method.getReturnType().isAssignableFrom(CompletableFuture.class))
+						throw new IllegalStateException("Expecting return type of CompletableFuture but was : " + method.getGenericReturnType());
+					body.append("\t\treturn (").append(typeName(method.getGenericReturnType())).append(") delegate.request(\"")
+						.append(rpcMethod.getMethodName()).append("\", ").append(params).append(");\n");
+					unchecked = true;
+				}
+			} else if (delegateMethod != null && method.getParameterCount() == 0) {
+				body.append("\t\treturn ").append(getDelegateFieldName(delegateMethod)).append(";\n");
+			} else {
+				// The reflective proxy fails for these methods as well
+				body.append("\t\tthrow new UnsupportedOperationException();\n");
+			}
+			body.append("\t}\n");
+		}
+
+		body.append('\n');
+		body.append("\t@Override\n");
+		body.append("\tpublic ").append(typeName(CompletableFuture.class)).append("<?> request(String method, Object parameter) {\n");
+		body.append("\t\treturn delegate.request(method, parameter);\n");
+		body.append("\t}\n\n");
+		body.append("\t@Override\n");
+		body.append("\tpublic void notify(String method, Object parameter) {\n");
+		body.append("\t\tdelegate.notify(method, parameter);\n");
+		body.append("\t}\n\n");
+		body.append("\t@Override\n");
+		body.append("\tpublic String toString() {\n");
+		body.append("\t\treturn getClass().getSimpleName() + \" for \" + delegate;\n");
+		body.append("\t}\n\n");
+		body.append("}\n");
+
+		StringBuilder result = new StringBuilder(header);
+		if (!packageName.isEmpty())
+			result.append("package ").append(packageName).append(";\n\n");
+		appendImports(result);
+		result.append("/**\n");
+		result.append(" * Implements {@link ").append(interfaceName).append("} by calling an {@link ").append(endpointName).append("}.\n");
+		result.append(" * Generated by {@code ").append(EndpointProxyGenerator.class.getName()).append("}, do not edit.\n");
+		result.append(" */\n");
+		if (unchecked)
+			result.append("@SuppressWarnings(\"unchecked\")\n");
+		result.append("public class ").append(simpleName).append(" implements ").append(interfaceName)
+			.append(", ").append(endpointName).append(" {\n\n");
+		result.append(body);
+		return result.toString();
+	}
+
+	/**
+	 * Collect the RPC names of the annotated methods in the hierarchy of a type by their Java names. The names are
+	 * computed the same way as by the endpoints, so they are the keys of {@link ServiceEndpoints#getSupportedMethods(Class)}.
+	 */
+	private static void findRpcMethods(Class<?> type, Set<Class<?>> visited, Map<String, String> rpcNames) {
+		if (type == null || !visited.add(type))
+			return;
+		findRpcMethods(type.getSuperclass(), visited, rpcNames);
+		for (Class<?> superInterface : type.getInterfaces()) {
+			findRpcMethods(superInterface, visited, rpcNames);
+		}
+		JsonSegment jsonSegment = type.getAnnotation(JsonSegment.class);
+		String segment = jsonSegment == null ? "" : jsonSegment.value() + "/";
+		for (Method method : type.getDeclaredMethods()) {
+			if (method.isSynthetic())
+				continue;
+			String name;
+			boolean useSegment;
+			JsonRequest jsonRequest = method.getAnnotation(JsonRequest.class);
+			JsonNotification jsonNotification = method.getAnnotation(JsonNotification.class);
+			if (jsonRequest != null) {
+				name = jsonRequest.value();
+				useSegment = jsonRequest.useSegment();
+			} else if (jsonNotification != null) {
+				name = jsonNotification.value();
+				useSegment = jsonNotification.useSegment();
+			} else {
+				continue;
+			}
+			if (name.isEmpty())
+				name = method.getName();
+			if (rpcNames.put(method.getName(), useSegment ? segment + name : name) != null)
+				throw new IllegalStateException("Duplicate RPC method " + method);
+		}
+	}
+
+	private JsonRpcMethod getRpcMethod(String rpcName, Map<String, JsonRpcMethod> supportedMethods) {
+		if (rpcName == null)
+			return null;
+		JsonRpcMethod rpcMethod = supportedMethods.get(rpcName);
+		if (rpcMethod == null)
+			throw new IllegalStateException("The RPC method " + rpcName + " is not supported by " + interface_.getName());
+		return rpcMethod;
+	}
+
+	/**
+	 * The public abstract and default methods of the interface, including inherited ones, in a stable order.
+	 */
+	private List<Method> getInterfaceMethods() {
+		Map<String, Method> methods = new TreeMap<>();
+		for (Method method : interface_.getMethods()) {
+			// The methods of the endpoint are always implemented by the proxy
+			if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Endpoint.class)
+				continue;
+			String key = method.getName() + Arrays.stream(method.getParameterTypes())
+					.map(Class::getName).collect(Collectors.joining(",", "(", ")"));
+			// For inherited methods that are redeclared, keep the most specific declaration
+			methods.merge(key, method, (a, b) -> a.getDeclaringClass().isAssignableFrom(b.getDeclaringClass()) ? b : a);
+		}
+		List<Method> result = new ArrayList<>(methods.values());
+		result.sort(Comparator.comparing(Method::getName).thenComparingInt(Method::getParameterCount));
+		return result;
+	}
+
+	private void appendSignature(StringBuilder body, Method method) {
+		if (method.getTypeParameters().length > 0)
+			throw new IllegalStateException("Generic methods are not supported: " + method);
+		body.append("\tpublic ").append(typeName(method.getGenericReturnType())).append(' ').append(method.getName()).append('(');
+		Type[] parameterTypes = method.getGenericParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0)
+				body.append(", ");
+			body.append(typeName(parameterTypes[i])).append(' ').append(getParameterName(parameterTypes.length, i));
+		}
+		body.append(')');
+	}
+
+	/**
+	 * The parameters of an RPC message, which are computed the same way as in {@link org.eclipse.lsp4j.jsonrpc.services.EndpointProxy}.
+	 */
+	private String getParams(Method method) {
+		int count = method.getParameterCount();
+		if (count == 0)
+			return "null";
+		if (count == 1)
+			return getParameterName(count, 0);
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			names.add(getParameterName(count, i));
+		}
+		return typeName(Arrays.class) + ".asList(" + String.join(", ", names) + ")";
+	}
+
+	private String getParameterName(int count, int index) {
+		return count == 1 ? "params" : "arg" + index;
+	}
+
+	private String getDelegateFieldName(Method method) {
+		String name = method.getName();
+		if (name.length() > 3 && name.startsWith("get") && Character.isUpperCase(name.charAt(3)))
+			name = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+		// Avoid a clash with the field of the endpoint
+		return "delegate".equals(name) ? name + "Segment" : name;
+	}
+
+	private String typeName(Type type) {
+		if (type instanceof Class<?>) {
+			Class<?> clazz = (Class<?>) type;
+			if (clazz.isArray())
+				return typeName(clazz.getComponentType()) + "[]";
+			if (clazz.isPrimitive())
+				return clazz.getName();
+			if (clazz.getEnclosingClass() != null)
+				return typeName(clazz.getEnclosingClass()) + '.' + clazz.getSimpleName();
+			return importName(clazz);
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterizedType = (ParameterizedType) type;
+			return typeName(parameterizedType.getRawType()) + Arrays.stream(parameterizedType.getActualTypeArguments())
+					.map(this::typeName).collect(Collectors.joining(", ", "<", ">"));
+		}
+		if (type instanceof GenericArrayType)
+			return typeName(((GenericArrayType) type).getGenericComponentType()) + "[]";
+		if (type instanceof WildcardType) {
+			WildcardType wildcardType = (WildcardType) type;
+			if (wildcardType.getLowerBounds().length > 0)
+				return "? super " + typeName(wildcardType.getLowerBounds()[0]);
+			Type upperBound = wildcardType.getUpperBounds()[0];
+			return upperBound == Object.class ? "?" : "? extends " + typeName(upperBound);
+		}
+		throw new IllegalStateException("Unsupported type " + type.getTypeName() + " in " + interface_.getName());
+	}
+
+	/**
+	 * Import a top-level class unless its simple name is already taken by another class.
+	 */
+	private String importName(Class<?> clazz) {
+		String name = clazz.getSimpleName();
+		if (!imports.containsKey(name))
+			imports.put(name, clazz);
+		return imports.get(name) == clazz ? name : clazz.getName();
+	}
+
+	private void appendImports(StringBuilder result) {
+		Set<String> javaImports = new TreeSet<>();
+		Set<String> otherImports = new TreeSet<>();
+		for (Class<?> clazz : imports.values()) {
+			String classPackage = clazz != null && clazz.getPackage() != null ? clazz.getPackage().getName() : "";
+			if (clazz == null || classPackage.equals(packageName) || classPackage.equals("java.lang"))
+				continue;
+			(clazz.getName().startsWith("java.") ? javaImports : otherImports).add(clazz.getName());
+		}
+		for (String name : javaImports) {
+			result.append("import ").append(name).append(";\n");
+		}
+		if (!javaImports.isEmpty() && !otherImports.isEmpty())
+			result.append('\n');
+		for (String name : otherImports) {
+			result.append("import ").append(name).append(";\n");
+		}
+		if (!javaImports.isEmpty() || !otherImports.isEmpty())
+			result.append('\n');
+	}
+
+}
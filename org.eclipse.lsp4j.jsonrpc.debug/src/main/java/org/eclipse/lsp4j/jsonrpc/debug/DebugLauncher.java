@@ -22,11 +22,11 @@ import java.util.function.Function;
 import org.eclipse.lsp4j.jsonrpc.Endpoint;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.OutboundMessageQueue;
 import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
 import org.eclipse.lsp4j.jsonrpc.debug.json.DebugMessageJsonHandler;
 import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethod;
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
-import org.eclipse.lsp4j.jsonrpc.json.StreamMessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
 import org.eclipse.lsp4j.jsonrpc.validation.ReflectiveMessageValidator;
 
@@ -199,8 +199,7 @@ public final class DebugLauncher {
 	public static class Builder<T> extends Launcher.Builder<T> {
 		
 		@Override
-		protected MessageJsonHandler createJsonHandler() {
-			Map<String, JsonRpcMethod> supportedMethods = getSupportedMethods();
+		protected MessageJsonHandler createJsonHandler(Map<String, JsonRpcMethod> supportedMethods) {
 			if (configureGson != null)
 				return new DebugMessageJsonHandler(supportedMethods, configureGson);
 			else
@@ -209,14 +208,18 @@ public final class DebugLauncher {
 		
 		@Override
 		protected RemoteEndpoint createRemoteEndpoint(MessageJsonHandler jsonHandler) {
-			MessageConsumer outgoingMessageStream = new StreamMessageConsumer(output, jsonHandler);
-			outgoingMessageStream = wrapMessageConsumer(outgoingMessageStream);
+			MessageConsumer outgoingMessageStream = createMessageConsumer(jsonHandler);
+			MessageConsumer outboundQueue = createOutboundQueue(outgoingMessageStream);
+			outgoingMessageStream = wrapMessageConsumer(outboundQueue);
 			Endpoint localEndpoint = ServiceEndpoints.toEndpoint(localServices);
 			RemoteEndpoint remoteEndpoint;
 			if (exceptionHandler == null)
 				remoteEndpoint = new DebugRemoteEndpoint(outgoingMessageStream, localEndpoint);
 			else
 				remoteEndpoint = new DebugRemoteEndpoint(outgoingMessageStream, localEndpoint, exceptionHandler);
+			if (outboundQueue instanceof OutboundMessageQueue)
+				((OutboundMessageQueue) outboundQueue).setFailureHandler(remoteEndpoint::failPendingRequests);
+			configureRemoteEndpoint(remoteEndpoint);
 			jsonHandler.setMethodProvider(remoteEndpoint);
 			return remoteEndpoint;
 		}
@@ -13,15 +13,14 @@ package org.eclipse.lsp4j.jsonrpc.debug.adapters;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.Type;
 
 import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
 import org.eclipse.lsp4j.jsonrpc.debug.messages.DebugNotificationMessage;
 import org.eclipse.lsp4j.jsonrpc.debug.messages.DebugRequestMessage;
 import org.eclipse.lsp4j.jsonrpc.debug.messages.DebugResponseMessage;
-import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethod;
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
 import org.eclipse.lsp4j.jsonrpc.json.MethodProvider;
+import org.eclipse.lsp4j.jsonrpc.json.MethodTypeAdapters;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.MessageTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
@@ -258,7 +257,8 @@ public class DebugMessageTypeAdapter extends MessageTypeAdapter {
 			if ("request".equals(messageType) || "event".equals(messageType) || "response".equals(messageType)) {
 				// Create a message and bundle it to an exception with an issue that wraps the original exception
 				boolean success = rawSuccess != null ? rawSuccess : false;
-				Message resultMessage = createMessage(messageType, seq, request_seq, method, success, message, rawParams, rawBody);
+				Message resultMessage = createMessage(messageType, seq, request_seq, method, success, message,
+						toJsonElement(rawParams), toJsonElement(rawBody));
 				MessageIssue issue = new MessageIssue("Message could not be parsed.", ResponseErrorCode.ParseError.getValue(), exception);
 				throw new MessageIssueException(resultMessage, issue);
 			} else {
@@ -379,18 +379,9 @@ public class DebugMessageTypeAdapter extends MessageTypeAdapter {
 					if (methodProvider != null) {
 						String resolvedMethod = methodProvider.resolveMethod(Integer.toString(request_seq));
 						if (resolvedMethod != null) {
-							JsonRpcMethod jsonRpcMethod = handler.getJsonRpcMethod(resolvedMethod);
-							if (jsonRpcMethod != null) {
-								TypeAdapter<?> typeAdapter = null;
-								Type returnType = jsonRpcMethod.getReturnType();
-								if (jsonRpcMethod.getReturnTypeAdapterFactory() != null)
-									typeAdapter = jsonRpcMethod.getReturnTypeAdapterFactory().create(gson, TypeToken.get(returnType));
-								JsonElement jsonElement = (JsonElement) body;
-								if (typeAdapter != null)
-									body = typeAdapter.fromJsonTree(jsonElement);
-								else
-									body = gson.fromJson(jsonElement, returnType);
-							}
+							MethodTypeAdapters methodTypeAdapters = handler.getMethodTypeAdapters(resolvedMethod);
+							if (methodTypeAdapters != null)
+								body = fromJson((JsonElement) body, methodTypeAdapters.getResultAdapter());
 						}
 					}
 				}
@@ -417,7 +408,7 @@ public class DebugMessageTypeAdapter extends MessageTypeAdapter {
 			Object params = requestMessage.getParams();
 			if (params != null) {
 				out.name("arguments");		
-				gson.toJson(params, params.getClass(), out);
+				gson.toJson(params, getValueType(params), out);
 			}
 		} else if (message instanceof DebugResponseMessage) {
 			DebugResponseMessage responseMessage = (DebugResponseMessage) message;
@@ -451,7 +442,7 @@ public class DebugMessageTypeAdapter extends MessageTypeAdapter {
 				Object result = responseMessage.getResult();
 				if (result != null) {
 					out.name("body");
-					gson.toJson(result, result.getClass(), out);
+					gson.toJson(result, getValueType(result), out);
 				}
 			}
 		} else if (message instanceof DebugNotificationMessage) {
@@ -465,7 +456,7 @@ public class DebugMessageTypeAdapter extends MessageTypeAdapter {
 			Object params = notificationMessage.getParams();
 			if (params != null) {
 				out.name("body");
-				gson.toJson(params, params.getClass(), out);
+				gson.toJson(params, getValueType(params), out);
 			}
 		}
 
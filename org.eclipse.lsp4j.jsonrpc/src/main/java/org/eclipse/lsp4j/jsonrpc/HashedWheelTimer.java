@@ -0,0 +1,228 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A timer for a large number of timeouts that are usually cancelled before they expire, e.g. the timeouts of
+ * pending requests. Timeouts are sorted into the buckets of a wheel by their deadline, and a single thread advances
+ * the wheel in ticks of a fixed duration. Scheduling and cancelling a timeout takes constant time; the precision of
+ * deadlines is limited to the tick duration.
+ *
+ * <p>The thread is started when a timeout is scheduled and stops when all timeouts have expired or have been
+ * cancelled. Expired tasks are run on that thread, so they should complete quickly.</p>
+ */
+public class HashedWheelTimer {
+
+	private static final Logger LOG = Logger.getLogger(HashedWheelTimer.class.getName());
+
+	public static final long DEFAULT_TICK_MILLIS = 100;
+
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static class DefaultTimerHolder {
+		static final HashedWheelTimer INSTANCE = new HashedWheelTimer(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * The timer that is shared by all remote endpoints unless they are configured otherwise.
+	 */
+	public static HashedWheelTimer getDefault() {
+		return DefaultTimerHolder.INSTANCE;
+	}
+
+	/**
+	 * A task that has been scheduled with {@link HashedWheelTimer#schedule(Runnable, long, TimeUnit)}.
+	 */
+	public interface Timeout {
+
+		/**
+		 * Cancel the task.
+		 *
+		 * @return {@code true} if the task has been cancelled, {@code false} if it has already expired or been cancelled
+		 */
+		boolean cancel();
+
+		boolean isExpired();
+
+		boolean isCancelled();
+
+	}
+
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private static final class TimeoutEntry implements Timeout {
+
+		private static final AtomicIntegerFieldUpdater<TimeoutEntry> STATE =
+				AtomicIntegerFieldUpdater.newUpdater(TimeoutEntry.class, "state");
+
+		final long deadline;
+		volatile Runnable task;
+		volatile int state;
+		long remainingRounds;
+
+		TimeoutEntry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+				return false;
+			// Release the task before the entry is removed from the wheel
+			task = null;
+			return true;
+		}
+
+		void expire() {
+			if (!STATE.compareAndSet(this, PENDING, EXPIRED))
+				return;
+			Runnable runnable = task;
+			task = null;
+			try {
+				runnable.run();
+			} catch (Throwable throwable) {
+				LOG.log(Level.WARNING, "A timeout task threw an exception.", throwable);
+			}
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+	}
+
+	private final long tickNanos;
+	private final List<TimeoutEntry>[] wheel;
+	private final int mask;
+	private final ConcurrentLinkedQueue<TimeoutEntry> scheduled = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	// The following fields are only accessed by the timer thread
+	private long startTime;
+	private long tick;
+	private int entryCount;
+
+	/**
+	 * @param tickDuration - the duration of a tick, which is the precision of deadlines
+	 * @param unit - the unit of the tick duration
+	 * @param wheelSize - the number of buckets, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("The tick duration must be positive.");
+		if (wheelSize <= 0)
+			throw new IllegalArgumentException("The wheel size must be positive.");
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize)
+			size <<= 1;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = (List<TimeoutEntry>[]) new List<?>[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new ArrayList<>();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Run the given task on the timer thread after the given delay, unless it is cancelled before.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null)
+			throw new NullPointerException("task");
+		TimeoutEntry entry = new TimeoutEntry(task, System.nanoTime() + unit.toNanos(delay));
+		scheduled.add(entry);
+		if (running.compareAndSet(false, true))
+			startThread();
+		return entry;
+	}
+
+	protected void startThread() {
+		Thread thread = new Thread(this::run, "lsp4j-timer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void run() {
+		startTime = System.nanoTime();
+		tick = 0;
+		while (true) {
+			long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					// The timer thread is not supposed to be interrupted, keep the timeouts alive
+				}
+				continue;
+			}
+			transferScheduled();
+			expireBucket(wheel[(int) (tick & mask)]);
+			tick++;
+			if (entryCount == 0 && scheduled.isEmpty()) {
+				running.set(false);
+				// A timeout that has been scheduled meanwhile either sees the timer stopped or is seen here
+				if (scheduled.isEmpty() || !running.compareAndSet(false, true))
+					return;
+			}
+		}
+	}
+
+	private void transferScheduled() {
+		TimeoutEntry entry;
+		while ((entry = scheduled.poll()) != null) {
+			if (entry.isCancelled())
+				continue;
+			long deadlineTick = Math.max((entry.deadline - startTime) / tickNanos, tick);
+			entry.remainingRounds = (deadlineTick - tick) / wheel.length;
+			wheel[(int) (deadlineTick & mask)].add(entry);
+			entryCount++;
+		}
+	}
+
+	private void expireBucket(List<TimeoutEntry> bucket) {
+		int size = bucket.size();
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			TimeoutEntry entry = bucket.get(i);
+			if (entry.isCancelled()) {
+				entryCount--;
+			} else if (entry.remainingRounds <= 0) {
+				entryCount--;
+				entry.expire();
+			} else {
+				entry.remainingRounds--;
+				bucket.set(kept++, entry);
+			}
+		}
+		bucket.subList(kept, size).clear();
+	}
+
+}
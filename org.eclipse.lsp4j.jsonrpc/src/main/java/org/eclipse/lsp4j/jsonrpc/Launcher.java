@@ -14,23 +14,39 @@ package org.eclipse.lsp4j.jsonrpc;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import org.eclipse.lsp4j.jsonrpc.json.ChannelMessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.json.ChannelMessageProducer;
+import org.eclipse.lsp4j.jsonrpc.json.CoalescingMessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.json.ConcurrentMessageProcessor;
 import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethod;
 import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethodProvider;
+import org.eclipse.lsp4j.jsonrpc.json.JsonMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.MessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.MessageCompression;
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.SelectorEventLoop;
+import org.eclipse.lsp4j.jsonrpc.json.SelectorMessageProcessor;
+import org.eclipse.lsp4j.jsonrpc.json.SelectorMessageProducer;
 import org.eclipse.lsp4j.jsonrpc.json.StreamMessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.json.StreamMessageProducer;
 import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.services.EndpointProxy;
 import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
 import org.eclipse.lsp4j.jsonrpc.validation.ReflectiveMessageValidator;
 
@@ -229,13 +245,34 @@ public interface Launcher<T> {
 		protected Collection<Class<? extends T>> remoteInterfaces;
 		protected InputStream input;
 		protected OutputStream output;
+		protected ReadableByteChannel inputChannel;
+		protected WritableByteChannel outputChannel;
+		protected SelectorEventLoop selectorEventLoop;
 		protected ExecutorService executorService;
 		protected Function<MessageConsumer, MessageConsumer> messageWrapper;
 		protected Function<Throwable, ResponseError> exceptionHandler;
 		protected boolean validateMessages;
 		protected Consumer<GsonBuilder> configureGson;
+		protected Function<MessageJsonHandler, ? extends JsonMessageCodec> messageCodec;
+		protected Function<MessageJsonHandler, ? extends MessageCodec> binaryCodec;
+		protected int compressionThreshold = -1;
 		protected ClassLoader classLoader;
 		protected MessageTracer messageTracer;
+		protected boolean bufferedFraming;
+		protected boolean coalescingOutput;
+		protected long maxFlushDelay;
+		protected Executor writerExecutor;
+		protected int maxInMemoryMessageSize = Integer.MAX_VALUE;
+		protected int maxMessageSize = Integer.MAX_VALUE;
+		protected int outboundQueueCapacity;
+		protected boolean lazyParams;
+		protected Consumer<OutboundMessageQueue> configureOutboundQueue;
+		protected ProtocolDefinition protocolDefinition;
+		protected Executor parseExecutor;
+		protected long requestTimeout;
+		protected Map<String, Long> methodRequestTimeouts;
+		protected boolean dispatchRequests;
+		protected Consumer<RequestDispatcher> configureRequestDispatcher;
 		
 		public Builder<T> setLocalService(Object localService) {
 			this.localServices = Collections.singletonList(localService);
@@ -267,6 +304,34 @@ public interface Launcher<T> {
 			return this;
 		}
 
+		/**
+		 * Read incoming messages from a channel in blocking mode instead of an input stream.
+		 */
+		public Builder<T> setInputChannel(ReadableByteChannel inputChannel) {
+			this.inputChannel = inputChannel;
+			return this;
+		}
+
+		/**
+		 * Write outgoing messages to a channel instead of an output stream.
+		 */
+		public Builder<T> setOutputChannel(WritableByteChannel outputChannel) {
+			this.outputChannel = outputChannel;
+			return this;
+		}
+
+		/**
+		 * Read incoming messages from the input channel with the given event loop instead of a dedicated
+		 * thread. The input channel must be a {@link SelectableChannel}, e.g. a socket channel. The event loop
+		 * can be shared by many launchers. If the output channel is the same channel, outgoing messages are
+		 * written through the event loop, which blocks the sender only while more than
+		 * {@link SelectorEventLoop#getMaxPendingBytes()} are waiting for the peer.
+		 */
+		public Builder<T> setSelectorEventLoop(SelectorEventLoop selectorEventLoop) {
+			this.selectorEventLoop = selectorEventLoop;
+			return this;
+		}
+
 		public Builder<T> setExecutorService(ExecutorService executorService) {
 			this.executorService = executorService;
 			return this;
@@ -304,15 +369,208 @@ public interface Launcher<T> {
 			return this;
 		}
 
+		/**
+		 * Parse and serialize messages with a custom {@link JsonMessageCodec} instead of the default Gson-based one.
+		 * The given function is applied to the JSON handler created by {@link #createJsonHandler()}.
+		 */
+		public Builder<T> setMessageCodec(Function<MessageJsonHandler, ? extends JsonMessageCodec> messageCodec) {
+			this.messageCodec = messageCodec;
+			return this;
+		}
+
+		/**
+		 * Enable a binary wire format that is used once the remote endpoint has advertised support for it,
+		 * e.g. {@code handler -> new CborMessageCodec(handler.getGson())}.
+		 * See {@link MessageJsonHandler#setBinaryCodec(MessageCodec)}.
+		 */
+		public Builder<T> setBinaryCodec(Function<MessageJsonHandler, ? extends MessageCodec> binaryCodec) {
+			this.binaryCodec = binaryCodec;
+			return this;
+		}
+
+		/**
+		 * Compress outgoing messages whose content is at least as large as the given threshold, provided that
+		 * the remote endpoint supports compression. A negative threshold disables compression, which is the default.
+		 * See {@link MessageCompression}.
+		 */
+		public Builder<T> setCompressionThreshold(int compressionThreshold) {
+			this.compressionThreshold = compressionThreshold;
+			return this;
+		}
+
+		/**
+		 * Read incoming messages through a reusable buffer and scan their headers without creating strings.
+		 * See {@link StreamMessageProducer#setBufferedFraming(boolean)}.
+		 */
+		public Builder<T> setBufferedFraming(boolean bufferedFraming) {
+			this.bufferedFraming = bufferedFraming;
+			return this;
+		}
+
+		/**
+		 * Queue outgoing messages and write them in batches from a separate writer task, flushing the output
+		 * stream once per batch. See {@link CoalescingMessageConsumer}.
+		 */
+		public Builder<T> setCoalescingOutput(boolean coalescingOutput) {
+			this.coalescingOutput = coalescingOutput;
+			return this;
+		}
+
+		/**
+		 * The maximum time in milliseconds that an outgoing message may wait for further messages to be
+		 * written in the same batch. This only applies if coalescing output is enabled.
+		 */
+		public Builder<T> setMaxFlushDelay(long maxFlushDelay) {
+			this.maxFlushDelay = maxFlushDelay;
+			return this;
+		}
+
+		/**
+		 * Run the writer task of {@link #setCoalescingOutput(boolean) coalescing output} and the delivery task of the
+		 * {@link #setOutboundQueueCapacity(int) outbound queue} on the given executor. By default each of them has its
+		 * own daemon thread. The executor service of this builder is not used for them, since that runs the loop that
+		 * reads incoming messages and may have a single thread only.
+		 */
+		public Builder<T> setWriterExecutor(Executor writerExecutor) {
+			this.writerExecutor = writerExecutor;
+			return this;
+		}
+
+		/**
+		 * Incoming messages with a larger content length are buffered in a temporary file instead of the heap.
+		 * See {@link StreamMessageProducer#setMaxInMemoryMessageSize(int)}.
+		 */
+		public Builder<T> setMaxInMemoryMessageSize(int maxInMemoryMessageSize) {
+			this.maxInMemoryMessageSize = maxInMemoryMessageSize;
+			return this;
+		}
+
+		/**
+		 * Parse incoming messages in parallel with the given executor. The messages are still processed in the
+		 * order in which they have been received. This only applies to input streams.
+		 * See {@link StreamMessageProducer#setParseExecutor(Executor)}.
+		 */
+		public Builder<T> setParseExecutor(Executor parseExecutor) {
+			this.parseExecutor = parseExecutor;
+			return this;
+		}
+
+		/**
+		 * Cancel sent requests that have not received a response within the given timeout.
+		 * See {@link RemoteEndpoint#setDefaultRequestTimeout(long, TimeUnit)}.
+		 */
+		public Builder<T> setRequestTimeout(long timeout, TimeUnit unit) {
+			this.requestTimeout = unit.toMillis(timeout);
+			return this;
+		}
+
+		/**
+		 * Cancel sent requests with the given method that have not received a response within the given timeout.
+		 * See {@link RemoteEndpoint#setRequestTimeout(String, long, TimeUnit)}.
+		 */
+		public Builder<T> setRequestTimeout(String method, long timeout, TimeUnit unit) {
+			if (methodRequestTimeouts == null)
+				methodRequestTimeouts = new LinkedHashMap<>();
+			methodRequestTimeouts.put(method, unit.toMillis(timeout));
+			return this;
+		}
+
+		/**
+		 * Handle incoming requests in the lanes of a {@link RequestDispatcher} instead of the thread that reads
+		 * incoming messages. Each lane runs on its own daemon threads; the executor service of this builder is not
+		 * used, since it runs the read loop and may have a single thread only. A different executor can be set for
+		 * a lane with {@link #configureRequestDispatcher(Consumer)}.
+		 */
+		public Builder<T> setDispatchRequests(boolean dispatchRequests) {
+			this.dispatchRequests = dispatchRequests;
+			return this;
+		}
+
+		/**
+		 * Configure the lanes of the request dispatcher, e.g. with
+		 * {@link RequestDispatcher#setLane(String, RequestDispatcher.Lane)}. This is applied after the default lanes
+		 * of the protocol and enables {@link #setDispatchRequests(boolean) request dispatching}.
+		 */
+		public Builder<T> configureRequestDispatcher(Consumer<RequestDispatcher> configureRequestDispatcher) {
+			this.configureRequestDispatcher = configureRequestDispatcher;
+			return this;
+		}
+
+		/**
+		 * Incoming messages with a larger content length are rejected without being parsed.
+		 * See {@link StreamMessageProducer#setMaxMessageSize(int)}.
+		 */
+		public Builder<T> setMaxMessageSize(int maxMessageSize) {
+			this.maxMessageSize = maxMessageSize;
+			return this;
+		}
+
+		/**
+		 * Parse the parameters of incoming requests and notifications when they are dispatched to a handler
+		 * method instead of when the message is read. See {@link MessageJsonHandler#setLazyParams(boolean)}.
+		 */
+		public Builder<T> setLazyParams(boolean lazyParams) {
+			this.lazyParams = lazyParams;
+			return this;
+		}
+
+		/**
+		 * Buffer outgoing messages in an {@link OutboundMessageQueue} with the given capacity, so that threads
+		 * sending messages are not blocked by a slow connection. A capacity of {@code 0} disables the queue.
+		 */
+		public Builder<T> setOutboundQueueCapacity(int outboundQueueCapacity) {
+			this.outboundQueueCapacity = outboundQueueCapacity;
+			return this;
+		}
+
+		/**
+		 * Configure the overflow policies of the outbound queue. This only applies if an outbound queue
+		 * capacity is set.
+		 */
+		public Builder<T> configureOutboundQueue(Consumer<OutboundMessageQueue> configureOutboundQueue) {
+			this.configureOutboundQueue = configureOutboundQueue;
+			return this;
+		}
+
+		/**
+		 * Use the supported methods, type adapters and remote proxy metadata of a protocol definition instead of
+		 * computing them for this launcher. The remote interfaces and the Gson configuration of this builder are
+		 * not used in that case. The local services must implement the same JSON-RPC methods as the services
+		 * the definition has been created with.
+		 */
+		public Builder<T> setProtocolDefinition(ProtocolDefinition protocolDefinition) {
+			this.protocolDefinition = protocolDefinition;
+			return this;
+		}
+
+		/**
+		 * Create a protocol definition from the local services, remote interfaces and Gson configuration of this
+		 * builder. The definition can be shared by builders for connections of the same protocol, see
+		 * {@link #setProtocolDefinition(ProtocolDefinition)}.
+		 */
+		@SuppressWarnings("unchecked")
+		public ProtocolDefinition createProtocolDefinition() {
+			if (localServices == null)
+				throw new IllegalStateException("Local service must be configured.");
+			if (remoteInterfaces == null)
+				throw new IllegalStateException("Remote interface must be configured.");
+			MessageJsonHandler jsonHandler = createJsonHandler(getSupportedMethods());
+			// Use the same class loader as createProxy
+			ClassLoader proxyClassLoader = localServices.size() == 1 && remoteInterfaces.size() == 1 ? null : classLoader;
+			EndpointProxy.MethodTable remoteMethods = new EndpointProxy.MethodTable(
+					(Collection<Class<?>>) (Object) remoteInterfaces, proxyClassLoader);
+			return new ProtocolDefinition(jsonHandler, remoteMethods);
+		}
+
 		public Launcher<T> create() {
 			// Validate input
-			if (input == null)
-				throw new IllegalStateException("Input stream must be configured.");
-			if (output == null)
-				throw new IllegalStateException("Output stream must be configured.");
+			if (input == null && inputChannel == null)
+				throw new IllegalStateException("Input stream or channel must be configured.");
+			if (output == null && outputChannel == null)
+				throw new IllegalStateException("Output stream or channel must be configured.");
 			if (localServices == null)
 				throw new IllegalStateException("Local service must be configured.");
-			if (remoteInterfaces == null)
+			if (remoteInterfaces == null && protocolDefinition == null)
 				throw new IllegalStateException("Remote interface must be configured.");
 			
 			// Create the JSON handler, remote endpoint and remote proxy
@@ -321,9 +579,12 @@ public interface Launcher<T> {
 			T remoteProxy = createProxy(remoteEndpoint);
 			
 			// Create the message processor
-			StreamMessageProducer reader = new StreamMessageProducer(input, jsonHandler, remoteEndpoint);
+			MessageProducer reader = createMessageProducer(jsonHandler, remoteEndpoint);
 			MessageConsumer messageConsumer = wrapMessageConsumer(remoteEndpoint);
 			ConcurrentMessageProcessor msgProcessor = createMessageProcessor(reader, messageConsumer, remoteProxy);
+			MessageCompression compression = jsonHandler.getCompression();
+			if (compression != null)
+				msgProcessor.addProcessingEndedListener(compression::dispose);
 			ExecutorService execService = executorService != null ? executorService : Executors.newCachedThreadPool();
 			return createLauncher(execService, remoteProxy, remoteEndpoint, msgProcessor);
 		}
@@ -332,35 +593,152 @@ public interface Launcher<T> {
 		 * Create the JSON handler for messages between the local and remote services.
 		 */
 		protected MessageJsonHandler createJsonHandler() {
-			Map<String, JsonRpcMethod> supportedMethods = getSupportedMethods();
+			MessageJsonHandler jsonHandler;
+			if (protocolDefinition != null)
+				jsonHandler = protocolDefinition.createJsonHandler();
+			else
+				jsonHandler = createJsonHandler(getSupportedMethods());
+			if (messageCodec != null)
+				jsonHandler.setCodec(messageCodec.apply(jsonHandler));
+			if (binaryCodec != null)
+				jsonHandler.setBinaryCodec(binaryCodec.apply(jsonHandler));
+			if (compressionThreshold >= 0)
+				jsonHandler.setCompression(new MessageCompression(compressionThreshold));
+			jsonHandler.setLazyParams(lazyParams);
+			return jsonHandler;
+		}
+		
+		/**
+		 * Create a JSON handler for the given methods with the Gson configuration of this builder. Settings
+		 * that belong to a connection are applied by {@link #createJsonHandler()}.
+		 */
+		protected MessageJsonHandler createJsonHandler(Map<String, JsonRpcMethod> supportedMethods) {
 			if (configureGson != null)
 				return new MessageJsonHandler(supportedMethods, configureGson);
 			else
 				return new MessageJsonHandler(supportedMethods);
 		}
 		
+		/**
+		 * Create the message producer that reads incoming messages from the input stream or channel.
+		 */
+		protected MessageProducer createMessageProducer(MessageJsonHandler jsonHandler, MessageIssueHandler issueHandler) {
+			if (inputChannel != null && selectorEventLoop != null) {
+				if (!(inputChannel instanceof SelectableChannel))
+					throw new IllegalStateException("Input channel must be selectable in order to use an event loop.");
+				SelectorMessageProducer reader = new SelectorMessageProducer((SelectableChannel) inputChannel, selectorEventLoop, jsonHandler, issueHandler);
+				reader.setMaxInMemoryMessageSize(maxInMemoryMessageSize);
+				reader.setMaxMessageSize(maxMessageSize);
+				return reader;
+			}
+			if (inputChannel != null) {
+				ChannelMessageProducer reader = new ChannelMessageProducer(inputChannel, jsonHandler, issueHandler);
+				reader.setMaxInMemoryMessageSize(maxInMemoryMessageSize);
+				reader.setMaxMessageSize(maxMessageSize);
+				return reader;
+			}
+			StreamMessageProducer reader = new StreamMessageProducer(input, jsonHandler, issueHandler);
+			reader.setBufferedFraming(bufferedFraming);
+			reader.setMaxInMemoryMessageSize(maxInMemoryMessageSize);
+			reader.setMaxMessageSize(maxMessageSize);
+			reader.setParseExecutor(parseExecutor);
+			return reader;
+		}
+		
+		/**
+		 * Create the message consumer that writes outgoing messages to the output stream or channel.
+		 */
+		protected MessageConsumer createMessageConsumer(MessageJsonHandler jsonHandler) {
+			if (outputChannel != null) {
+				ChannelMessageConsumer consumer = new ChannelMessageConsumer(outputChannel, jsonHandler);
+				if (selectorEventLoop != null && outputChannel == inputChannel)
+					consumer.setSelectorEventLoop(selectorEventLoop);
+				return consumer;
+			}
+			if (coalescingOutput)
+				return new CoalescingMessageConsumer(output, StandardCharsets.UTF_8.name(), jsonHandler, writerExecutor, maxFlushDelay);
+			return new StreamMessageConsumer(output, jsonHandler);
+		}
+		
+		/**
+		 * Wrap the consumer of outgoing messages in an {@link OutboundMessageQueue} if a capacity is configured.
+		 */
+		protected MessageConsumer createOutboundQueue(MessageConsumer consumer) {
+			if (outboundQueueCapacity <= 0)
+				return consumer;
+			OutboundMessageQueue queue = new OutboundMessageQueue(consumer, outboundQueueCapacity, writerExecutor);
+			setDefaultOverflowPolicies(queue);
+			if (configureOutboundQueue != null)
+				configureOutboundQueue.accept(queue);
+			return queue;
+		}
+		
+		/**
+		 * Set the overflow policies of a protocol before the configuration given to
+		 * {@link #configureOutboundQueue(Consumer)} is applied. This implementation does nothing.
+		 */
+		protected void setDefaultOverflowPolicies(OutboundMessageQueue queue) {
+		}
+		
 		/**
 		 * Create the remote endpoint that communicates with the local services.
 		 */
 		protected RemoteEndpoint createRemoteEndpoint(MessageJsonHandler jsonHandler) {
-			MessageConsumer outgoingMessageStream = new StreamMessageConsumer(output, jsonHandler);
-			outgoingMessageStream = wrapMessageConsumer(outgoingMessageStream);
+			MessageConsumer outgoingMessageStream = createMessageConsumer(jsonHandler);
+			MessageConsumer outboundQueue = createOutboundQueue(outgoingMessageStream);
+			outgoingMessageStream = wrapMessageConsumer(outboundQueue);
 			Endpoint localEndpoint = ServiceEndpoints.toEndpoint(localServices);
 			RemoteEndpoint remoteEndpoint;
 			if (exceptionHandler == null)
 				remoteEndpoint = new RemoteEndpoint(outgoingMessageStream, localEndpoint);
 			else
 				remoteEndpoint = new RemoteEndpoint(outgoingMessageStream, localEndpoint, exceptionHandler);
+			if (outboundQueue instanceof OutboundMessageQueue)
+				((OutboundMessageQueue) outboundQueue).setFailureHandler(remoteEndpoint::failPendingRequests);
+			configureRemoteEndpoint(remoteEndpoint);
 			jsonHandler.setMethodProvider(remoteEndpoint);
 			return remoteEndpoint;
 		}
 		
+		/**
+		 * Apply the request timeouts and the request dispatcher to the remote endpoint.
+		 */
+		protected void configureRemoteEndpoint(RemoteEndpoint remoteEndpoint) {
+			if (requestTimeout > 0)
+				remoteEndpoint.setDefaultRequestTimeout(requestTimeout, TimeUnit.MILLISECONDS);
+			if (methodRequestTimeouts != null)
+				methodRequestTimeouts.forEach((method, timeout) -> remoteEndpoint.setRequestTimeout(method, timeout, TimeUnit.MILLISECONDS));
+			if (dispatchRequests || configureRequestDispatcher != null)
+				remoteEndpoint.setRequestDispatcher(createRequestDispatcher());
+		}
+		
+		/**
+		 * Create the dispatcher for incoming requests.
+		 */
+		protected RequestDispatcher createRequestDispatcher() {
+			RequestDispatcher dispatcher = new RequestDispatcher();
+			setDefaultLanes(dispatcher);
+			if (configureRequestDispatcher != null)
+				configureRequestDispatcher.accept(dispatcher);
+			return dispatcher;
+		}
+		
+		/**
+		 * Assign the methods of the protocol to the lanes of the request dispatcher before
+		 * {@link #configureRequestDispatcher(Consumer)} is applied. This implementation does nothing,
+		 * so all requests use the default lane.
+		 */
+		protected void setDefaultLanes(RequestDispatcher dispatcher) {
+		}
+		
 		/**
 		 * Create the proxy for calling methods on the remote service.
 		 */
 		@SuppressWarnings("unchecked")
 		protected T createProxy(RemoteEndpoint remoteEndpoint) {
-			if (localServices.size() == 1 && remoteInterfaces.size() == 1) {
+			if (protocolDefinition != null) {
+				return (T) protocolDefinition.createRemoteProxy(remoteEndpoint);
+			} else if (localServices.size() == 1 && remoteInterfaces.size() == 1) {
 				return ServiceEndpoints.toServiceObject(remoteEndpoint, remoteInterfaces.iterator().next());
 			} else {
 				return (T) ServiceEndpoints.toServiceObject(remoteEndpoint, (Collection<Class<?>>) (Object) remoteInterfaces, classLoader);
@@ -372,6 +750,8 @@ public interface Launcher<T> {
 		 */
 		protected ConcurrentMessageProcessor createMessageProcessor(MessageProducer reader, 
 				MessageConsumer messageConsumer, T remoteProxy) {
+			if (reader instanceof SelectorMessageProducer)
+				return new SelectorMessageProcessor((SelectorMessageProducer) reader, messageConsumer);
 			return new ConcurrentMessageProcessor(reader, messageConsumer);
 		}
 		
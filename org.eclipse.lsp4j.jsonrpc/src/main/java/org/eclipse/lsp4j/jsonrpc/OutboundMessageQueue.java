@@ -0,0 +1,373 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+
+/**
+ * A bounded buffer between a {@link RemoteEndpoint} and the message consumer that writes outgoing messages.
+ * Messages are delivered to the wrapped consumer in the order they were sent by a separate task, so
+ * threads that send messages are not blocked by a slow connection unless the buffer is full.
+ *
+ * <p>What happens when the buffer is full can be configured per method with an {@link OverflowPolicy}.
+ * Responses, requests and {@code $/cancelRequest} notifications are never dropped; when the buffer is
+ * full, sending them blocks until there is space again.</p>
+ *
+ * <p>If the wrapped consumer fails to deliver a message, the queue enters a failed state: pending messages
+ * are discarded, the failure handler is notified, and all subsequent messages are rejected with a
+ * {@link JsonRpcException}.</p>
+ */
+public class OutboundMessageQueue implements MessageConsumer {
+
+	private static final Logger LOG = Logger.getLogger(OutboundMessageQueue.class.getName());
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Determines how a notification is handled when the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait until there is space in the queue. This is the default for all messages.
+		 */
+		BLOCK,
+		/**
+		 * Drop the oldest pending notification with the same method, or the new notification if there is none.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Replace a pending notification with the same method and key, which is computed from the
+		 * parameters with the function given to {@link OutboundMessageQueue#setReplaceKey(String, Function)}.
+		 * Pending notifications are replaced even if the queue is not full; the new notification is
+		 * appended to the end of the queue. If no notification is replaced, the queue blocks when it is full.
+		 */
+		REPLACE_PENDING
+	}
+
+	private final MessageConsumer delegate;
+	private final int capacity;
+	private final Executor executor;
+
+	private final Map<String, OverflowPolicy> policies = new ConcurrentHashMap<>();
+	private final Map<String, Function<Object, Object>> replaceKeys = new ConcurrentHashMap<>();
+	private volatile Consumer<Throwable> failureHandler;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Map<Object, Node> pendingByKey = new HashMap<>();
+	private Node head;
+	private Node tail;
+	private int size;
+	private long droppedCount;
+	private boolean delivering;
+	private Throwable failure;
+
+	public OutboundMessageQueue(MessageConsumer delegate) {
+		this(delegate, DEFAULT_CAPACITY, null);
+	}
+
+	/**
+	 * @param capacity - the maximum number of pending messages
+	 * @param executor - runs the task that delivers messages, or {@code null} to use a dedicated daemon thread
+	 */
+	public OutboundMessageQueue(MessageConsumer delegate, int capacity, Executor executor) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive.");
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.executor = executor != null ? executor : createDefaultExecutor();
+	}
+
+	private static Executor createDefaultExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "lsp4j-outbound-queue");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Set the overflow policy for notifications with the given method. Use {@link #setReplaceKey(String, Function)}
+	 * for the {@link OverflowPolicy#REPLACE_PENDING} policy.
+	 */
+	public OutboundMessageQueue setOverflowPolicy(String method, OverflowPolicy policy) {
+		if (policy == OverflowPolicy.REPLACE_PENDING)
+			throw new IllegalArgumentException("Use setReplaceKey to replace pending notifications.");
+		checkMethod(method);
+		policies.put(method, policy);
+		replaceKeys.remove(method);
+		return this;
+	}
+
+	/**
+	 * Replace pending notifications with the given method if their parameters yield the same key.
+	 * Notifications whose key is {@code null} are never replaced.
+	 */
+	public OutboundMessageQueue setReplaceKey(String method, Function<Object, Object> keyFunction) {
+		checkMethod(method);
+		replaceKeys.put(method, keyFunction);
+		policies.put(method, OverflowPolicy.REPLACE_PENDING);
+		return this;
+	}
+
+	private void checkMethod(String method) {
+		if (MessageJsonHandler.CANCEL_METHOD.getMethodName().equals(method))
+			throw new IllegalArgumentException("Cancel notifications must not be dropped.");
+	}
+
+	public OverflowPolicy getOverflowPolicy(String method) {
+		return policies.getOrDefault(method, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * Set a handler that is notified when a message cannot be delivered, e.g. {@link RemoteEndpoint#failPendingRequests(Throwable)}
+	 * in order to complete the requests that will not receive a response.
+	 */
+	public OutboundMessageQueue setFailureHandler(Consumer<Throwable> failureHandler) {
+		this.failureHandler = failureHandler;
+		return this;
+	}
+
+	/**
+	 * The exception that was thrown when a message could not be delivered, or {@code null} if all messages
+	 * have been delivered so far.
+	 */
+	public Throwable getFailure() {
+		lock.lock();
+		try {
+			return failure;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of messages that have not been delivered yet.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of notifications that have been dropped or replaced.
+	 */
+	public long getDroppedCount() {
+		lock.lock();
+		try {
+			return droppedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void consume(Message message) throws MessageIssueException, JsonRpcException {
+		OverflowPolicy policy = OverflowPolicy.BLOCK;
+		String method = null;
+		Object replaceKey = null;
+		if (message instanceof NotificationMessage) {
+			NotificationMessage notification = (NotificationMessage) message;
+			method = notification.getMethod();
+			policy = getOverflowPolicy(method);
+			if (policy == OverflowPolicy.REPLACE_PENDING) {
+				Function<Object, Object> keyFunction = replaceKeys.get(method);
+				Object key = keyFunction != null ? keyFunction.apply(notification.getParams()) : null;
+				if (key != null)
+					replaceKey = Arrays.asList(method, key);
+			}
+		}
+		boolean startDelivery = false;
+		lock.lock();
+		try {
+			if (failure != null)
+				throw new JsonRpcException(failure);
+			if (replaceKey != null) {
+				Node pending = pendingByKey.remove(replaceKey);
+				if (pending != null) {
+					unlink(pending);
+					droppedCount++;
+				}
+			}
+			while (size >= capacity) {
+				if (policy == OverflowPolicy.DROP_OLDEST) {
+					Node oldest = findPending(method);
+					if (oldest == null) {
+						// Nothing to drop in favor of the new notification
+						droppedCount++;
+						return;
+					}
+					unlink(oldest);
+					if (oldest.replaceKey != null)
+						pendingByKey.remove(oldest.replaceKey, oldest);
+					droppedCount++;
+				} else {
+					notFull.await();
+					if (failure != null)
+						throw new JsonRpcException(failure);
+				}
+			}
+			Node node = new Node(message, method, replaceKey);
+			link(node);
+			if (replaceKey != null)
+				pendingByKey.put(replaceKey, node);
+			if (!delivering) {
+				delivering = true;
+				startDelivery = true;
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new JsonRpcException(new InterruptedIOException("Interrupted while waiting for space in the outbound queue."));
+		} finally {
+			lock.unlock();
+		}
+		if (startDelivery)
+			scheduleDelivery();
+	}
+
+	private void scheduleDelivery() {
+		try {
+			executor.execute(this::deliverMessages);
+		} catch (RuntimeException exception) {
+			lock.lock();
+			try {
+				delivering = false;
+			} finally {
+				lock.unlock();
+			}
+			throw exception;
+		}
+	}
+
+	/**
+	 * Pass pending messages to the wrapped consumer until the queue is empty.
+	 */
+	protected void deliverMessages() {
+		while (true) {
+			Message message;
+			lock.lock();
+			try {
+				Node node = head;
+				if (node == null) {
+					delivering = false;
+					return;
+				}
+				unlink(node);
+				if (node.replaceKey != null)
+					pendingByKey.remove(node.replaceKey, node);
+				notFull.signalAll();
+				message = node.message;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				delegate.consume(message);
+			} catch (Exception exception) {
+				Level logLevel = JsonRpcException.indicatesStreamClosed(exception) ? Level.INFO : Level.SEVERE;
+				LOG.log(logLevel, "Failed to send message: " + exception.getMessage(), exception);
+				fail(exception);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Discard all pending messages and reject subsequent messages after a delivery failure.
+	 */
+	private void fail(Throwable cause) {
+		lock.lock();
+		try {
+			failure = cause;
+			head = tail = null;
+			size = 0;
+			pendingByKey.clear();
+			delivering = false;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		Consumer<Throwable> handler = failureHandler;
+		if (handler != null)
+			handler.accept(cause);
+	}
+
+	private Node findPending(String method) {
+		for (Node node = head; node != null; node = node.next) {
+			if (method.equals(node.method))
+				return node;
+		}
+		return null;
+	}
+
+	private void link(Node node) {
+		if (tail == null) {
+			head = tail = node;
+		} else {
+			node.previous = tail;
+			tail.next = node;
+			tail = node;
+		}
+		size++;
+	}
+
+	private void unlink(Node node) {
+		if (node.previous == null)
+			head = node.next;
+		else
+			node.previous.next = node.next;
+		if (node.next == null)
+			tail = node.previous;
+		else
+			node.next.previous = node.previous;
+		node.previous = node.next = null;
+		size--;
+	}
+
+	private static class Node {
+		final Message message;
+		final String method;
+		final Object replaceKey;
+		Node previous;
+		Node next;
+
+		Node(Message message, String method, Object replaceKey) {
+			this.message = message;
+			this.method = method;
+			this.replaceKey = replaceKey;
+		}
+	}
+
+}
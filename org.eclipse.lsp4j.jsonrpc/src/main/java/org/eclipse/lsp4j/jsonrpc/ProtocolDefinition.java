@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc;
+
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.services.EndpointProxy;
+
+/**
+ * The immutable parts of a protocol that can be shared by all connections: the supported JSON-RPC methods,
+ * the Gson type adapters and the method table of the remote proxy. Computing these requires reflection over
+ * the service interfaces, so a server that opens many connections for the same services should create a
+ * protocol definition once with {@link Launcher.Builder#createProtocolDefinition()} and pass it to the builder
+ * of each connection with {@link Launcher.Builder#setProtocolDefinition(ProtocolDefinition)}.
+ */
+public class ProtocolDefinition {
+
+	private final MessageJsonHandler jsonHandler;
+	private final EndpointProxy.MethodTable remoteMethods;
+
+	/**
+	 * @param jsonHandler - the prototype of the JSON handlers of all connections, see {@link MessageJsonHandler#newInstance()}
+	 * @param remoteMethods - the method table of the remote proxies
+	 */
+	public ProtocolDefinition(MessageJsonHandler jsonHandler, EndpointProxy.MethodTable remoteMethods) {
+		if (jsonHandler == null)
+			throw new NullPointerException("jsonHandler");
+		if (remoteMethods == null)
+			throw new NullPointerException("remoteMethods");
+		this.jsonHandler = jsonHandler;
+		this.remoteMethods = remoteMethods;
+	}
+
+	/**
+	 * Create the JSON handler for a new connection.
+	 */
+	public MessageJsonHandler createJsonHandler() {
+		return jsonHandler.newInstance();
+	}
+
+	/**
+	 * Create the proxy for calling methods on the remote service of a connection.
+	 */
+	public Object createRemoteProxy(Endpoint remoteEndpoint) {
+		return remoteMethods.createProxy(remoteEndpoint);
+	}
+
+}
@@ -14,13 +14,19 @@ package org.eclipse.lsp4j.jsonrpc;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -76,19 +82,45 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 	private final Function<Throwable, ResponseError> exceptionHandler;
 	
 	private final AtomicInteger nextRequestId = new AtomicInteger();
-	private final Map<String, PendingRequestInfo> sentRequestMap = new LinkedHashMap<>();
-	private final Map<String, CompletableFuture<?>> receivedRequestMap = new LinkedHashMap<>();
+	private final RequestIdMap<PendingRequestInfo> sentRequestMap = new RequestIdMap<>();
+	private final RequestIdMap<CompletableFuture<?>> receivedRequestMap = new RequestIdMap<>();
+	
+	private HashedWheelTimer timer = HashedWheelTimer.getDefault();
+	private Executor timeoutExecutor = DefaultTimeoutExecutorHolder.INSTANCE;
+	private long defaultRequestTimeout;
+	private final Map<String, Long> requestTimeouts = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> timedOutRequests = new ConcurrentHashMap<>();
+	private RequestDispatcher requestDispatcher;
+	
+	private static class DefaultTimeoutExecutorHolder {
+		static final Executor INSTANCE = createDefaultTimeoutExecutor();
+	}
+	
+	private static Executor createDefaultTimeoutExecutor() {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "lsp4j-request-timeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
 	
 	/**
 	 * Information about requests that have been sent and for which no response has been received yet.
 	 */
 	private static class PendingRequestInfo {
-		PendingRequestInfo(RequestMessage requestMessage2, CompletableFuture<Object> future2) {
+		PendingRequestInfo(RequestMessage requestMessage2, CompletableFuture<Object> future2, HashedWheelTimer.Timeout timeout2) {
 			this.requestMessage = requestMessage2;
 			this.future = future2;
+			this.timeout = timeout2;
 		}
 		RequestMessage requestMessage;
 		CompletableFuture<Object> future;
+		volatile HashedWheelTimer.Timeout timeout;
+		
+		void cancelTimeout() {
+			if (timeout != null)
+				timeout.cancel();
+		}
 	}
 	
 	/**
@@ -115,6 +147,87 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 	public RemoteEndpoint(MessageConsumer out, Endpoint localEndpoint) {
 		this(out, localEndpoint, DEFAULT_EXCEPTION_HANDLER);
 	}
+	
+	/**
+	 * Set the timeout of sent requests for which no other timeout has been set with
+	 * {@link #setRequestTimeout(String, long, TimeUnit)}. A request that has not received a response within its
+	 * timeout is cancelled: its future completes with a {@link TimeoutException}, a cancel notification is sent
+	 * to the remote endpoint, and a late response is ignored. A timeout of zero disables this, which is the default.
+	 * 
+	 * <p>A request that is cancelled locally remains pending until the remote endpoint replies or its timeout
+	 * expires, so the reply to a cancelled request is dropped silently.</p>
+	 */
+	public void setDefaultRequestTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("The timeout must not be negative.");
+		this.defaultRequestTimeout = unit.toMillis(timeout);
+	}
+	
+	/**
+	 * Set the timeout of sent requests with the given method, see {@link #setDefaultRequestTimeout(long, TimeUnit)}.
+	 * A timeout of zero disables timeouts for the method even if a default timeout is set.
+	 */
+	public void setRequestTimeout(String method, long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("The timeout must not be negative.");
+		requestTimeouts.put(method, unit.toMillis(timeout));
+	}
+	
+	/**
+	 * Set the timer that expires requests. By default a timer is shared by all remote endpoints.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		if (timer == null)
+			throw new NullPointerException("timer");
+		this.timer = timer;
+	}
+	
+	/**
+	 * Set the executor that completes timed out requests and sends their cancel notifications, so neither
+	 * blocks the timer thread. By default a pool of daemon threads is shared by all remote endpoints.
+	 */
+	public void setTimeoutExecutor(Executor timeoutExecutor) {
+		if (timeoutExecutor == null)
+			throw new NullPointerException("timeoutExecutor");
+		this.timeoutExecutor = timeoutExecutor;
+	}
+	
+	/**
+	 * Dispatch received requests to the lanes of the given dispatcher instead of handling them on the thread that
+	 * reads incoming messages. A {@code null} dispatcher handles all requests on the reading thread, which is the default.
+	 */
+	public void setRequestDispatcher(RequestDispatcher requestDispatcher) {
+		this.requestDispatcher = requestDispatcher;
+	}
+	
+	/**
+	 * The timeout in milliseconds of a sent request with the given method, or zero if the request does not expire.
+	 */
+	protected long getRequestTimeout(String method) {
+		if (requestTimeouts.isEmpty())
+			return defaultRequestTimeout;
+		Long timeout = requestTimeouts.get(method);
+		return timeout != null ? timeout : defaultRequestTimeout;
+	}
+	
+	/**
+	 * The number of sent requests that have timed out.
+	 */
+	public long getTimedOutRequestCount() {
+		long result = 0;
+		for (LongAdder count : timedOutRequests.values()) {
+			result += count.sum();
+		}
+		return result;
+	}
+	
+	/**
+	 * The number of sent requests with the given method that have timed out.
+	 */
+	public long getTimedOutRequestCount(String method) {
+		LongAdder count = timedOutRequests.get(method);
+		return count != null ? count.sum() : 0;
+	}
 
 	/**
 	 * Send a notification to the remote endpoint.
@@ -147,13 +260,24 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 		final CompletableFuture<Object> result = new CompletableFuture<Object>() {
 			@Override
 			public boolean cancel(boolean mayInterruptIfRunning) {
-				sendCancelNotification(requestMessage.getRawId());
-				return super.cancel(mayInterruptIfRunning);
+				if (isDone())
+					return super.cancel(mayInterruptIfRunning);
+				boolean result = super.cancel(mayInterruptIfRunning);
+				// The entry is kept until the reply arrives or the request times out, so the reply is not reported as unmatched
+				if (sentRequestMap.get(requestMessage.getId()) != null)
+					sendCancelNotification(requestMessage.getRawId());
+				return result;
 			}
 		};
-		synchronized(sentRequestMap) {
-			// Store request information so it can be handled when the response is received
-			sentRequestMap.put(requestMessage.getId(), new PendingRequestInfo(requestMessage, result));
+		// Store request information so it can be handled when the response is received
+		PendingRequestInfo requestInfo = new PendingRequestInfo(requestMessage, result, null);
+		sentRequestMap.put(requestMessage.getId(), requestInfo);
+		long timeoutMillis = getRequestTimeout(method);
+		if (timeoutMillis > 0) {
+			requestInfo.timeout = timer.schedule(() -> handleTimeout(requestMessage, timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS);
+			if (result.isDone())
+				// The request has been completed before the timeout was attached
+				requestInfo.cancelTimeout();
 		}
 		
 		try {
@@ -161,11 +285,49 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 			out.consume(requestMessage);
 		} catch (Exception exception) {
 			// The message could not be sent, e.g. because the communication channel was closed
+			PendingRequestInfo pending = sentRequestMap.remove(requestMessage.getId());
+			if (pending != null)
+				pending.cancelTimeout();
 			result.completeExceptionally(exception);
 		}
 		return result;
 	}
 
+	/**
+	 * Complete all sent requests that have not received a response yet with the given exception. This is
+	 * used when outgoing messages can no longer be delivered, so no responses are to be expected.
+	 */
+	public void failPendingRequests(Throwable cause) {
+		sentRequestMap.removeAll(requestInfo -> {
+			requestInfo.cancelTimeout();
+			requestInfo.future.completeExceptionally(cause);
+		});
+	}
+
+	/**
+	 * Cancel a sent request that has not received a response within its timeout. This runs on the timer thread,
+	 * so sending the cancel notification and completing the future are left to the timeout executor.
+	 */
+	protected void handleTimeout(RequestMessage requestMessage, long timeoutMillis) {
+		PendingRequestInfo requestInfo = sentRequestMap.remove(requestMessage.getId());
+		if (requestInfo == null) {
+			// The response has been received meanwhile
+			return;
+		}
+		if (requestInfo.future.isCancelled()) {
+			// The request has been cancelled locally and was only kept for its reply
+			return;
+		}
+		String method = requestMessage.getMethod();
+		timedOutRequests.computeIfAbsent(method, m -> new LongAdder()).increment();
+		String message = "The request (id: " + requestMessage.getId() + ", method: '" + method + "') timed out after " + timeoutMillis + " ms";
+		LOG.log(Level.WARNING, message);
+		timeoutExecutor.execute(() -> {
+			sendCancelNotification(requestMessage.getRawId());
+			requestInfo.future.completeExceptionally(new TimeoutException(message));
+		});
+	}
+
 	protected RequestMessage createRequestMessage(String method, Object parameter) {
 		RequestMessage requestMessage = new RequestMessage();
 		requestMessage.setId(String.valueOf(nextRequestId.incrementAndGet()));
@@ -197,14 +359,19 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 	}
 
 	protected void handleResponse(ResponseMessage responseMessage) {
-		PendingRequestInfo requestInfo;
-		synchronized (sentRequestMap) {
-			requestInfo = sentRequestMap.remove(responseMessage.getId());
-		}
+		PendingRequestInfo requestInfo = sentRequestMap.remove(responseMessage.getId());
 		if (requestInfo == null) {
 			// We have no pending request information that matches the id given in the response
-			LOG.log(Level.WARNING, "Unmatched response message: " + responseMessage);
-		} else if (responseMessage.getError() != null) {
+			ResponseError error = responseMessage.getError();
+			if (error != null && error.getCode() == ResponseErrorCode.RequestCancelled.getValue())
+				// The request has timed out, so its entry was removed before the reply arrived
+				LOG.log(Level.FINE, "Response to cancelled request: " + responseMessage);
+			else
+				LOG.log(Level.WARNING, "Unmatched response message: " + responseMessage);
+			return;
+		}
+		requestInfo.cancelTimeout();
+		if (responseMessage.getError() != null) {
 			// The remote service has replied with an error
 			requestInfo.future.completeExceptionally(new ResponseErrorException(responseMessage.getError()));
 		} else {
@@ -235,14 +402,12 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 			Object cancelParams = notificationMessage.getParams();
 			if (cancelParams != null) {
 				if (cancelParams instanceof CancelParams) {
-					synchronized (receivedRequestMap) {
-						String id = ((CancelParams) cancelParams).getId();
-						CompletableFuture<?> future = receivedRequestMap.get(id);
-						if (future != null)
-							future.cancel(true);
-						else
-							LOG.warning("Unmatched cancel notification for request id " + id);
-					}
+					String id = ((CancelParams) cancelParams).getId();
+					CompletableFuture<?> future = receivedRequestMap.get(id);
+					if (future != null)
+						future.cancel(true);
+					else
+						LOG.warning("Unmatched cancel notification for request id " + id);
 					return true;
 				} else {
 					LOG.warning("Cancellation support is disabled, since the '" + MessageJsonHandler.CANCEL_METHOD.getMethodName() + "' method has been registered explicitly.");
@@ -255,6 +420,13 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 	}
 	
 	protected void handleRequest(RequestMessage requestMessage) {
+		if (requestDispatcher != null) {
+			RequestDispatcher.Lane lane = requestDispatcher.getLane(requestMessage.getMethod());
+			if (lane != null) {
+				dispatchRequest(requestMessage, lane);
+				return;
+			}
+		}
 		CompletableFuture<?> future;
 		try {
 			// Forward the request to the local endpoint
@@ -272,10 +444,49 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 				return;
 		}
 		
+		receivedRequestMap.put(requestMessage.getId(), future);
+		handleRequestResult(requestMessage, future);
+	}
+	
+	/**
+	 * Forward a request to the local endpoint in the given lane of the request dispatcher.
+	 */
+	protected void dispatchRequest(RequestMessage requestMessage, RequestDispatcher.Lane lane) {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		// The request can be cancelled while it waits in its lane
+		receivedRequestMap.put(requestMessage.getId(), result);
+		requestDispatcher.dispatch(lane, () -> {
+			if (result.isDone())
+				return;
+			CompletableFuture<?> future;
+			try {
+				future = localEndpoint.request(requestMessage.getMethod(), requestMessage.getParams());
+			} catch (Throwable throwable) {
+				// The local endpoint has failed handling the request - the error is sent by handleRequestResult
+				result.completeExceptionally(throwable);
+				if (throwable instanceof Error)
+					throw (Error) throwable;
+				return;
+			}
+			result.whenComplete((value, throwable) -> {
+				if (result.isCancelled())
+					future.cancel(true);
+			});
+			future.whenComplete((value, throwable) -> {
+				if (throwable != null)
+					result.completeExceptionally(throwable);
+				else
+					result.complete(value);
+			});
+		});
+		handleRequestResult(requestMessage, result);
+	}
+	
+	/**
+	 * Reply to a request when the local endpoint has computed its result.
+	 */
+	protected void handleRequestResult(RequestMessage requestMessage, CompletableFuture<?> future) {
 		final String messageId = requestMessage.getId();
-		synchronized (receivedRequestMap) {
-			receivedRequestMap.put(messageId, future);
-		}
 		future.thenAccept((result) -> {
 			// Reply with the result object that was computed by the local endpoint 
 			out.consume(createResultResponseMessage(requestMessage, result));
@@ -296,9 +507,7 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 			out.consume(responseMessage);
 			return null;
 		}).thenApply((obj) -> {
-			synchronized (receivedRequestMap) {
-				receivedRequestMap.remove(messageId);
-			}
+			receivedRequestMap.remove(messageId);
 			return null;
 		});
 	}
@@ -346,15 +555,13 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 	}
 	
 	protected void handleResponseIssues(ResponseMessage responseMessage, List<MessageIssue> issues) {
-		PendingRequestInfo requestInfo;
-		synchronized (sentRequestMap) {
-			requestInfo = sentRequestMap.remove(responseMessage.getId());
-		}
+		PendingRequestInfo requestInfo = sentRequestMap.remove(responseMessage.getId());
 		if (requestInfo == null) {
 			// We have no pending request information that matches the id given in the response
 			LOG.log(Level.WARNING, "Unmatched response message: " + responseMessage);
 			logIssues(responseMessage, issues);
 		} else {
+			requestInfo.cancelTimeout();
 			requestInfo.future.completeExceptionally(new MessageIssueException(responseMessage, issues));
 		}
 	}
@@ -387,11 +594,9 @@ public class RemoteEndpoint implements Endpoint, MessageConsumer, MessageIssueHa
 
 	@Override
 	public String resolveMethod(String requestId) {
-		synchronized (sentRequestMap) {
-			PendingRequestInfo requestInfo = sentRequestMap.get(requestId);
-			if (requestInfo != null) {
-				return requestInfo.requestMessage.getMethod();
-			}
+		PendingRequestInfo requestInfo = sentRequestMap.get(requestId);
+		if (requestInfo != null) {
+			return requestInfo.requestMessage.getMethod();
 		}
 		return null;
 	}
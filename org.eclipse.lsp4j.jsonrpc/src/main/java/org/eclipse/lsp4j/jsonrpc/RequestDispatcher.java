@@ -0,0 +1,255 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatches incoming requests from the thread that reads messages to lanes with their own executor and
+ * concurrency limit. A slow request in one lane, e.g. a workspace-wide search, then does not delay requests
+ * in another lane, e.g. code completion. Requests wait in their lane while its concurrency limit is reached.
+ *
+ * <p>Each method can be assigned to a {@link Lane}; methods without an assignment use the default lane.
+ * Methods that are assigned to {@code null} are handled directly on the reading thread, which is the behavior
+ * without a dispatcher. Notifications are always handled on the reading thread, so their order is kept.</p>
+ *
+ * <p>Note that a dispatched request may be handled after notifications that have been received after it,
+ * e.g. document changes. Services must be prepared for this when dispatching is enabled.</p>
+ */
+public class RequestDispatcher {
+
+	private static final Logger LOG = Logger.getLogger(RequestDispatcher.class.getName());
+
+	public enum Lane {
+		/**
+		 * Requests that a user is waiting for, e.g. completion or hover.
+		 */
+		INTERACTIVE,
+		/**
+		 * Requests that may take longer, e.g. workspace symbols or references.
+		 */
+		BACKGROUND,
+		/**
+		 * Requests that process large amounts of data, e.g. semantic tokens of whole documents or formatting.
+		 */
+		BULK
+	}
+
+	private static class LaneQueue {
+
+		private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+		private Executor executor;
+		private int maxConcurrency;
+		private int running;
+		private ThreadPoolExecutor dedicatedExecutor;
+
+		LaneQueue(Executor executor, int maxConcurrency) {
+			this.executor = executor;
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		LaneQueue(ThreadPoolExecutor dedicatedExecutor) {
+			this(dedicatedExecutor, dedicatedExecutor.getMaximumPoolSize());
+			this.dedicatedExecutor = dedicatedExecutor;
+		}
+
+		synchronized void configure(Executor executor, int maxConcurrency) {
+			this.executor = executor;
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		synchronized void configure(int maxConcurrency) {
+			if (executor == dedicatedExecutor) {
+				// The pool has as many threads as requests may run, so it grows and shrinks with the limit
+				ThreadPoolExecutor pool = dedicatedExecutor;
+				if (maxConcurrency > pool.getMaximumPoolSize()) {
+					pool.setMaximumPoolSize(maxConcurrency);
+					pool.setCorePoolSize(maxConcurrency);
+				} else {
+					pool.setCorePoolSize(maxConcurrency);
+					pool.setMaximumPoolSize(maxConcurrency);
+				}
+			}
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		void submit(Runnable task) {
+			synchronized (this) {
+				pending.addLast(task);
+			}
+			startPending();
+		}
+
+		private void startPending() {
+			while (true) {
+				Runnable task;
+				Executor taskExecutor;
+				synchronized (this) {
+					if (running >= maxConcurrency || pending.isEmpty())
+						return;
+					task = pending.removeFirst();
+					taskExecutor = executor;
+					running++;
+				}
+				try {
+					taskExecutor.execute(() -> run(task));
+				} catch (RejectedExecutionException exception) {
+					// The executor has been shut down or is saturated, so the request is handled on this thread
+					LOG.log(Level.FINE, "A request could not be dispatched.", exception);
+					run(task);
+					return;
+				}
+			}
+		}
+
+		private void run(Runnable task) {
+			try {
+				task.run();
+			} finally {
+				finished();
+				startPending();
+			}
+		}
+
+		private synchronized void finished() {
+			running--;
+		}
+
+	}
+
+	private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+	private final Map<String, Lane> methodLanes = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> directMethods = new ConcurrentHashMap<>();
+	private volatile Lane defaultLane = Lane.INTERACTIVE;
+
+	/**
+	 * Create a dispatcher whose lanes run requests on dedicated daemon threads. Each lane has its own pool with as
+	 * many threads as the lane may run requests concurrently, so a lane never waits for threads that are busy with
+	 * unrelated tasks. Idle threads terminate after a minute. The default concurrency limits are described in
+	 * {@link #RequestDispatcher(Executor)}.
+	 */
+	public RequestDispatcher() {
+		for (Lane lane : Lane.values()) {
+			lanes.put(lane, new LaneQueue(createLaneExecutor(lane, getDefaultConcurrency(lane))));
+		}
+	}
+
+	/**
+	 * Create a dispatcher whose lanes run requests on the given executor. By default, the interactive lane runs
+	 * as many requests concurrently as there are processors, the background lane half as many, and the bulk lane
+	 * a single request.
+	 */
+	public RequestDispatcher(Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("executor");
+		for (Lane lane : Lane.values()) {
+			lanes.put(lane, new LaneQueue(executor, getDefaultConcurrency(lane)));
+		}
+	}
+
+	private static int getDefaultConcurrency(Lane lane) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		switch (lane) {
+		case INTERACTIVE:
+			return processors;
+		case BACKGROUND:
+			return Math.max(1, processors / 2);
+		default:
+			return 1;
+		}
+	}
+
+	private static ThreadPoolExecutor createLaneExecutor(Lane lane, int threads) {
+		String threadName = "lsp4j-request-" + lane.name().toLowerCase(Locale.ROOT);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Set the executor and the maximal number of concurrently running requests of a lane.
+	 */
+	public void configureLane(Lane lane, Executor executor, int maxConcurrency) {
+		if (executor == null)
+			throw new NullPointerException("executor");
+		if (maxConcurrency <= 0)
+			throw new IllegalArgumentException("maxConcurrency must be positive.");
+		lanes.get(lane).configure(executor, maxConcurrency);
+	}
+
+	/**
+	 * Set the maximal number of concurrently running requests of a lane and keep its executor. A dedicated pool
+	 * of the lane is resized accordingly, and waiting requests are started if the limit has been raised.
+	 */
+	public void configureLane(Lane lane, int maxConcurrency) {
+		if (maxConcurrency <= 0)
+			throw new IllegalArgumentException("maxConcurrency must be positive.");
+		LaneQueue queue = lanes.get(lane);
+		queue.configure(maxConcurrency);
+		queue.startPending();
+	}
+
+	/**
+	 * Assign requests with the given method to a lane, or handle them directly on the reading thread if the lane
+	 * is {@code null}.
+	 */
+	public void setLane(String method, Lane lane) {
+		if (lane == null) {
+			methodLanes.remove(method);
+			directMethods.put(method, Boolean.TRUE);
+		} else {
+			directMethods.remove(method);
+			methodLanes.put(method, lane);
+		}
+	}
+
+	/**
+	 * Set the lane of methods that have not been assigned to a lane, or handle them directly on the reading
+	 * thread if the lane is {@code null}. The default is {@link Lane#INTERACTIVE}.
+	 */
+	public void setDefaultLane(Lane defaultLane) {
+		this.defaultLane = defaultLane;
+	}
+
+	/**
+	 * The lane of requests with the given method, or {@code null} if they are handled directly.
+	 */
+	public Lane getLane(String method) {
+		if (method == null || directMethods.containsKey(method))
+			return null;
+		Lane lane = methodLanes.get(method);
+		return lane != null ? lane : defaultLane;
+	}
+
+	/**
+	 * Run the given task in the given lane.
+	 */
+	public void dispatch(Lane lane, Runnable task) {
+		lanes.get(lane).submit(task);
+	}
+
+}
@@ -0,0 +1,181 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent map from request ids to the state of pending requests. It can be accessed by any number of threads
+ * without locking, e.g. by the thread that reads incoming messages, by request handlers and by completion callbacks.
+ *
+ * <p>Ids that are the decimal representation of a non-negative number, like the ids created by {@link RemoteEndpoint},
+ * are stored with their numeric value in an open-addressing table. A key is placed within a fixed number of slots
+ * from its hash position, so lookups and removals scan only these slots. Keys that do not fit there and ids that
+ * are not numeric are stored in a {@link ConcurrentHashMap}.</p>
+ *
+ * <p>Concurrent puts of the same id are not supported; request ids are expected to be unique among pending requests.
+ * A {@code null} id is never stored, since a response to a request without id could not be matched anyway.</p>
+ */
+public class RequestIdMap<V> {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final int PROBE_LENGTH = 8;
+
+	private static final int MAX_DIGITS = 18;
+
+	private static final class Entry<V> {
+		final long key;
+		final V value;
+
+		Entry(long key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry<V>> slots;
+	private final int mask;
+	private final ConcurrentHashMap<Object, V> overflow = new ConcurrentHashMap<>();
+
+	public RequestIdMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity - the number of slots of the numeric table, rounded up to a power of two
+	 */
+	public RequestIdMap(int capacity) {
+		if (capacity < PROBE_LENGTH)
+			throw new IllegalArgumentException("The capacity must be at least " + PROBE_LENGTH + ".");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * The numeric value of the given id, or {@code -1} if the id is not the canonical decimal representation of a
+	 * non-negative number. Ids with leading zeros are not numeric, since they must not be equal to the number.
+	 */
+	static long toNumericId(String id) {
+		int length = id.length();
+		if (length == 0 || length > MAX_DIGITS || length > 1 && id.charAt(0) == '0')
+			return -1;
+		long result = 0;
+		for (int i = 0; i < length; i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private int indexOf(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & mask;
+	}
+
+	public V get(String id) {
+		if (id == null)
+			return null;
+		long key = toNumericId(id);
+		if (key < 0)
+			return overflow.get(id);
+		int index = indexOf(key);
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			Entry<V> entry = slots.get((index + i) & mask);
+			if (entry != null && entry.key == key)
+				return entry.value;
+		}
+		return overflow.isEmpty() ? null : overflow.get(key);
+	}
+
+	/**
+	 * Store the given value. A previous value for the same id is replaced.
+	 */
+	public void put(String id, V value) {
+		if (value == null)
+			throw new NullPointerException("value");
+		if (id == null)
+			return;
+		long key = toNumericId(id);
+		if (key < 0) {
+			overflow.put(id, value);
+			return;
+		}
+		int index = indexOf(key);
+		Entry<V> newEntry = new Entry<>(key, value);
+		// Replace a previous entry of the same id
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			int slot = (index + i) & mask;
+			Entry<V> entry = slots.get(slot);
+			if (entry != null && entry.key == key && slots.compareAndSet(slot, entry, newEntry))
+				return;
+		}
+		// Take the first free slot
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			int slot = (index + i) & mask;
+			if (slots.get(slot) == null && slots.compareAndSet(slot, null, newEntry)) {
+				// A previous value may still be in the overflow map if the table was full when it was added
+				if (!overflow.isEmpty())
+					overflow.remove(key);
+				return;
+			}
+		}
+		overflow.put(key, value);
+	}
+
+	/**
+	 * Remove the value of the given id.
+	 *
+	 * @return the removed value, or {@code null} if there is no value for the id
+	 */
+	public V remove(String id) {
+		if (id == null)
+			return null;
+		long key = toNumericId(id);
+		if (key < 0)
+			return overflow.remove(id);
+		int index = indexOf(key);
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			int slot = (index + i) & mask;
+			Entry<V> entry = slots.get(slot);
+			// Only one of several concurrent removals of the same entry succeeds
+			if (entry != null && entry.key == key && slots.compareAndSet(slot, entry, null))
+				return entry.value;
+		}
+		return overflow.isEmpty() ? null : overflow.remove(key);
+	}
+
+	/**
+	 * Remove all values and pass each removed value to the given action. Values that are put concurrently
+	 * may be missed.
+	 */
+	public void removeAll(Consumer<? super V> action) {
+		for (int slot = 0; slot < slots.length(); slot++) {
+			Entry<V> entry = slots.get(slot);
+			if (entry != null && slots.compareAndSet(slot, entry, null))
+				action.accept(entry.value);
+		}
+		for (Object key : overflow.keySet()) {
+			V value = overflow.remove(key);
+			if (value != null)
+				action.accept(value);
+		}
+	}
+
+}
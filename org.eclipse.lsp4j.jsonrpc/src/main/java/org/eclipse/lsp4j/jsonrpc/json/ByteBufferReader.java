@@ -0,0 +1,112 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A reader that decodes the remaining bytes of a {@link ByteBuffer} on the fly. The characters are written
+ * directly into the array given by the caller, so no intermediate string or char array of the full content
+ * is created. Malformed input is replaced with the default replacement character, as done by
+ * {@link String#String(byte[], Charset)}.
+ */
+public class ByteBufferReader extends Reader {
+
+	private final ByteBuffer input;
+	private final CharsetDecoder decoder;
+
+	private char[] lastArray;
+	private CharBuffer lastBuffer;
+	private CharBuffer pending;
+	private boolean flushed;
+
+	public ByteBufferReader(ByteBuffer input, Charset charset) {
+		this.input = input;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > cbuf.length)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (pending != null && pending.hasRemaining()) {
+			// A character left over from decoding a surrogate pair into a single-char request
+			cbuf[off] = pending.get();
+			return 1;
+		}
+		CharBuffer output = wrap(cbuf, off, len);
+		decode(output);
+		int count = output.position() - off;
+		if (count == 0 && !isEndOfInput()) {
+			// The requested length is too small for the next code point
+			if (pending == null)
+				pending = CharBuffer.allocate(2);
+			pending.clear();
+			decode(pending);
+			pending.flip();
+			if (pending.hasRemaining()) {
+				cbuf[off] = pending.get();
+				return 1;
+			}
+		}
+		return count == 0 ? -1 : count;
+	}
+
+	private CharBuffer wrap(char[] cbuf, int off, int len) {
+		// Parsers usually read into the same array repeatedly, so the wrapping buffer is reused
+		if (cbuf != lastArray) {
+			lastArray = cbuf;
+			lastBuffer = CharBuffer.wrap(cbuf);
+		}
+		lastBuffer.limit(off + len);
+		lastBuffer.position(off);
+		return lastBuffer;
+	}
+
+	private void decode(CharBuffer output) throws IOException {
+		if (flushed)
+			return;
+		CoderResult result = decoder.decode(input, output, true);
+		if (result.isUnderflow() && !input.hasRemaining()) {
+			result = decoder.flush(output);
+			if (result.isUnderflow())
+				flushed = true;
+		}
+		if (result.isError())
+			result.throwException();
+	}
+
+	private boolean isEndOfInput() {
+		return flushed && (pending == null || !pending.hasRemaining());
+	}
+
+	@Override
+	public boolean ready() {
+		return input.hasRemaining() || pending != null && pending.hasRemaining();
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
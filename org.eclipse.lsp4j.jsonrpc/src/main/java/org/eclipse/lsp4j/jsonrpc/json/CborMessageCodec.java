@@ -0,0 +1,62 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * A binary message codec that encodes messages as CBOR (RFC 8949) with the content type
+ * {@value MessageConstants#CBOR_MIME_TYPE}. Messages are mapped to CBOR with the same Gson type adapters
+ * that are used for JSON, so the structure of the encoded data is identical to the JSON representation.
+ * 
+ * <p>This codec is used as binary codec of a {@link MessageJsonHandler}, since it can only read and write bytes.</p>
+ * 
+ * @see MessageJsonHandler#setBinaryCodec(MessageCodec)
+ */
+public class CborMessageCodec implements MessageCodec {
+
+	private final Gson gson;
+
+	public CborMessageCodec(Gson gson) {
+		this.gson = gson;
+	}
+
+	@Override
+	public String getContentType() {
+		return MessageConstants.CBOR_MIME_TYPE;
+	}
+
+	@Override
+	public Message parseMessage(ByteBuffer input, Charset charset) throws JsonParseException {
+		Message message = gson.fromJson(new CborReader(input), Message.class);
+		if (message != null && input.hasRemaining()) {
+			MessageIssue issue = new MessageIssue("CBOR content was not fully consumed.", ResponseErrorCode.ParseError.getValue());
+			throw new MessageIssueException(message, issue);
+		}
+		return message;
+	}
+
+	@Override
+	public void serialize(Message message, SerializationBuffer output) {
+		gson.toJson(message, Message.class, new CborWriter(output));
+	}
+
+}
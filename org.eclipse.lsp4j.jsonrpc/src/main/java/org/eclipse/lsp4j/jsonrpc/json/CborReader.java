@@ -0,0 +1,558 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import static org.eclipse.lsp4j.jsonrpc.json.CborWriter.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.lsp4j.jsonrpc.json.adapters.DirectJsonReader;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A JSON reader that decodes CBOR (RFC 8949) data items from a {@link ByteBuffer}, so values can be streamed
+ * into Gson type adapters without building a JSON tree. Byte strings are not supported, since they have
+ * no JSON equivalent; tags are ignored.
+ */
+final class CborReader extends DirectJsonReader {
+
+	/**
+	 * The maximum nesting depth of arrays and maps.
+	 */
+	static final int MAX_DEPTH = 512;
+
+	private static final int NO_HEAD = -1;
+	private static final int END_OF_CONTAINER = -2;
+	private static final int END_OF_DOCUMENT = -3;
+
+	private final ByteBuffer input;
+
+	/**
+	 * The initial byte of the next data item after its tags, or one of the negative constants.
+	 */
+	private int head = NO_HEAD;
+	private boolean documentRead;
+
+	private boolean[] maps = new boolean[32];
+	/** The number of data items that remain in each container, or -1 for indefinite length. */
+	private long[] remaining = new long[32];
+	/** The number of data items that have been read from each container; names and values count separately. */
+	private int[] counts = new int[32];
+	private String[] pathNames = new String[32];
+	private int stackSize;
+
+	CborReader(ByteBuffer input) {
+		this.input = input;
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		expect(JsonToken.BEGIN_ARRAY);
+		push(false, readContainerLength(1));
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		expect(JsonToken.END_ARRAY);
+		stackSize--;
+		consumed();
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		expect(JsonToken.BEGIN_OBJECT);
+		push(true, readContainerLength(2));
+		startNamePromotion();
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		expect(JsonToken.END_OBJECT);
+		pathNames[--stackSize] = null;
+		consumed();
+	}
+
+	@Override
+	public boolean hasNext() {
+		int head = peekHead();
+		return head != END_OF_CONTAINER && head != END_OF_DOCUMENT;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		int head = peekHead();
+		if (head == END_OF_DOCUMENT)
+			return JsonToken.END_DOCUMENT;
+		if (head == END_OF_CONTAINER)
+			return maps[stackSize - 1] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+		if (isNameExpected())
+			return isPromotedName() ? JsonToken.STRING : JsonToken.NAME;
+		switch (head >>> 5) {
+		case MAJOR_UNSIGNED:
+		case MAJOR_NEGATIVE:
+			return JsonToken.NUMBER;
+		case MAJOR_TEXT:
+			return JsonToken.STRING;
+		case MAJOR_ARRAY:
+			return JsonToken.BEGIN_ARRAY;
+		case MAJOR_MAP:
+			return JsonToken.BEGIN_OBJECT;
+		case MAJOR_SIMPLE:
+			switch (head) {
+			case FALSE:
+			case TRUE:
+				return JsonToken.BOOLEAN;
+			case NULL:
+			case UNDEFINED:
+				return JsonToken.NULL;
+			case FLOAT16:
+			case FLOAT32:
+			case FLOAT64:
+				return JsonToken.NUMBER;
+			default:
+				throw new JsonSyntaxException("Unsupported CBOR simple value " + (head & 0x1f));
+			}
+		default:
+			throw new JsonSyntaxException("Unsupported CBOR major type " + (head >>> 5));
+		}
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		expect(JsonToken.NAME);
+		return readName();
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		JsonToken token = peek();
+		if (token == JsonToken.STRING) {
+			if (isNameExpected()) {
+				consumePromotedName();
+				return readName();
+			}
+			String result = readText(head & 0x1f);
+			consumed();
+			return result;
+		}
+		if (token == JsonToken.NUMBER) {
+			String result = readNumberString();
+			consumed();
+			return result;
+		}
+		throw unexpected(JsonToken.STRING, token);
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		expect(JsonToken.BOOLEAN);
+		boolean result = head == TRUE;
+		consumed();
+		return result;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		expect(JsonToken.NULL);
+		consumed();
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		JsonToken token = peek();
+		double result;
+		if (token == JsonToken.NUMBER) {
+			int majorType = head >>> 5;
+			if (majorType == MAJOR_SIMPLE) {
+				result = readFloat();
+			} else {
+				long argument = readArgument(head & 0x1f);
+				if (argument < 0)
+					result = toInteger(majorType, argument).doubleValue();
+				else
+					result = majorType == MAJOR_UNSIGNED ? argument : -1.0 - argument;
+			}
+			consumed();
+		} else if (token == JsonToken.STRING) {
+			result = Double.parseDouble(nextString());
+		} else {
+			throw unexpected(JsonToken.NUMBER, token);
+		}
+		if (!isLenient() && (Double.isNaN(result) || Double.isInfinite(result)))
+			throw new NumberFormatException("JSON forbids NaN and infinities: " + result + " at path " + getPath());
+		return result;
+	}
+
+	@Override
+	public long nextLong() throws IOException {
+		return readIntegral("a long");
+	}
+
+	@Override
+	public int nextInt() throws IOException {
+		long value = readIntegral("an int");
+		int result = (int) value;
+		if (result != value)
+			throw new NumberFormatException("Expected an int but was " + value + " at path " + getPath());
+		return result;
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			JsonToken token = peek();
+			switch (token) {
+			case BEGIN_ARRAY:
+				beginArray();
+				depth++;
+				break;
+			case BEGIN_OBJECT:
+				beginObject();
+				depth++;
+				break;
+			case END_ARRAY:
+				endArray();
+				depth--;
+				break;
+			case END_OBJECT:
+				endObject();
+				depth--;
+				break;
+			case NAME:
+				nextName();
+				pathNames[stackSize - 1] = "null";
+				break;
+			case STRING:
+				if (isNameExpected()) {
+					nextString();
+				} else {
+					skipText(head & 0x1f);
+					consumed();
+				}
+				break;
+			case NUMBER:
+				if (head >>> 5 == MAJOR_SIMPLE)
+					readFloat();
+				else
+					readArgument(head & 0x1f);
+				consumed();
+				break;
+			case BOOLEAN:
+			case NULL:
+				consumed();
+				break;
+			case END_DOCUMENT:
+				return;
+			}
+		} while (depth > 0);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String getPath() {
+		StringBuilder result = new StringBuilder("$");
+		for (int i = 0; i < stackSize; i++) {
+			if (!maps[i]) {
+				result.append('[').append(counts[i]).append(']');
+			} else if (pathNames[i] != null) {
+				result.append('.').append(pathNames[i]);
+			}
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " at path " + getPath();
+	}
+
+	/**
+	 * Read the initial byte of the next data item if that has not been done yet.
+	 */
+	private int peekHead() {
+		if (head == NO_HEAD) {
+			int top = stackSize - 1;
+			if (top < 0) {
+				head = documentRead ? END_OF_DOCUMENT : skipTags(nextByte());
+			} else if (remaining[top] == 0) {
+				head = END_OF_CONTAINER;
+			} else {
+				int initialByte = nextByte();
+				if (remaining[top] < 0 && initialByte == BREAK) {
+					if (maps[top] && counts[top] % 2 != 0)
+						throw new JsonSyntaxException("Expected a value for " + pathNames[top] + " at path " + getPath());
+					head = END_OF_CONTAINER;
+				} else {
+					head = skipTags(initialByte);
+				}
+			}
+		}
+		return head;
+	}
+
+	/**
+	 * Complete the current data item.
+	 */
+	private void consumed() {
+		head = NO_HEAD;
+		if (stackSize == 0) {
+			documentRead = true;
+		} else {
+			int top = stackSize - 1;
+			counts[top]++;
+			if (remaining[top] > 0)
+				remaining[top]--;
+		}
+	}
+
+	private boolean isNameExpected() {
+		int top = stackSize - 1;
+		return top >= 0 && maps[top] && counts[top] % 2 == 0;
+	}
+
+	private void push(boolean map, long length) {
+		if (stackSize == MAX_DEPTH)
+			throw new JsonSyntaxException("CBOR content exceeds the maximum nesting depth of " + MAX_DEPTH);
+		if (stackSize == maps.length) {
+			maps = Arrays.copyOf(maps, 2 * stackSize);
+			remaining = Arrays.copyOf(remaining, 2 * stackSize);
+			counts = Arrays.copyOf(counts, 2 * stackSize);
+			pathNames = Arrays.copyOf(pathNames, 2 * stackSize);
+		}
+		maps[stackSize] = map;
+		remaining[stackSize] = length;
+		counts[stackSize] = 0;
+		pathNames[stackSize] = null;
+		stackSize++;
+		head = NO_HEAD;
+	}
+
+	/**
+	 * Read the number of data items of the current array or map, or -1 for indefinite length.
+	 */
+	private long readContainerLength(int itemsPerEntry) {
+		int info = head & 0x1f;
+		if (info == INDEFINITE)
+			return -1;
+		return (long) itemsPerEntry * readLength(info);
+	}
+
+	private void expect(JsonToken expected) throws IOException {
+		JsonToken token = peek();
+		if (token != expected)
+			throw unexpected(expected, token);
+	}
+
+	private IllegalStateException unexpected(JsonToken expected, JsonToken actual) {
+		return new IllegalStateException("Expected " + expected + " but was " + actual + " at path " + getPath());
+	}
+
+	private String readName() {
+		if (head >>> 5 != MAJOR_TEXT)
+			throw new JsonSyntaxException("Expected a text string as map key, but found CBOR major type " + (head >>> 5));
+		String result = readText(head & 0x1f);
+		pathNames[stackSize - 1] = result;
+		consumed();
+		return result;
+	}
+
+	private long readIntegral(String expected) throws IOException {
+		JsonToken token = peek();
+		if (token == JsonToken.NUMBER) {
+			int majorType = head >>> 5;
+			long result;
+			if (majorType == MAJOR_SIMPLE) {
+				double value = readFloat();
+				result = (long) value;
+				if (result != value)
+					throw new NumberFormatException("Expected " + expected + " but was " + value + " at path " + getPath());
+			} else {
+				long argument = readArgument(head & 0x1f);
+				if (argument < 0)
+					throw new NumberFormatException("Expected " + expected + " but was " + toInteger(majorType, argument)
+							+ " at path " + getPath());
+				result = majorType == MAJOR_UNSIGNED ? argument : -1 - argument;
+			}
+			consumed();
+			return result;
+		}
+		if (token == JsonToken.STRING) {
+			String value = nextString();
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException exception) {
+				double asDouble = Double.parseDouble(value);
+				long result = (long) asDouble;
+				if (result != asDouble)
+					throw new NumberFormatException("Expected " + expected + " but was " + value + " at path " + getPath());
+				return result;
+			}
+		}
+		throw unexpected(JsonToken.NUMBER, token);
+	}
+
+	private String readNumberString() {
+		switch (head) {
+		case FLOAT16:
+		case FLOAT32:
+			return Float.toString((float) readFloat());
+		case FLOAT64:
+			return Double.toString(readFloat());
+		default:
+			int majorType = head >>> 5;
+			long argument = readArgument(head & 0x1f);
+			if (argument < 0)
+				return toInteger(majorType, argument).toString();
+			return Long.toString(majorType == MAJOR_UNSIGNED ? argument : -1 - argument);
+		}
+	}
+
+	private double readFloat() {
+		switch (head) {
+		case FLOAT16:
+			require(2);
+			return halfToFloat(input.getShort() & 0xffff);
+		case FLOAT32:
+			require(4);
+			return Float.intBitsToFloat(input.getInt());
+		default:
+			require(8);
+			return Double.longBitsToDouble(input.getLong());
+		}
+	}
+
+	/**
+	 * Skip the tags that precede a data item in a loop, so a long sequence of tags cannot exhaust the stack.
+	 *
+	 * @return the initial byte of the tagged data item
+	 */
+	private int skipTags(int initialByte) {
+		while (initialByte >>> 5 == MAJOR_TAG) {
+			readArgument(initialByte & 0x1f);
+			initialByte = nextByte();
+		}
+		return initialByte;
+	}
+
+	private String readText(int info) {
+		if (info == INDEFINITE) {
+			// A sequence of definite length chunks terminated by a break
+			StringBuilder builder = new StringBuilder();
+			int initialByte;
+			while ((initialByte = nextByte()) != BREAK) {
+				if (initialByte >>> 5 != MAJOR_TEXT || (initialByte & 0x1f) == INDEFINITE)
+					throw new JsonSyntaxException("Invalid chunk in indefinite length CBOR text string.");
+				builder.append(readText(initialByte & 0x1f));
+			}
+			return builder.toString();
+		}
+		int length = readLength(info);
+		require(length);
+		String result;
+		if (input.hasArray()) {
+			result = new String(input.array(), input.arrayOffset() + input.position(), length, StandardCharsets.UTF_8);
+			input.position(input.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			input.get(bytes);
+			result = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return result;
+	}
+
+	private void skipText(int info) {
+		if (info == INDEFINITE) {
+			int initialByte;
+			while ((initialByte = nextByte()) != BREAK) {
+				if (initialByte >>> 5 != MAJOR_TEXT || (initialByte & 0x1f) == INDEFINITE)
+					throw new JsonSyntaxException("Invalid chunk in indefinite length CBOR text string.");
+				skipText(initialByte & 0x1f);
+			}
+		} else {
+			int length = readLength(info);
+			require(length);
+			input.position(input.position() + length);
+		}
+	}
+
+	/**
+	 * Read the argument of a data item. Values that exceed the range of {@code long} are returned as negative numbers.
+	 */
+	private long readArgument(int info) {
+		if (info < 24)
+			return info;
+		switch (info) {
+		case 24:
+			return nextByte();
+		case 25:
+			require(2);
+			return input.getShort() & 0xffff;
+		case 26:
+			require(4);
+			return input.getInt() & 0xffffffffL;
+		case 27:
+			require(8);
+			return input.getLong();
+		default:
+			throw new JsonSyntaxException("Invalid CBOR argument " + info);
+		}
+	}
+
+	private int readLength(int info) {
+		long length = readArgument(info);
+		if (length < 0 || length > Integer.MAX_VALUE)
+			throw new JsonSyntaxException("CBOR length exceeds the supported range: " + Long.toUnsignedString(length));
+		return (int) length;
+	}
+
+	private int nextByte() {
+		require(1);
+		return input.get() & 0xff;
+	}
+
+	private void require(int count) {
+		if (input.remaining() < count)
+			throw new JsonSyntaxException("Unexpected end of CBOR content.");
+	}
+
+	/**
+	 * Convert an argument that exceeds the range of {@code long} into the integer value of the data item.
+	 */
+	private static BigInteger toInteger(int majorType, long argument) {
+		BigInteger value = new BigInteger(Long.toUnsignedString(argument));
+		return majorType == MAJOR_UNSIGNED ? value : value.not();
+	}
+
+	private static float halfToFloat(int bits) {
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		float value;
+		if (exponent == 0)
+			value = mantissa * 0x1p-24f;
+		else if (exponent == 0x1f)
+			value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		else
+			value = (1024 + mantissa) * (float) Math.pow(2, exponent - 25);
+		return (bits & 0x8000) != 0 ? -value : value;
+	}
+
+}
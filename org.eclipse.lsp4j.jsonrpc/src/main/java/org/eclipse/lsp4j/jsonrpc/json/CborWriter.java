@@ -0,0 +1,277 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A JSON writer that encodes the written values as CBOR (RFC 8949) into a {@link SerializationBuffer}.
+ * Arrays and objects are written with indefinite length, so values can be streamed by Gson type adapters
+ * without knowing the number of elements in advance.
+ */
+final class CborWriter extends JsonWriter {
+
+	static final int MAJOR_UNSIGNED = 0;
+	static final int MAJOR_NEGATIVE = 1;
+	static final int MAJOR_BYTES = 2;
+	static final int MAJOR_TEXT = 3;
+	static final int MAJOR_ARRAY = 4;
+	static final int MAJOR_MAP = 5;
+	static final int MAJOR_TAG = 6;
+	static final int MAJOR_SIMPLE = 7;
+
+	static final int INDEFINITE = 31;
+	static final int FALSE = 0xf4;
+	static final int TRUE = 0xf5;
+	static final int NULL = 0xf6;
+	static final int UNDEFINED = 0xf7;
+	static final int FLOAT16 = 0xf9;
+	static final int FLOAT32 = 0xfa;
+	static final int FLOAT64 = 0xfb;
+	static final int BREAK = 0xff;
+
+	private static final Writer UNWRITABLE_WRITER = new Writer() {
+		@Override
+		public void write(char[] buffer, int offset, int counter) {
+			throw new AssertionError();
+		}
+		@Override
+		public void flush() {
+			throw new AssertionError();
+		}
+		@Override
+		public void close() {
+			throw new AssertionError();
+		}
+	};
+
+	private final SerializationBuffer output;
+	private final Writer textOutput;
+
+	private String deferredName;
+
+	CborWriter(SerializationBuffer output) {
+		super(UNWRITABLE_WRITER);
+		this.output = output;
+		this.textOutput = output.getWriter();
+	}
+
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		writeDeferredName();
+		output.write((MAJOR_ARRAY << 5) | INDEFINITE);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endArray() {
+		output.write(BREAK);
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		writeDeferredName();
+		output.write((MAJOR_MAP << 5) | INDEFINITE);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endObject() {
+		if (deferredName != null)
+			throw new IllegalStateException("Expected a value for " + deferredName);
+		output.write(BREAK);
+		return this;
+	}
+
+	@Override
+	public JsonWriter name(String name) {
+		if (name == null)
+			throw new NullPointerException("name == null");
+		if (deferredName != null)
+			throw new IllegalStateException("Expected a value for " + deferredName);
+		deferredName = name;
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(String value) throws IOException {
+		if (value == null)
+			return nullValue();
+		writeDeferredName();
+		writeText(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter jsonValue(String value) {
+		throw new UnsupportedOperationException("Raw JSON values cannot be written as CBOR.");
+	}
+
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		if (deferredName != null) {
+			if (!getSerializeNulls()) {
+				// Omit the property, as done by the JSON writer
+				deferredName = null;
+				return this;
+			}
+			writeDeferredName();
+		}
+		output.write(NULL);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(boolean value) throws IOException {
+		writeDeferredName();
+		output.write(value ? TRUE : FALSE);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Boolean value) throws IOException {
+		if (value == null)
+			return nullValue();
+		return value(value.booleanValue());
+	}
+
+	@Override
+	public JsonWriter value(double value) throws IOException {
+		if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value)))
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		writeDeferredName();
+		float floatValue = (float) value;
+		if (floatValue == value) {
+			int bits = Float.floatToIntBits(floatValue);
+			output.write(FLOAT32);
+			writeInt(bits);
+		} else {
+			long bits = Double.doubleToLongBits(value);
+			output.write(FLOAT64);
+			writeInt((int) (bits >>> 32));
+			writeInt((int) bits);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(long value) throws IOException {
+		writeDeferredName();
+		if (value >= 0)
+			writeHead(MAJOR_UNSIGNED, value);
+		else
+			writeHead(MAJOR_NEGATIVE, -1 - value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Number value) throws IOException {
+		if (value == null)
+			return nullValue();
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+				|| value instanceof AtomicInteger || value instanceof AtomicLong)
+			return value(value.longValue());
+		if (value instanceof Double || value instanceof Float)
+			return value(value.doubleValue());
+		if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64)
+			return value(value.longValue());
+		// Other numbers such as lazily parsed numbers are converted through their string representation
+		String string = value.toString();
+		try {
+			return value(Long.parseLong(string));
+		} catch (NumberFormatException e) {
+			return value(Double.parseDouble(string));
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void writeDeferredName() throws IOException {
+		if (deferredName != null) {
+			writeText(deferredName);
+			deferredName = null;
+		}
+	}
+
+	private void writeText(String value) throws IOException {
+		writeHead(MAJOR_TEXT, utf8Length(value));
+		textOutput.write(value);
+		// Complete a trailing unpaired surrogate before the next byte is written
+		textOutput.flush();
+	}
+
+	private void writeHead(int majorType, long argument) {
+		int major = majorType << 5;
+		if (argument < 24) {
+			output.write(major | (int) argument);
+		} else if (argument <= 0xff) {
+			output.write(major | 24);
+			output.write((int) argument);
+		} else if (argument <= 0xffff) {
+			output.write(major | 25);
+			output.write((int) (argument >>> 8));
+			output.write((int) argument);
+		} else if (argument <= 0xffffffffL) {
+			output.write(major | 26);
+			writeInt((int) argument);
+		} else {
+			output.write(major | 27);
+			writeInt((int) (argument >>> 32));
+			writeInt((int) argument);
+		}
+	}
+
+	private void writeInt(int value) {
+		output.write(value >>> 24);
+		output.write(value >>> 16);
+		output.write(value >>> 8);
+		output.write(value);
+	}
+
+	/**
+	 * The number of bytes of the UTF-8 encoding produced by {@link SerializationBuffer#getWriter()},
+	 * which replaces unpaired surrogates with {@code '?'}.
+	 */
+	static int utf8Length(String value) {
+		int length = value.length();
+		int result = length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					result += 1;
+				} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					// Two chars are encoded with four bytes
+					result += 2;
+					i++;
+				} else if (!Character.isSurrogate(c)) {
+					result += 2;
+				}
+			}
+		}
+		return result;
+	}
+
+}
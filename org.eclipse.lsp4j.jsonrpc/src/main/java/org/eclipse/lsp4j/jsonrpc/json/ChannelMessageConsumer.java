@@ -0,0 +1,178 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+
+/**
+ * A message consumer that serializes messages to JSON, or to the binary format accepted by the peer, and writes
+ * them to a byte channel. Header and content are copied into reusable direct buffers and written with a single
+ * gathering write if the channel supports it.
+ *
+ * <p>Channels in non-blocking mode, e.g. socket channels that are read by a {@link SelectorMessageProducer},
+ * must be written through the same {@link SelectorEventLoop}, see {@link #setSelectorEventLoop(SelectorEventLoop)}.</p>
+ */
+public class ChannelMessageConsumer implements MessageConsumer, MessageConstants {
+
+	/**
+	 * Content buffers up to this size are kept for writing subsequent messages.
+	 */
+	protected static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+
+	private final WritableByteChannel channel;
+	private final String encoding;
+	private final MessageJsonHandler jsonHandler;
+
+	private final Object outputLock = new Object();
+
+	private final ByteBuffer headerBuffer = ByteBuffer.allocateDirect(256);
+	private ByteBuffer contentBuffer;
+	private final ByteBuffer[] gatherBuffers = new ByteBuffer[2];
+
+	private SelectorEventLoop selectorEventLoop;
+
+	public ChannelMessageConsumer(WritableByteChannel channel, MessageJsonHandler jsonHandler) {
+		this(channel, StandardCharsets.UTF_8.name(), jsonHandler);
+	}
+
+	public ChannelMessageConsumer(WritableByteChannel channel, String encoding, MessageJsonHandler jsonHandler) {
+		this.channel = channel;
+		this.encoding = encoding;
+		this.jsonHandler = jsonHandler;
+	}
+
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Write messages through the given event loop, which must be the one the channel is registered with.
+	 * Data that the channel does not accept immediately is queued and written by the event loop when the
+	 * channel becomes writable, so writing blocks the caller only while the queue of the channel is full.
+	 */
+	public void setSelectorEventLoop(SelectorEventLoop selectorEventLoop) {
+		if (selectorEventLoop != null && !(channel instanceof SelectableChannel))
+			throw new IllegalArgumentException("The channel must be selectable.");
+		this.selectorEventLoop = selectorEventLoop;
+	}
+
+	public SelectorEventLoop getSelectorEventLoop() {
+		return selectorEventLoop;
+	}
+
+	@Override
+	public void consume(Message message) {
+		try {
+			MessageFrame frame = MessageFrame.encode(jsonHandler, message, encoding);
+			String header = frame.contentType == null && frame.contentEncoding == null
+					? getHeader(frame.contentLength) : getHeader(frame.contentLength, frame.contentType, frame.contentEncoding);
+
+			synchronized (outputLock) {
+				ByteBuffer headerBytes = toHeaderBuffer(header);
+				ByteBuffer contentByteBuffer = toContentBuffer(frame.content, frame.contentLength);
+				write(headerBytes, contentByteBuffer);
+			}
+		} catch (IOException exception) {
+			throw new JsonRpcException(exception);
+		}
+	}
+
+	/**
+	 * Write header and content to the channel. A {@link GatheringByteChannel} receives both buffers
+	 * in a single call, which usually results in a single system call.
+	 */
+	protected void write(ByteBuffer header, ByteBuffer content) throws IOException {
+		if (selectorEventLoop != null) {
+			selectorEventLoop.write((SelectableChannel) channel, header, content);
+		} else if (channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+			gatherBuffers[0] = header;
+			gatherBuffers[1] = content;
+			try {
+				while (header.hasRemaining() || content.hasRemaining()) {
+					if (gatheringChannel.write(gatherBuffers) == 0)
+						throw new IllegalBlockingModeException();
+				}
+			} finally {
+				gatherBuffers[0] = null;
+				gatherBuffers[1] = null;
+			}
+		} else {
+			while (header.hasRemaining()) {
+				if (channel.write(header) == 0)
+					throw new IllegalBlockingModeException();
+			}
+			while (content.hasRemaining()) {
+				if (channel.write(content) == 0)
+					throw new IllegalBlockingModeException();
+			}
+		}
+	}
+
+	private ByteBuffer toHeaderBuffer(String header) {
+		ByteBuffer buffer = header.length() <= headerBuffer.capacity() ? headerBuffer : ByteBuffer.allocate(header.length());
+		buffer.clear();
+		for (int i = 0; i < header.length(); i++) {
+			buffer.put((byte) header.charAt(i));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private ByteBuffer toContentBuffer(byte[] content, int length) {
+		if (length > MAX_REUSED_BUFFER_SIZE)
+			return ByteBuffer.wrap(content, 0, length);
+		if (contentBuffer == null || contentBuffer.capacity() < length) {
+			int newCapacity = contentBuffer == null ? length : Math.max(length, 2 * contentBuffer.capacity());
+			contentBuffer = ByteBuffer.allocateDirect(Math.min(newCapacity, MAX_REUSED_BUFFER_SIZE));
+		}
+		contentBuffer.clear();
+		contentBuffer.put(content, 0, length);
+		contentBuffer.flip();
+		return contentBuffer;
+	}
+
+	/**
+	 * Construct a header to be prepended to the actual content. This implementation writes
+	 * {@code Content-Length} and {@code Content-Type} attributes according to the LSP specification.
+	 */
+	protected String getHeader(int contentLength) {
+		return getHeader(contentLength, null, null);
+	}
+
+	/**
+	 * Construct the header of a message whose content is encoded with the given content type and content
+	 * encoding. A {@code null} content type denotes JSON. Binary formats and compression that are enabled
+	 * in the JSON handler are advertised to the peer as long as they are not used.
+	 */
+	protected String getHeader(int contentLength, String contentType, String contentEncoding) {
+		return MessageFrame.getHeader(jsonHandler, encoding, contentLength, contentType, contentEncoding, this::appendHeader);
+	}
+
+	/**
+	 * Append a header attribute to the given builder.
+	 */
+	protected StringBuilder appendHeader(StringBuilder builder, String name, Object value) {
+		return builder.append(name).append(": ").append(value);
+	}
+
+}
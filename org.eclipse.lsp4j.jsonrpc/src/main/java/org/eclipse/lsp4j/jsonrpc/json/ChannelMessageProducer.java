@@ -0,0 +1,307 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
+import org.eclipse.lsp4j.jsonrpc.MessageIssueHandler;
+import org.eclipse.lsp4j.jsonrpc.MessageProducer;
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageProducer.Headers;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
+
+/**
+ * A message producer that reads from a byte channel and parses messages from JSON. The channel is read
+ * into a direct buffer, from which headers are scanned without creating strings. The channel must be
+ * in blocking mode.
+ *
+ * <p>The size limits of incoming messages are the same as in {@link StreamMessageProducer}.</p>
+ */
+public class ChannelMessageProducer implements MessageProducer, Closeable, MessageConstants {
+
+	private static final Logger LOG = Logger.getLogger(ChannelMessageProducer.class.getName());
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * Content buffers up to this size are kept for reading subsequent messages.
+	 */
+	protected static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+
+	private final ReadableByteChannel channel;
+	private final MessageJsonHandler jsonHandler;
+	private final MessageIssueHandler issueHandler;
+
+	private final ByteBuffer readBuffer;
+	private final HeaderScanner headerScanner = new HeaderScanner(this::fireError);
+	private final ContentBuffer contentBuffer = new ContentBuffer(MAX_REUSED_BUFFER_SIZE);
+	private final InputStream contentInput = new ChannelInput();
+	private int maxInMemoryMessageSize = Integer.MAX_VALUE;
+	private int maxMessageSize = Integer.MAX_VALUE;
+
+	private MessageConsumer callback;
+	private boolean keepRunning;
+
+	public ChannelMessageProducer(ReadableByteChannel channel, MessageJsonHandler jsonHandler) {
+		this(channel, jsonHandler, null);
+	}
+
+	public ChannelMessageProducer(ReadableByteChannel channel, MessageJsonHandler jsonHandler, MessageIssueHandler issueHandler) {
+		this.channel = channel;
+		this.jsonHandler = jsonHandler;
+		this.issueHandler = issueHandler;
+		this.readBuffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+		this.readBuffer.flip();
+	}
+
+	public ReadableByteChannel getChannel() {
+		return channel;
+	}
+
+	public int getMaxInMemoryMessageSize() {
+		return maxInMemoryMessageSize;
+	}
+
+	/**
+	 * Set the maximum content length of messages that are read into memory.
+	 * See {@link StreamMessageProducer#setMaxInMemoryMessageSize(int)}.
+	 */
+	public void setMaxInMemoryMessageSize(int maxInMemoryMessageSize) {
+		if (maxInMemoryMessageSize < 0)
+			throw new IllegalArgumentException("maxInMemoryMessageSize must not be negative.");
+		this.maxInMemoryMessageSize = maxInMemoryMessageSize;
+	}
+
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * Set the maximum content length of messages. See {@link StreamMessageProducer#setMaxMessageSize(int)}.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize < 0)
+			throw new IllegalArgumentException("maxMessageSize must not be negative.");
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	@Override
+	public void listen(MessageConsumer callback) {
+		if (keepRunning) {
+			throw new IllegalStateException("This ChannelMessageProducer is already running.");
+		}
+		this.keepRunning = true;
+		this.callback = callback;
+		try {
+			readMessages();
+		} catch (IOException exception) {
+			if (JsonRpcException.indicatesStreamClosed(exception)) {
+				// Only log the error if we had intended to keep running
+				if (keepRunning)
+					fireStreamClosed(exception);
+			} else
+				throw new JsonRpcException(exception);
+		} finally {
+			this.callback = null;
+			this.keepRunning = false;
+		}
+	}
+
+	/**
+	 * Read messages until the end of the channel is reached or this producer is closed.
+	 */
+	protected void readMessages() throws IOException {
+		HeaderScanner scanner = headerScanner;
+		scanner.reset();
+		while (keepRunning) {
+			if (!readBuffer.hasRemaining() && !fill()) {
+				// End of channel has been reached
+				keepRunning = false;
+			} else if (scanner.add(readBuffer.get())) {
+				Headers headers = scanner.getHeaders();
+				if (headers.contentLength < 0) {
+					fireError(new IllegalStateException("Missing header " + CONTENT_LENGTH_HEADER
+							+ " in input \"" + scanner.getText() + "\""));
+				} else if (!handleMessage(headers)) {
+					keepRunning = false;
+				}
+				scanner.reset();
+			}
+		} // while (keepRunning)
+	}
+
+	/**
+	 * Refill the read buffer from the channel.
+	 *
+	 * @return {@code false} if the end of the channel has been reached
+	 */
+	protected boolean fill() throws IOException {
+		readBuffer.clear();
+		int count = channel.read(readBuffer);
+		readBuffer.flip();
+		return count > 0;
+	}
+
+	/**
+	 * Log an error.
+	 */
+	protected void fireError(Throwable error) {
+		String message = error.getMessage() != null ? error.getMessage() : "An error occurred while processing an incoming message.";
+		LOG.log(Level.SEVERE, message, error);
+	}
+
+	/**
+	 * Report that the channel was closed through an exception.
+	 */
+	protected void fireStreamClosed(Exception cause) {
+		String message = cause.getMessage() != null ? cause.getMessage() : "The input channel was closed.";
+		LOG.log(Level.INFO, message, cause);
+	}
+
+	/**
+	 * Read the JSON content part of a message, parse it, and notify the callback.
+	 *
+	 * @return {@code true} if we should continue reading from the channel, {@code false} if we should stop
+	 */
+	protected boolean handleMessage(Headers headers) throws IOException {
+		if (callback == null)
+			callback = message -> LOG.log(Level.INFO, "Received message: " + message);
+
+		int contentLength = headers.contentLength;
+		if (contentLength > maxMessageSize)
+			return handleOversizedMessage(headers);
+
+		ByteBuffer content;
+		try {
+			if (contentLength > maxInMemoryMessageSize) {
+				content = contentBuffer.readToTemporaryFile(contentInput, contentLength);
+			} else {
+				byte[] buffer = getContentBuffer(contentLength);
+				content = ContentBuffer.readFully(contentInput, buffer, contentLength) ? ByteBuffer.wrap(buffer, 0, contentLength) : null;
+			}
+		} catch (IOException exception) {
+			if (!channel.isOpen())
+				throw exception;
+			// A temporary file could not be written, but the content has been skipped
+			fireError(exception);
+			return true;
+		}
+		if (content == null)
+			return false;
+
+		try {
+			if (headers.accept != null)
+				jsonHandler.handleAcceptHeader(headers.accept);
+			content = MessageCompression.decodeContent(jsonHandler, content, headers, maxMessageSize, maxInMemoryMessageSize);
+			try {
+				Message message = jsonHandler.parseMessage(content, HeaderScanner.toCharset(headers.charset), headers.contentType);
+				callback.consume(message);
+			} catch (MessageIssueException exception) {
+				// An issue was found while parsing or validating the message
+				if (issueHandler != null)
+					issueHandler.handle(exception.getRpcMessage(), exception.getIssues());
+				else
+					fireError(exception);
+			}
+		} catch (Exception exception) {
+			// IllegalCharsetNameException and UnsupportedCharsetException can be thrown by Charset.forName
+			// ZipException can be thrown when decompressing the content
+			// JsonParseException can be thrown by jsonHandler
+			// We also catch arbitrary exceptions that are thrown by message consumers in order to keep this thread alive
+			fireError(exception);
+		}
+		return true;
+	}
+
+	/**
+	 * Skip the content of a message that exceeds the maximum message size and report an issue for it.
+	 * See {@link StreamMessageProducer#handleOversizedMessage(InputStream, Headers)}.
+	 *
+	 * @return {@code true} if we should continue reading from the channel, {@code false} if we should stop
+	 */
+	protected boolean handleOversizedMessage(Headers headers) throws IOException {
+		int contentLength = headers.contentLength;
+		ByteBuffer head = contentBuffer.readHead(contentInput, contentLength);
+		if (head == null)
+			return false;
+
+		Message message = jsonHandler.parseMessageHead(new ByteBufferReader(head, HeaderScanner.toCharset(headers.charset)));
+		MessageIssue issue = ContentBuffer.createOversizedIssue(contentLength, maxMessageSize);
+		if (issueHandler != null && message != null)
+			issueHandler.handle(message, Collections.singletonList(issue));
+		else
+			fireError(new MessageIssueException(message, issue));
+		return true;
+	}
+
+	/**
+	 * Return a buffer with at least the given length for reading message content.
+	 */
+	protected byte[] getContentBuffer(int contentLength) {
+		return contentBuffer.get(contentLength);
+	}
+
+	@Override
+	public void close() {
+		keepRunning = false;
+	}
+
+	/**
+	 * Reads message content from the read buffer and the channel. Large reads go directly from the channel
+	 * into the target array.
+	 */
+	private class ChannelInput extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			if (!readBuffer.hasRemaining() && !fill())
+				return -1;
+			return readBuffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!readBuffer.hasRemaining()) {
+				if (len >= readBuffer.capacity())
+					return channel.read(ByteBuffer.wrap(b, off, len));
+				if (!fill())
+					return -1;
+			}
+			int count = Math.min(readBuffer.remaining(), len);
+			readBuffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (!readBuffer.hasRemaining() && !fill())
+				return 0;
+			int count = (int) Math.min(readBuffer.remaining(), n);
+			readBuffer.position(readBuffer.position() + count);
+			return count;
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
+
+/**
+ * A message consumer that hands serialized messages over to a writer task instead of writing them to the
+ * output stream directly. The writer drains all queued messages into a single buffer and flushes the output
+ * stream once per batch, so that bursts of messages result in few write calls and no lock contention between
+ * the threads that send messages.
+ *
+ * <p>If a maximum flush delay is configured, the writer waits up to that delay for further messages after
+ * the first message of a batch has been taken from the queue. Otherwise a batch consists of the messages
+ * that were queued at the time the writer became active.</p>
+ */
+public class CoalescingMessageConsumer extends StreamMessageConsumer {
+
+	private static final Logger LOG = Logger.getLogger(CoalescingMessageConsumer.class.getName());
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64 * 1024;
+
+	private final Executor executor;
+	private final long maxFlushDelayNanos;
+	private final int maxBatchSize;
+
+	private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+	private final AtomicBoolean writerScheduled = new AtomicBoolean();
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+	private byte[] batchBuffer;
+	private int batchLength;
+	private volatile IOException writeError;
+
+	public CoalescingMessageConsumer(OutputStream output, MessageJsonHandler jsonHandler) {
+		this(output, StandardCharsets.UTF_8.name(), jsonHandler, null, 0);
+	}
+
+	/**
+	 * @param executor the executor that runs the writer task, or {@code null} to use a dedicated daemon thread
+	 * @param maxFlushDelay the maximum time in milliseconds that a message may wait for further messages
+	 * 		before it is written, or {@code 0} to write queued messages as soon as possible
+	 */
+	public CoalescingMessageConsumer(OutputStream output, String encoding, MessageJsonHandler jsonHandler,
+			Executor executor, long maxFlushDelay) {
+		this(output, encoding, jsonHandler, executor, maxFlushDelay, DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	public CoalescingMessageConsumer(OutputStream output, String encoding, MessageJsonHandler jsonHandler,
+			Executor executor, long maxFlushDelay, int maxBatchSize) {
+		super(output, encoding, jsonHandler);
+		if (maxFlushDelay < 0)
+			throw new IllegalArgumentException("maxFlushDelay must not be negative.");
+		if (maxBatchSize <= 0)
+			throw new IllegalArgumentException("maxBatchSize must be positive.");
+		this.executor = executor != null ? executor : createDefaultExecutor();
+		this.maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxFlushDelay);
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	private static Executor createDefaultExecutor() {
+		// A single thread that terminates when there is nothing to write
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "lsp4j-message-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * The number of messages that have been consumed, but not written to the output stream yet.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * The highest queue depth that has been reached since this consumer was created.
+	 */
+	public int getPeakQueueDepth() {
+		return peakQueueDepth.get();
+	}
+
+	@Override
+	protected void write(byte[] header, byte[] content, int contentLength) throws IOException {
+		IOException error = writeError;
+		if (error != null)
+			throw new JsonRpcException(error);
+		// The content array may be reused by the caller, so header and content are copied into a single frame
+		byte[] frame = Arrays.copyOf(header, header.length + contentLength);
+		System.arraycopy(content, 0, frame, header.length, contentLength);
+		queue.add(frame);
+		int depth = queueDepth.incrementAndGet();
+		peakQueueDepth.accumulateAndGet(depth, Math::max);
+		scheduleWriter();
+	}
+
+	private void scheduleWriter() {
+		if (writerScheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::writeQueuedMessages);
+			} catch (RuntimeException exception) {
+				writerScheduled.set(false);
+				throw exception;
+			}
+		}
+	}
+
+	/**
+	 * Write batches of messages until the queue is empty. At most one instance of this task is active at a time.
+	 */
+	protected void writeQueuedMessages() {
+		try {
+			byte[] frame;
+			while ((frame = queue.poll()) != null) {
+				long deadline = System.nanoTime() + maxFlushDelayNanos;
+				int batchCount = 0;
+				batchLength = 0;
+				OutputStream output = getOutput();
+				do {
+					append(output, frame);
+					batchCount++;
+					if (batchLength >= maxBatchSize)
+						break;
+					frame = queue.poll();
+					if (frame == null && maxFlushDelayNanos > 0) {
+						long remaining = deadline - System.nanoTime();
+						if (remaining > 0)
+							frame = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					}
+				} while (frame != null);
+				if (batchLength > 0)
+					output.write(batchBuffer, 0, batchLength);
+				output.flush();
+				queueDepth.addAndGet(-batchCount);
+			}
+		} catch (IOException exception) {
+			writeError = exception;
+			queue.clear();
+			queueDepth.set(0);
+			LOG.log(Level.SEVERE, "Failed to write outgoing messages.", exception);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		} finally {
+			writerScheduled.set(false);
+			// Messages may have been queued after the last poll, but before the flag was reset
+			if (!queue.isEmpty() && writeError == null)
+				scheduleWriter();
+		}
+	}
+
+	private void append(OutputStream output, byte[] frame) throws IOException {
+		if (frame.length > maxBatchSize) {
+			// Large messages are written directly instead of being copied into the batch buffer
+			if (batchLength > 0) {
+				output.write(batchBuffer, 0, batchLength);
+				batchLength = 0;
+			}
+			output.write(frame);
+			return;
+		}
+		ensureCapacity(batchLength + frame.length);
+		System.arraycopy(frame, 0, batchBuffer, batchLength, frame.length);
+		batchLength += frame.length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (batchBuffer == null)
+			batchBuffer = new byte[Math.max(capacity, 4096)];
+		else if (batchBuffer.length < capacity)
+			batchBuffer = Arrays.copyOf(batchBuffer, Math.max(capacity, 2 * batchBuffer.length));
+	}
+
+}
@@ -13,6 +13,8 @@ package org.eclipse.lsp4j.jsonrpc.json;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -88,6 +90,8 @@ public class ConcurrentMessageProcessor implements Runnable {
 
 	private boolean isRunning;
 
+	private final List<Runnable> endListeners = new CopyOnWriteArrayList<>();
+
 	private final MessageProducer messageProducer;
 	private final MessageConsumer messageConsumer;
 
@@ -127,5 +131,19 @@ public class ConcurrentMessageProcessor implements Runnable {
 
 	protected void processingEnded() {
 		isRunning = false;
+		for (Runnable listener : endListeners) {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Run the given listener whenever processing has ended, e.g. in order to release resources of the connection.
+	 */
+	public void addProcessingEndedListener(Runnable listener) {
+		endListeners.add(listener);
 	}
 }
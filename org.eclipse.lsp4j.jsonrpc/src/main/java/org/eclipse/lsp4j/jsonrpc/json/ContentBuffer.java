@@ -0,0 +1,139 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+
+/**
+ * A byte array for reading the content of messages. It is reused for subsequent messages up to a maximal
+ * size, since the content of a message is fully parsed before the next message is read. Larger content
+ * gets its own array.
+ *
+ * <p>This also implements the size limits of the message producers that read from an input stream or a
+ * blocking channel: content above the in-memory limit is copied into a temporary file, and only the head
+ * of content above the message size limit is read.</p>
+ */
+final class ContentBuffer {
+
+	private final int maxReusedSize;
+	private byte[] buffer;
+
+	ContentBuffer(int maxReusedSize) {
+		this.maxReusedSize = maxReusedSize;
+	}
+
+	/**
+	 * Return a buffer with at least the given length.
+	 */
+	byte[] get(int length) {
+		if (buffer != null && buffer.length >= length)
+			return buffer;
+		if (length > maxReusedSize)
+			return new byte[length];
+		int newLength = buffer == null ? length : Math.max(length, 2 * buffer.length);
+		buffer = new byte[Math.min(newLength, maxReusedSize)];
+		return buffer;
+	}
+
+	/**
+	 * Copy content into a temporary file that is mapped into memory. The file is deleted right away;
+	 * its content remains accessible through the returned buffer until that is garbage collected.
+	 *
+	 * @return the mapped content, or {@code null} if the end of the input has been reached
+	 */
+	ByteBuffer readToTemporaryFile(InputStream input, int contentLength) throws IOException {
+		MappedByteBuffer mapped;
+		try (FileChannel channel = openTemporaryFile()) {
+			mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, contentLength);
+		} catch (IOException exception) {
+			// The content cannot be stored, so skip it in order to continue with the next message
+			if (!skipFully(input, contentLength))
+				return null;
+			throw exception;
+		}
+		byte[] chunk = get(Math.min(contentLength, StreamMessageProducer.SPILL_CHUNK_SIZE));
+		while (mapped.hasRemaining()) {
+			int readResult = input.read(chunk, 0, Math.min(chunk.length, mapped.remaining()));
+			if (readResult == -1)
+				return null;
+			mapped.put(chunk, 0, readResult);
+		}
+		mapped.flip();
+		return mapped;
+	}
+
+	/**
+	 * Read the head of content that exceeds the maximum message size and skip the rest.
+	 *
+	 * @return the head of the content, or {@code null} if the end of the input has been reached
+	 */
+	ByteBuffer readHead(InputStream input, int contentLength) throws IOException {
+		int headLength = Math.min(contentLength, StreamMessageProducer.MESSAGE_HEAD_SIZE);
+		byte[] head = get(headLength);
+		if (!readFully(input, head, headLength) || !skipFully(input, contentLength - headLength))
+			return null;
+		return ByteBuffer.wrap(head, 0, headLength);
+	}
+
+	/**
+	 * Create a temporary file that is deleted when the returned channel is closed.
+	 */
+	static FileChannel openTemporaryFile() throws IOException {
+		Path file = Files.createTempFile("lsp4j-message", ".json");
+		return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+
+	/**
+	 * The issue that is reported for content that exceeds the maximum message size.
+	 */
+	static MessageIssue createOversizedIssue(int contentLength, int maxMessageSize) {
+		return new MessageIssue("The message content length " + contentLength
+				+ " exceeds the maximum message size of " + maxMessageSize + " bytes.", ResponseErrorCode.InvalidRequest.getValue());
+	}
+
+	static boolean readFully(InputStream input, byte[] buffer, int length) throws IOException {
+		int bytesRead = 0;
+		while (bytesRead < length) {
+			int readResult = input.read(buffer, bytesRead, length - bytesRead);
+			if (readResult == -1)
+				return false;
+			bytesRead += readResult;
+		}
+		return true;
+	}
+
+	static boolean skipFully(InputStream input, long length) throws IOException {
+		long remaining = length;
+		while (remaining > 0) {
+			long skipped = input.skip(remaining);
+			if (skipped <= 0) {
+				// Streams may skip nothing before the end is reached, so check with a single read
+				if (input.read() == -1)
+					return false;
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,112 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that reads ahead into a reusable byte buffer. In contrast to {@link java.io.BufferedInputStream}
+ * this class is not synchronized, since it is meant to be used by a single reader thread only. Reading single
+ * bytes, e.g. while scanning message headers, therefore does not involve any locking or calls to the wrapped stream.
+ */
+public class FramingInputStream extends InputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final InputStream input;
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+
+	public FramingInputStream(InputStream input) {
+		this(input, DEFAULT_BUFFER_SIZE);
+	}
+
+	public FramingInputStream(InputStream input, int bufferSize) {
+		if (input == null)
+			throw new NullPointerException("input");
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("bufferSize must be positive.");
+		this.input = input;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public InputStream getInput() {
+		return input;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position >= limit && !fill())
+			return -1;
+		return buffer[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		int buffered = limit - position;
+		if (buffered <= 0) {
+			if (len >= buffer.length) {
+				// Large reads bypass the buffer to avoid an extra copy
+				return input.read(b, off, len);
+			}
+			if (!fill())
+				return -1;
+			buffered = limit - position;
+		}
+		int count = Math.min(buffered, len);
+		System.arraycopy(buffer, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		int buffered = limit - position;
+		if (buffered <= 0)
+			return input.skip(n);
+		long count = Math.min(buffered, n);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (limit - position) + input.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		position = limit = 0;
+		input.close();
+	}
+
+	/**
+	 * Refill the buffer from the wrapped stream.
+	 *
+	 * @return {@code false} if the end of the wrapped stream has been reached
+	 */
+	protected boolean fill() throws IOException {
+		position = limit = 0;
+		int count = input.read(buffer, 0, buffer.length);
+		if (count <= 0)
+			return false;
+		limit = count;
+		return true;
+	}
+
+}
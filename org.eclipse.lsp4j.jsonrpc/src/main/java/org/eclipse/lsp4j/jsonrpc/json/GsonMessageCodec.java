@@ -0,0 +1,84 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * The default message codec, which reads and writes JSON with a {@link Gson} instance that is configured
+ * by {@link MessageJsonHandler#getDefaultGsonBuilder()}.
+ */
+public class GsonMessageCodec implements JsonMessageCodec {
+
+	private final Gson gson;
+
+	public GsonMessageCodec(Gson gson) {
+		this.gson = gson;
+	}
+
+	public Gson getGson() {
+		return gson;
+	}
+
+	@Override
+	public Message parseMessage(Reader input) throws JsonParseException {
+		JsonReader jsonReader = new JsonReader(input);
+		Message message = gson.fromJson(jsonReader, Message.class);
+
+		if (message != null) {
+			// Check whether the input has been fully consumed
+			try {
+				if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+					MessageIssue issue = new MessageIssue("JSON document was not fully consumed.", ResponseErrorCode.ParseError.getValue());
+					throw new MessageIssueException(message, issue);
+				}
+			} catch (MalformedJsonException e) {
+				MessageIssue issue = new MessageIssue("Message could not be parsed.", ResponseErrorCode.ParseError.getValue(), e);
+				throw new MessageIssueException(message, issue);
+			} catch (IOException e) {
+				throw new JsonIOException(e);
+			}
+		}
+		return message;
+	}
+
+	@Override
+	public void serialize(Message message, Writer output) throws JsonIOException {
+		gson.toJson(message, Message.class, output);
+	}
+
+	@Override
+	public void serialize(Message message, SerializationBuffer output) throws JsonIOException {
+		Writer writer = output.getWriter();
+		serialize(message, writer);
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageProducer.Headers;
+
+/**
+ * Scans message header sections directly from their bytes. Strings are only created for the values of
+ * {@code Content-Type}, {@code Accept} and encoding headers and for error reporting.
+ *
+ * <p>An instance collects the bytes of one header section after the other in a reusable buffer and passes
+ * each complete header line to a {@link LineHandler}. It is used by all message producers that read headers
+ * from bytes, so they agree on how header sections are framed.</p>
+ *
+ * <p>The buffer does not grow beyond {@link #MAX_HEADER_SIZE}. Lines that have already been handled are
+ * discarded when it is full, and a single line that exceeds the limit is ignored, so a peer cannot exhaust
+ * the memory with an endless header section.</p>
+ */
+final class HeaderScanner implements MessageConstants {
+
+	/**
+	 * Receives the complete lines of a header section, without the line terminator.
+	 */
+	interface LineHandler {
+		void headerLine(byte[] line, int start, int end, Headers headers);
+	}
+
+	/**
+	 * The maximum number of bytes of a header section that are kept in memory.
+	 */
+	static final int MAX_HEADER_SIZE = 8192;
+
+	private static final String CHARSET_PREFIX = "charset=";
+
+	private final LineHandler lineHandler;
+	private final Headers headers = new Headers();
+	private byte[] buffer = new byte[128];
+	private int length;
+	private int lineStart;
+	private boolean lineContent;
+	private boolean newLine;
+	private boolean lineTruncated;
+
+	/**
+	 * Create a scanner that parses header lines with {@link #parseHeader(byte[], int, int, Headers)}
+	 * and reports invalid header values to the given handler.
+	 */
+	HeaderScanner(Consumer<Exception> errorHandler) {
+		this((line, start, end, headers) -> {
+			Exception error = parseHeader(line, start, end, headers);
+			if (error != null)
+				errorHandler.accept(error);
+		});
+	}
+
+	HeaderScanner(LineHandler lineHandler) {
+		this.lineHandler = lineHandler;
+	}
+
+	/**
+	 * Add the next byte of a header section. A line feed completes a header line, which is passed to the
+	 * line handler, and an empty line completes the header section.
+	 *
+	 * @return {@code true} if the header section is complete, so {@link #getHeaders()} can be read
+	 */
+	boolean add(byte c) {
+		if (!lineTruncated) {
+			if (length < buffer.length || makeRoom())
+				buffer[length++] = c;
+			else
+				lineTruncated = true;
+		}
+		if (c == '\n') {
+			if (newLine) {
+				// Two consecutive newlines have been read, which signals the start of the message content
+				newLine = false;
+				return true;
+			}
+			if (lineTruncated) {
+				// The line exceeds the maximum header size, so it is dropped
+				length = lineStart;
+				lineTruncated = false;
+			} else if (lineContent) {
+				// A single newline ends a header line
+				lineHandler.headerLine(buffer, lineStart, length - 1, headers);
+			}
+			lineStart = length;
+			lineContent = false;
+			newLine = true;
+		} else if (c != '\r') {
+			lineContent = true;
+			newLine = false;
+		}
+		return false;
+	}
+
+	/**
+	 * Grow the buffer up to the maximum header size, or discard the lines that have already been handled.
+	 *
+	 * @return {@code false} if the current line fills the whole buffer
+	 */
+	private boolean makeRoom() {
+		if (buffer.length < MAX_HEADER_SIZE) {
+			buffer = Arrays.copyOf(buffer, Math.min(2 * buffer.length, MAX_HEADER_SIZE));
+			return true;
+		}
+		if (lineStart > 0) {
+			System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+			length -= lineStart;
+			lineStart = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The headers of the current header section.
+	 */
+	Headers getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * The current header section as text, which is used for error reporting. Lines that were discarded
+	 * due to the maximum header size are missing.
+	 */
+	String getText() {
+		return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Discard the current header section in order to scan the next one.
+	 */
+	void reset() {
+		headers.reset();
+		length = 0;
+		lineStart = 0;
+		lineContent = false;
+		newLine = false;
+		lineTruncated = false;
+	}
+
+	/**
+	 * Parse a header attribute from the given range of bytes and set the corresponding data in the
+	 * {@link Headers} fields.
+	 *
+	 * @return an exception describing an invalid header value, or {@code null}
+	 */
+	static Exception parseHeader(byte[] line, int start, int end, Headers headers) {
+		int sepIndex = indexOf(line, start, end, (byte) ':');
+		if (sepIndex >= 0) {
+			int keyStart = skipWhitespace(line, start, sepIndex);
+			int keyEnd = trimWhitespace(line, keyStart, sepIndex);
+			int valueStart = skipWhitespace(line, sepIndex + 1, end);
+			int valueEnd = trimWhitespace(line, valueStart, end);
+			if (matches(line, keyStart, keyEnd, CONTENT_LENGTH_HEADER)) {
+				int contentLength = parseContentLength(line, valueStart, valueEnd);
+				if (contentLength >= 0)
+					headers.contentLength = contentLength;
+				else
+					return new NumberFormatException("For input string: \""
+							+ new String(line, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII) + "\"");
+			} else if (matches(line, keyStart, keyEnd, CONTENT_TYPE_HEADER)) {
+				int charsetIndex = indexOf(line, valueStart, valueEnd, CHARSET_PREFIX);
+				if (charsetIndex >= 0) {
+					int charsetStart = skipWhitespace(line, charsetIndex + CHARSET_PREFIX.length(), valueEnd);
+					if (!matches(line, charsetStart, valueEnd, headers.charset))
+						headers.charset = new String(line, charsetStart, valueEnd - charsetStart, StandardCharsets.US_ASCII);
+				}
+				int paramIndex = indexOf(line, valueStart, valueEnd, (byte) ';');
+				int typeEnd = trimWhitespace(line, valueStart, paramIndex >= 0 ? paramIndex : valueEnd);
+				headers.contentType = new String(line, valueStart, typeEnd - valueStart, StandardCharsets.US_ASCII);
+			} else if (matches(line, keyStart, keyEnd, ACCEPT_HEADER)) {
+				headers.accept = new String(line, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+			} else if (matches(line, keyStart, keyEnd, CONTENT_ENCODING_HEADER)) {
+				headers.contentEncoding = new String(line, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+			} else if (matches(line, keyStart, keyEnd, ACCEPT_ENCODING_HEADER)) {
+				headers.acceptEncoding = new String(line, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolve a charset name, avoiding the lookup for the default charset.
+	 */
+	static Charset toCharset(String name) {
+		if (StandardCharsets.UTF_8.name().equals(name))
+			return StandardCharsets.UTF_8;
+		return Charset.forName(name);
+	}
+
+	/**
+	 * Parse a non-negative decimal number.
+	 *
+	 * @return the number, or {@code -1} if the input is empty, contains non-digit characters, or overflows
+	 */
+	static int parseContentLength(byte[] bytes, int start, int end) {
+		if (start >= end)
+			return -1;
+		int result = 0;
+		for (int i = start; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9 || result > (Integer.MAX_VALUE - digit) / 10)
+				return -1;
+			result = 10 * result + digit;
+		}
+		return result;
+	}
+
+	static int indexOf(byte[] bytes, int start, int end, byte b) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	static int indexOf(byte[] bytes, int start, int end, String ascii) {
+		int last = end - ascii.length();
+		for (int i = start; i <= last; i++) {
+			if (matches(bytes, i, i + ascii.length(), ascii))
+				return i;
+		}
+		return -1;
+	}
+
+	static boolean matches(byte[] bytes, int start, int end, String ascii) {
+		if (end - start != ascii.length())
+			return false;
+		for (int i = 0; i < ascii.length(); i++) {
+			if (bytes[start + i] != ascii.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	static int skipWhitespace(byte[] bytes, int start, int end) {
+		while (start < end && (bytes[start] & 0xff) <= ' ')
+			start++;
+		return start;
+	}
+
+	static int trimWhitespace(byte[] bytes, int start, int end) {
+		while (end > start && (bytes[end - 1] & 0xff) <= ' ')
+			end--;
+		return end;
+	}
+
+}
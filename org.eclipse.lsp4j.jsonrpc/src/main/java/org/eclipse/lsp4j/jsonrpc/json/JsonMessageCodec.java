@@ -0,0 +1,66 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+
+/**
+ * A codec for a textual wire format, which can read and write characters in addition to bytes. The
+ * {@link MessageJsonHandler} requires a codec of this kind for its primary format, since messages are also
+ * parsed from and serialized to strings, e.g. for tracing. A different codec can be configured with
+ * {@link MessageJsonHandler#setCodec(JsonMessageCodec)} or
+ * {@link org.eclipse.lsp4j.jsonrpc.Launcher.Builder#setMessageCodec(java.util.function.Function)}.
+ */
+public interface JsonMessageCodec extends MessageCodec {
+
+	/**
+	 * Parse a single message from the given character input.
+	 */
+	Message parseMessage(Reader input);
+
+	/**
+	 * Serialize a message to the given character output.
+	 */
+	void serialize(Message message, Writer output);
+
+	/**
+	 * Parse a single message from the remaining bytes of the given buffer. The default implementation
+	 * decodes the bytes on the fly with the given charset.
+	 */
+	@Override
+	default Message parseMessage(ByteBuffer input, Charset charset) {
+		return parseMessage(new ByteBufferReader(input, charset));
+	}
+
+	/**
+	 * Serialize a message to the given buffer, which encodes its content as UTF-8. The default implementation
+	 * writes through {@link SerializationBuffer#getWriter()}.
+	 */
+	@Override
+	default void serialize(Message message, SerializationBuffer output) {
+		Writer writer = output.getWriter();
+		serialize(message, writer);
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+
+/**
+ * Converts JSON-RPC messages from and to their wire representation. The {@link MessageJsonHandler}
+ * delegates all parsing and serialization of messages to a codec. The default is {@link GsonMessageCodec},
+ * a {@link JsonMessageCodec} that can also read and write characters; binary codecs such as
+ * {@link CborMessageCodec} implement only this interface and are configured with
+ * {@link MessageJsonHandler#setBinaryCodec(MessageCodec)}.
+ *
+ * <p>Codecs must be thread-safe, since messages are parsed and serialized concurrently. Parse errors
+ * should be reported with a {@link com.google.gson.JsonParseException} or, if the message could be read
+ * but is invalid, with a {@link org.eclipse.lsp4j.jsonrpc.MessageIssueException}.</p>
+ */
+public interface MessageCodec {
+
+	/**
+	 * The MIME type that is sent in the {@code Content-Type} header of messages encoded with this codec.
+	 */
+	default String getContentType() {
+		return MessageConstants.JSON_MIME_TYPE;
+	}
+
+	/**
+	 * Parse a single message from the remaining bytes of the given buffer. The charset is the one declared
+	 * in the {@code Content-Type} header of the message; codecs of binary formats may ignore it.
+	 */
+	Message parseMessage(ByteBuffer input, Charset charset);
+
+	/**
+	 * Serialize a message to the given buffer.
+	 */
+	void serialize(Message message, SerializationBuffer output);
+
+}
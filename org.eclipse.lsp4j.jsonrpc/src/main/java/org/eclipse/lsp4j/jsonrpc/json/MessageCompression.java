@@ -0,0 +1,403 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compression of message content with the {@code deflate} or {@code gzip} content encoding. An instance holds
+ * the compression state of a single connection and is attached to its {@link MessageJsonHandler}.
+ * 
+ * <p>Compression is negotiated with the {@code Accept-Encoding} header: outgoing messages advertise the supported
+ * encodings until the peer has advertised its own, and messages whose content reaches the threshold are
+ * compressed only after the peer has advertised support. Peers that are not aware of compression ignore the
+ * header and thus keep receiving uncompressed messages.</p>
+ * 
+ * <p>{@link Deflater} and {@link Inflater} instances are pooled, so their native state is not allocated
+ * again for each message. Each pool keeps at most {@link #MAX_POOL_SIZE} instances; surplus instances and
+ * the pooled instances on {@link #dispose()} are ended, which releases their native memory.</p>
+ */
+public class MessageCompression {
+
+	public static final String DEFLATE = "deflate";
+	public static final String GZIP = "gzip";
+
+	/**
+	 * The encodings that are advertised to the peer, in order of preference.
+	 */
+	public static final String ACCEPTED_ENCODINGS = DEFLATE + ", " + GZIP;
+
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * The maximum number of idle deflaters or inflaters that are kept per encoding.
+	 */
+	public static final int MAX_POOL_SIZE = 4;
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int GZIP_FHCRC = 2;
+	private static final int GZIP_FEXTRA = 4;
+	private static final int GZIP_FNAME = 8;
+	private static final int GZIP_FCOMMENT = 16;
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static final ThreadLocal<SerializationBuffer> compressBuffer = ThreadLocal.withInitial(SerializationBuffer::new);
+	private static final ThreadLocal<SerializationBuffer> decompressBuffer = ThreadLocal.withInitial(SerializationBuffer::new);
+	private static final ThreadLocal<byte[]> chunkBuffer = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+	private final int threshold;
+	private final int level;
+
+	// Deflaters and inflaters for the zlib format (deflate) and for raw deflate data (gzip)
+	private final Queue<Deflater> zlibDeflaters = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+	private final Queue<Deflater> rawDeflaters = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+	private final Queue<Inflater> zlibInflaters = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+	private final Queue<Inflater> rawInflaters = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+
+	private volatile String acceptedEncoding;
+	private volatile boolean advertised;
+
+	public MessageCompression() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param threshold - the minimum content length of outgoing messages that are compressed
+	 */
+	public MessageCompression(int threshold) {
+		this(threshold, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param threshold - the minimum content length of outgoing messages that are compressed
+	 * @param level - the compression level, see {@link Deflater#setLevel(int)}
+	 */
+	public MessageCompression(int threshold, int level) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("threshold must not be negative.");
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		this.threshold = threshold;
+		this.level = level;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * The encoding that is used for outgoing messages, or {@code null} if the peer has not advertised support
+	 * for compression yet.
+	 */
+	public String getAcceptedEncoding() {
+		return acceptedEncoding;
+	}
+
+	/**
+	 * Whether the {@code Accept-Encoding} header should be written for the next outgoing message. It is written
+	 * at least once and until the peer has advertised its own support for compression.
+	 */
+	public boolean shouldAdvertise() {
+		if (advertised && acceptedEncoding != null)
+			return false;
+		advertised = true;
+		return true;
+	}
+
+	/**
+	 * Evaluate the {@code Accept-Encoding} header of an incoming message. The first supported encoding is used.
+	 */
+	public void handleAcceptEncodingHeader(String acceptEncoding) {
+		if (acceptedEncoding != null)
+			return;
+		for (String entry : acceptEncoding.split(",")) {
+			int paramIndex = entry.indexOf(';');
+			String encoding = (paramIndex >= 0 ? entry.substring(0, paramIndex) : entry).trim();
+			if (DEFLATE.equalsIgnoreCase(encoding)) {
+				acceptedEncoding = DEFLATE;
+				return;
+			} else if (GZIP.equalsIgnoreCase(encoding)) {
+				acceptedEncoding = GZIP;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Determine the encoding for outgoing content of the given length.
+	 * 
+	 * @return the content encoding, or {@code null} if the content should not be compressed
+	 */
+	public String getContentEncoding(int contentLength) {
+		if (contentLength < threshold)
+			return null;
+		return acceptedEncoding;
+	}
+
+	/**
+	 * Compress content with the given encoding. The returned buffer belongs to the current thread and is
+	 * reused by the next invocation of this method on the same thread.
+	 * 
+	 * @return the compressed content, or {@code null} if compression does not reduce its size
+	 */
+	public SerializationBuffer compress(byte[] content, int length, String contentEncoding) {
+		boolean gzip = isGzip(contentEncoding);
+		Queue<Deflater> pool = gzip ? rawDeflaters : zlibDeflaters;
+		Deflater deflater = pool.poll();
+		if (deflater == null)
+			deflater = new Deflater(level, gzip);
+		SerializationBuffer output = compressBuffer.get();
+		output.reset();
+		try {
+			if (gzip)
+				output.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+			deflater.setInput(content, 0, length);
+			deflater.finish();
+			byte[] chunk = chunkBuffer.get();
+			while (!deflater.finished()) {
+				int count = deflater.deflate(chunk);
+				output.write(chunk, 0, count);
+				if (output.size() >= length)
+					// Compression does not pay off for this content
+					return null;
+			}
+			if (gzip) {
+				CRC32 crc = new CRC32();
+				crc.update(content, 0, length);
+				writeIntLE(output, (int) crc.getValue());
+				writeIntLE(output, length);
+			}
+		} finally {
+			deflater.reset();
+			if (!pool.offer(deflater))
+				deflater.end();
+		}
+		return output.size() < length ? output : null;
+	}
+
+	/**
+	 * Decompress content with the given encoding. The returned buffer is backed by an array that belongs to
+	 * the current thread and is reused by the next invocation of this method on the same thread.
+	 * 
+	 * @param maxLength - the maximum length of the decompressed content
+	 * @throws ZipException if the encoding is not supported, the content is corrupt, or the decompressed
+	 * 		content exceeds the maximum length
+	 */
+	public ByteBuffer decompress(ByteBuffer content, String contentEncoding, int maxLength) throws ZipException {
+		try {
+			return decompress(content, contentEncoding, maxLength, Integer.MAX_VALUE);
+		} catch (ZipException exception) {
+			throw exception;
+		} catch (IOException exception) {
+			// Only thrown for temporary files, which are not used without an in-memory limit
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	/**
+	 * Decompress content with the given encoding. Decompressed content up to the given in-memory length is
+	 * returned in a buffer that is backed by an array that belongs to the current thread and is reused by the
+	 * next invocation of this method on the same thread. Longer content is written to a temporary file, which
+	 * is mapped into memory, so that it does not occupy the Java heap.
+	 * 
+	 * @param maxLength - the maximum length of the decompressed content
+	 * @param maxInMemoryLength - the maximum length of decompressed content that is kept on the heap
+	 * @throws ZipException if the encoding is not supported, the content is corrupt, or the decompressed
+	 * 		content exceeds the maximum length
+	 * @throws IOException if a temporary file cannot be written
+	 */
+	public ByteBuffer decompress(ByteBuffer content, String contentEncoding, int maxLength, int maxInMemoryLength)
+			throws IOException {
+		boolean gzip;
+		if (DEFLATE.equalsIgnoreCase(contentEncoding))
+			gzip = false;
+		else if (GZIP.equalsIgnoreCase(contentEncoding))
+			gzip = true;
+		else
+			throw new ZipException("Unsupported content encoding: " + contentEncoding);
+		// A peer that sends compressed content accepts it as well
+		if (acceptedEncoding == null)
+			acceptedEncoding = gzip ? GZIP : DEFLATE;
+
+		byte[] input;
+		int offset;
+		int length = content.remaining();
+		if (content.hasArray()) {
+			input = content.array();
+			offset = content.arrayOffset() + content.position();
+		} else {
+			input = new byte[length];
+			content.duplicate().get(input);
+			offset = 0;
+		}
+		int end = offset + length;
+		if (gzip) {
+			offset = skipGzipHeader(input, offset, end);
+			// The trailer consists of the CRC-32 checksum and the uncompressed size
+			end -= 8;
+			if (end < offset)
+				throw new ZipException("Incomplete gzip content.");
+		}
+
+		Queue<Inflater> pool = gzip ? rawInflaters : zlibInflaters;
+		Inflater inflater = pool.poll();
+		if (inflater == null)
+			inflater = new Inflater(gzip);
+		SerializationBuffer output = decompressBuffer.get();
+		output.reset();
+		CRC32 crc = gzip ? new CRC32() : null;
+		FileChannel spillFile = null;
+		int size = 0;
+		try {
+			inflater.setInput(input, offset, end - offset);
+			byte[] chunk = chunkBuffer.get();
+			while (!inflater.finished()) {
+				int count = inflater.inflate(chunk);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new ZipException("Incomplete " + contentEncoding + " content.");
+				if (size + count > maxLength)
+					throw new ZipException("The decompressed content exceeds the maximum message size of " + maxLength + " bytes.");
+				if (crc != null)
+					crc.update(chunk, 0, count);
+				if (spillFile == null && size + count > maxInMemoryLength) {
+					// Continue in a temporary file with the content that has been decompressed so far
+					spillFile = ContentBuffer.openTemporaryFile();
+					writeFully(spillFile, ByteBuffer.wrap(output.getBytes(), 0, output.size()));
+					output.reset();
+				}
+				if (spillFile != null)
+					writeFully(spillFile, ByteBuffer.wrap(chunk, 0, count));
+				else
+					output.write(chunk, 0, count);
+				size += count;
+			}
+			if (crc != null && (readIntLE(input, end) != (int) crc.getValue() || readIntLE(input, end + 4) != size))
+				throw new ZipException("Corrupt gzip trailer.");
+			if (spillFile != null)
+				return spillFile.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} catch (DataFormatException exception) {
+			ZipException zipException = new ZipException("Invalid " + contentEncoding + " content: " + exception.getMessage());
+			zipException.initCause(exception);
+			throw zipException;
+		} finally {
+			inflater.reset();
+			if (!pool.offer(inflater))
+				inflater.end();
+			// The file is deleted when it is closed; a mapped buffer remains valid
+			if (spillFile != null)
+				spillFile.close();
+		}
+		return ByteBuffer.wrap(output.getBytes(), 0, output.size());
+	}
+
+	/**
+	 * End the pooled deflaters and inflaters in order to release their native memory. This is called when the
+	 * connection is closed; if the instance is used afterwards, new deflaters and inflaters are created.
+	 */
+	public void dispose() {
+		Deflater deflater;
+		while ((deflater = zlibDeflaters.poll()) != null)
+			deflater.end();
+		while ((deflater = rawDeflaters.poll()) != null)
+			deflater.end();
+		Inflater inflater;
+		while ((inflater = zlibInflaters.poll()) != null)
+			inflater.end();
+		while ((inflater = rawInflaters.poll()) != null)
+			inflater.end();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Evaluate the encoding headers of an incoming message and decompress its content if necessary.
+	 */
+	static ByteBuffer decodeContent(MessageJsonHandler jsonHandler, ByteBuffer content, StreamMessageProducer.Headers headers,
+			int maxLength, int maxInMemoryLength) throws IOException {
+		MessageCompression compression = jsonHandler.getCompression();
+		if (compression != null && headers.acceptEncoding != null)
+			compression.handleAcceptEncodingHeader(headers.acceptEncoding);
+		if (headers.contentEncoding == null)
+			return content;
+		if (compression == null)
+			throw new ZipException("Received content with encoding " + headers.contentEncoding + ", but compression is not enabled.");
+		return compression.decompress(content, headers.contentEncoding, maxLength, maxInMemoryLength);
+	}
+
+	private static boolean isGzip(String contentEncoding) {
+		if (GZIP.equals(contentEncoding))
+			return true;
+		if (DEFLATE.equals(contentEncoding))
+			return false;
+		throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+	}
+
+	private static int skipGzipHeader(byte[] input, int offset, int end) throws ZipException {
+		if (end - offset < GZIP_HEADER.length || readShortLE(input, offset) != GZIP_MAGIC || input[offset + 2] != Deflater.DEFLATED)
+			throw new ZipException("Invalid gzip header.");
+		int flags = input[offset + 3] & 0xff;
+		int position = offset + GZIP_HEADER.length;
+		if ((flags & GZIP_FEXTRA) != 0) {
+			if (position + 2 > end)
+				throw new ZipException("Invalid gzip header.");
+			position += 2 + readShortLE(input, position);
+		}
+		if ((flags & GZIP_FNAME) != 0)
+			position = skipZeroTerminated(input, position, end);
+		if ((flags & GZIP_FCOMMENT) != 0)
+			position = skipZeroTerminated(input, position, end);
+		if ((flags & GZIP_FHCRC) != 0)
+			position += 2;
+		if (position > end)
+			throw new ZipException("Invalid gzip header.");
+		return position;
+	}
+
+	private static int skipZeroTerminated(byte[] input, int position, int end) throws ZipException {
+		while (position < end) {
+			if (input[position++] == 0)
+				return position;
+		}
+		throw new ZipException("Invalid gzip header.");
+	}
+
+	private static int readShortLE(byte[] input, int offset) {
+		return (input[offset] & 0xff) | (input[offset + 1] & 0xff) << 8;
+	}
+
+	private static int readIntLE(byte[] input, int offset) {
+		return readShortLE(input, offset) | readShortLE(input, offset + 2) << 16;
+	}
+
+	private static void writeIntLE(SerializationBuffer output, int value) {
+		output.write(value);
+		output.write(value >>> 8);
+		output.write(value >>> 16);
+		output.write(value >>> 24);
+	}
+
+}
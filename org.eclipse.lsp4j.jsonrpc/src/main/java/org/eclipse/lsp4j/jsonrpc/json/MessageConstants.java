@@ -16,7 +16,11 @@ public interface MessageConstants {
 	public static String JSONRPC_VERSION = "2.0";
 	public static String CONTENT_LENGTH_HEADER = "Content-Length";
 	public static String CONTENT_TYPE_HEADER = "Content-Type";
+	public static String ACCEPT_HEADER = "Accept";
+	public static String CONTENT_ENCODING_HEADER = "Content-Encoding";
+	public static String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
 	public static String JSON_MIME_TYPE = "application/json";
+	public static String CBOR_MIME_TYPE = "application/vscode-jsonrpc+cbor";
 	public static String CRLF = "\r\n";
 
 }
@@ -0,0 +1,124 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+
+/**
+ * The serialized content of an outgoing message and the attributes that go into its header. This is shared
+ * by the message consumers, so they agree on how messages are encoded, compressed and framed.
+ */
+final class MessageFrame implements MessageConstants {
+
+	/**
+	 * Appends a header attribute, see {@link StreamMessageConsumer#appendHeader(StringBuilder, String, Object)}.
+	 */
+	interface HeaderAppender {
+		StringBuilder appendHeader(StringBuilder builder, String name, Object value);
+	}
+
+	final byte[] content;
+	final int contentLength;
+	/**
+	 * The content type of a binary format, or {@code null} for JSON.
+	 */
+	final String contentType;
+	/**
+	 * The content encoding of compressed content, or {@code null}.
+	 */
+	final String contentEncoding;
+
+	private MessageFrame(byte[] content, int contentLength, String contentType, String contentEncoding) {
+		this.content = content;
+		this.contentLength = contentLength;
+		this.contentType = contentType;
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * Serialize a message in the binary format accepted by the peer, or to JSON with the given encoding,
+	 * and compress it if compression is enabled in the JSON handler. The content array may be a buffer
+	 * of the JSON handler that is reused for the next message on the same thread.
+	 */
+	static MessageFrame encode(MessageJsonHandler jsonHandler, Message message, String encoding) throws IOException {
+		byte[] contentBytes;
+		int contentLength;
+		String contentType = null;
+		MessageCodec binaryCodec = jsonHandler.getBinaryOutputCodec();
+		if (binaryCodec != null) {
+			// The peer accepts the binary wire format
+			SerializationBuffer buffer = jsonHandler.serializeToBuffer(message, binaryCodec);
+			contentBytes = buffer.getBytes();
+			contentLength = buffer.size();
+			contentType = binaryCodec.getContentType();
+		} else if (StandardCharsets.UTF_8.name().equalsIgnoreCase(encoding)) {
+			// Serialize directly to bytes, so the content never exists as a string
+			SerializationBuffer buffer = jsonHandler.serializeToBuffer(message);
+			contentBytes = buffer.getBytes();
+			contentLength = buffer.size();
+		} else {
+			String content = jsonHandler.serialize(message);
+			contentBytes = content.getBytes(encoding);
+			contentLength = contentBytes.length;
+		}
+
+		String contentEncoding = null;
+		MessageCompression compression = jsonHandler.getCompression();
+		if (compression != null && (contentEncoding = compression.getContentEncoding(contentLength)) != null) {
+			SerializationBuffer compressed = compression.compress(contentBytes, contentLength, contentEncoding);
+			if (compressed != null) {
+				contentBytes = compressed.getBytes();
+				contentLength = compressed.size();
+			} else {
+				contentEncoding = null;
+			}
+		}
+		return new MessageFrame(contentBytes, contentLength, contentType, contentEncoding);
+	}
+
+	/**
+	 * Construct the header of a message whose content is encoded with the given content type and content
+	 * encoding. A {@code null} content type denotes JSON with the given encoding. Binary formats and compression
+	 * that are enabled in the JSON handler are advertised to the peer as long as they are not used.
+	 */
+	static String getHeader(MessageJsonHandler jsonHandler, String encoding, int contentLength, String contentType,
+			String contentEncoding, HeaderAppender appender) {
+		StringBuilder headerBuilder = new StringBuilder();
+		appender.appendHeader(headerBuilder, CONTENT_LENGTH_HEADER, contentLength).append(CRLF);
+		if (contentType != null) {
+			appender.appendHeader(headerBuilder, CONTENT_TYPE_HEADER, contentType).append(CRLF);
+		} else {
+			if (!StandardCharsets.UTF_8.name().equals(encoding)) {
+				appender.appendHeader(headerBuilder, CONTENT_TYPE_HEADER, JSON_MIME_TYPE);
+				headerBuilder.append("; charset=").append(encoding).append(CRLF);
+			}
+			MessageCodec binaryCodec = jsonHandler.getBinaryCodec();
+			if (binaryCodec != null) {
+				// Advertise the binary wire format to the peer
+				appender.appendHeader(headerBuilder, ACCEPT_HEADER, binaryCodec.getContentType()).append(CRLF);
+			}
+		}
+		if (contentEncoding != null) {
+			appender.appendHeader(headerBuilder, CONTENT_ENCODING_HEADER, contentEncoding).append(CRLF);
+		} else {
+			MessageCompression compression = jsonHandler.getCompression();
+			if (compression != null && compression.shouldAdvertise())
+				appender.appendHeader(headerBuilder, ACCEPT_ENCODING_HEADER, MessageCompression.ACCEPTED_ENCODINGS).append(CRLF);
+		}
+		headerBuilder.append(CRLF);
+		return headerBuilder.toString();
+	}
+
+}
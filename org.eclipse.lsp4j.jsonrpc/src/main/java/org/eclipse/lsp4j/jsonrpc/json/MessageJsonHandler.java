@@ -16,32 +16,43 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
 
-import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.CollectionTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.EitherTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.EnumTypeAdapter;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.LazyParamsTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.MessageTypeAdapter;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.StreamingTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.ThrowableTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.json.adapters.TupleTypeAdapters;
 import org.eclipse.lsp4j.jsonrpc.messages.CancelParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
-import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
-import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
+import org.eclipse.lsp4j.jsonrpc.services.GenericEndpoint;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
-import com.google.gson.stream.MalformedJsonException;
 
 /**
- * A wrapper around Gson that includes configuration required for JSON-RPC messages.
+ * A wrapper around Gson that includes configuration required for JSON-RPC messages. Parsing and serialization
+ * of messages are delegated to a {@link JsonMessageCodec}, which is a {@link GsonMessageCodec} by default.
  */
 public class MessageJsonHandler {
 	
@@ -51,14 +62,31 @@ public class MessageJsonHandler {
 	
 	private final Map<String, JsonRpcMethod> supportedMethods;
 	
+	private final Consumer<GsonBuilder> configureGson;
+	
+	private final Map<String, MethodTypeAdapters> methodTypeAdapters;
+	
 	private MethodProvider methodProvider;
 	
+	private JsonMessageCodec codec;
+	
+	private MessageCodec binaryCodec;
+	
+	private volatile boolean binaryAccepted;
+	
+	private MessageCompression compression;
+	
+	private boolean lazyParams;
+	
 	/**
 	 * @param supportedMethods - a map used to resolve RPC methods in {@link #getJsonRpcMethod(String)}
 	 */
 	public MessageJsonHandler(Map<String, JsonRpcMethod> supportedMethods) {
 		this.supportedMethods = supportedMethods;
+		this.configureGson = null;
 		this.gson = getDefaultGsonBuilder().create();
+		this.codec = new GsonMessageCodec(gson);
+		this.methodTypeAdapters = createMethodTypeAdapters();
 	}
 	
 	/**
@@ -67,9 +95,52 @@ public class MessageJsonHandler {
 	 */
 	public MessageJsonHandler(Map<String, JsonRpcMethod> supportedMethods, Consumer<GsonBuilder> configureGson) {
 		this.supportedMethods = supportedMethods;
+		this.configureGson = configureGson;
 		GsonBuilder gsonBuilder = getDefaultGsonBuilder();
 		configureGson.accept(gsonBuilder);
 		this.gson = gsonBuilder.create();
+		this.codec = new GsonMessageCodec(gson);
+		this.methodTypeAdapters = createMethodTypeAdapters();
+	}
+	
+	/**
+	 * Create a handler that shares the supported methods and the type adapters of the given prototype, see
+	 * {@link #newInstance()}. Only the adapters for {@link Message} types are created for this handler, since
+	 * they refer to their handler. These adapters come from the factories registered by
+	 * {@link #getDefaultGsonBuilder()} and by the {@code configureGson} function of the prototype, which is
+	 * applied again for this handler, so both must be able to run once per connection. The resulting
+	 * Gson instance is cheap to create because all other adapters are taken from the prototype.
+	 */
+	protected MessageJsonHandler(MessageJsonHandler prototype) {
+		this.supportedMethods = prototype.supportedMethods;
+		this.configureGson = prototype.configureGson;
+		GsonBuilder gsonBuilder = getDefaultGsonBuilder();
+		if (configureGson != null)
+			configureGson.accept(gsonBuilder);
+		Gson sharedGson = prototype.gson;
+		this.gson = gsonBuilder
+			.registerTypeAdapterFactory(new TypeAdapterFactory() {
+				@Override
+				public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+					// Message adapters refer to their handler, all other adapters are taken from the prototype
+					if (Message.class.isAssignableFrom(typeToken.getRawType()))
+						return null;
+					return sharedGson.getAdapter(typeToken);
+				}
+			})
+			.create();
+		this.codec = new GsonMessageCodec(gson);
+		this.methodTypeAdapters = prototype.methodTypeAdapters;
+	}
+	
+	/**
+	 * Create a handler for another connection of the same protocol. The new handler shares the supported methods,
+	 * the Gson type adapters and the method type adapters with this handler, so it is much cheaper to create than
+	 * a handler with its own Gson instance. Settings that belong to a connection, such as the method provider,
+	 * the codecs and the compression, are not shared.
+	 */
+	public MessageJsonHandler newInstance() {
+		return new MessageJsonHandler(this);
 	}
 	
 	/**
@@ -82,6 +153,8 @@ public class MessageJsonHandler {
 			.registerTypeAdapterFactory(new EitherTypeAdapter.Factory())
 			.registerTypeAdapterFactory(new TupleTypeAdapters.TwoTypeAdapterFactory())
 			.registerTypeAdapterFactory(new EnumTypeAdapter.Factory())
+			.registerTypeAdapterFactory(new LazyParamsTypeAdapter.Factory())
+			.registerTypeAdapterFactory(new StreamingTypeAdapter.Factory())
 			.registerTypeAdapterFactory(new MessageTypeAdapter.Factory(this));
 	}
 	
@@ -89,6 +162,15 @@ public class MessageJsonHandler {
 		return gson;
 	}
 	
+	private Map<String, MethodTypeAdapters> createMethodTypeAdapters() {
+		Map<String, MethodTypeAdapters> result = new HashMap<>();
+		result.put(CANCEL_METHOD.getMethodName(), new MethodTypeAdapters(CANCEL_METHOD, gson));
+		for (Map.Entry<String, JsonRpcMethod> entry : supportedMethods.entrySet()) {
+			result.put(entry.getKey(), new MethodTypeAdapters(entry.getValue(), gson));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+	
 	/**
 	 * Resolve an RPC method by name.
 	 */
@@ -101,6 +183,23 @@ public class MessageJsonHandler {
 		return null;
 	}
 	
+	/**
+	 * Resolve the type adapters of an RPC method by name. The adapters of the supported methods are kept
+	 * in a table that is created with this handler, so they are resolved only once per method.
+	 * 
+	 * @return the type adapters, or {@code null} if the method is not supported
+	 */
+	public MethodTypeAdapters getMethodTypeAdapters(String name) {
+		if (name == null)
+			return null;
+		MethodTypeAdapters result = methodTypeAdapters.get(name);
+		if (result != null)
+			return result;
+		// The method may have been added to the supported methods after this handler was created
+		JsonRpcMethod method = getJsonRpcMethod(name);
+		return method != null ? new MethodTypeAdapters(method, gson) : null;
+	}
+	
 	public MethodProvider getMethodProvider() {
 		return methodProvider;
 	}
@@ -109,30 +208,187 @@ public class MessageJsonHandler {
 		this.methodProvider = methodProvider;
 	}
 	
+	public JsonMessageCodec getCodec() {
+		return codec;
+	}
+	
+	/**
+	 * Replace the codec used to parse and serialize messages. Codecs that need to resolve RPC methods can
+	 * use {@link #getJsonRpcMethod(String)} and {@link #getMethodProvider()} of this handler.
+	 */
+	public void setCodec(JsonMessageCodec codec) {
+		if (codec == null)
+			throw new NullPointerException("codec");
+		this.codec = codec;
+	}
+	
+	public MessageCodec getBinaryCodec() {
+		return binaryCodec;
+	}
+	
+	/**
+	 * Enable a binary wire format such as {@link CborMessageCodec}. Incoming messages whose {@code Content-Type}
+	 * header matches the content type of the binary codec are parsed with it. Outgoing messages are serialized
+	 * with the binary codec as soon as the peer has advertised support for it, either with an {@code Accept}
+	 * header or by sending a binary message itself; until then, the JSON messages advertise the binary format
+	 * in an {@code Accept} header.
+	 */
+	public void setBinaryCodec(MessageCodec binaryCodec) {
+		this.binaryCodec = binaryCodec;
+	}
+	
+	public MessageCompression getCompression() {
+		return compression;
+	}
+	
+	/**
+	 * Enable compression of message content. See {@link MessageCompression}.
+	 */
+	public void setCompression(MessageCompression compression) {
+		this.compression = compression;
+	}
+	
+	public boolean isLazyParams() {
+		return lazyParams;
+	}
+	
+	/**
+	 * Defer parsing the parameters of incoming requests and notifications until they are dispatched. If enabled,
+	 * the parameters are recorded as {@link LazyParams}, which are parsed by the {@link GenericEndpoint} when a
+	 * handler method is invoked, so messages without handler are never parsed completely. Parameters of cancel
+	 * notifications are always parsed immediately. Note that message validation parses all parameters.
+	 */
+	public void setLazyParams(boolean lazyParams) {
+		this.lazyParams = lazyParams;
+	}
+	
+	/**
+	 * Whether the peer has advertised support for the binary wire format.
+	 */
+	public boolean isBinaryAccepted() {
+		return binaryAccepted;
+	}
+	
+	public void setBinaryAccepted(boolean binaryAccepted) {
+		this.binaryAccepted = binaryAccepted;
+	}
+	
+	/**
+	 * The codec for outgoing messages if the binary wire format is enabled and accepted by the peer,
+	 * otherwise {@code null}.
+	 */
+	public MessageCodec getBinaryOutputCodec() {
+		return binaryAccepted ? binaryCodec : null;
+	}
+	
+	/**
+	 * Evaluate the {@code Accept} header of an incoming message.
+	 */
+	public void handleAcceptHeader(String accept) {
+		if (binaryCodec != null && !binaryAccepted && containsMimeType(accept, binaryCodec.getContentType()))
+			binaryAccepted = true;
+	}
+	
+	private static boolean containsMimeType(String list, String mimeType) {
+		for (String entry : list.split(",")) {
+			int paramIndex = entry.indexOf(';');
+			String type = (paramIndex >= 0 ? entry.substring(0, paramIndex) : entry).trim();
+			if (type.equalsIgnoreCase(mimeType))
+				return true;
+		}
+		return false;
+	}
+	
 	public Message parseMessage(CharSequence input) throws JsonParseException {
 		StringReader reader = new StringReader(input.toString());
 		return parseMessage(reader);
 	}
 	
+	/**
+	 * Parse a message from the remaining bytes of the given buffer. The default codec decodes the bytes while
+	 * the JSON parser consumes them, so neither a copy of the content nor a string is created.
+	 */
+	public Message parseMessage(ByteBuffer input, Charset charset) throws JsonParseException {
+		return codec.parseMessage(input, charset);
+	}
+	
+	/**
+	 * Parse a message with the codec that matches the given content type. Messages without content type or with
+	 * a content type that does not match the binary codec are parsed with the default codec.
+	 */
+	public Message parseMessage(ByteBuffer input, Charset charset, String contentType) throws JsonParseException {
+		MessageCodec binaryCodec = this.binaryCodec;
+		if (contentType != null && binaryCodec != null && containsMimeType(contentType, binaryCodec.getContentType())) {
+			// A peer that sends binary messages also accepts them
+			binaryAccepted = true;
+			return binaryCodec.parseMessage(input, charset);
+		}
+		return codec.parseMessage(input, charset);
+	}
+	
 	public Message parseMessage(Reader input) throws JsonParseException {
-		JsonReader jsonReader = new JsonReader(input);
-		Message message = gson.fromJson(jsonReader, Message.class);
-		
-		if (message != null) {
-			// Check whether the input has been fully consumed
-			try {
-				if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
-					MessageIssue issue = new MessageIssue("JSON document was not fully consumed.", ResponseErrorCode.ParseError.getValue());
-					throw new MessageIssueException(message, issue);
+		return codec.parseMessage(input);
+	}
+	
+	/**
+	 * Parse the properties that identify a message, i.e. its {@code id} and {@code method}, from the beginning
+	 * of its content. This is used to report issues for messages whose content is not available completely,
+	 * e.g. because it exceeds the maximum message size. Parsing stops at the end of the given input without
+	 * reporting an error.
+	 * 
+	 * @return a message with only the identifying properties set, or {@code null} if the type of message
+	 * 		cannot be determined from the given input
+	 */
+	public Message parseMessageHead(Reader input) {
+		JsonReader in = new JsonReader(input);
+		in.setLenient(true);
+		Either<String, Number> id = null;
+		String method = null;
+		boolean isResponse = false;
+		try {
+			in.beginObject();
+			while (in.hasNext() && (id == null || method == null && !isResponse)) {
+				String name = in.nextName();
+				switch (name) {
+				case "id":
+					if (in.peek() == JsonToken.NUMBER)
+						id = Either.forRight(in.nextInt());
+					else
+						id = Either.forLeft(in.nextString());
+					break;
+				case "method":
+					method = in.nextString();
+					break;
+				case "result":
+				case "error":
+					isResponse = true;
+					in.skipValue();
+					break;
+				default:
+					in.skipValue();
 				}
-			} catch (MalformedJsonException e) {
-				MessageIssue issue = new MessageIssue("Message could not be parsed.", ResponseErrorCode.ParseError.getValue(), e);
-				throw new MessageIssueException(message, issue);
-			} catch (IOException e) {
-				throw new JsonIOException(e);
 			}
+		} catch (IOException | IllegalStateException | NumberFormatException e) {
+			// The available input ends within the message content
 		}
-		return message;
+		if (id != null && method != null) {
+			RequestMessage message = new RequestMessage();
+			message.setJsonrpc(MessageConstants.JSONRPC_VERSION);
+			message.setRawId(id);
+			message.setMethod(method);
+			return message;
+		} else if (id != null && isResponse) {
+			ResponseMessage message = new ResponseMessage();
+			message.setJsonrpc(MessageConstants.JSONRPC_VERSION);
+			message.setRawId(id);
+			return message;
+		} else if (method != null) {
+			NotificationMessage message = new NotificationMessage();
+			message.setJsonrpc(MessageConstants.JSONRPC_VERSION);
+			message.setMethod(method);
+			return message;
+		}
+		return null;
 	}
 	
 	public String serialize(Message message) {
@@ -142,7 +398,28 @@ public class MessageJsonHandler {
 	}
 	
 	public void serialize(Message message, Writer output) throws JsonIOException {
-		gson.toJson(message, Message.class, output);
+		codec.serialize(message, output);
+	}
+	
+	private static final ThreadLocal<SerializationBuffer> serializationBuffer = ThreadLocal.withInitial(SerializationBuffer::new);
+	
+	/**
+	 * Serialize a message to UTF-8 encoded bytes. The returned buffer belongs to the current thread and is
+	 * reused by the next invocation of this method on the same thread, so its content must be consumed before.
+	 */
+	public SerializationBuffer serializeToBuffer(Message message) throws JsonIOException {
+		return serializeToBuffer(message, codec);
+	}
+	
+	/**
+	 * Serialize a message to bytes with the given codec, e.g. the {@link #getBinaryOutputCodec() binary codec}.
+	 * The returned buffer is reused as described in {@link #serializeToBuffer(Message)}.
+	 */
+	public SerializationBuffer serializeToBuffer(Message message, MessageCodec codec) throws JsonIOException {
+		SerializationBuffer buffer = serializationBuffer.get();
+		buffer.reset();
+		codec.serialize(message, buffer);
+		return buffer;
 	}
 	
 	
@@ -150,12 +427,14 @@ public class MessageJsonHandler {
 	
 	/**
 	 * Perform JSON serialization of the given object using the default configuration of JSON-RPC messages
-	 * enhanced with the pretty printing option.
+	 * enhanced with the pretty printing option. Iterators and streams are not consumed, since they can
+	 * be written only once.
 	 */
 	public static String toString(Object object) {
 		if (toStringInstance == null) {
 			toStringInstance = new MessageJsonHandler(Collections.emptyMap(), gsonBuilder -> {
 				gsonBuilder.setPrettyPrinting();
+				gsonBuilder.registerTypeAdapterFactory(new StreamingTypeAdapter.Factory(false));
 			});
 		}
 		return toStringInstance.gson.toJson(object);
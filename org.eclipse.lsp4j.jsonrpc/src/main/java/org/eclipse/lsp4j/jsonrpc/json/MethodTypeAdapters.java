@@ -0,0 +1,101 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.lang.reflect.Type;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * The type adapters for the parameters and the result of a {@link JsonRpcMethod}. The adapters are
+ * resolved when they are first needed and then reused for all messages of the method, including the
+ * adapter created by the {@link JsonRpcMethod#getReturnTypeAdapterFactory() return type adapter factory}.
+ *
+ * <p>A {@code null} adapter means that the type is unknown or {@link Void}, so the JSON value should
+ * not be converted.</p>
+ */
+public class MethodTypeAdapters {
+
+	private static final Type[] EMPTY_TYPE_ARRAY = {};
+
+	private final JsonRpcMethod method;
+	private final Gson gson;
+	private final Type[] parameterTypes;
+
+	private volatile TypeAdapter<?>[] parameterAdapters;
+	private volatile TypeAdapter<?> resultAdapter;
+	private volatile boolean resultResolved;
+
+	public MethodTypeAdapters(JsonRpcMethod method, Gson gson) {
+		this.method = method;
+		this.gson = gson;
+		this.parameterTypes = method.getParameterTypes() != null ? method.getParameterTypes() : EMPTY_TYPE_ARRAY;
+	}
+
+	public JsonRpcMethod getMethod() {
+		return method;
+	}
+
+	public Type[] getParameterTypes() {
+		return parameterTypes;
+	}
+
+	public int getParameterCount() {
+		return parameterTypes.length;
+	}
+
+	/**
+	 * The adapter for the parameter at the given index, or {@code null} if the value should not be converted.
+	 */
+	public TypeAdapter<?> getParameterAdapter(int index) {
+		TypeAdapter<?>[] adapters = parameterAdapters;
+		if (adapters == null) {
+			adapters = new TypeAdapter<?>[parameterTypes.length];
+			for (int i = 0; i < adapters.length; i++) {
+				adapters[i] = getAdapter(parameterTypes[i]);
+			}
+			parameterAdapters = adapters;
+		}
+		return adapters[index];
+	}
+
+	/**
+	 * The adapter for the result of a request, or {@code null} if the value should not be converted.
+	 */
+	public TypeAdapter<?> getResultAdapter() {
+		if (!resultResolved) {
+			TypeAdapter<?> adapter = null;
+			Type returnType = method.getReturnType();
+			if (method.getReturnTypeAdapterFactory() != null && returnType != null)
+				adapter = method.getReturnTypeAdapterFactory().create(gson, TypeToken.get(returnType));
+			if (adapter == null)
+				adapter = getAdapter(returnType);
+			resultAdapter = adapter;
+			resultResolved = true;
+		}
+		return resultAdapter;
+	}
+
+	private TypeAdapter<?> getAdapter(Type type) {
+		if (type == null || type == Void.class)
+			return null;
+		return gson.getAdapter(TypeToken.get(type));
+	}
+
+	@Override
+	public String toString() {
+		return "MethodTypeAdapters [" + method.getMethodName() + "]";
+	}
+
+}
@@ -0,0 +1,149 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+
+/**
+ * Parses incoming messages in parallel and passes them to a message consumer in the order in which they have
+ * been submitted. The consumer is never called concurrently, so it observes the same sequence of messages as
+ * with sequential parsing, e.g. for a series of {@code textDocument/didChange} notifications.
+ *
+ * <p>Messages are delivered by the thread that completes the oldest pending message. The number of pending
+ * messages is limited; {@link #submit(Callable)} blocks if the limit is reached.</p>
+ */
+public class ParallelMessageParser {
+
+	private static class PendingMessage {
+		Message message;
+		Exception error;
+		volatile boolean done;
+	}
+
+	private final Executor executor;
+	private final int maxPendingMessages;
+	private final MessageConsumer consumer;
+	private final Consumer<Exception> errorHandler;
+
+	private final Deque<PendingMessage> pending = new ArrayDeque<>();
+	private final AtomicBoolean delivering = new AtomicBoolean();
+
+	/**
+	 * @param executor - runs the parse tasks
+	 * @param maxPendingMessages - the maximal number of messages that are parsed or wait for delivery
+	 * @param consumer - receives the parsed messages in the order of submission
+	 * @param errorHandler - receives the exceptions thrown by parse tasks or by the consumer, in the order of submission
+	 */
+	public ParallelMessageParser(Executor executor, int maxPendingMessages, MessageConsumer consumer,
+			Consumer<Exception> errorHandler) {
+		if (maxPendingMessages <= 0)
+			throw new IllegalArgumentException("maxPendingMessages must be positive.");
+		this.executor = executor;
+		this.maxPendingMessages = maxPendingMessages;
+		this.consumer = consumer;
+		this.errorHandler = errorHandler;
+	}
+
+	/**
+	 * Parse a message on the executor. The parser is run on the calling thread if the executor rejects it.
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting for a pending message to be delivered
+	 */
+	public void submit(Callable<Message> parser) throws InterruptedException {
+		PendingMessage pendingMessage = new PendingMessage();
+		synchronized (pending) {
+			while (pending.size() >= maxPendingMessages) {
+				pending.wait();
+			}
+			pending.addLast(pendingMessage);
+		}
+		Runnable task = () -> {
+			try {
+				pendingMessage.message = parser.call();
+			} catch (Exception exception) {
+				pendingMessage.error = exception;
+			}
+			pendingMessage.done = true;
+			deliverCompleted();
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException exception) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Wait until all submitted messages have been delivered.
+	 */
+	public void awaitDelivery() throws InterruptedException {
+		synchronized (pending) {
+			while (!pending.isEmpty()) {
+				pending.wait();
+			}
+		}
+	}
+
+	/**
+	 * Deliver the completed messages at the head of the queue. Only one thread delivers at a time; a message
+	 * that is completed while another thread delivers is picked up by that thread or by the following check.
+	 */
+	protected void deliverCompleted() {
+		while (peekCompleted() != null && delivering.compareAndSet(false, true)) {
+			try {
+				PendingMessage head;
+				while ((head = peekCompleted()) != null) {
+					deliver(head);
+				}
+			} finally {
+				delivering.set(false);
+			}
+		}
+	}
+
+	private PendingMessage peekCompleted() {
+		synchronized (pending) {
+			PendingMessage head = pending.peekFirst();
+			if (head == null || !head.done)
+				return null;
+			return head;
+		}
+	}
+
+	private void deliver(PendingMessage pendingMessage) {
+		try {
+			if (pendingMessage.error != null)
+				errorHandler.accept(pendingMessage.error);
+			else
+				consumer.consume(pendingMessage.message);
+		} catch (Exception exception) {
+			// Keep delivering the following messages
+			errorHandler.accept(exception);
+		} finally {
+			synchronized (pending) {
+				// The message is removed only after delivery, so awaitDelivery includes the consumer
+				pending.removeFirst();
+				pending.notifyAll();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,490 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed set of threads that wait for incoming data on many channels with NIO selectors. Each registered
+ * channel is assigned to one of the threads, which invokes its {@link ChannelHandler} whenever data is
+ * available. A single event loop can be shared by all connections of a host, so the number of reader
+ * threads does not grow with the number of connections.
+ *
+ * <p>Handlers run on the event loop threads, so they should not block. In particular, message consumers
+ * that are invoked by a {@link SelectorMessageProducer} delay all other channels of the same thread.</p>
+ *
+ * <p>Registered channels are in non-blocking mode, so data must be written to them with
+ * {@link #write(SelectableChannel, ByteBuffer...)}. Data that a channel does not accept immediately is kept
+ * in a queue of the channel and written by the event loop thread when the channel becomes writable. When the
+ * queue of a channel exceeds {@link #getMaxPendingBytes()}, writers are blocked until the peer has read enough
+ * data. A handler that writes on the event loop thread cannot wait for that, so the channel fails instead.</p>
+ */
+public class SelectorEventLoop implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(SelectorEventLoop.class.getName());
+
+	/**
+	 * The default number of bytes that may be queued for writing to a single channel.
+	 */
+	public static final int DEFAULT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * Receives notifications about a channel that is registered with a {@link SelectorEventLoop}.
+	 */
+	public interface ChannelHandler {
+
+		/**
+		 * The channel has been registered with the given key. This is called on the event loop thread.
+		 */
+		void registered(SelectionKey key);
+
+		/**
+		 * Data can be read from the channel without blocking. This is called on the event loop thread.
+		 */
+		void readable(SelectionKey key);
+
+		/**
+		 * The channel could not be registered, writing to the channel has failed because too much data was
+		 * pending, or the event loop has been closed.
+		 */
+		void closed(Throwable cause);
+
+	}
+
+	private final Worker[] workers;
+	private final AtomicInteger nextWorker = new AtomicInteger();
+	private final Map<SelectableChannel, Registration> registrations = new ConcurrentHashMap<>();
+	private volatile int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+	public SelectorEventLoop() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public SelectorEventLoop(int threadCount) throws IOException {
+		if (threadCount <= 0)
+			throw new IllegalArgumentException("threadCount must be positive.");
+		workers = new Worker[threadCount];
+		try {
+			for (int i = 0; i < threadCount; i++) {
+				workers[i] = new Worker(Selector.open());
+			}
+		} catch (IOException exception) {
+			for (Worker worker : workers) {
+				if (worker != null)
+					worker.selector.close();
+			}
+			throw exception;
+		}
+		for (int i = 0; i < threadCount; i++) {
+			Thread thread = new Thread(workers[i], "lsp4j-selector-" + i);
+			thread.setDaemon(true);
+			workers[i].thread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Set the number of bytes that may be queued for writing to a single channel. Writers that exceed this
+	 * limit are blocked until the queue has been drained below it; at least one write is always queued,
+	 * regardless of its size. The default is {@link #DEFAULT_MAX_PENDING_BYTES}.
+	 */
+	public void setMaxPendingBytes(int maxPendingBytes) {
+		if (maxPendingBytes <= 0)
+			throw new IllegalArgumentException("maxPendingBytes must be positive.");
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	public int getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+
+	/**
+	 * Register a channel for read events. The channel is switched to non-blocking mode.
+	 */
+	public void register(SelectableChannel channel, ChannelHandler handler) throws IOException {
+		Worker worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+		Registration registration = new Registration(channel, handler, worker);
+		if (registrations.putIfAbsent(channel, registration) != null)
+			throw new IllegalStateException("The channel is already registered.");
+		try {
+			channel.configureBlocking(false);
+		} catch (IOException exception) {
+			registrations.remove(channel, registration);
+			throw exception;
+		}
+		worker.pendingRegistrations.add(registration);
+		if (!worker.keepRunning && worker.pendingRegistrations.remove(registration)) {
+			registrations.remove(channel, registration);
+			handler.closed(new ClosedSelectorException());
+		} else
+			worker.selector.wakeup();
+	}
+
+	/**
+	 * Stop listening for events of a channel. Data that is still queued for writing is discarded; the channel
+	 * itself is not closed.
+	 */
+	public void unregister(SelectableChannel channel) {
+		Registration registration = registrations.remove(channel);
+		if (registration != null)
+			registration.cancel(new ClosedChannelException());
+	}
+
+	/**
+	 * Write data to a channel. This can be called from any thread. The buffers are written in order with the
+	 * data of previous invocations; their remaining content is copied if the channel does not accept it
+	 * immediately, so they can be reused when this method returns. This blocks only while more than
+	 * {@link #getMaxPendingBytes()} are queued for the channel. A channel that is not registered is written to
+	 * directly if it is in blocking mode.
+	 *
+	 * @throws IOException if a previous write to the channel has failed, if the channel has been unregistered,
+	 *     or if the queue of the channel is full and this is called on the event loop thread
+	 */
+	public void write(SelectableChannel channel, ByteBuffer... buffers) throws IOException {
+		if (!(channel instanceof WritableByteChannel))
+			throw new IllegalArgumentException("The channel must be writable.");
+		while (true) {
+			Registration registration = registrations.get(channel);
+			if (registration != null) {
+				registration.write(buffers);
+				return;
+			}
+			if (!channel.isBlocking())
+				throw new ClosedChannelException();
+			// The channel has not been registered yet
+			if (writeAvailable((WritableByteChannel) channel, buffers))
+				return;
+			// The channel has been switched to non-blocking mode by a concurrent registration
+		}
+	}
+
+	/**
+	 * Write as much of the given buffers as the channel accepts without blocking.
+	 *
+	 * @return {@code false} if the channel did not accept all data
+	 */
+	private static boolean writeAvailable(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+			while (hasRemaining(buffers)) {
+				if (gatheringChannel.write(buffers) == 0)
+					return false;
+			}
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) {
+					if (channel.write(buffer) == 0)
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasRemaining(ByteBuffer[] buffers) {
+		for (ByteBuffer buffer : buffers) {
+			if (buffer.hasRemaining())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stop all threads of this event loop. The handlers of registered channels are notified with
+	 * {@link ChannelHandler#closed(Throwable)}; the channels themselves are not closed.
+	 */
+	@Override
+	public void close() {
+		for (Worker worker : workers) {
+			worker.close();
+		}
+	}
+
+	private class Registration {
+		final SelectableChannel channel;
+		final ChannelHandler handler;
+		final Worker worker;
+		private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+		private long pendingBytes;
+		private SelectionKey key;
+		private IOException writeFailure;
+		private boolean writeRequested;
+		private boolean writersBlocked;
+
+		Registration(SelectableChannel channel, ChannelHandler handler, Worker worker) {
+			this.channel = channel;
+			this.handler = handler;
+			this.worker = worker;
+		}
+
+		/**
+		 * Called on the worker thread when the channel has been registered with its selector.
+		 */
+		synchronized void registered(SelectionKey key) {
+			this.key = key;
+			if (!pendingWrites.isEmpty())
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+
+		synchronized void write(ByteBuffer[] buffers) throws IOException {
+			awaitPendingWrites();
+			if (pendingWrites.isEmpty()) {
+				try {
+					writeAvailable((WritableByteChannel) channel, buffers);
+				} catch (IOException exception) {
+					writeFailure = exception;
+					throw exception;
+				}
+			}
+			for (ByteBuffer buffer : buffers) {
+				if (buffer.hasRemaining()) {
+					ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+					copy.put(buffer).flip();
+					pendingWrites.add(copy);
+					pendingBytes += copy.remaining();
+				}
+			}
+			if (!pendingWrites.isEmpty() && !writeRequested) {
+				writeRequested = true;
+				worker.execute(this::requestWritable);
+			}
+		}
+
+		/**
+		 * Wait until the pending writes have been drained below the high-water mark. The event loop thread
+		 * cannot wait for itself, so the channel fails if the queue is full when it writes.
+		 */
+		private void awaitPendingWrites() throws IOException {
+			while (true) {
+				if (writeFailure != null)
+					throw writeFailure;
+				int maxPendingBytes = SelectorEventLoop.this.maxPendingBytes;
+				if (pendingBytes < maxPendingBytes)
+					return;
+				if (Thread.currentThread() == worker.thread) {
+					IOException exception = new IOException("More than " + maxPendingBytes
+							+ " bytes are pending for the channel, which is written on its event loop thread.");
+					LOG.log(Level.SEVERE, exception.getMessage());
+					fail(exception);
+					throw exception;
+				}
+				if (!writersBlocked) {
+					writersBlocked = true;
+					LOG.log(Level.WARNING, "More than " + maxPendingBytes
+							+ " bytes are pending for the channel, blocking writers until the peer reads the data.");
+				}
+				try {
+					wait();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+
+		/**
+		 * Called on the worker thread when the pending writes exceed the high-water mark. The handler is notified
+		 * after the current event has been handled.
+		 */
+		private void fail(IOException cause) {
+			registrations.remove(channel, this);
+			cancel(cause);
+			worker.tasks.add(() -> handler.closed(cause));
+			worker.selector.wakeup();
+		}
+
+		private synchronized void requestWritable() {
+			if (key != null && key.isValid() && !pendingWrites.isEmpty())
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Called on the worker thread when the channel accepts data.
+		 */
+		synchronized void writable() {
+			try {
+				while (!pendingWrites.isEmpty()) {
+					ByteBuffer buffer = pendingWrites.peek();
+					((WritableByteChannel) channel).write(buffer);
+					if (buffer.hasRemaining()) {
+						// Wait until the channel becomes writable again
+						releaseWriters();
+						return;
+					}
+					pendingWrites.poll();
+					pendingBytes -= buffer.capacity();
+				}
+			} catch (IOException exception) {
+				writeFailure = exception;
+				clearPendingWrites();
+			}
+			releaseWriters();
+			writeRequested = false;
+			if (key.isValid())
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+
+		private void releaseWriters() {
+			if (writersBlocked && (pendingBytes < maxPendingBytes || writeFailure != null)) {
+				writersBlocked = false;
+				notifyAll();
+			}
+		}
+
+		private void clearPendingWrites() {
+			pendingWrites.clear();
+			pendingBytes = 0;
+		}
+
+		synchronized void cancel(IOException cause) {
+			if (writeFailure == null)
+				writeFailure = cause;
+			clearPendingWrites();
+			releaseWriters();
+			if (key != null) {
+				key.cancel();
+				key.selector().wakeup();
+			}
+		}
+
+	}
+
+	private class Worker implements Runnable {
+
+		final Selector selector;
+		final Queue<Registration> pendingRegistrations = new ConcurrentLinkedQueue<>();
+		final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		volatile boolean keepRunning = true;
+		Thread thread;
+
+		Worker(Selector selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (keepRunning) {
+					selector.select();
+					processRegistrations();
+					processTasks();
+					Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+					while (iterator.hasNext()) {
+						SelectionKey key = iterator.next();
+						iterator.remove();
+						Registration registration = (Registration) key.attachment();
+						if (key.isValid() && key.isWritable())
+							registration.writable();
+						if (key.isValid() && key.isReadable()) {
+							try {
+								registration.handler.readable(key);
+							} catch (RuntimeException exception) {
+								LOG.log(Level.SEVERE, "Failed to handle incoming data.", exception);
+							}
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException exception) {
+				if (keepRunning)
+					LOG.log(Level.SEVERE, "The selector failed.", exception);
+			} finally {
+				shutDown();
+			}
+		}
+
+		private void processRegistrations() {
+			Registration registration;
+			while ((registration = pendingRegistrations.poll()) != null) {
+				if (registrations.get(registration.channel) != registration)
+					// The channel has been unregistered meanwhile
+					continue;
+				try {
+					SelectionKey key = registration.channel.register(selector, SelectionKey.OP_READ, registration);
+					registration.registered(key);
+					registration.handler.registered(key);
+				} catch (ClosedChannelException exception) {
+					registrations.remove(registration.channel, registration);
+					registration.handler.closed(exception);
+				}
+			}
+		}
+
+		private void processTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+
+		/**
+		 * Run a task on the thread of this worker.
+		 */
+		void execute(Runnable task) {
+			if (Thread.currentThread() == thread) {
+				task.run();
+			} else {
+				tasks.add(task);
+				selector.wakeup();
+			}
+		}
+
+		private void shutDown() {
+			ClosedSelectorException cause = new ClosedSelectorException();
+			Registration registration;
+			while ((registration = pendingRegistrations.poll()) != null) {
+				registrations.remove(registration.channel, registration);
+				registration.cancel(new ClosedChannelException());
+				registration.handler.closed(cause);
+			}
+			tasks.clear();
+			if (selector.isOpen()) {
+				for (SelectionKey key : selector.keys()) {
+					registration = (Registration) key.attachment();
+					if (registrations.remove(registration.channel, registration))
+						registration.cancel(new ClosedChannelException());
+					registration.handler.closed(cause);
+				}
+				try {
+					selector.close();
+				} catch (IOException exception) {
+					LOG.log(Level.WARNING, "Failed to close the selector.", exception);
+				}
+			}
+		}
+
+		void close() {
+			keepRunning = false;
+			selector.wakeup();
+		}
+
+	}
+
+}
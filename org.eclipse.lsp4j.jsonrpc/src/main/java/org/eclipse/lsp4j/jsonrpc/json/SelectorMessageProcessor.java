@@ -0,0 +1,49 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+
+/**
+ * A message processor for a {@link SelectorMessageProducer}. Messages are read by the producer's
+ * event loop, so no thread of the executor service is occupied while listening.
+ */
+public class SelectorMessageProcessor extends ConcurrentMessageProcessor {
+
+	private final SelectorMessageProducer messageProducer;
+	private final MessageConsumer messageConsumer;
+
+	public SelectorMessageProcessor(SelectorMessageProducer messageProducer, MessageConsumer messageConsumer) {
+		super(messageProducer, messageConsumer);
+		this.messageProducer = messageProducer;
+		this.messageConsumer = messageConsumer;
+	}
+
+	/**
+	 * Register the message producer with its event loop.
+	 * 
+	 * @param executorService - not used, since messages are read by the event loop
+	 * @return a future that is resolved when the end of the channel is reached or the producer is closed
+	 */
+	@Override
+	public Future<Void> beginProcessing(ExecutorService executorService) {
+		processingStarted();
+		CompletableFuture<Void> result = messageProducer.beginListening(messageConsumer)
+				.whenComplete((r, t) -> processingEnded());
+		return wrapFuture(result, messageProducer);
+	}
+
+}
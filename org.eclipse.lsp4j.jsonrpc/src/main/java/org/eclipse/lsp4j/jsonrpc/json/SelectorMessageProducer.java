@@ -0,0 +1,402 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
+import org.eclipse.lsp4j.jsonrpc.MessageIssueHandler;
+import org.eclipse.lsp4j.jsonrpc.MessageProducer;
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageProducer.Headers;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
+
+/**
+ * A message producer that reads from a non-blocking channel, e.g. a {@link java.nio.channels.SocketChannel}.
+ * Instead of blocking a thread per connection, the channel is registered with a {@link SelectorEventLoop}
+ * that may be shared by many connections. Incoming data is collected in a buffer until a complete message
+ * is available, which is then parsed and passed to the callback on the event loop thread. Content that
+ * exceeds the maximum in-memory message size is written to a temporary file as it arrives, and content that
+ * exceeds the maximum message size is skipped.
+ *
+ * <p>Use {@link #beginListening(MessageConsumer)} to start reading without blocking the calling thread.
+ * {@link #listen(MessageConsumer)} is supported as well, but blocks until the channel is closed.</p>
+ */
+public class SelectorMessageProducer implements MessageProducer, Closeable, MessageConstants {
+
+	private static final Logger LOG = Logger.getLogger(SelectorMessageProducer.class.getName());
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * Read buffers up to this size are kept for reading subsequent messages.
+	 */
+	protected static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+
+	private final SelectableChannel channel;
+	private final SelectorEventLoop eventLoop;
+	private final MessageJsonHandler jsonHandler;
+	private final MessageIssueHandler issueHandler;
+
+	private final HeaderScanner headerScanner = new HeaderScanner(this::fireError);
+	private ByteBuffer buffer;
+	private int contentLength = -1;
+	private int maxInMemoryMessageSize = Integer.MAX_VALUE;
+	private int maxMessageSize = Integer.MAX_VALUE;
+
+	/** Receives content that is not collected in the read buffer: a temporary file or the head of oversized content */
+	private ByteBuffer largeContent;
+	private int remainingLargeContent;
+	private boolean discardLargeContent;
+
+	private volatile CompletableFuture<Void> result;
+	private MessageConsumer callback;
+
+	public SelectorMessageProducer(SelectableChannel channel, SelectorEventLoop eventLoop, MessageJsonHandler jsonHandler) {
+		this(channel, eventLoop, jsonHandler, null);
+	}
+
+	public SelectorMessageProducer(SelectableChannel channel, SelectorEventLoop eventLoop, MessageJsonHandler jsonHandler,
+			MessageIssueHandler issueHandler) {
+		if (!(channel instanceof ReadableByteChannel))
+			throw new IllegalArgumentException("The channel must be readable.");
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		this.jsonHandler = jsonHandler;
+		this.issueHandler = issueHandler;
+	}
+
+	public SelectableChannel getChannel() {
+		return channel;
+	}
+
+	public int getMaxInMemoryMessageSize() {
+		return maxInMemoryMessageSize;
+	}
+
+	/**
+	 * Set the maximum content length of messages that are collected in memory. The content of larger messages
+	 * is written to a temporary file as it arrives. See {@link StreamMessageProducer#setMaxInMemoryMessageSize(int)}.
+	 */
+	public void setMaxInMemoryMessageSize(int maxInMemoryMessageSize) {
+		if (maxInMemoryMessageSize < 0)
+			throw new IllegalArgumentException("maxInMemoryMessageSize must not be negative.");
+		this.maxInMemoryMessageSize = maxInMemoryMessageSize;
+	}
+
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * Set the maximum content length of messages. See {@link StreamMessageProducer#setMaxMessageSize(int)}.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize < 0)
+			throw new IllegalArgumentException("maxMessageSize must not be negative.");
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Listen for messages and block until the channel is closed or this producer is closed.
+	 */
+	@Override
+	public void listen(MessageConsumer callback) {
+		CompletableFuture<Void> future = beginListening(callback);
+		try {
+			future.get();
+		} catch (InterruptedException exception) {
+			close();
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException exception) {
+			if (exception.getCause() instanceof RuntimeException)
+				throw (RuntimeException) exception.getCause();
+			throw new JsonRpcException(exception.getCause());
+		}
+	}
+
+	/**
+	 * Register the channel with the event loop in order to listen for messages.
+	 *
+	 * @return a future that is completed when the end of the channel is reached or this producer is closed
+	 */
+	public synchronized CompletableFuture<Void> beginListening(MessageConsumer callback) {
+		if (result != null && !result.isDone()) {
+			throw new IllegalStateException("This SelectorMessageProducer is already running.");
+		}
+		this.callback = callback;
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		this.result = future;
+		try {
+			eventLoop.register(channel, new SelectorEventLoop.ChannelHandler() {
+
+				@Override
+				public void registered(SelectionKey key) {
+					if (future.isDone())
+						// Closed before the registration was processed
+						eventLoop.unregister(channel);
+				}
+
+				@Override
+				public void readable(SelectionKey key) {
+					readAvailable(key);
+				}
+
+				@Override
+				public void closed(Throwable cause) {
+					future.complete(null);
+				}
+			});
+		} catch (IOException exception) {
+			future.completeExceptionally(new JsonRpcException(exception));
+		}
+		return future;
+	}
+
+	/**
+	 * Read the data that is currently available from the channel and handle all complete messages.
+	 */
+	protected void readAvailable(SelectionKey key) {
+		CompletableFuture<Void> future = result;
+		try {
+			if (buffer == null)
+				buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+			int count;
+			while ((count = ((ReadableByteChannel) channel).read(buffer)) > 0) {
+				buffer.flip();
+				handleMessages();
+				buffer.compact();
+			}
+			if (count < 0) {
+				// End of channel has been reached
+				stop();
+			}
+		} catch (IOException exception) {
+			stop();
+			if (JsonRpcException.indicatesStreamClosed(exception))
+				fireStreamClosed(exception);
+			else
+				future.completeExceptionally(new JsonRpcException(exception));
+		}
+	}
+
+	private void stop() {
+		eventLoop.unregister(channel);
+		CompletableFuture<Void> future = result;
+		if (future != null)
+			future.complete(null);
+	}
+
+	/**
+	 * Handle all complete messages in the read buffer, which is in read mode. The bytes of header sections
+	 * are consumed by the {@link HeaderScanner}; the buffer only grows for message content.
+	 */
+	private void handleMessages() {
+		while (true) {
+			if (contentLength < 0) {
+				if (!scanHeaders())
+					return;
+				Headers headers = headerScanner.getHeaders();
+				if (headers.contentLength < 0) {
+					fireError(new IllegalStateException("Missing header " + CONTENT_LENGTH_HEADER
+							+ " in input \"" + headerScanner.getText() + "\""));
+					headerScanner.reset();
+					continue;
+				}
+				contentLength = headers.contentLength;
+				if (contentLength > maxInMemoryMessageSize || contentLength > maxMessageSize)
+					beginLargeContent(contentLength);
+			}
+			if (largeContent != null) {
+				if (!consumeLargeContent())
+					return;
+				continue;
+			}
+			if (buffer.remaining() < contentLength) {
+				if (buffer.capacity() < contentLength)
+					ensureCapacity(contentLength);
+				return;
+			}
+			int start = buffer.position();
+			buffer.position(start + contentLength);
+			ByteBuffer content = ByteBuffer.wrap(buffer.array(), buffer.arrayOffset() + start, contentLength);
+			contentLength = -1;
+			handleMessage(content, headerScanner.getHeaders());
+			headerScanner.reset();
+			if (!buffer.hasRemaining() && buffer.capacity() > MAX_REUSED_BUFFER_SIZE) {
+				buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+				buffer.flip();
+			}
+		}
+	}
+
+	/**
+	 * Pass the bytes of the read buffer to the header scanner until a header section is complete.
+	 *
+	 * @return {@code true} if a header section is complete
+	 */
+	private boolean scanHeaders() {
+		while (buffer.hasRemaining()) {
+			if (headerScanner.add(buffer.get()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Prepare to receive content that is not collected in the read buffer. Only the head of oversized content
+	 * is kept; other content is written to a memory-mapped temporary file.
+	 */
+	private void beginLargeContent(int length) {
+		remainingLargeContent = length;
+		discardLargeContent = false;
+		if (length > maxMessageSize) {
+			largeContent = ByteBuffer.allocate(Math.min(length, StreamMessageProducer.MESSAGE_HEAD_SIZE));
+			return;
+		}
+		try (FileChannel file = ContentBuffer.openTemporaryFile()) {
+			largeContent = file.map(FileChannel.MapMode.READ_WRITE, 0, length);
+		} catch (IOException exception) {
+			// The content cannot be stored, so skip it in order to continue with the next message
+			fireError(exception);
+			largeContent = ByteBuffer.allocate(0);
+			discardLargeContent = true;
+		}
+	}
+
+	/**
+	 * Move content from the read buffer to the large content buffer. Bytes that do not fit are skipped.
+	 *
+	 * @return {@code true} if the content is complete
+	 */
+	private boolean consumeLargeContent() {
+		while (remainingLargeContent > 0 && buffer.hasRemaining()) {
+			int count = Math.min(remainingLargeContent, buffer.remaining());
+			if (largeContent.hasRemaining()) {
+				count = Math.min(count, largeContent.remaining());
+				ByteBuffer source = buffer.duplicate();
+				source.limit(source.position() + count);
+				largeContent.put(source);
+			}
+			buffer.position(buffer.position() + count);
+			remainingLargeContent -= count;
+		}
+		if (remainingLargeContent > 0)
+			return false;
+
+		ByteBuffer content = largeContent;
+		content.flip();
+		largeContent = null;
+		contentLength = -1;
+		Headers headers = headerScanner.getHeaders();
+		if (headers.contentLength > maxMessageSize)
+			handleOversizedMessage(content, headers);
+		else if (!discardLargeContent)
+			handleMessage(content, headers);
+		headerScanner.reset();
+		return true;
+	}
+
+	private void ensureCapacity(int capacity) {
+		ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+		newBuffer.put(buffer);
+		newBuffer.flip();
+		buffer = newBuffer;
+	}
+
+	/**
+	 * Parse the content of a message and notify the callback.
+	 */
+	protected void handleMessage(ByteBuffer content, Headers headers) {
+		if (callback == null)
+			callback = message -> LOG.log(Level.INFO, "Received message: " + message);
+
+		try {
+			if (headers.accept != null)
+				jsonHandler.handleAcceptHeader(headers.accept);
+			content = MessageCompression.decodeContent(jsonHandler, content, headers, maxMessageSize, maxInMemoryMessageSize);
+			Message message = jsonHandler.parseMessage(content, HeaderScanner.toCharset(headers.charset), headers.contentType);
+			callback.consume(message);
+		} catch (MessageIssueException exception) {
+			// An issue was found while parsing or validating the message
+			if (issueHandler != null)
+				issueHandler.handle(exception.getRpcMessage(), exception.getIssues());
+			else
+				fireError(exception);
+		} catch (Exception exception) {
+			// IllegalCharsetNameException and UnsupportedCharsetException can be thrown by Charset.forName
+			// ZipException can be thrown when decompressing the content
+			// JsonParseException can be thrown by jsonHandler
+			// We also catch arbitrary exceptions that are thrown by message consumers in order to keep the event loop alive
+			fireError(exception);
+		}
+	}
+
+	/**
+	 * Report an issue for a message that exceeds the maximum message size. Only the head of its content
+	 * has been kept, which is parsed with {@link MessageJsonHandler#parseMessageHead(java.io.Reader)} so that
+	 * requests can be answered with an error.
+	 */
+	protected void handleOversizedMessage(ByteBuffer head, Headers headers) {
+		try {
+			Message message = jsonHandler.parseMessageHead(new ByteBufferReader(head, HeaderScanner.toCharset(headers.charset)));
+			MessageIssue issue = ContentBuffer.createOversizedIssue(headers.contentLength, maxMessageSize);
+			if (issueHandler != null && message != null)
+				issueHandler.handle(message, Collections.singletonList(issue));
+			else
+				fireError(new MessageIssueException(message, issue));
+		} catch (Exception exception) {
+			fireError(exception);
+		}
+	}
+
+	/**
+	 * Log an error.
+	 */
+	protected void fireError(Throwable error) {
+		String message = error.getMessage() != null ? error.getMessage() : "An error occurred while processing an incoming message.";
+		LOG.log(Level.SEVERE, message, error);
+	}
+
+	/**
+	 * Report that the channel was closed through an exception.
+	 */
+	protected void fireStreamClosed(Exception cause) {
+		String message = cause.getMessage() != null ? cause.getMessage() : "The input channel was closed.";
+		LOG.log(Level.INFO, message, cause);
+	}
+
+	/**
+	 * Stop listening for messages. The channel is unregistered from the event loop, but not closed.
+	 */
+	@Override
+	public void close() {
+		eventLoop.unregister(channel);
+		CompletableFuture<Void> future = result;
+		if (future != null)
+			future.complete(null);
+	}
+
+}
@@ -0,0 +1,191 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer with a {@link Writer} that encodes characters as UTF-8 directly into the buffer.
+ * Serialized messages are thus available as bytes without creating a string first. The buffer can be
+ * reused for subsequent messages; arrays that grew beyond {@link #MAX_RETAINED_SIZE} are released on
+ * {@link #reset()} so that a single large message does not keep its memory alive.
+ *
+ * <p>Unpaired surrogates are encoded as {@code '?'}, as done by {@link String#getBytes(java.nio.charset.Charset)}.</p>
+ */
+public class SerializationBuffer {
+
+	public static final int DEFAULT_SIZE = 1024;
+
+	public static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+	private byte[] bytes;
+	private int size;
+	private char highSurrogate;
+	private final Writer writer = new Utf8Writer();
+
+	public SerializationBuffer() {
+		this(DEFAULT_SIZE);
+	}
+
+	public SerializationBuffer(int initialSize) {
+		this.bytes = new byte[initialSize];
+	}
+
+	/**
+	 * The writer that appends UTF-8 encoded characters to this buffer.
+	 */
+	public Writer getWriter() {
+		return writer;
+	}
+
+	/**
+	 * The internal byte array. Only the first {@link #size()} bytes are valid.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 * Append a single byte. This is used by binary message formats.
+	 */
+	public void write(int b) {
+		appendByte(b);
+	}
+
+	/**
+	 * Append a range of bytes. This is used by binary message formats.
+	 */
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(size + len);
+		System.arraycopy(b, off, bytes, size, len);
+		size += len;
+	}
+
+	public void writeTo(OutputStream output) throws IOException {
+		output.write(bytes, 0, size);
+	}
+
+	/**
+	 * Discard the content of this buffer.
+	 */
+	public void reset() {
+		size = 0;
+		highSurrogate = 0;
+		if (bytes.length > MAX_RETAINED_SIZE)
+			bytes = new byte[DEFAULT_SIZE];
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+		}
+	}
+
+	private void appendChar(char c) {
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				ensureCapacity(size + 4);
+				bytes[size++] = (byte) (0xf0 | (codePoint >> 18));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+				return;
+			}
+			appendByte('?');
+		}
+		if (c < 0x80) {
+			appendByte(c);
+		} else if (c < 0x800) {
+			ensureCapacity(size + 2);
+			bytes[size++] = (byte) (0xc0 | (c >> 6));
+			bytes[size++] = (byte) (0x80 | (c & 0x3f));
+		} else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			appendByte('?');
+		} else {
+			ensureCapacity(size + 3);
+			bytes[size++] = (byte) (0xe0 | (c >> 12));
+			bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			bytes[size++] = (byte) (0x80 | (c & 0x3f));
+		}
+	}
+
+	private void appendByte(int b) {
+		if (size == bytes.length)
+			ensureCapacity(size + 1);
+		bytes[size++] = (byte) b;
+	}
+
+	private class Utf8Writer extends Writer {
+
+		@Override
+		public void write(int c) {
+			appendChar((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			// Reserve space for the common case of ASCII content
+			ensureCapacity(size + len);
+			for (int i = off; i < off + len; i++) {
+				char c = cbuf[i];
+				if (c < 0x80 && highSurrogate == 0 && size < bytes.length)
+					bytes[size++] = (byte) c;
+				else
+					appendChar(c);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			ensureCapacity(size + len);
+			for (int i = off; i < off + len; i++) {
+				char c = str.charAt(i);
+				if (c < 0x80 && highSurrogate == 0 && size < bytes.length)
+					bytes[size++] = (byte) c;
+				else
+					appendChar(c);
+			}
+		}
+
+		@Override
+		public void flush() {
+			// A trailing unpaired high surrogate cannot be completed anymore
+			if (highSurrogate != 0) {
+				highSurrogate = 0;
+				appendByte('?');
+			}
+		}
+
+		@Override
+		public void close() {
+			flush();
+		}
+
+	}
+
+}
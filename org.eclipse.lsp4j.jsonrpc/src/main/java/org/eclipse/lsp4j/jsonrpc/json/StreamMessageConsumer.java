@@ -20,7 +20,8 @@ import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
 
 /**
- * A message consumer that serializes messages to JSON and sends them to an output stream.
+ * A message consumer that serializes messages to JSON and sends them to an output stream. If a binary codec
+ * is enabled in the {@link MessageJsonHandler} and accepted by the peer, messages are sent in the binary format.
  */
 public class StreamMessageConsumer implements MessageConsumer, MessageConstants {
 
@@ -56,36 +57,44 @@ public class StreamMessageConsumer implements MessageConsumer, MessageConstants
 	@Override
 	public void consume(Message message) {
 		try {
-			String content = jsonHandler.serialize(message);
-			byte[] contentBytes = content.getBytes(encoding);
-			int contentLength = contentBytes.length;
-
-			String header = getHeader(contentLength);
+			MessageFrame frame = MessageFrame.encode(jsonHandler, message, encoding);
+			String header = frame.contentType == null && frame.contentEncoding == null
+					? getHeader(frame.contentLength) : getHeader(frame.contentLength, frame.contentType, frame.contentEncoding);
 			byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
 
-			synchronized (outputLock) {
-				output.write(headerBytes);
-				output.write(contentBytes);
-				output.flush();
-			}
+			write(headerBytes, frame.content, frame.contentLength);
 		} catch (IOException exception) {
 			throw new JsonRpcException(exception);
 		}
 	}
 
+	/**
+	 * Write the header and content of a message to the output stream and flush it. The content array
+	 * may be reused after this method returns, so it must not be retained.
+	 */
+	protected void write(byte[] header, byte[] content, int contentLength) throws IOException {
+		synchronized (outputLock) {
+			output.write(header);
+			output.write(content, 0, contentLength);
+			output.flush();
+		}
+	}
+
 	/**
 	 * Construct a header to be prepended to the actual content. This implementation writes
 	 * {@code Content-Length} and {@code Content-Type} attributes according to the LSP specification.
 	 */
 	protected String getHeader(int contentLength) {
-		StringBuilder headerBuilder = new StringBuilder();
-		appendHeader(headerBuilder, CONTENT_LENGTH_HEADER, contentLength).append(CRLF);
-		if (!StandardCharsets.UTF_8.name().equals(encoding)) {
-			appendHeader(headerBuilder, CONTENT_TYPE_HEADER, JSON_MIME_TYPE);
-			headerBuilder.append("; charset=").append(encoding).append(CRLF);
-		}
-		headerBuilder.append(CRLF);
-		return headerBuilder.toString();
+		return getHeader(contentLength, null, null);
+	}
+
+	/**
+	 * Construct the header of a message whose content is encoded with the given content type and content
+	 * encoding. A {@code null} content type denotes JSON. Binary formats and compression that are enabled
+	 * in the JSON handler are advertised to the peer as long as they are not used.
+	 */
+	protected String getHeader(int contentLength, String contentType, String contentEncoding) {
+		return MessageFrame.getHeader(jsonHandler, encoding, contentLength, contentType, contentEncoding, this::appendHeader);
 	}
 
 	/**
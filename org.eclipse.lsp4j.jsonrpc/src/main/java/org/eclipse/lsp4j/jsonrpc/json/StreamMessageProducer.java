@@ -14,7 +14,12 @@ package org.eclipse.lsp4j.jsonrpc.json;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,21 +29,53 @@ import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
 import org.eclipse.lsp4j.jsonrpc.MessageIssueHandler;
 import org.eclipse.lsp4j.jsonrpc.MessageProducer;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
 
 /**
- * A message producer that reads from an input stream and parses messages from JSON.
+ * A message producer that reads from an input stream and parses messages from JSON, or from a binary
+ * format if its content type is given in the message header and enabled in the {@link MessageJsonHandler}.
  */
 public class StreamMessageProducer implements MessageProducer, Closeable, MessageConstants {
 
 	private static final Logger LOG = Logger.getLogger(StreamMessageProducer.class.getName());
 
+	/**
+	 * Content buffers up to this size are kept for reading subsequent messages.
+	 */
+	protected static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The number of bytes read from the beginning of an oversized message in order to identify it.
+	 */
+	protected static final int MESSAGE_HEAD_SIZE = 4096;
+
+	/**
+	 * The size of the chunks in which content is copied into a temporary file.
+	 */
+	protected static final int SPILL_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * The default maximal number of messages that are parsed in parallel or wait for delivery.
+	 */
+	public static final int DEFAULT_MAX_PENDING_MESSAGES = 64;
+
 	private final MessageJsonHandler jsonHandler;
 	private final MessageIssueHandler issueHandler;
 
 	private InputStream input;
+	private FramingInputStream framingInput;
+	private boolean bufferedFraming;
+	private HeaderScanner headerScanner;
+	private final ContentBuffer contentBuffer = new ContentBuffer(MAX_REUSED_BUFFER_SIZE);
+	private int maxInMemoryMessageSize = Integer.MAX_VALUE;
+	private int maxMessageSize = Integer.MAX_VALUE;
+	private Executor parseExecutor;
+	private int maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+	private ParallelMessageParser parallelParser;
 
 	private MessageConsumer callback;
 	private boolean keepRunning;
+	private final boolean customHeaderParsing = overridesParseHeader();
 
 	public StreamMessageProducer(InputStream input, MessageJsonHandler jsonHandler) {
 		this(input, jsonHandler, null);
@@ -56,11 +93,109 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 
 	public void setInput(InputStream input) {
 		this.input = input;
+		this.framingInput = null;
+	}
+
+	public boolean isBufferedFraming() {
+		return bufferedFraming;
+	}
+
+	/**
+	 * Enable or disable buffered framing. In buffered mode the input is read in chunks into a reusable buffer,
+	 * headers are scanned directly from their bytes with {@link #parseHeader(byte[], int, int, Headers)},
+	 * and debug text is only created when a header section turns out to be invalid. If a subclass overrides
+	 * {@link #parseHeader(String, Headers)}, each header line is converted to a string and passed to that method.
+	 */
+	public void setBufferedFraming(boolean bufferedFraming) {
+		this.bufferedFraming = bufferedFraming;
+	}
+
+	public int getMaxInMemoryMessageSize() {
+		return maxInMemoryMessageSize;
+	}
+
+	/**
+	 * Set the maximum content length of messages that are read into memory. The content of larger messages
+	 * is written to a temporary file, which is mapped into memory and parsed from there, so that it does
+	 * not occupy the Java heap. The same applies to compressed content whose decompressed length exceeds
+	 * this size.
+	 */
+	public void setMaxInMemoryMessageSize(int maxInMemoryMessageSize) {
+		if (maxInMemoryMessageSize < 0)
+			throw new IllegalArgumentException("maxInMemoryMessageSize must not be negative.");
+		this.maxInMemoryMessageSize = maxInMemoryMessageSize;
+	}
+
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * Set the maximum content length of messages. The content of larger messages is skipped, and a
+	 * {@link MessageIssue} is passed to the issue handler instead of parsing the message.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize < 0)
+			throw new IllegalArgumentException("maxMessageSize must not be negative.");
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public Executor getParseExecutor() {
+		return parseExecutor;
+	}
+
+	/**
+	 * Parse messages in parallel with the given executor. The reading thread then only reads the content of
+	 * messages, which are parsed by the executor and passed to the message consumer in the order in which they
+	 * have been received, see {@link ParallelMessageParser}. A {@code null} executor parses messages on the
+	 * reading thread.
+	 */
+	public void setParseExecutor(Executor parseExecutor) {
+		this.parseExecutor = parseExecutor;
+	}
+
+	public int getMaxPendingMessages() {
+		return maxPendingMessages;
+	}
+
+	/**
+	 * Set the maximal number of messages that are parsed in parallel or wait for delivery. Reading is suspended
+	 * while this number is reached. This only has an effect if a {@link #setParseExecutor(Executor) parse executor}
+	 * is set.
+	 */
+	public void setMaxPendingMessages(int maxPendingMessages) {
+		if (maxPendingMessages <= 0)
+			throw new IllegalArgumentException("maxPendingMessages must be positive.");
+		this.maxPendingMessages = maxPendingMessages;
 	}
 
 	protected static class Headers {
 		public int contentLength = -1;
 		public String charset = StandardCharsets.UTF_8.name();
+		public String contentType;
+		public String accept;
+		public String contentEncoding;
+		public String acceptEncoding;
+
+		public Headers copy() {
+			Headers result = new Headers();
+			result.contentLength = contentLength;
+			result.charset = charset;
+			result.contentType = contentType;
+			result.accept = accept;
+			result.contentEncoding = contentEncoding;
+			result.acceptEncoding = acceptEncoding;
+			return result;
+		}
+
+		public void reset() {
+			contentLength = -1;
+			charset = StandardCharsets.UTF_8.name();
+			contentType = null;
+			accept = null;
+			contentEncoding = null;
+			acceptEncoding = null;
+		}
 	}
 
 	@Override
@@ -71,6 +206,10 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 		this.keepRunning = true;
 		this.callback = callback;
 		try {
+			if (bufferedFraming) {
+				listenBuffered();
+				return;
+			}
 			StringBuilder headerBuilder = null;
 			StringBuilder debugBuilder = null;
 			boolean newLine = false;
@@ -121,11 +260,57 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 			} else
 				throw new JsonRpcException(exception);
 		} finally {
+			awaitParallelParser();
 			this.callback = null;
 			this.keepRunning = false;
 		}
 	}
 
+	/**
+	 * Wait until the messages that are parsed in parallel have been passed to the callback.
+	 */
+	private void awaitParallelParser() {
+		if (parallelParser == null)
+			return;
+		try {
+			parallelParser.awaitDelivery();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		} finally {
+			parallelParser = null;
+		}
+	}
+
+	/**
+	 * Read messages in buffered framing mode. The bytes of the current header section are collected by a
+	 * {@link HeaderScanner}, which converts them to text only for reporting a missing {@code Content-Length} header.
+	 */
+	protected void listenBuffered() throws IOException {
+		if (framingInput == null || framingInput.getInput() != input)
+			framingInput = new FramingInputStream(input);
+		FramingInputStream in = framingInput;
+		if (headerScanner == null)
+			headerScanner = new HeaderScanner(this::parseHeader);
+		HeaderScanner scanner = headerScanner;
+		scanner.reset();
+		while (keepRunning) {
+			int c = in.read();
+			if (c == -1) {
+				// End of input stream has been reached
+				keepRunning = false;
+			} else if (scanner.add((byte) c)) {
+				Headers headers = scanner.getHeaders();
+				if (headers.contentLength < 0) {
+					fireError(new IllegalStateException("Missing header " + CONTENT_LENGTH_HEADER
+							+ " in input \"" + scanner.getText() + "\""));
+				} else if (!handleMessage(in, headers)) {
+					keepRunning = false;
+				}
+				scanner.reset();
+			}
+		} // while (keepRunning)
+	}
+
 	/**
 	 * Log an error.
 	 */
@@ -161,12 +346,54 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 				int charsetIndex = line.indexOf("charset=");
 				if (charsetIndex >= 0)
 					headers.charset = line.substring(charsetIndex + 8).trim();
+				int paramIndex = line.indexOf(';', sepIndex);
+				headers.contentType = line.substring(sepIndex + 1, paramIndex >= 0 ? paramIndex : line.length()).trim();
 				break;
 			}
+			case ACCEPT_HEADER:
+				headers.accept = line.substring(sepIndex + 1).trim();
+				break;
+			case CONTENT_ENCODING_HEADER:
+				headers.contentEncoding = line.substring(sepIndex + 1).trim();
+				break;
+			case ACCEPT_ENCODING_HEADER:
+				headers.acceptEncoding = line.substring(sepIndex + 1).trim();
+				break;
 			}
 		}
 	}
 
+	/**
+	 * Parse a header attribute from the given range of bytes and set the corresponding data in the
+	 * {@link Headers} fields. This is used in buffered framing mode; the content length is parsed
+	 * directly from the bytes, and strings are only created for the charset and for error reporting.
+	 */
+	protected void parseHeader(byte[] line, int start, int end, Headers headers) {
+		if (customHeaderParsing) {
+			parseHeader(new String(line, start, end - start, StandardCharsets.US_ASCII), headers);
+			return;
+		}
+		Exception error = HeaderScanner.parseHeader(line, start, end, headers);
+		if (error != null)
+			fireError(error);
+	}
+
+	/**
+	 * Whether a subclass overrides {@link #parseHeader(String, Headers)}, which must then be used in buffered
+	 * framing mode as well.
+	 */
+	private boolean overridesParseHeader() {
+		for (Class<?> type = getClass(); type != StreamMessageProducer.class; type = type.getSuperclass()) {
+			try {
+				type.getDeclaredMethod("parseHeader", String.class, Headers.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// Continue with the superclass
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Read the JSON content part of a message, parse it, and notify the callback.
 	 * 
@@ -178,19 +405,29 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 		
 		try {
 			int contentLength = headers.contentLength;
-			byte[] buffer = new byte[contentLength];
-			int bytesRead = 0;
-
-			while (bytesRead < contentLength) {
-				int readResult = input.read(buffer, bytesRead, contentLength - bytesRead);
-				if (readResult == -1)
-					return false;
-				bytesRead += readResult;
+			if (contentLength > maxMessageSize)
+				return handleOversizedMessage(input, headers);
+
+			ByteBuffer content;
+			if (contentLength > maxInMemoryMessageSize) {
+				content = readToTemporaryFile(input, contentLength);
+			} else {
+				// Content that is parsed in parallel must not share the reused buffer
+				byte[] buffer = parseExecutor != null ? new byte[contentLength] : getContentBuffer(contentLength);
+				content = ContentBuffer.readFully(input, buffer, contentLength) ? ByteBuffer.wrap(buffer, 0, contentLength) : null;
 			}
+			if (content == null)
+				return false;
 
-			String content = new String(buffer, headers.charset);
+			if (headers.accept != null)
+				jsonHandler.handleAcceptHeader(headers.accept);
+			if (parseExecutor != null) {
+				submitParallel(content, headers.copy());
+				return true;
+			}
+			content = MessageCompression.decodeContent(jsonHandler, content, headers, maxMessageSize, maxInMemoryMessageSize);
 			try {
-				Message message = jsonHandler.parseMessage(content);
+				Message message = jsonHandler.parseMessage(content, getCharset(headers), headers.contentType);
 				callback.consume(message);
 			} catch (MessageIssueException exception) {
 				// An issue was found while parsing or validating the message
@@ -199,8 +436,12 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 				else
 					fireError(exception);
 			}
+		} catch (InterruptedIOException exception) {
+			// Interrupted while waiting for messages that are parsed in parallel
+			throw exception;
 		} catch (Exception exception) {
-			// UnsupportedEncodingException can be thrown by String constructor
+			// IllegalCharsetNameException and UnsupportedCharsetException can be thrown by Charset.forName
+			// ZipException can be thrown when decompressing the content
 			// JsonParseException can be thrown by jsonHandler
 			// We also catch arbitrary exceptions that are thrown by message consumers in order to keep this thread alive
 			fireError(exception);
@@ -208,6 +449,80 @@ public class StreamMessageProducer implements MessageProducer, Closeable, Messag
 		return true;
 	}
 
+	/**
+	 * Decode and parse the content of a message with the {@link #setParseExecutor(Executor) parse executor}.
+	 */
+	protected void submitParallel(ByteBuffer content, Headers headers) throws IOException {
+		if (parallelParser == null)
+			parallelParser = new ParallelMessageParser(parseExecutor, maxPendingMessages, callback, this::handleParseError);
+		try {
+			parallelParser.submit(() -> {
+				ByteBuffer decoded = MessageCompression.decodeContent(jsonHandler, content, headers, maxMessageSize, maxInMemoryMessageSize);
+				return jsonHandler.parseMessage(decoded, getCharset(headers), headers.contentType);
+			});
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exception.getMessage());
+		}
+	}
+
+	/**
+	 * Report an exception that was thrown while parsing a message in parallel or while consuming it.
+	 */
+	protected void handleParseError(Exception exception) {
+		if (exception instanceof MessageIssueException && issueHandler != null) {
+			MessageIssueException issueException = (MessageIssueException) exception;
+			issueHandler.handle(issueException.getRpcMessage(), issueException.getIssues());
+		} else {
+			fireError(exception);
+		}
+	}
+
+	/**
+	 * Copy the content of a message into a temporary file that is mapped into memory. The file is deleted
+	 * right away; its content remains accessible through the returned buffer until that is garbage collected.
+	 * 
+	 * @return the mapped content, or {@code null} if the end of the input stream has been reached
+	 */
+	protected ByteBuffer readToTemporaryFile(InputStream input, int contentLength) throws IOException {
+		return contentBuffer.readToTemporaryFile(input, contentLength);
+	}
+
+	/**
+	 * Skip the content of a message that exceeds the maximum message size and report an issue for it.
+	 * The beginning of the content is parsed with {@link MessageJsonHandler#parseMessageHead(java.io.Reader)}
+	 * so that requests can be answered with an error and pending requests can be completed.
+	 * 
+	 * @return {@code true} if we should continue reading from the input stream, {@code false} if we should stop
+	 */
+	protected boolean handleOversizedMessage(InputStream input, Headers headers) throws IOException {
+		int contentLength = headers.contentLength;
+		ByteBuffer head = contentBuffer.readHead(input, contentLength);
+		if (head == null)
+			return false;
+
+		Message message = jsonHandler.parseMessageHead(new ByteBufferReader(head, getCharset(headers)));
+		MessageIssue issue = ContentBuffer.createOversizedIssue(contentLength, maxMessageSize);
+		if (issueHandler != null && message != null)
+			issueHandler.handle(message, Collections.singletonList(issue));
+		else
+			fireError(new MessageIssueException(message, issue));
+		return true;
+	}
+
+	/**
+	 * Return a buffer with at least the given length for reading message content. Buffers up to
+	 * {@link #MAX_REUSED_BUFFER_SIZE} bytes are reused, since the content is fully parsed before
+	 * the next message is read.
+	 */
+	protected byte[] getContentBuffer(int contentLength) {
+		return contentBuffer.get(contentLength);
+	}
+
+	protected Charset getCharset(Headers headers) {
+		return HeaderScanner.toCharset(headers.charset);
+	}
+
 	@Override
 	public void close() {
 		keepRunning = false;
@@ -0,0 +1,92 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json.adapters;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Base class for readers that do not parse JSON text, but provide the tokens of another representation
+ * directly, e.g. the recorded tokens of a {@link JsonTokenBuffer} or a binary encoding. Subclasses override
+ * all methods that read tokens.
+ *
+ * <p>Gson's map adapter turns property names into values with internals of {@link JsonReader} that cannot
+ * be overridden. These internals operate on the endless text <code>{"":0,"":0,...</code>, whose next name is
+ * promoted together with the name of the subclass. Subclasses invoke {@link #startNamePromotion()} when they
+ * begin an object, check {@link #isPromotedName()} when a property name is read as a value, and consume the
+ * promoted name with {@link #consumePromotedName()}.</p>
+ */
+public abstract class DirectJsonReader extends JsonReader {
+
+	private boolean promotionStarted;
+
+	protected DirectJsonReader() {
+		super(new PromotedNames());
+	}
+
+	/**
+	 * Allow property names to be promoted. This is done lazily, so readers that never read an object do
+	 * not have to fill the buffer of the underlying reader.
+	 */
+	protected final void startNamePromotion() throws IOException {
+		if (!promotionStarted) {
+			super.beginObject();
+			promotionStarted = true;
+		}
+	}
+
+	/**
+	 * Whether the current property name has been promoted to a value.
+	 */
+	protected final boolean isPromotedName() throws IOException {
+		return promotionStarted && super.peek() == JsonToken.STRING;
+	}
+
+	/**
+	 * Consume the promoted name of the endless text and the value that follows it.
+	 */
+	protected final void consumePromotedName() throws IOException {
+		super.nextString();
+		super.nextInt();
+	}
+
+	private static class PromotedNames extends Reader {
+
+		private static final String PROPERTY = "\"\":0,";
+
+		private boolean started;
+		private int index;
+
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			for (int i = 0; i < len; i++) {
+				if (started) {
+					cbuf[off + i] = PROPERTY.charAt(index);
+					index = (index + 1) % PROPERTY.length();
+				} else {
+					cbuf[off + i] = '{';
+					started = true;
+				}
+			}
+			return len;
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
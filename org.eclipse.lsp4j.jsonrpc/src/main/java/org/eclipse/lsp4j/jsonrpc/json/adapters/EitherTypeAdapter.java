@@ -24,9 +24,10 @@ import org.eclipse.lsp4j.jsonrpc.messages.Tuple;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
@@ -52,11 +53,64 @@ public class EitherTypeAdapter<L, R> extends TypeAdapter<Either<L, R>> {
 
 	}
 	
+	/**
+	 * A predicate for checking alternatives that can also be evaluated on the recorded tokens of a value,
+	 * so no JSON tree needs to be built for selecting an alternative. Combining two token checkers with
+	 * {@link #and(Predicate)} or {@link #or(Predicate)} yields a token checker again.
+	 */
+	public interface TokenChecker extends Predicate<JsonElement> {
+		
+		/**
+		 * Test the value at the given position of the recorded tokens.
+		 */
+		boolean test(JsonTokenBuffer tokens, int position);
+		
+		@Override
+		default Predicate<JsonElement> and(Predicate<? super JsonElement> other) {
+			if (other instanceof TokenChecker)
+				return new CompositeChecker(this, (TokenChecker) other, true);
+			return Predicate.super.and(other);
+		}
+		
+		@Override
+		default Predicate<JsonElement> or(Predicate<? super JsonElement> other) {
+			if (other instanceof TokenChecker)
+				return new CompositeChecker(this, (TokenChecker) other, false);
+			return Predicate.super.or(other);
+		}
+		
+	}
+	
+	private static class CompositeChecker implements TokenChecker {
+		
+		private final TokenChecker first;
+		private final TokenChecker second;
+		private final boolean conjunction;
+		
+		CompositeChecker(TokenChecker first, TokenChecker second, boolean conjunction) {
+			this.first = first;
+			this.second = second;
+			this.conjunction = conjunction;
+		}
+		
+		@Override
+		public boolean test(JsonElement element) {
+			return conjunction ? first.test(element) && second.test(element) : first.test(element) || second.test(element);
+		}
+		
+		@Override
+		public boolean test(JsonTokenBuffer tokens, int position) {
+			return conjunction ? first.test(tokens, position) && second.test(tokens, position)
+					: first.test(tokens, position) || second.test(tokens, position);
+		}
+		
+	}
+	
 	/**
 	 * A predicate that is usedful for checking alternatives in case both the left and the right type
 	 * are JSON object types.
 	 */
-	public static class PropertyChecker implements Predicate<JsonElement> {
+	public static class PropertyChecker implements TokenChecker {
 		
 		private final String propertyName;
 		private final String expectedValue;
@@ -95,12 +149,40 @@ public class EitherTypeAdapter<L, R> extends TypeAdapter<Either<L, R>> {
 			return false;
 		}
 		
+		@Override
+		public boolean test(JsonTokenBuffer tokens, int position) {
+			int value = tokens.findProperty(position, propertyName);
+			if (value < 0)
+				return false;
+			JsonToken token = tokens.peek(value);
+			if (expectedValue != null)
+				return (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN)
+						&& expectedValue.equals(tokens.getString(value));
+			else if (expectedType != null)
+				return expectedType.isAssignableFrom(getElementType(token));
+			else
+				return true;
+		}
+		
+		private static Class<? extends JsonElement> getElementType(JsonToken token) {
+			switch (token) {
+			case BEGIN_OBJECT:
+				return JsonObject.class;
+			case BEGIN_ARRAY:
+				return JsonArray.class;
+			case NULL:
+				return JsonNull.class;
+			default:
+				return JsonPrimitive.class;
+			}
+		}
+		
 	}
 	
 	/**
 	 * A predicate for the case that a type alternative is a list.
 	 */
-	public static class ListChecker implements Predicate<JsonElement> {
+	public static class ListChecker implements TokenChecker {
 		
 		private final Predicate<JsonElement> elementChecker;
 		private final boolean resultIfEmpty;
@@ -130,6 +212,29 @@ public class EitherTypeAdapter<L, R> extends TypeAdapter<Either<L, R>> {
 			return false;
 		}
 		
+		@Override
+		public boolean test(JsonTokenBuffer tokens, int position) {
+			if (testElement(tokens, position))
+				return true;
+			if (tokens.peek(position) == JsonToken.BEGIN_ARRAY) {
+				int element = tokens.getFirstElement(position);
+				if (element < 0)
+					return resultIfEmpty;
+				// Usually the first element decides, so the remaining elements are rarely visited
+				for (; !tokens.isEnd(element); element = tokens.skipValue(element)) {
+					if (testElement(tokens, element))
+						return true;
+				}
+			}
+			return false;
+		}
+		
+		private boolean testElement(JsonTokenBuffer tokens, int position) {
+			if (elementChecker instanceof TokenChecker)
+				return ((TokenChecker) elementChecker).test(tokens, position);
+			return elementChecker.test(tokens.toJsonElement(position));
+		}
+		
 	}
 
 	protected final TypeToken<Either<L, R>> typeToken;
@@ -177,13 +282,9 @@ public class EitherTypeAdapter<L, R> extends TypeAdapter<Either<L, R>> {
 		boolean matchesRight = right.isAssignable(nextToken);
 		if (matchesLeft && matchesRight) {
 			if (leftChecker != null || rightChecker != null) {
-				JsonElement element = JsonParser.parseReader(in);
-				if (leftChecker != null && leftChecker.test(element))
-					// Parse the left alternative from the JSON element tree
-					return createLeft(left.read(element));
-				if (rightChecker != null && rightChecker.test(element))
-					// Parse the right alternative from the JSON element tree
-					return createRight(right.read(element));
+				Either<L, R> result = createWithCheckers(in);
+				if (result != null)
+					return result;
 			}
 			throw new JsonParseException("Ambiguous Either type: token " + nextToken + " matches both alternatives.");
 		} else if (matchesLeft) {
@@ -194,17 +295,35 @@ public class EitherTypeAdapter<L, R> extends TypeAdapter<Either<L, R>> {
 			return createRight(right.read(in));
 		} else if (leftChecker != null || rightChecker != null) {
 			// If result is not the list but directly the only item in the list
-			JsonElement element = JsonParser.parseReader(in);
-			if (leftChecker != null && leftChecker.test(element))
-				// Parse the left alternative from the JSON element tree
-				return createLeft(left.read(element));
-			if (rightChecker != null && rightChecker.test(element))
-				// Parse the right alternative from the JSON element tree
-				return createRight(right.read(element));
+			Either<L, R> result = createWithCheckers(in);
+			if (result != null)
+				return result;
 		}
 		throw new JsonParseException("Unexpected token " + nextToken + ": expected " + left + " | " + right + " tokens.");
 	}
 	
+	/**
+	 * Record the next value and select an alternative with the left and right checkers. Checkers that implement
+	 * {@link TokenChecker} look ahead in the recorded tokens; a JSON tree is built only for other checkers.
+	 * The selected alternative is then parsed from the recorded tokens in a single pass.
+	 * 
+	 * @return the parsed alternative, or {@code null} if no checker accepts the value
+	 */
+	protected Either<L, R> createWithCheckers(JsonReader in) throws IOException {
+		JsonTokenBuffer tokens = JsonTokenBuffer.record(in);
+		if (leftChecker != null && test(leftChecker, tokens))
+			return createLeft(left.read(tokens.newReader()));
+		if (rightChecker != null && test(rightChecker, tokens))
+			return createRight(right.read(tokens.newReader()));
+		return null;
+	}
+	
+	private static boolean test(Predicate<JsonElement> checker, JsonTokenBuffer tokens) {
+		if (checker instanceof TokenChecker)
+			return ((TokenChecker) checker).test(tokens, 0);
+		return checker.test(tokens.toJsonElement());
+	}
+	
 	@SuppressWarnings("unchecked")
 	protected Either<L, R> createLeft(L obj) throws IOException {
 		if (Either3.class.isAssignableFrom(typeToken.getRawType()))
@@ -12,6 +12,7 @@
 package org.eclipse.lsp4j.jsonrpc.json.adapters;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
@@ -50,32 +51,70 @@ public class EnumTypeAdapter<T extends Enum<T>> extends TypeAdapter<T> {
 	
 	private static String VALUE_FIELD_NAME = "value";
 	
+	/** Values are looked up in an array as long as it is at most this much larger than the number of constants. */
+	private static final int MAX_SPARSENESS = 4;
+	
+	private static final long NOT_AN_INT = Long.MIN_VALUE;
+	
 	private final Map<String, T> nameToConstant = new HashMap<>();
-	private final Map<Integer, T> valueToConstant = new HashMap<>();
-	private final Map<T, Integer> constantToValue = new HashMap<>();
+	private final int[] ordinalToValue;
+	private final int minValue;
+	private final T[] valueToConstant;
+	private final Map<Integer, T> sparseValueToConstant;
 	
 	EnumTypeAdapter(Class<T> classOfT) throws IllegalAccessException {
+		T[] constants = classOfT.getEnumConstants();
+		ordinalToValue = new int[constants.length];
+		Field valueField;
 		try {
-			Field valueField = classOfT.getDeclaredField(VALUE_FIELD_NAME);
+			valueField = classOfT.getDeclaredField(VALUE_FIELD_NAME);
 			if (valueField.getType() != int.class && valueField.getType() != Integer.class)
 				throw new IllegalArgumentException("The field 'value' must contain an integer value.");
 			valueField.setAccessible(true);
-			for (T constant : classOfT.getEnumConstants()) {
-				nameToConstant.put(constant.name(), constant);
-				Integer constValue = (Integer) valueField.get(constant);
-				valueToConstant.put(constValue, constant);
-				constantToValue.put(constant, constValue);
-			}
 		} catch (NoSuchFieldException e) {
-			for (T constant : classOfT.getEnumConstants()) {
-				nameToConstant.put(constant.name(), constant);
-				int constValue = constant.ordinal();
-				valueToConstant.put(constValue, constant);
-				constantToValue.put(constant, constValue);
+			valueField = null;
+		}
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (T constant : constants) {
+			nameToConstant.put(constant.name(), constant);
+			int constValue = valueField != null ? (Integer) valueField.get(constant) : constant.ordinal();
+			ordinalToValue[constant.ordinal()] = constValue;
+			min = Math.min(min, constValue);
+			max = Math.max(max, constValue);
+		}
+		if (constants.length == 0 || (long) max - min < (long) MAX_SPARSENESS * constants.length + MAX_SPARSENESS) {
+			minValue = constants.length == 0 ? 0 : min;
+			@SuppressWarnings("unchecked")
+			T[] table = (T[]) Array.newInstance(classOfT, constants.length == 0 ? 0 : max - min + 1);
+			for (T constant : constants) {
+				// The last constant wins if several constants have the same value
+				table[ordinalToValue[constant.ordinal()] - minValue] = constant;
+			}
+			valueToConstant = table;
+			sparseValueToConstant = null;
+		} else {
+			minValue = 0;
+			valueToConstant = null;
+			sparseValueToConstant = new HashMap<>();
+			for (T constant : constants) {
+				sparseValueToConstant.put(ordinalToValue[constant.ordinal()], constant);
 			}
 		}
 	}
 	
+	/**
+	 * The constant with the given integer value, or {@code null} if there is no such constant.
+	 */
+	protected T getConstant(int value) {
+		if (valueToConstant == null)
+			return sparseValueToConstant.get(value);
+		int index = value - minValue;
+		if (index < 0 || index >= valueToConstant.length)
+			return null;
+		return valueToConstant[index];
+	}
+	
 	@Override
 	public T read(JsonReader in) throws IOException {
 		JsonToken peek = in.peek();
@@ -83,21 +122,51 @@ public class EnumTypeAdapter<T extends Enum<T>> extends TypeAdapter<T> {
 			in.nextNull();
 			return null;
 		} else if (peek == JsonToken.NUMBER) {
-			return valueToConstant.get(in.nextInt());
+			return getConstant(in.nextInt());
 		} else {
 			String string = in.nextString();
-			try {
-				return valueToConstant.get(Integer.parseInt(string));
-			} catch (NumberFormatException e) {
-				return nameToConstant.get(string);
-			}
+			long value = parseInt(string);
+			if (value != NOT_AN_INT)
+				return getConstant((int) value);
+			return nameToConstant.get(string);
+		}
+	}
+	
+	/**
+	 * Parse a string in the format accepted by {@link Integer#parseInt(String)} without throwing an exception.
+	 * 
+	 * @return the parsed value, or {@link #NOT_AN_INT} if the string is not an integer in the range of {@code int}
+	 */
+	private static long parseInt(String string) {
+		int length = string.length();
+		int index = 0;
+		boolean negative = false;
+		if (length > 0 && (string.charAt(0) == '-' || string.charAt(0) == '+')) {
+			negative = string.charAt(0) == '-';
+			index++;
+		}
+		if (index == length)
+			return NOT_AN_INT;
+		long result = 0;
+		for (; index < length; index++) {
+			int digit = string.charAt(index) - '0';
+			if (digit < 0 || digit > 9)
+				return NOT_AN_INT;
+			result = 10 * result + digit;
+			if (result > (long) Integer.MAX_VALUE + 1)
+				return NOT_AN_INT;
 		}
+		if (negative)
+			result = -result;
+		if (result > Integer.MAX_VALUE)
+			return NOT_AN_INT;
+		return result;
 	}
 
 	@Override
 	public void write(JsonWriter out, T value) throws IOException {
 		if (value != null)
-			out.value(constantToValue.get(value));
+			out.value(ordinalToValue[value.ordinal()]);
 		else
 			out.value((String) null);
 	}
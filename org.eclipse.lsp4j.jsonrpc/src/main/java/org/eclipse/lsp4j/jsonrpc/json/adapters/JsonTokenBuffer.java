@@ -0,0 +1,522 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json.adapters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParser;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A flat recording of the tokens of a single JSON value. This is used to defer the conversion of a value
+ * until its target type is known, e.g. when the {@code params} of a message precede its {@code method}.
+ * Token kinds are stored in a byte array and names, strings and numbers in a parallel string array,
+ * which takes far less memory than a {@link JsonElement} tree.
+ *
+ * <p>The recorded value can be read with {@link #newReader()} as often as needed. The returned reader
+ * is a regular {@link JsonReader}, so it works with all type adapters of Gson. Nested values can be
+ * inspected without reading them, e.g. with {@link #findProperty(int, String)}, where a value is
+ * addressed by the position of its first token. The recorded value itself is at position 0.</p>
+ */
+public final class JsonTokenBuffer {
+
+	private static final byte BEGIN_ARRAY = 1;
+	private static final byte END_ARRAY = 2;
+	private static final byte BEGIN_OBJECT = 3;
+	private static final byte END_OBJECT = 4;
+	private static final byte NAME = 5;
+	private static final byte STRING = 6;
+	private static final byte NUMBER = 7;
+	private static final byte TRUE = 8;
+	private static final byte FALSE = 9;
+	private static final byte NULL = 10;
+
+	private byte[] tokens = new byte[16];
+	private String[] values = new String[16];
+	private int tokenCount;
+
+	private JsonTokenBuffer() {
+	}
+
+	/**
+	 * Record the next value of the given reader, including all nested values.
+	 */
+	public static JsonTokenBuffer record(JsonReader in) throws IOException {
+		JsonTokenBuffer buffer = new JsonTokenBuffer();
+		int depth = 0;
+		do {
+			switch (in.peek()) {
+			case BEGIN_ARRAY:
+				in.beginArray();
+				buffer.add(BEGIN_ARRAY);
+				depth++;
+				break;
+			case END_ARRAY:
+				in.endArray();
+				buffer.add(END_ARRAY);
+				depth--;
+				break;
+			case BEGIN_OBJECT:
+				in.beginObject();
+				buffer.add(BEGIN_OBJECT);
+				depth++;
+				break;
+			case END_OBJECT:
+				in.endObject();
+				buffer.add(END_OBJECT);
+				depth--;
+				break;
+			case NAME:
+				buffer.add(NAME, in.nextName());
+				break;
+			case STRING:
+				buffer.add(STRING, in.nextString());
+				break;
+			case NUMBER:
+				// Keep the original representation of the number
+				buffer.add(NUMBER, in.nextString());
+				break;
+			case BOOLEAN:
+				buffer.add(in.nextBoolean() ? TRUE : FALSE);
+				break;
+			case NULL:
+				in.nextNull();
+				buffer.add(NULL);
+				break;
+			case END_DOCUMENT:
+				throw new EOFException("End of input at " + in.getPath());
+			}
+		} while (depth > 0);
+		return buffer;
+	}
+
+	private void add(byte token) {
+		add(token, null);
+	}
+
+	private void add(byte token, String value) {
+		if (tokenCount == tokens.length) {
+			tokens = Arrays.copyOf(tokens, 2 * tokenCount);
+			values = Arrays.copyOf(values, 2 * tokenCount);
+		}
+		tokens[tokenCount] = token;
+		values[tokenCount] = value;
+		tokenCount++;
+	}
+
+	/**
+	 * The kind of the token at the given position.
+	 */
+	public JsonToken peek(int position) {
+		switch (tokens[position]) {
+		case BEGIN_ARRAY:
+			return JsonToken.BEGIN_ARRAY;
+		case END_ARRAY:
+			return JsonToken.END_ARRAY;
+		case BEGIN_OBJECT:
+			return JsonToken.BEGIN_OBJECT;
+		case END_OBJECT:
+			return JsonToken.END_OBJECT;
+		case NAME:
+			return JsonToken.NAME;
+		case STRING:
+			return JsonToken.STRING;
+		case NUMBER:
+			return JsonToken.NUMBER;
+		case TRUE:
+		case FALSE:
+			return JsonToken.BOOLEAN;
+		default:
+			return JsonToken.NULL;
+		}
+	}
+
+	/**
+	 * The string representation of the primitive value or the property name at the given position,
+	 * or {@code null} if the token is a {@code null} value or a structural token.
+	 */
+	public String getString(int position) {
+		switch (tokens[position]) {
+		case TRUE:
+			return "true";
+		case FALSE:
+			return "false";
+		default:
+			return values[position];
+		}
+	}
+
+	/**
+	 * The position after the value at the given position, including all nested values.
+	 */
+	public int skipValue(int position) {
+		int depth = 0;
+		do {
+			byte token = tokens[position++];
+			if (token == BEGIN_ARRAY || token == BEGIN_OBJECT)
+				depth++;
+			else if (token == END_ARRAY || token == END_OBJECT)
+				depth--;
+		} while (depth > 0);
+		return position;
+	}
+
+	/**
+	 * The position of the first element of the array at the given position, or {@code -1} if the array is empty.
+	 * The following elements are found with {@link #skipValue(int)}.
+	 */
+	public int getFirstElement(int position) {
+		return tokens[position + 1] != END_ARRAY ? position + 1 : -1;
+	}
+
+	/**
+	 * Whether the given position is the end of an array or object.
+	 */
+	public boolean isEnd(int position) {
+		return tokens[position] == END_ARRAY || tokens[position] == END_OBJECT;
+	}
+
+	/**
+	 * The position of the value of the property with the given name in the object at the given position.
+	 * As with {@link com.google.gson.JsonObject}, the last occurrence of the property wins.
+	 *
+	 * @return the position of the property value, or {@code -1} if the object does not have the property
+	 */
+	public int findProperty(int position, String name) {
+		int result = -1;
+		if (tokens[position] == BEGIN_OBJECT) {
+			int property = position + 1;
+			while (tokens[property] == NAME) {
+				if (name.equals(values[property]))
+					result = property + 1;
+				property = skipValue(property + 1);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Write the recorded value to the given writer.
+	 */
+	public void write(JsonWriter out) throws IOException {
+		for (int i = 0; i < tokenCount; i++) {
+			switch (tokens[i]) {
+			case BEGIN_ARRAY:
+				out.beginArray();
+				break;
+			case END_ARRAY:
+				out.endArray();
+				break;
+			case BEGIN_OBJECT:
+				out.beginObject();
+				break;
+			case END_OBJECT:
+				out.endObject();
+				break;
+			case NAME:
+				out.name(values[i]);
+				break;
+			case STRING:
+				out.value(values[i]);
+				break;
+			case NUMBER:
+				out.value(new LazilyParsedNumber(values[i]));
+				break;
+			case TRUE:
+				out.value(true);
+				break;
+			case FALSE:
+				out.value(false);
+				break;
+			default:
+				out.nullValue();
+			}
+		}
+	}
+
+	/**
+	 * Create a reader for the recorded value.
+	 */
+	public JsonReader newReader() {
+		return newReader(0);
+	}
+
+	/**
+	 * Create a reader for the value at the given position.
+	 */
+	public JsonReader newReader(int position) {
+		TokenReader reader = new TokenReader(position, skipValue(position));
+		// Values that have been recorded with a lenient reader, e.g. NaN, must be readable again
+		reader.setLenient(true);
+		return reader;
+	}
+
+	/**
+	 * Convert the recorded value into a JSON tree.
+	 */
+	public JsonElement toJsonElement() throws JsonIOException {
+		return toJsonElement(0);
+	}
+
+	/**
+	 * Convert the value at the given position into a JSON tree.
+	 */
+	public JsonElement toJsonElement(int position) throws JsonIOException {
+		return JsonParser.parseReader(newReader(position));
+	}
+
+	@Override
+	public String toString() {
+		StringWriter result = new StringWriter();
+		JsonWriter writer = new JsonWriter(result);
+		writer.setLenient(true);
+		try {
+			write(writer);
+		} catch (IOException exception) {
+			throw new JsonIOException(exception);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Reads the recorded tokens directly, like Gson's {@code JsonTreeReader} reads a JSON tree.
+	 */
+	private class TokenReader extends DirectJsonReader {
+
+		private final int end;
+		private int position;
+
+		private byte[] stack = new byte[32];
+		private String[] pathNames = new String[32];
+		private int[] pathIndices = new int[32];
+		private int stackSize;
+
+		TokenReader(int start, int end) {
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public void beginArray() throws IOException {
+			expect(BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+			position++;
+			push(BEGIN_ARRAY);
+		}
+
+		@Override
+		public void endArray() throws IOException {
+			expect(END_ARRAY, JsonToken.END_ARRAY);
+			position++;
+			stackSize--;
+			incrementPathIndex();
+		}
+
+		@Override
+		public void beginObject() throws IOException {
+			expect(BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+			position++;
+			push(BEGIN_OBJECT);
+			startNamePromotion();
+		}
+
+		@Override
+		public void endObject() throws IOException {
+			expect(END_OBJECT, JsonToken.END_OBJECT);
+			position++;
+			pathNames[--stackSize] = null;
+			incrementPathIndex();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end && !isEnd(position);
+		}
+
+		@Override
+		public JsonToken peek() throws IOException {
+			if (position == end)
+				return JsonToken.END_DOCUMENT;
+			if (tokens[position] == NAME && isPromotedName())
+				return JsonToken.STRING;
+			return JsonTokenBuffer.this.peek(position);
+		}
+
+		@Override
+		public String nextName() throws IOException {
+			expect(NAME, JsonToken.NAME);
+			String result = values[position++];
+			pathNames[stackSize - 1] = result;
+			return result;
+		}
+
+		@Override
+		public String nextString() throws IOException {
+			return nextPrimitive(JsonToken.STRING);
+		}
+
+		@Override
+		public boolean nextBoolean() throws IOException {
+			if (position == end || tokens[position] != TRUE && tokens[position] != FALSE)
+				throw unexpected(JsonToken.BOOLEAN);
+			boolean result = tokens[position++] == TRUE;
+			incrementPathIndex();
+			return result;
+		}
+
+		@Override
+		public void nextNull() throws IOException {
+			expect(NULL, JsonToken.NULL);
+			position++;
+			incrementPathIndex();
+		}
+
+		@Override
+		public double nextDouble() throws IOException {
+			double result = Double.parseDouble(nextPrimitive(JsonToken.NUMBER));
+			if (!isLenient() && (Double.isNaN(result) || Double.isInfinite(result)))
+				throw new NumberFormatException("JSON forbids NaN and infinities: " + result + " at path " + getPath());
+			return result;
+		}
+
+		@Override
+		public long nextLong() throws IOException {
+			String value = nextPrimitive(JsonToken.NUMBER);
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException exception) {
+				double asDouble = Double.parseDouble(value);
+				long result = (long) asDouble;
+				if (result != asDouble)
+					throw new NumberFormatException("Expected a long but was " + value + " at path " + getPath());
+				return result;
+			}
+		}
+
+		@Override
+		public int nextInt() throws IOException {
+			String value = nextPrimitive(JsonToken.NUMBER);
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException exception) {
+				double asDouble = Double.parseDouble(value);
+				int result = (int) asDouble;
+				if (result != asDouble)
+					throw new NumberFormatException("Expected an int but was " + value + " at path " + getPath());
+				return result;
+			}
+		}
+
+		@Override
+		public void skipValue() throws IOException {
+			if (position == end)
+				return;
+			if (tokens[position] == NAME) {
+				if (isPromotedName())
+					nextPromotedName();
+				else
+					position++;
+				pathNames[stackSize - 1] = "null";
+			} else {
+				position = JsonTokenBuffer.this.skipValue(position);
+				incrementPathIndex();
+			}
+		}
+
+		@Override
+		public void close() {
+			position = end;
+			stackSize = 0;
+		}
+
+		@Override
+		public String getPath() {
+			StringBuilder result = new StringBuilder("$");
+			for (int i = 0; i < stackSize; i++) {
+				if (stack[i] == BEGIN_ARRAY) {
+					result.append('[').append(pathIndices[i]).append(']');
+				} else if (pathNames[i] != null) {
+					result.append('.').append(pathNames[i]);
+				}
+			}
+			return result.toString();
+		}
+
+		@Override
+		public String toString() {
+			return JsonTokenBuffer.class.getSimpleName() + " at path " + getPath();
+		}
+
+		/**
+		 * Read a string or number, or a property name that has been promoted to a value.
+		 */
+		private String nextPrimitive(JsonToken expected) throws IOException {
+			if (position < end) {
+				switch (tokens[position]) {
+				case STRING:
+				case NUMBER:
+					String result = values[position++];
+					incrementPathIndex();
+					return result;
+				case NAME:
+					if (isPromotedName())
+						return nextPromotedName();
+					break;
+				default:
+				}
+			}
+			throw unexpected(expected);
+		}
+
+		private String nextPromotedName() throws IOException {
+			consumePromotedName();
+			String result = values[position++];
+			pathNames[stackSize - 1] = result;
+			return result;
+		}
+
+		private void expect(byte token, JsonToken expected) throws IOException {
+			if (position == end || tokens[position] != token)
+				throw unexpected(expected);
+		}
+
+		private IllegalStateException unexpected(JsonToken expected) throws IOException {
+			return new IllegalStateException("Expected " + expected + " but was " + peek() + " at path " + getPath());
+		}
+
+		private void push(byte token) {
+			if (stackSize == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stackSize);
+				pathNames = Arrays.copyOf(pathNames, 2 * stackSize);
+				pathIndices = Arrays.copyOf(pathIndices, 2 * stackSize);
+			}
+			stack[stackSize] = token;
+			pathNames[stackSize] = null;
+			pathIndices[stackSize] = 0;
+			stackSize++;
+		}
+
+		private void incrementPathIndex() {
+			if (stackSize > 0)
+				pathIndices[stackSize - 1]++;
+		}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json.adapters;
+
+import java.io.IOException;
+
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A type adapter for {@link LazyParams}. Parameters that have not been parsed yet are written from their
+ * recorded JSON value, so tracing a message does not parse its parameters. Lazy parameters of messages are
+ * created by the {@link MessageTypeAdapter}, which knows the parameter types of the method. Values that are
+ * read with this adapter are recorded as well, but since their type is unknown, they are parsed into a
+ * {@link com.google.gson.JsonElement}.
+ */
+public class LazyParamsTypeAdapter extends TypeAdapter<LazyParams> {
+
+	public static class Factory implements TypeAdapterFactory {
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			if (typeToken.getRawType() != LazyParams.class)
+				return null;
+			return (TypeAdapter<T>) new LazyParamsTypeAdapter(gson);
+		}
+
+	}
+
+	private final Gson gson;
+
+	public LazyParamsTypeAdapter(Gson gson) {
+		this.gson = gson;
+	}
+
+	@Override
+	public void write(JsonWriter out, LazyParams params) throws IOException {
+		if (params == null) {
+			out.nullValue();
+			return;
+		}
+		JsonTokenBuffer tokens = params.getTokens();
+		if (tokens != null) {
+			tokens.write(out);
+			return;
+		}
+		Object value = params.get();
+		if (value == null)
+			out.nullValue();
+		else
+			gson.toJson(value, value.getClass(), out);
+	}
+
+	@Override
+	public LazyParams read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return new LazyParams(JsonTokenBuffer.record(in), JsonTokenBuffer::toJsonElement);
+	}
+
+}
@@ -19,11 +19,12 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
-import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethod;
 import org.eclipse.lsp4j.jsonrpc.json.MessageConstants;
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
 import org.eclipse.lsp4j.jsonrpc.json.MethodProvider;
+import org.eclipse.lsp4j.jsonrpc.json.MethodTypeAdapters;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
 import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
 import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
@@ -116,7 +117,7 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 					break;
 				}
 				case "params": {
-					rawParams = parseParams(in, method);
+					rawParams = handler.isLazyParams() ? recordParams(in, method) : parseParams(in, method);
 					break;
 				}
 				case "result": {
@@ -131,7 +132,7 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 					in.skipValue();
 				}
 			}
-			Object params = parseParams(rawParams, method);
+			Object params = handler.isLazyParams() ? createLazyParams(rawParams, method) : parseParams(rawParams, method);
 			Object result = parseResult(rawResult, id != null ? id.get().toString() : null);
 			
 			in.endObject();
@@ -140,7 +141,7 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 		} catch (JsonSyntaxException | MalformedJsonException | EOFException exception) {
 			if (id != null || method != null) {
 				// Create a message and bundle it to an exception with an issue that wraps the original exception
-				Message message = createMessage(jsonrpc, id, method, rawParams, rawResult, responseError);
+				Message message = createMessage(jsonrpc, id, method, toJsonElement(rawParams), toJsonElement(rawResult), responseError);
 				MessageIssue issue = new MessageIssue("Message could not be parsed.", ResponseErrorCode.ParseError.getValue(), exception);
 				throw new MessageIssueException(message, issue);
 			} else {
@@ -162,67 +163,88 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 	 * @param id
 	 *            id of request message this is in response to
 	 * @return correctly typed object if the correct expected type can be
-	 *         determined, or a JsonElement representing the result
+	 *         determined, a JsonTokenBuffer if the id is not known yet,
+	 *         or a JsonElement representing the result
 	 */
 	protected Object parseResult(JsonReader in, String id) throws JsonIOException, JsonSyntaxException {
-		Type type = null;
-		MethodProvider methodProvider = handler.getMethodProvider();
-		if (methodProvider != null && id != null) {
-			String resolvedMethod = methodProvider.resolveMethod(id);
-			if (resolvedMethod != null) {
-				JsonRpcMethod jsonRpcMethod = handler.getJsonRpcMethod(resolvedMethod);
-				if (jsonRpcMethod != null) {
-					type = jsonRpcMethod.getReturnType();
-					if (jsonRpcMethod.getReturnTypeAdapterFactory() != null) {
-						TypeAdapter<?> typeAdapter = jsonRpcMethod.getReturnTypeAdapterFactory().create(gson, TypeToken.get(type));
-						try {
-							if (typeAdapter != null)
-								return typeAdapter.read(in);
-						} catch (IOException exception) {
-							throw new JsonIOException(exception);
-						}
-					}
-				}
+		if (id == null) {
+			// The result can be converted only after the id has been read
+			try {
+				return JsonTokenBuffer.record(in);
+			} catch (IOException exception) {
+				throw new JsonIOException(exception);
 			}
 		}
-		return fromJson(in, type);
+		return fromJson(in, getResultAdapter(id));
 	}
 
 	/**
-	 * Convert the JsonElement into the result object corresponding to the call made
-	 * by id. If the result is already converted, does nothing.
+	 * Convert the JsonTokenBuffer or JsonElement into the result object corresponding
+	 * to the call made by id. If the result is already converted, does nothing.
 	 *
 	 * @param result
-	 *            json element to read from
+	 *            recorded tokens or json element to read from
 	 * @param id
 	 *            id of request message this is in response to
 	 * @return correctly typed object if the correct expected type can be
 	 *         determined, or result unmodified if no conversion can be done.
 	 */
 	protected Object parseResult(Object result, String id) throws JsonSyntaxException {
+		if (result instanceof JsonTokenBuffer) {
+			JsonTokenBuffer tokens = (JsonTokenBuffer) result;
+			if (id != null) {
+				Object value = parseResult(tokens.newReader(), id);
+				return isNull(value) ? null : value;
+			}
+			result = tokens.toJsonElement();
+		}
 		if (result instanceof JsonElement) {
 			// Type of result could not be resolved - try again with the parsed JSON tree
-			Type type = null;
-			MethodProvider methodProvider = handler.getMethodProvider();
-			if (methodProvider != null) {
-				String resolvedMethod = methodProvider.resolveMethod(id);
-				if (resolvedMethod != null) {
-					JsonRpcMethod jsonRpcMethod = handler.getJsonRpcMethod(resolvedMethod);
-					if (jsonRpcMethod != null) {
-						type = jsonRpcMethod.getReturnType();
-						if (jsonRpcMethod.getReturnTypeAdapterFactory() != null) {
-							TypeAdapter<?> typeAdapter = jsonRpcMethod.getReturnTypeAdapterFactory().create(gson, TypeToken.get(type));
-							if (typeAdapter != null)
-								return typeAdapter.fromJsonTree((JsonElement) result);
-						}
-					}
-				}
-			}
-			return fromJson((JsonElement) result, type);
+			return fromJson((JsonElement) result, getResultAdapter(id));
 		}
 		return result;
 	}
 
+	/**
+	 * Resolve the adapter for the result of the request with the given id.
+	 *
+	 * @return the adapter, or {@code null} if the result type cannot be determined
+	 */
+	protected TypeAdapter<?> getResultAdapter(String id) {
+		MethodProvider methodProvider = handler.getMethodProvider();
+		if (methodProvider != null && id != null) {
+			String resolvedMethod = methodProvider.resolveMethod(id);
+			if (resolvedMethod != null) {
+				MethodTypeAdapters methodTypeAdapters = handler.getMethodTypeAdapters(resolvedMethod);
+				if (methodTypeAdapters != null)
+					return methodTypeAdapters.getResultAdapter();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Record the json input so the parameters can be parsed when they are needed, see
+	 * {@link MessageJsonHandler#setLazyParams(boolean)}. Parameters of cancel notifications
+	 * and {@code null} are parsed immediately.
+	 */
+	protected Object recordParams(JsonReader in, String method) throws IOException {
+		if (in.peek() == JsonToken.NULL || MessageJsonHandler.CANCEL_METHOD.getMethodName().equals(method))
+			return parseParams(in, method);
+		return JsonTokenBuffer.record(in);
+	}
+
+	/**
+	 * Wrap recorded parameters in {@link LazyParams} that are parsed on first access.
+	 */
+	protected Object createLazyParams(Object params, String method) {
+		if (params instanceof JsonTokenBuffer && method != null
+				&& !MessageJsonHandler.CANCEL_METHOD.getMethodName().equals(method)) {
+			return new LazyParams((JsonTokenBuffer) params, tokens -> parseParams(tokens, method));
+		}
+		return parseParams(params, method);
+	}
+
 	/**
 	 * Convert the json input into the parameters object corresponding to the call
 	 * made by method.
@@ -236,7 +258,8 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 	 * @param method
 	 *            method name of request
 	 * @return correctly typed object if the correct expected type can be
-	 *         determined, or a JsonElement representing the parameters
+	 *         determined, a JsonTokenBuffer if the method is not known yet,
+	 *         or a JsonElement representing the parameters
 	 */
 	protected Object parseParams(JsonReader in, String method) throws IOException, JsonIOException {
 		JsonToken next = in.peek();
@@ -244,29 +267,34 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 			in.nextNull();
 			return null;
 		}
-		Type[] parameterTypes = getParameterTypes(method);
-		if (parameterTypes.length == 1) {
-			return fromJson(in, parameterTypes[0]);
+		MethodTypeAdapters methodTypeAdapters = handler.getMethodTypeAdapters(method);
+		int parameterCount = methodTypeAdapters != null ? methodTypeAdapters.getParameterCount() : 0;
+		if (parameterCount == 1) {
+			return fromJson(in, methodTypeAdapters.getParameterAdapter(0));
 		}
-		if (parameterTypes.length > 1 && next == JsonToken.BEGIN_ARRAY) {
-			List<Object> parameters = new ArrayList<Object>(parameterTypes.length);
+		if (parameterCount > 1 && next == JsonToken.BEGIN_ARRAY) {
+			List<Object> parameters = new ArrayList<Object>(parameterCount);
 			int index = 0;
 			in.beginArray();
 			while (in.hasNext()) {
-				Type parameterType = index < parameterTypes.length ? parameterTypes[index] : null;
-				Object parameter = fromJson(in, parameterType);
+				TypeAdapter<?> parameterAdapter = index < parameterCount ? methodTypeAdapters.getParameterAdapter(index) : null;
+				Object parameter = fromJson(in, parameterAdapter);
 				parameters.add(parameter);
 				index++;
 			}
 			in.endArray();
-			while (index < parameterTypes.length) {
+			while (index < parameterCount) {
 				parameters.add(null);
 				index++;
 			}
 			return parameters;
 		}
+		if (method == null) {
+			// The parameters can be converted only after the method has been read
+			return JsonTokenBuffer.record(in);
+		}
 		JsonElement rawParams = JsonParser.parseReader(in);
-		if (method != null && parameterTypes.length == 0 && (
+		if (method != null && parameterCount == 0 && (
 				rawParams.isJsonArray() && rawParams.getAsJsonArray().size() == 0
 				|| rawParams.isJsonObject() && rawParams.getAsJsonObject().size() == 0)) {
 			return null;
@@ -275,11 +303,11 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 	}
 
 	/**
-	 * Convert the JsonElement into the parameters object corresponding to the call made
-	 * by method. If the result is already converted, does nothing.
+	 * Convert the JsonTokenBuffer or JsonElement into the parameters object corresponding
+	 * to the call made by method. If the result is already converted, does nothing.
 	 *
 	 * @param params
-	 *            json element to read from
+	 *            recorded tokens or json element to read from
 	 * @param method
 	 *            method name of request
 	 * @return correctly typed object if the correct expected type can be
@@ -289,32 +317,45 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 		if (isNull(params)) {
 			return null;
 		}
+		if (params instanceof JsonTokenBuffer) {
+			JsonTokenBuffer tokens = (JsonTokenBuffer) params;
+			if (method != null) {
+				try {
+					Object value = parseParams(tokens.newReader(), method);
+					return isNull(value) ? null : value;
+				} catch (IOException exception) {
+					throw new JsonIOException(exception);
+				}
+			}
+			params = tokens.toJsonElement();
+		}
 		if (!(params instanceof JsonElement)) {
 			return params;
 		}
 		JsonElement rawParams = (JsonElement) params;
-		Type[] parameterTypes = getParameterTypes(method);
-		if (parameterTypes.length == 1) {
-			return fromJson(rawParams, parameterTypes[0]);
+		MethodTypeAdapters methodTypeAdapters = handler.getMethodTypeAdapters(method);
+		int parameterCount = methodTypeAdapters != null ? methodTypeAdapters.getParameterCount() : 0;
+		if (parameterCount == 1) {
+			return fromJson(rawParams, methodTypeAdapters.getParameterAdapter(0));
 		}
-		if (parameterTypes.length > 1 && rawParams instanceof JsonArray) {
+		if (parameterCount > 1 && rawParams instanceof JsonArray) {
 			JsonArray array = (JsonArray) rawParams;
-			List<Object> parameters = new ArrayList<Object>(Math.max(array.size(), parameterTypes.length));
+			List<Object> parameters = new ArrayList<Object>(Math.max(array.size(), parameterCount));
 			int index = 0;
 			Iterator<JsonElement> iterator = array.iterator();
 			while (iterator.hasNext()) {
-				Type parameterType = index < parameterTypes.length ? parameterTypes[index] : null;  
-				Object parameter = fromJson(iterator.next(), parameterType);
+				TypeAdapter<?> parameterAdapter = index < parameterCount ? methodTypeAdapters.getParameterAdapter(index) : null;
+				Object parameter = fromJson(iterator.next(), parameterAdapter);
 				parameters.add(parameter);
 				index++;
 			}
-			while (index < parameterTypes.length) {
+			while (index < parameterCount) {
 				parameters.add(null);
 				index++;
 			}
 			return parameters;
 		}
-		if (method != null && parameterTypes.length == 0 && (
+		if (method != null && parameterCount == 0 && (
 				rawParams.isJsonArray() && rawParams.getAsJsonArray().size() == 0
 				|| rawParams.isJsonObject() && rawParams.getAsJsonObject().size() == 0)) {
 			return null;
@@ -343,6 +384,49 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 		return value;
 	}
 
+	/**
+	 * Read a value with the given adapter, or read a JsonElement if the adapter is {@code null}.
+	 * Errors are reported in the same way as in {@link Gson#fromJson(JsonReader, Type)}.
+	 */
+	protected Object fromJson(JsonReader in, TypeAdapter<?> adapter) throws JsonIOException, JsonSyntaxException {
+		if (adapter == null) {
+			return JsonParser.parseReader(in);
+		}
+		boolean lenient = in.isLenient();
+		in.setLenient(true);
+		try {
+			return adapter.read(in);
+		} catch (IllegalStateException | IOException exception) {
+			throw new JsonSyntaxException(exception);
+		} finally {
+			in.setLenient(lenient);
+		}
+	}
+
+	protected Object fromJson(JsonElement element, TypeAdapter<?> adapter) {
+		if (isNull(element)) {
+			return null;
+		}
+		if (adapter == null) {
+			return element;
+		}
+		Object value = adapter.fromJsonTree(element);
+		if (isNull(value)) {
+			return null;
+		}
+		return value;
+	}
+
+	/**
+	 * Convert a value that has been recorded with a {@link JsonTokenBuffer} into a JSON tree.
+	 * Other values are returned unmodified.
+	 */
+	protected Object toJsonElement(Object value) {
+		if (value instanceof JsonTokenBuffer)
+			return ((JsonTokenBuffer) value).toJsonElement();
+		return value;
+	}
+
 	protected boolean isNull(Object value) {
 		return value == null || value instanceof JsonNull;
 	}
@@ -352,11 +436,9 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 	}
 
 	protected Type[] getParameterTypes(String method) {
-		if (method != null) {
-			JsonRpcMethod jsonRpcMethod = handler.getJsonRpcMethod(method);
-			if (jsonRpcMethod != null)
-				return jsonRpcMethod.getParameterTypes();
-		}
+		MethodTypeAdapters methodTypeAdapters = handler.getMethodTypeAdapters(method);
+		if (methodTypeAdapters != null)
+			return methodTypeAdapters.getParameterTypes();
 		return EMPTY_TYPE_ARRAY;
 	}
 	
@@ -406,7 +488,7 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 			if (params == null)
 				writeNullValue(out);
 			else
-				gson.toJson(params, params.getClass(), out);
+				gson.toJson(params, getValueType(params), out);
 		} else if (message instanceof ResponseMessage) {
 			ResponseMessage responseMessage = (ResponseMessage) message;
 			out.name("id");
@@ -420,7 +502,7 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 				if (result == null)
 					writeNullValue(out);
 				else
-					gson.toJson(result, result.getClass(), out);
+					gson.toJson(result, getValueType(result), out);
 			}
 		} else if (message instanceof NotificationMessage) {
 			NotificationMessage notificationMessage = (NotificationMessage) message;
@@ -431,12 +513,21 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
 			if (params == null)
 				writeNullValue(out);
 			else
-				gson.toJson(params, params.getClass(), out);
+				gson.toJson(params, getValueType(params), out);
 		}
 		
 		out.endObject();
 	}
 	
+	/**
+	 * The type used for serializing the given params or result. Iterators and streams are serialized
+	 * with a {@link StreamingTypeAdapter}.
+	 */
+	protected Type getValueType(Object value) {
+		Class<?> streamingType = StreamingTypeAdapter.getStreamingType(value);
+		return streamingType != null ? streamingType : value.getClass();
+	}
+	
 	protected void writeId(JsonWriter out, Either<String, Number> id) throws IOException {
 		if (id == null)
 			writeNullValue(out);
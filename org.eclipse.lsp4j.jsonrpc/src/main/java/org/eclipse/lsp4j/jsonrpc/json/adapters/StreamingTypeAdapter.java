@@ -0,0 +1,174 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json.adapters;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.BaseStream;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A type adapter for {@link Iterator}, {@link Spliterator} and {@link BaseStream} values, e.g. the result of a
+ * request with a very large number of entries. The elements are written as a JSON array one by one while they
+ * are produced, so the complete list of elements never needs to exist in memory. Streams are closed after
+ * all elements have been written.
+ *
+ * <p>These values can be consumed only once. Use {@link Factory#Factory(boolean)} to write a placeholder
+ * instead of the elements, e.g. for logging a message before it is sent. Values of type {@link Iterator},
+ * {@link Spliterator} and {@link Stream} can also be read; the elements are read into a list in that case.</p>
+ */
+public class StreamingTypeAdapter<E> extends TypeAdapter<Object> {
+
+	public static class Factory implements TypeAdapterFactory {
+
+		private final boolean writeElements;
+
+		public Factory() {
+			this(true);
+		}
+
+		/**
+		 * @param writeElements - whether to write the elements or a placeholder that does not consume the value
+		 */
+		public Factory(boolean writeElements) {
+			this.writeElements = writeElements;
+		}
+
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			Class<? super T> rawType = typeToken.getRawType();
+			Function<List<Object>, Object> constructor;
+			if (rawType == Iterator.class)
+				constructor = List::iterator;
+			else if (rawType == Spliterator.class)
+				constructor = List::spliterator;
+			else if (rawType == Stream.class || rawType == BaseStream.class)
+				constructor = List::stream;
+			else if (Iterator.class.isAssignableFrom(rawType) || Spliterator.class.isAssignableFrom(rawType)
+					|| BaseStream.class.isAssignableFrom(rawType))
+				// Implementation types can be written, but not read
+				constructor = null;
+			else
+				return null;
+
+			TypeAdapter<?> elementTypeAdapter = null;
+			if (constructor != null) {
+				Type elementType = TypeUtils.getElementTypes(typeToken, rawType)[0];
+				if (elementType == Object.class)
+					elementTypeAdapter = new JsonElementTypeAdapter(gson);
+				else
+					elementTypeAdapter = gson.getAdapter(TypeToken.get(elementType));
+			}
+			return (TypeAdapter<T>) new StreamingTypeAdapter(gson, elementTypeAdapter, constructor, writeElements);
+		}
+
+	}
+
+	/**
+	 * The interface under which the given value should be serialized if it is an iterator or a stream, otherwise
+	 * {@code null}. Gson excludes anonymous classes, which are used by many implementations of these interfaces.
+	 */
+	public static Class<?> getStreamingType(Object value) {
+		if (value instanceof Iterator<?>)
+			return Iterator.class;
+		if (value instanceof Spliterator<?>)
+			return Spliterator.class;
+		if (value instanceof BaseStream<?, ?>)
+			return BaseStream.class;
+		return null;
+	}
+
+	private final Gson gson;
+	private final TypeAdapter<E> elementTypeAdapter;
+	private final Function<List<E>, Object> constructor;
+	private final boolean writeElements;
+
+	public StreamingTypeAdapter(Gson gson, TypeAdapter<E> elementTypeAdapter, Function<List<E>, Object> constructor,
+			boolean writeElements) {
+		this.gson = gson;
+		this.elementTypeAdapter = elementTypeAdapter;
+		this.constructor = constructor;
+		this.writeElements = writeElements;
+	}
+
+	@Override
+	public Object read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		if (constructor == null)
+			throw new JsonParseException("Cannot create an instance of an implementation type of a stream or iterator.");
+		List<E> elements = new ArrayList<>();
+		in.beginArray();
+		while (in.hasNext()) {
+			elements.add(elementTypeAdapter.read(in));
+		}
+		in.endArray();
+		return constructor.apply(elements);
+	}
+
+	@Override
+	public void write(JsonWriter out, Object value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+		} else if (!writeElements) {
+			out.value(value.toString());
+		} else if (value instanceof BaseStream<?, ?>) {
+			try (BaseStream<?, ?> stream = (BaseStream<?, ?>) value) {
+				writeElements(out, stream.iterator());
+			}
+		} else if (value instanceof Spliterator<?>) {
+			writeElements(out, Spliterators.iterator((Spliterator<?>) value));
+		} else {
+			writeElements(out, (Iterator<?>) value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void writeElements(JsonWriter out, Iterator<?> iterator) throws IOException {
+		out.beginArray();
+		// Elements of the same type usually follow each other, so the last adapter is kept
+		Class<?> elementClass = null;
+		TypeAdapter<Object> elementAdapter = null;
+		while (iterator.hasNext()) {
+			Object element = iterator.next();
+			if (element == null) {
+				out.nullValue();
+				continue;
+			}
+			if (element.getClass() != elementClass) {
+				elementClass = element.getClass();
+				elementAdapter = (TypeAdapter<Object>) gson.getAdapter(elementClass);
+			}
+			elementAdapter.write(out, element);
+		}
+		out.endArray();
+	}
+
+}
@@ -0,0 +1,129 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.json.adapters;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A type adapter for strings that returns a canonical instance for equal strings, e.g. for the document URIs
+ * that are repeated in large lists of locations or diagnostics. This reduces the retained heap of parsed
+ * messages. The adapter is not enabled by default; register it with
+ * {@link org.eclipse.lsp4j.jsonrpc.Launcher.Builder#configureGson(java.util.function.Consumer) configureGson}:
+ * <pre>
+ * builder.configureGson(gsonBuilder -&gt; gsonBuilder.registerTypeAdapterFactory(new StringDeduplicationTypeAdapter.Factory()));
+ * </pre>
+ *
+ * <p>The canonical instances are kept in a table of fixed size whose entries are weakly referenced, so the table
+ * neither grows nor keeps strings alive. A string is only inserted into an empty entry or one whose string has
+ * been garbage collected, so frequently repeated strings are not evicted by colliding strings that occur only
+ * once. Strings that are longer than a given limit, e.g. documentation, are not deduplicated.</p>
+ */
+public class StringDeduplicationTypeAdapter extends TypeAdapter<String> {
+
+	public static final int DEFAULT_TABLE_SIZE = 4096;
+
+	public static final int DEFAULT_MAX_LENGTH = 512;
+
+	public static class Factory implements TypeAdapterFactory {
+
+		private final StringDeduplicationTypeAdapter adapter;
+
+		public Factory() {
+			this(DEFAULT_TABLE_SIZE, DEFAULT_MAX_LENGTH);
+		}
+
+		/**
+		 * @param tableSize - the number of canonical strings that can be kept, rounded up to a power of two
+		 * @param maxLength - the maximal length of strings to deduplicate
+		 */
+		public Factory(int tableSize, int maxLength) {
+			this.adapter = new StringDeduplicationTypeAdapter(tableSize, maxLength);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			if (typeToken.getRawType() != String.class)
+				return null;
+			return (TypeAdapter<T>) adapter;
+		}
+
+	}
+
+	private final AtomicReferenceArray<WeakReference<String>> table;
+	private final int mask;
+	private final int maxLength;
+
+	public StringDeduplicationTypeAdapter(int tableSize, int maxLength) {
+		if (tableSize <= 0)
+			throw new IllegalArgumentException("The table size must be positive.");
+		int size = Integer.highestOneBit(tableSize);
+		if (size < tableSize)
+			size <<= 1;
+		this.table = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Return the canonical instance of the given string.
+	 */
+	public String deduplicate(String value) {
+		if (value == null || value.length() > maxLength)
+			return value;
+		int hash = value.hashCode();
+		int index = (hash ^ (hash >>> 16)) & mask;
+		WeakReference<String> entry = table.get(index);
+		if (entry != null) {
+			String canonical = entry.get();
+			if (canonical != null)
+				return value.equals(canonical) ? canonical : value;
+		}
+		if (!table.compareAndSet(index, entry, new WeakReference<>(value))) {
+			// Another thread has filled the entry in the meantime
+			String canonical = table.get(index).get();
+			if (value.equals(canonical))
+				return canonical;
+		}
+		return value;
+	}
+
+	@Override
+	public String read(JsonReader in) throws IOException {
+		JsonToken peek = in.peek();
+		if (peek == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		if (peek == JsonToken.BOOLEAN) {
+			// Same as the default string adapter of Gson
+			return Boolean.toString(in.nextBoolean());
+		}
+		return deduplicate(in.nextString());
+	}
+
+	@Override
+	public void write(JsonWriter out, String value) throws IOException {
+		out.value(value);
+	}
+
+}
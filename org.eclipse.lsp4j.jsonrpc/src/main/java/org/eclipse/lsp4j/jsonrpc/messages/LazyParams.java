@@ -0,0 +1,91 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.messages;
+
+import java.util.function.Function;
+
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.JsonTokenBuffer;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * The parameters of a request or notification that have not been parsed yet. Instances are created
+ * if {@link MessageJsonHandler#setLazyParams(boolean) lazy parameters} are enabled; the parameters are
+ * parsed on the first invocation of {@link #get()}, which usually happens when the message is dispatched
+ * to a handler method. Messages that are not handled are never parsed completely.
+ */
+public final class LazyParams {
+
+	private JsonTokenBuffer tokens;
+	private Function<? super JsonTokenBuffer, ?> parser;
+	private volatile boolean parsed;
+	private Object value;
+
+	/**
+	 * @param tokens - the recorded JSON value of the parameters
+	 * @param parser - converts the recorded value into the parameters expected by the method
+	 */
+	public LazyParams(JsonTokenBuffer tokens, Function<? super JsonTokenBuffer, ?> parser) {
+		this.tokens = tokens;
+		this.parser = parser;
+	}
+
+	/**
+	 * Return the parsed parameters. The parameters are parsed on the first invocation.
+	 *
+	 * @throws JsonParseException if the recorded value does not match the parameter types of the method
+	 */
+	public Object get() throws JsonParseException {
+		if (!parsed) {
+			synchronized (this) {
+				if (!parsed) {
+					value = parser.apply(tokens);
+					// The recorded value is not needed anymore
+					tokens = null;
+					parser = null;
+					parsed = true;
+				}
+			}
+		}
+		return value;
+	}
+
+	public boolean isParsed() {
+		return parsed;
+	}
+
+	/**
+	 * The recorded JSON value, or {@code null} if the parameters have already been parsed.
+	 */
+	public synchronized JsonTokenBuffer getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * Return the parsed parameters if the given object is an instance of {@link LazyParams},
+	 * otherwise return the given object.
+	 */
+	public static Object resolve(Object params) throws JsonParseException {
+		if (params instanceof LazyParams)
+			return ((LazyParams) params).get();
+		return params;
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (parsed)
+			return String.valueOf(value);
+		return tokens.toString();
+	}
+
+}
@@ -30,6 +30,8 @@ import org.eclipse.lsp4j.jsonrpc.services.AnnotationUtil.MethodInfo;
  */
 public class EndpointProxy implements InvocationHandler {
 	
+	private static final Object[] NO_ARGUMENTS = {};
+	
 	private final Method object_equals;
 	private final Method object_hashCode;
 	private final Method object_toString;
@@ -43,12 +45,17 @@ public class EndpointProxy implements InvocationHandler {
 	}
 	
 	public EndpointProxy(Endpoint delegate, Collection<Class<?>> interfaces) {
+		this(delegate, new MethodTable(interfaces, null));
+	}
+	
+	/**
+	 * Create a proxy handler with the RPC methods of a method table that can be shared by many proxies.
+	 */
+	public EndpointProxy(Endpoint delegate, MethodTable methodTable) {
 		if (delegate == null)
 			throw new NullPointerException("delegate");
-		if (interfaces == null)
-			throw new NullPointerException("interfaces");
-		if (interfaces.isEmpty())
-			throw new IllegalArgumentException("interfaces must not be empty.");
+		if (methodTable == null)
+			throw new NullPointerException("methodTable");
 		
 		this.delegate = delegate;
 		try {
@@ -58,29 +65,19 @@ public class EndpointProxy implements InvocationHandler {
 		} catch (NoSuchMethodException | SecurityException exception) {
 			throw new RuntimeException(exception);
 		}
-		methodInfos = new LinkedHashMap<>();
+		methodInfos = methodTable.methodInfos;
 		delegatedSegments = new LinkedHashMap<>();
-		for (Class<?> interf : interfaces) {
-			AnnotationUtil.findRpcMethods(interf, new HashSet<Class<?>>(), (methodInfo) -> {
-				if (methodInfos.put(methodInfo.method.getName(), methodInfo) != null) {
-					throw new IllegalStateException("Duplicate RPC method " + methodInfo.method);
-				}
-			});
-			AnnotationUtil.findDelegateSegments(interf, new HashSet<Class<?>>(), (method) -> {
-				Object delegateProxy = ServiceEndpoints.toServiceObject(delegate, method.getReturnType());
-				DelegateInfo info = new DelegateInfo();
-				info.delegate = delegateProxy;
-				info.method = method;
-				if (delegatedSegments.put(method.getName(), info) != null) {
-					throw new IllegalStateException("Duplicate RPC method " + method);
-				}
-			});
-		}
+		methodTable.delegateMethods.forEach((name, method) -> {
+			DelegateInfo info = new DelegateInfo();
+			info.delegate = methodTable.delegateTables.get(name).createProxy(delegate);
+			info.method = method;
+			delegatedSegments.put(name, info);
+		});
 	}
 
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		args = args == null ? new Object[0] : args;
+		args = args == null ? NO_ARGUMENTS : args;
 		MethodInfo methodInfo = this.methodInfos.get(method.getName());
 		if (methodInfo != null) {
 			Object params = getParams(args, methodInfo);
@@ -127,4 +124,63 @@ public class EndpointProxy implements InvocationHandler {
 		return getClass().getSimpleName() + " for " + delegate.toString();
 	}
 
+	/**
+	 * The RPC methods and delegate segments of one or more service interfaces. Looking up the methods
+	 * requires reflection, so a method table should be shared by all proxies for the same interfaces,
+	 * e.g. through a {@link org.eclipse.lsp4j.jsonrpc.ProtocolDefinition}.
+	 */
+	public static class MethodTable {
+
+		private final Class<?>[] proxyInterfaces;
+		private final ClassLoader classLoader;
+		private final LinkedHashMap<String, MethodInfo> methodInfos = new LinkedHashMap<>();
+		private final LinkedHashMap<String, Method> delegateMethods = new LinkedHashMap<>();
+		private final LinkedHashMap<String, MethodTable> delegateTables = new LinkedHashMap<>();
+
+		/**
+		 * @param interfaces - the service interfaces implemented by the proxies
+		 * @param classLoader - a class loader that is able to resolve all given interfaces, or {@code null}
+		 *     to use the class loader of the first interface
+		 */
+		public MethodTable(Collection<Class<?>> interfaces, ClassLoader classLoader) {
+			if (interfaces == null)
+				throw new NullPointerException("interfaces");
+			if (interfaces.isEmpty())
+				throw new IllegalArgumentException("interfaces must not be empty.");
+			
+			this.proxyInterfaces = new Class<?>[interfaces.size() + 1];
+			interfaces.toArray(proxyInterfaces);
+			proxyInterfaces[proxyInterfaces.length - 1] = Endpoint.class;
+			this.classLoader = classLoader != null ? classLoader : proxyInterfaces[0].getClassLoader();
+			for (Class<?> interf : interfaces) {
+				AnnotationUtil.findRpcMethods(interf, new HashSet<Class<?>>(), (methodInfo) -> {
+					if (methodInfos.put(methodInfo.method.getName(), methodInfo) != null) {
+						throw new IllegalStateException("Duplicate RPC method " + methodInfo.method);
+					}
+				});
+				AnnotationUtil.findDelegateSegments(interf, new HashSet<Class<?>>(), (method) -> {
+					if (delegateMethods.put(method.getName(), method) != null) {
+						throw new IllegalStateException("Duplicate RPC method " + method);
+					}
+					delegateTables.put(method.getName(), new MethodTable(Collections.singletonList(method.getReturnType()), null));
+				});
+			}
+		}
+
+		/**
+		 * Create a proxy that implements the service interfaces of this table by calling the given endpoint.
+		 * A generated proxy class is preferred for a single interface if it can be resolved by the class loader of
+		 * this table, see {@link ServiceEndpoints#GENERATED_PROXY_SUFFIX}.
+		 */
+		public Object createProxy(Endpoint endpoint) {
+			if (proxyInterfaces.length == 2) {
+				Object generatedProxy = ServiceEndpoints.createGeneratedProxy(endpoint, proxyInterfaces[0], classLoader);
+				if (generatedProxy != null)
+					return generatedProxy;
+			}
+			return Proxy.newProxyInstance(classLoader, proxyInterfaces, new EndpointProxy(endpoint, this));
+		}
+
+	}
+
 }
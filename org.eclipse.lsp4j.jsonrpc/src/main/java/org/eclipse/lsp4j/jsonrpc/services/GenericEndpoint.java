@@ -11,16 +11,23 @@
  ******************************************************************************/
 package org.eclipse.lsp4j.jsonrpc.services;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,9 +35,12 @@ import java.util.stream.Stream;
 
 import org.eclipse.lsp4j.jsonrpc.Endpoint;
 import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
 import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
 import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
 
+import com.google.gson.JsonParseException;
+
 /**
  * An endpoint that reflectively delegates to {@link JsonNotification} and
  * {@link JsonRequest} methods of one or more given delegate objects.
@@ -39,17 +49,33 @@ public class GenericEndpoint implements Endpoint {
 	
 	private static final Logger LOG = Logger.getLogger(GenericEndpoint.class.getName());
 	private static final Object[] NO_ARGUMENTS = {};
+	private static final MethodType NO_ARGUMENTS_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SINGLE_ARGUMENT_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+	private static final MethodType ARGUMENT_ARRAY_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+	/**
+	 * The method handles of each class, which are shared by all endpoints and bound to their receivers.
+	 */
+	private static final ClassValue<Map<Method, MethodInvokers>> METHOD_INVOKERS = new ClassValue<Map<Method, MethodInvokers>>() {
+		@Override
+		protected Map<Method, MethodInvokers> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
 
 	private final LinkedHashMap<String, Function<Object, CompletableFuture<Object>>> methodHandlers = new LinkedHashMap<>();
 	private final List<Object> delegates;
+	private final boolean customArguments;
 
 	public GenericEndpoint(Object delegate) {
 		this.delegates = Collections.singletonList(delegate);
+		this.customArguments = overridesGetArguments();
 		recursiveFindRpcMethods(delegate, new HashSet<>(), new HashSet<>());
 	}
 	
 	public GenericEndpoint(Collection<Object> delegates) {
 		this.delegates = new ArrayList<>(delegates);
+		this.customArguments = overridesGetArguments();
 		for (Object delegate : this.delegates) {
 			recursiveFindRpcMethods(delegate, new HashSet<>(), new HashSet<>());
 		}
@@ -57,16 +83,7 @@ public class GenericEndpoint implements Endpoint {
 
 	protected void recursiveFindRpcMethods(Object current, Set<Class<?>> visited, Set<Class<?>> visitedForDelegate) {
 		AnnotationUtil.findRpcMethods(current.getClass(), visited, (methodInfo) -> {
-			@SuppressWarnings("unchecked")
-			Function<Object, CompletableFuture<Object>> handler = (arg) -> {
-				try {
-					Method method = methodInfo.method;
-					Object[] arguments = this.getArguments(method, arg);
-					return (CompletableFuture<Object>) method.invoke(current, arguments);
-				} catch (InvocationTargetException | IllegalAccessException e) {
-					throw new RuntimeException(e);
-				}
-			};
+			Function<Object, CompletableFuture<Object>> handler = createMethodHandler(methodInfo.method, current);
 			if (methodHandlers.put(methodInfo.name, handler) != null) {
 				throw new IllegalStateException("Multiple methods for name " + methodInfo.name);
 			}
@@ -85,6 +102,125 @@ public class GenericEndpoint implements Endpoint {
 		});
 	}
 	
+	/**
+	 * Create a handler that invokes the given method on the given receiver. The method handles of a class are
+	 * created once and bound to the receiver when the endpoint is created, so no reflection is involved in
+	 * handling a message. Methods with a single parameter, which is the common case, are invoked without an
+	 * array of arguments. Exceptions thrown by the method are passed on unwrapped; checked exceptions are
+	 * wrapped in a {@link CompletionException}.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Function<Object, CompletableFuture<Object>> createMethodHandler(Method method, Object receiver) {
+		MethodInvokers invokers = METHOD_INVOKERS.get(method.getDeclaringClass()).computeIfAbsent(method, MethodInvokers::new);
+		int parameterCount = method.getParameterCount();
+		if (parameterCount == 0 && !customArguments) {
+			MethodHandle invoker = invokers.direct.bindTo(receiver);
+			return (arg) -> {
+				Object params = resolveParams(arg);
+				if (params != null) {
+					// Log the unexpected params
+					getArguments(method, params);
+				}
+				try {
+					return (CompletableFuture<Object>) (Object) invoker.invokeExact();
+				} catch (Throwable throwable) {
+					throw propagate(throwable);
+				}
+			};
+		}
+		if (parameterCount == 1 && !customArguments) {
+			MethodHandle invoker = invokers.direct.bindTo(receiver);
+			return (arg) -> {
+				Object params = resolveParams(arg);
+				Object argument = params instanceof List<?> ? getArguments(method, params)[0] : params;
+				try {
+					return (CompletableFuture<Object>) (Object) invoker.invokeExact(argument);
+				} catch (Throwable throwable) {
+					throw propagate(throwable);
+				}
+			};
+		}
+		MethodHandle invoker = invokers.spread.bindTo(receiver);
+		return (arg) -> {
+			Object[] arguments = getArguments(method, resolveParams(arg));
+			try {
+				return (CompletableFuture<Object>) (Object) invoker.invokeExact(arguments);
+			} catch (Throwable throwable) {
+				throw propagate(throwable);
+			}
+		};
+	}
+
+	/**
+	 * The method handles of a method with an additional leading receiver parameter, which is ignored by
+	 * static methods.
+	 */
+	private static class MethodInvokers {
+
+		/** Takes the arguments directly; only available for methods with at most one parameter. */
+		final MethodHandle direct;
+		/** Takes the arguments as an array. */
+		final MethodHandle spread;
+
+		MethodInvokers(Method method) {
+			MethodHandle methodHandle;
+			try {
+				// A varargs method receives the parameters in an array like any other method
+				methodHandle = MethodHandles.lookup().unreflect(method).asFixedArity();
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+			if (Modifier.isStatic(method.getModifiers()))
+				methodHandle = MethodHandles.dropArguments(methodHandle, 0, Object.class);
+			int parameterCount = method.getParameterCount();
+			if (parameterCount == 0)
+				direct = methodHandle.asType(NO_ARGUMENTS_TYPE);
+			else if (parameterCount == 1)
+				direct = methodHandle.asType(SINGLE_ARGUMENT_TYPE);
+			else
+				direct = null;
+			spread = methodHandle.asSpreader(Object[].class, parameterCount).asType(ARGUMENT_ARRAY_TYPE);
+		}
+
+	}
+
+	private static RuntimeException propagate(Throwable throwable) {
+		if (throwable instanceof RuntimeException)
+			return (RuntimeException) throwable;
+		if (throwable instanceof Error)
+			throw (Error) throwable;
+		return new CompletionException(throwable);
+	}
+
+	/**
+	 * Whether a subclass overrides {@link #getArguments(Method, Object)}, which must then be used for all methods.
+	 */
+	private boolean overridesGetArguments() {
+		for (Class<?> type = getClass(); type != GenericEndpoint.class; type = type.getSuperclass()) {
+			try {
+				type.getDeclaredMethod("getArguments", Method.class, Object.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// Continue with the superclass
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Parse parameters that have been received as {@link LazyParams}. Other parameters are returned unmodified.
+	 * 
+	 * @throws ResponseErrorException if the parameters cannot be parsed
+	 */
+	protected Object resolveParams(Object params) {
+		try {
+			return LazyParams.resolve(params);
+		} catch (JsonParseException exception) {
+			ResponseError error = new ResponseError(ResponseErrorCode.ParseError, "Message could not be parsed.", exception);
+			throw new ResponseErrorException(error);
+		}
+	}
+	
 	protected Object[] getArguments(Method method, Object arg) {
 		int parameterCount = method.getParameterCount();
 		if (parameterCount == 0) {
@@ -124,7 +260,7 @@ public class GenericEndpoint implements Endpoint {
 		List<CompletableFuture<?>> futures = new ArrayList<>(delegates.size());
 		for (Object delegate : delegates) {
 			if (delegate instanceof Endpoint) {
-				futures.add(((Endpoint) delegate).request(method, parameter));
+				futures.add(((Endpoint) delegate).request(method, resolveParams(parameter)));
 			}
 		}
 		if (!futures.isEmpty()) {
@@ -157,7 +293,7 @@ public class GenericEndpoint implements Endpoint {
 		int notifiedDelegates = 0;
 		for (Object delegate : delegates) {
 			if (delegate instanceof Endpoint) {
-				((Endpoint) delegate).notify(method, parameter);
+				((Endpoint) delegate).notify(method, resolveParams(parameter));
 				notifiedDelegates++;
 			}
 		}
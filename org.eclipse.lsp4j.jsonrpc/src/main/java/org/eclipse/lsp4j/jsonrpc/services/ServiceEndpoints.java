@@ -11,6 +11,8 @@
  ******************************************************************************/
 package org.eclipse.lsp4j.jsonrpc.services;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
@@ -30,24 +32,89 @@ public final class ServiceEndpoints {
 	private ServiceEndpoints() {}
 	
 	/**
-	 * Wraps a given {@link Endpoint} in the given service interface.
+	 * The name suffix of proxy classes that have been generated for a service interface, e.g.
+	 * {@code LanguageClientEndpointProxy} for {@code LanguageClient}. A generated proxy implements the service
+	 * interface and {@link Endpoint} by calling {@link Endpoint#request(String, Object)} and
+	 * {@link Endpoint#notify(String, Object)} directly, and it must have a public constructor with a single
+	 * {@link Endpoint} parameter. If such a class is found next to a service interface, it is used instead of
+	 * a {@link java.lang.reflect.Proxy}. Proxy classes can be generated with
+	 * {@code org.eclipse.lsp4j.generator.EndpointProxyGenerator}.
+	 */
+	public static final String GENERATED_PROXY_SUFFIX = "EndpointProxy";
+	
+	private static final ClassValue<Constructor<?>> GENERATED_PROXY_CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+		@Override
+		protected Constructor<?> computeValue(Class<?> interface_) {
+			try {
+				Class<?> proxyClass = Class.forName(interface_.getName() + GENERATED_PROXY_SUFFIX, false, interface_.getClassLoader());
+				if (!interface_.isAssignableFrom(proxyClass) || !Endpoint.class.isAssignableFrom(proxyClass))
+					return null;
+				return proxyClass.getConstructor(Endpoint.class);
+			} catch (ClassNotFoundException | NoSuchMethodException | SecurityException | LinkageError e) {
+				return null;
+			}
+		}
+	};
+	
+	/**
+	 * Create an instance of the generated proxy class of the given service interface.
+	 * 
+	 * @param classLoader - the class loader that would define a reflective proxy; the generated proxy class
+	 *     is only used if this class loader resolves it
+	 * @return the generated proxy, or {@code null} if no proxy class has been generated for the interface
+	 */
+	static Object createGeneratedProxy(Endpoint endpoint, Class<?> interface_, ClassLoader classLoader) {
+		Constructor<?> constructor = GENERATED_PROXY_CONSTRUCTORS.get(interface_);
+		if (constructor == null || !isVisible(constructor.getDeclaringClass(), classLoader))
+			return null;
+		try {
+			return constructor.newInstance(endpoint);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static boolean isVisible(Class<?> clazz, ClassLoader classLoader) {
+		if (clazz.getClassLoader() == classLoader)
+			return true;
+		try {
+			return Class.forName(clazz.getName(), false, classLoader) == clazz;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Wraps a given {@link Endpoint} in the given service interface. A proxy class that has been generated for
+	 * the interface is preferred, see {@link #GENERATED_PROXY_SUFFIX}.
 	 * 
 	 * @return the wrapped service object
 	 */
 	@SuppressWarnings("unchecked")
 	public static <T> T toServiceObject(Endpoint endpoint, Class<T> interface_) {
-		Class<?>[] interfArray = new Class[]{interface_, Endpoint.class};
+		Object generatedProxy = createGeneratedProxy(endpoint, interface_, interface_.getClassLoader());
+		if (generatedProxy != null)
+			return (T) generatedProxy;
+		Class<?>[] interfArray = new Class<?>[]{interface_, Endpoint.class};
 		EndpointProxy invocationHandler = new EndpointProxy(endpoint, interface_);
 		return (T) Proxy.newProxyInstance(interface_.getClassLoader(), interfArray, invocationHandler);
 	}
 	
 	/**
-	 * Wraps a given {@link Endpoint} in the given service interfaces.
+	 * Wraps a given {@link Endpoint} in the given service interfaces. A proxy class that has been generated for
+	 * a single interface is preferred if it can be resolved by the given class loader.
 	 * 
 	 * @return the wrapped service object
 	 */
 	public static Object toServiceObject(Endpoint endpoint, Collection<Class<?>> interfaces, ClassLoader classLoader) {
-		Class<?>[] interfArray = new Class[interfaces.size() + 1];
+		if (interfaces.size() == 1) {
+			Object generatedProxy = createGeneratedProxy(endpoint, interfaces.iterator().next(), classLoader);
+			if (generatedProxy != null)
+				return generatedProxy;
+		}
+		Class<?>[] interfArray = new Class<?>[interfaces.size() + 1];
 		interfaces.toArray(interfArray);
 		interfArray[interfArray.length - 1] = Endpoint.class;
 		EndpointProxy invocationHandler = new EndpointProxy(endpoint, interfaces);
@@ -20,13 +20,16 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Spliterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.BaseStream;
 
 import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
 import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.MessageIssueException;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
 import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
 import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
@@ -99,7 +102,16 @@ public class ReflectiveMessageValidator implements MessageConsumer {
 				|| object instanceof Number
 				|| object instanceof Boolean
 				|| object instanceof JsonElement
-				|| object instanceof Throwable) {
+				|| object instanceof Throwable
+				// Iterators and streams are validated only by consuming them
+				|| object instanceof Iterator<?>
+				|| object instanceof Spliterator<?>
+				|| object instanceof BaseStream<?, ?>) {
+			return;
+		}
+		if (object instanceof LazyParams) {
+			// Validation requires the parsed parameters
+			validate(((LazyParams) object).get(), issues, objectStack, accessorStack);
 			return;
 		}
 		if (objectStack.contains(object)) {
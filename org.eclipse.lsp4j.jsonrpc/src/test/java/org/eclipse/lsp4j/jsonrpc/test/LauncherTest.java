@@ -17,13 +17,29 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.jsonrpc.ProtocolDefinition;
+import org.eclipse.lsp4j.jsonrpc.json.SelectorEventLoop;
 import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.junit.Assert;
@@ -166,4 +182,373 @@ public class LauncherTest {
 				out.toString());
 	}
 	
+	@Test public void testProtocolDefinition() throws Exception {
+		A service = new A() {
+			@Override
+			public void say(Param p) {
+			}
+		};
+		ProtocolDefinition protocol = new Launcher.Builder<B>()
+				.setLocalService(service)
+				.setRemoteInterface(B.class)
+				.createProtocolDefinition();
+		for (int i = 1; i <= 2; i++) {
+			final String[] param = new String[1];
+			A a = new A() {
+				@Override
+				public void say(Param p) {
+					param[0] = p.message;
+				}
+			};
+			String inputMessages = "Content-Length: 60\r\n\r\n"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo" + i + "\"}}";
+			ByteArrayInputStream in = new ByteArrayInputStream(inputMessages.getBytes());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Launcher<B> launcher = new Launcher.Builder<B>()
+					.setLocalService(a)
+					.setProtocolDefinition(protocol)
+					.setInput(in)
+					.setOutput(out)
+					.create();
+			
+			launcher.startListening().get(TIMEOUT, TimeUnit.MILLISECONDS);
+			assertEquals("foo" + i, param[0]);
+			
+			launcher.getRemoteProxy().ask(new Param("bar" + i));
+			Assert.assertEquals("Content-Length: 69\r\n\r\n"
+					+ "{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"ask\",\"params\":{\"message\":\"bar" + i + "\"}}",
+					out.toString());
+		}
+	}
+	
+	@Test public void testChannels() throws Exception {
+		final String[] paramA = new String[1];
+		A a = new A() {
+			@Override
+			public void say(Param p) {
+				paramA[0] = p.message;
+			}
+		};
+		String inputMessages = "Content-Length: 60\r\n\r\n"
+			+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo1\"}}";
+		ByteArrayInputStream in = new ByteArrayInputStream(inputMessages.getBytes());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		Launcher<A> launcher = new Launcher.Builder<A>()
+				.setLocalService(a)
+				.setRemoteInterface(A.class)
+				.setInputChannel(Channels.newChannel(in))
+				.setOutputChannel(Channels.newChannel(out))
+				.create();
+		
+		launcher.startListening().get(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertEquals("foo1", paramA[0]);
+		
+		launcher.getRemoteProxy().say(new Param("foo2"));
+		Assert.assertEquals("Content-Length: 60\r\n\r\n"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo2\"}}",
+				out.toString());
+	}
+	
+	@Test public void testCoalescingOutput() throws Exception {
+		A a = new A() {
+			@Override
+			public void say(Param p) {
+			}
+		};
+		AtomicInteger flushCount = new AtomicInteger();
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushCount.incrementAndGet();
+			}
+		};
+		Launcher<A> launcher = new Launcher.Builder<A>()
+				.setLocalService(a)
+				.setRemoteInterface(A.class)
+				.setInput(new ByteArrayInputStream("".getBytes()))
+				.setOutput(out)
+				.setCoalescingOutput(true)
+				.setMaxFlushDelay(500)
+				.create();
+		
+		A remoteProxy = launcher.getRemoteProxy();
+		remoteProxy.say(new Param("foo1"));
+		remoteProxy.say(new Param("foo2"));
+		remoteProxy.say(new Param("foo3"));
+		String expected = "Content-Length: 60\r\n\r\n"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo1\"}}"
+				+ "Content-Length: 60\r\n\r\n"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo2\"}}"
+				+ "Content-Length: 60\r\n\r\n"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo3\"}}";
+		long start = System.currentTimeMillis();
+		while (flushCount.get() == 0 && System.currentTimeMillis() - start < TIMEOUT) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, out.toString());
+		Assert.assertEquals(1, flushCount.get());
+	}
+
+	@Test public void testCoalescingOutputSingleThreadExecutor() throws Exception {
+		A a = new A() {
+			@Override
+			public void say(Param p) {
+			}
+		};
+		CountDownLatch flushed = new CountDownLatch(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.countDown();
+			}
+		};
+		PipedOutputStream inputSource = new PipedOutputStream();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Launcher<A> launcher = new Launcher.Builder<A>()
+					.setLocalService(a)
+					.setRemoteInterface(A.class)
+					.setInput(new PipedInputStream(inputSource))
+					.setOutput(out)
+					.setExecutorService(executor)
+					.setCoalescingOutput(true)
+					.create();
+			Future<Void> listening = launcher.startListening();
+
+			// The read loop occupies the only thread of the executor, so the writer must not wait for it
+			launcher.getRemoteProxy().say(new Param("foo"));
+			Assert.assertTrue(flushed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			Assert.assertEquals("Content-Length: 59\r\n\r\n"
+					+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo\"}}",
+					out.toString());
+
+			inputSource.close();
+			listening.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testOutboundQueueSingleThreadExecutor() throws Exception {
+		A a = new A() {
+			@Override
+			public void say(Param p) {
+			}
+		};
+		CountDownLatch flushed = new CountDownLatch(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.countDown();
+			}
+		};
+		PipedOutputStream inputSource = new PipedOutputStream();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Launcher<A> launcher = new Launcher.Builder<A>()
+					.setLocalService(a)
+					.setRemoteInterface(A.class)
+					.setInput(new PipedInputStream(inputSource))
+					.setOutput(out)
+					.setExecutorService(executor)
+					.setOutboundQueueCapacity(10)
+					.create();
+			Future<Void> listening = launcher.startListening();
+
+			// The read loop occupies the only thread of the executor, so the queue must not wait for it
+			launcher.getRemoteProxy().say(new Param("foo"));
+			Assert.assertTrue(flushed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			Assert.assertEquals("Content-Length: 59\r\n\r\n"
+					+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"foo\"}}",
+					out.toString());
+
+			inputSource.close();
+			listening.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testSelectorEventLoop() throws Exception {
+		B b = new B() {
+			@Override
+			public CompletableFuture<String> ask(Param p) {
+				return CompletableFuture.completedFuture("echo " + p.message);
+			}
+		};
+		try (SelectorEventLoop eventLoop = new SelectorEventLoop(1);
+				ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+					SocketChannel server = serverChannel.accept()) {
+				Launcher<A> launcher = new Launcher.Builder<A>()
+						.setLocalService(b)
+						.setRemoteInterface(A.class)
+						.setInputChannel(server)
+						.setOutputChannel(server)
+						.setSelectorEventLoop(eventLoop)
+						.create();
+				Future<Void> listening = launcher.startListening();
+				
+				// Send the request in two parts to check that partial messages are buffered
+				String request = "Content-Length: 69\r\n\r\n"
+						+ "{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"ask\",\"params\":{\"message\":\"bar1\"}}";
+				byte[] requestBytes = request.getBytes(StandardCharsets.UTF_8);
+				client.write(ByteBuffer.wrap(requestBytes, 0, 30));
+				Thread.sleep(50);
+				client.write(ByteBuffer.wrap(requestBytes, 30, requestBytes.length - 30));
+				
+				String expected = "Content-Length: 47\r\n\r\n"
+						+ "{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"result\":\"echo bar1\"}";
+				ByteBuffer response = ByteBuffer.allocate(expected.length());
+				while (response.hasRemaining() && client.read(response) >= 0) {
+				}
+				Assert.assertEquals(expected, new String(response.array(), StandardCharsets.UTF_8));
+				
+				client.shutdownOutput();
+				listening.get(TIMEOUT, TimeUnit.MILLISECONDS);
+				Assert.assertTrue(listening.isDone());
+			}
+		}
+	}
+	
+	@Test public void testSelectorEventLoopPendingWrites() throws Exception {
+		A a = new A() {
+			@Override
+			public void say(Param p) {
+			}
+		};
+		char[] chars = new char[1024 * 1024];
+		Arrays.fill(chars, 'x');
+		String message = new String(chars);
+		try (SelectorEventLoop eventLoop = new SelectorEventLoop(1);
+				ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+					SocketChannel server = serverChannel.accept()) {
+				Launcher<A> launcher = new Launcher.Builder<A>()
+						.setLocalService(a)
+						.setRemoteInterface(A.class)
+						.setInputChannel(server)
+						.setOutputChannel(server)
+						.setSelectorEventLoop(eventLoop)
+						.create();
+				Future<Void> listening = launcher.startListening();
+				
+				// The client does not read yet, so most of the data must be queued instead of blocking the caller
+				for (int i = 0; i < 4; i++) {
+					launcher.getRemoteProxy().say(new Param(message));
+				}
+				
+				String expected = "Content-Length: " + (message.length() + 56) + "\r\n\r\n"
+						+ "{\"jsonrpc\":\"2.0\",\"method\":\"say\",\"params\":{\"message\":\"" + message + "\"}}";
+				ByteBuffer response = ByteBuffer.allocate(4 * expected.length());
+				while (response.hasRemaining() && client.read(response) >= 0) {
+				}
+				String responses = new String(response.array(), StandardCharsets.UTF_8);
+				for (int i = 0; i < 4; i++) {
+					Assert.assertEquals(expected, responses.substring(i * expected.length(), (i + 1) * expected.length()));
+				}
+				
+				client.shutdownOutput();
+				listening.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	@Test public void testSelectorEventLoopMaxPendingBytes() throws Exception {
+		LogMessageAccumulator logMessages = new LogMessageAccumulator();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		byte[] data = new byte[1024 * 1024];
+		Arrays.fill(data, (byte) 'x');
+		try (SelectorEventLoop eventLoop = new SelectorEventLoop(1);
+				ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			logMessages.registerTo(SelectorEventLoop.class);
+			eventLoop.setMaxPendingBytes(64 * 1024);
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+					SocketChannel server = serverChannel.accept()) {
+				eventLoop.register(server, new NoopChannelHandler());
+				Future<?> writing = executor.submit(() -> {
+					for (int i = 0; i < 16; i++) {
+						eventLoop.write(server, ByteBuffer.wrap(data));
+					}
+					return null;
+				});
+				
+				// The client does not read yet, so the writer must be blocked when the queue is full
+				logMessages.await(Level.WARNING,
+						"More than 65536 bytes are pending for the channel, blocking writers until the peer reads the data.");
+				Assert.assertFalse(writing.isDone());
+				
+				ByteBuffer received = ByteBuffer.allocate(16 * data.length);
+				while (received.hasRemaining() && client.read(received) >= 0) {
+				}
+				writing.get(TIMEOUT, TimeUnit.MILLISECONDS);
+				Assert.assertFalse(received.hasRemaining());
+			}
+		} finally {
+			executor.shutdown();
+			logMessages.unregister();
+		}
+	}
+	
+	@Test public void testSelectorEventLoopMaxPendingBytesOnEventLoop() throws Exception {
+		LogMessageAccumulator logMessages = new LogMessageAccumulator();
+		byte[] data = new byte[1024 * 1024];
+		CompletableFuture<IOException> writeFailure = new CompletableFuture<>();
+		CompletableFuture<Throwable> closed = new CompletableFuture<>();
+		try (SelectorEventLoop eventLoop = new SelectorEventLoop(1);
+				ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			logMessages.registerTo(SelectorEventLoop.class);
+			eventLoop.setMaxPendingBytes(64 * 1024);
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+					SocketChannel server = serverChannel.accept()) {
+				eventLoop.register(server, new NoopChannelHandler() {
+					@Override
+					public void readable(SelectionKey key) {
+						try {
+							server.read(ByteBuffer.allocate(16));
+							// The event loop cannot drain the queue while it is writing, so the channel must fail
+							for (int i = 0; i < 16; i++) {
+								eventLoop.write(server, ByteBuffer.wrap(data));
+							}
+						} catch (IOException exception) {
+							writeFailure.complete(exception);
+						}
+					}
+					
+					@Override
+					public void closed(Throwable cause) {
+						closed.complete(cause);
+					}
+				});
+				client.write(ByteBuffer.wrap(new byte[] { 1 }));
+				
+				String message = "More than 65536 bytes are pending for the channel, which is written on its event loop thread.";
+				Assert.assertEquals(message, writeFailure.get(TIMEOUT, TimeUnit.MILLISECONDS).getMessage());
+				Assert.assertSame(writeFailure.get(), closed.get(TIMEOUT, TimeUnit.MILLISECONDS));
+				logMessages.await(Level.SEVERE, message);
+			}
+		} finally {
+			logMessages.unregister();
+		}
+	}
+	
+	private static class NoopChannelHandler implements SelectorEventLoop.ChannelHandler {
+		@Override
+		public void registered(SelectionKey key) {
+		}
+		
+		@Override
+		public void readable(SelectionKey key) {
+		}
+		
+		@Override
+		public void closed(Throwable cause) {
+		}
+	}
+	
 }
@@ -0,0 +1,151 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
+import org.eclipse.lsp4j.jsonrpc.OutboundMessageQueue;
+import org.eclipse.lsp4j.jsonrpc.OutboundMessageQueue.OverflowPolicy;
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutboundMessageQueueTest {
+
+	private static final long TIMEOUT = 2000;
+
+	private static NotificationMessage notification(String method, Object params) {
+		NotificationMessage message = new NotificationMessage();
+		message.setMethod(method);
+		message.setParams(params);
+		return message;
+	}
+
+	private static ResponseMessage response(String id) {
+		ResponseMessage message = new ResponseMessage();
+		message.setId(id);
+		message.setResult("ok");
+		return message;
+	}
+
+	@Test
+	public void testOverflowPolicies() throws Exception {
+		CountDownLatch firstMessage = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Message> delivered = Collections.synchronizedList(new ArrayList<>());
+		OutboundMessageQueue queue = new OutboundMessageQueue(message -> {
+			firstMessage.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			delivered.add(message);
+		}, 3, null);
+		queue.setOverflowPolicy("$/progress", OverflowPolicy.DROP_OLDEST);
+		queue.setReplaceKey("diagnostics", params -> params);
+
+		// The first message blocks the delivery until it is released
+		NotificationMessage first = notification("first", null);
+		queue.consume(first);
+		Assert.assertTrue(firstMessage.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		NotificationMessage progress1 = notification("$/progress", "1");
+		NotificationMessage diagnostics1 = notification("diagnostics", "a");
+		ResponseMessage response = response("1");
+		queue.consume(progress1);
+		queue.consume(diagnostics1);
+		queue.consume(response);
+		assertEquals(3, queue.size());
+
+		// The queue is full, so the oldest progress notification is dropped
+		NotificationMessage progress2 = notification("$/progress", "2");
+		queue.consume(progress2);
+		// Pending diagnostics for the same key are replaced
+		NotificationMessage diagnostics2 = notification("diagnostics", "a");
+		queue.consume(diagnostics2);
+		assertEquals(3, queue.size());
+		assertEquals(2, queue.getDroppedCount());
+
+		release.countDown();
+		long start = System.currentTimeMillis();
+		while (delivered.size() < 4 && System.currentTimeMillis() - start < TIMEOUT) {
+			Thread.sleep(10);
+		}
+		Assert.assertSame(first, delivered.get(0));
+		Assert.assertSame(response, delivered.get(1));
+		Assert.assertSame(progress2, delivered.get(2));
+		Assert.assertSame(diagnostics2, delivered.get(3));
+		assertEquals(4, delivered.size());
+	}
+
+	@Test
+	public void testDeliveryFailure() throws Exception {
+		LogMessageAccumulator logMessages = new LogMessageAccumulator();
+		try {
+			// Don't show the delivery failure in the test execution log
+			logMessages.registerTo(OutboundMessageQueue.class);
+			
+			CountDownLatch failed = new CountDownLatch(1);
+			OutboundMessageQueue queue = new OutboundMessageQueue(message -> {
+				throw new JsonRpcException(new IOException("broken pipe"));
+			}, 3, null);
+			RemoteEndpoint endpoint = new RemoteEndpoint(queue, new RemoteEndpointTest.TestEndpoint());
+			queue.setFailureHandler(cause -> {
+				endpoint.failPendingRequests(cause);
+				failed.countDown();
+			});
+
+			// The request is queued, but cannot be delivered
+			CompletableFuture<Object> future = endpoint.request("foo", "myparam");
+			Assert.assertTrue(failed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			try {
+				future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+				Assert.fail("Expected the request to fail.");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof JsonRpcException);
+			}
+			Assert.assertNotNull(queue.getFailure());
+
+			// Subsequent messages are rejected
+			try {
+				queue.consume(notification("foo", null));
+				Assert.fail("Expected the queue to reject the message.");
+			} catch (JsonRpcException e) {
+				assertEquals(queue.getFailure(), e.getCause());
+			}
+			assertEquals(0, queue.size());
+		} finally {
+			logMessages.unregister();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCancelNotificationsCannotBeDropped() {
+		OutboundMessageQueue queue = new OutboundMessageQueue(message -> {});
+		queue.setOverflowPolicy("$/cancelRequest", OverflowPolicy.DROP_OLDEST);
+	}
+
+}
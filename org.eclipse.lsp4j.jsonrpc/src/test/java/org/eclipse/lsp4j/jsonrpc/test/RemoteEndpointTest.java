@@ -12,28 +12,39 @@
 package org.eclipse.lsp4j.jsonrpc.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import org.eclipse.lsp4j.jsonrpc.Endpoint;
+import org.eclipse.lsp4j.jsonrpc.HashedWheelTimer;
 import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
 import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+import org.eclipse.lsp4j.jsonrpc.RequestDispatcher;
+import org.eclipse.lsp4j.jsonrpc.RequestDispatcher.Lane;
+import org.eclipse.lsp4j.jsonrpc.messages.CancelParams;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
 import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
@@ -187,6 +198,221 @@ public class RemoteEndpointTest {
 		assertEquals(error.getMessage(), "The request (id: 1, method: 'foo') has been cancelled");
 	}
 	
+	@Test
+	public void testRequestTimeout() throws Exception {
+		LogMessageAccumulator logMessages = new LogMessageAccumulator();
+		try {
+			// Don't show the timeout warnings in the test execution log
+			logMessages.registerTo(RemoteEndpoint.class);
+			
+			TestEndpoint endp = new TestEndpoint();
+			TestMessageConsumer consumer = new TestMessageConsumer();
+			RemoteEndpoint endpoint = new RemoteEndpoint(consumer, endp);
+			endpoint.setTimer(new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 64));
+			endpoint.setDefaultRequestTimeout(50, TimeUnit.MILLISECONDS);
+			endpoint.setRequestTimeout("slow", 0, TimeUnit.MILLISECONDS);
+			
+			CompletableFuture<Object> answered = endpoint.request("foo", "myparam");
+			CompletableFuture<Object> unanswered = endpoint.request("foo", "myparam");
+			CompletableFuture<Object> slow = endpoint.request("slow", "myparam");
+			endpoint.consume(init(new ResponseMessage(), it -> {
+				it.setId("1");
+				it.setResult("success");
+			}));
+			assertEquals("success", answered.get(TIMEOUT, TimeUnit.MILLISECONDS));
+			
+			try {
+				unanswered.get(TIMEOUT, TimeUnit.MILLISECONDS);
+				fail("Expected a timeout.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			NotificationMessage cancelNotification = (NotificationMessage) consumer.messages.get(3);
+			assertEquals("$/cancelRequest", cancelNotification.getMethod());
+			assertEquals("2", ((CancelParams) cancelNotification.getParams()).getId());
+			assertEquals(1, endpoint.getTimedOutRequestCount());
+			assertEquals(1, endpoint.getTimedOutRequestCount("foo"));
+			assertEquals(0, endpoint.getTimedOutRequestCount("slow"));
+			
+			// The entry has been evicted, so a late response is not matched
+			endpoint.consume(init(new ResponseMessage(), it -> {
+				it.setId("2");
+				it.setResult("late");
+			}));
+			logMessages.await(r -> Level.WARNING == r.getLevel() && r.getMessage().startsWith("Unmatched response message"));
+			assertFalse(slow.isDone());
+		} finally {
+			logMessages.unregister();
+		}
+	}
+	
+	@Test
+	public void testCancelRequestWithTimeout() throws Exception {
+		LogMessageAccumulator logMessages = new LogMessageAccumulator();
+		try {
+			logMessages.registerTo(RemoteEndpoint.class);
+			
+			TestEndpoint endp = new TestEndpoint();
+			TestMessageConsumer consumer = new TestMessageConsumer();
+			RemoteEndpoint endpoint = new RemoteEndpoint(consumer, endp);
+			List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>();
+			endpoint.setTimer(new RecordingTimer(timeouts));
+			endpoint.setDefaultRequestTimeout(1, TimeUnit.MINUTES);
+			
+			CompletableFuture<Object> future = endpoint.request("foo", "myparam");
+			future.cancel(true);
+			assertEquals(2, consumer.messages.size());
+			assertEquals("$/cancelRequest", ((NotificationMessage) consumer.messages.get(1)).getMethod());
+			
+			// A second cancellation does not notify the remote endpoint again
+			future.cancel(true);
+			assertEquals(2, consumer.messages.size());
+			
+			// The request stays pending until the reply arrives, which is dropped silently
+			assertFalse(timeouts.get(0).isCancelled());
+			endpoint.consume(init(new ResponseMessage(), it -> {
+				it.setId("1");
+				it.setResult("late");
+			}));
+			assertTrue(timeouts.get(0).isCancelled());
+			assertFalse(logMessages.match(r -> r.getLevel().intValue() >= Level.WARNING.intValue()).isPresent());
+			assertEquals(0, endpoint.getTimedOutRequestCount());
+		} finally {
+			logMessages.unregister();
+		}
+	}
+	
+	@Test
+	public void testRequestSendFailure() throws Exception {
+		TestEndpoint endp = new TestEndpoint();
+		RemoteEndpoint endpoint = new RemoteEndpoint(message -> {
+			throw new JsonRpcException(new IOException("Channel closed"));
+		}, endp);
+		List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>();
+		endpoint.setTimer(new RecordingTimer(timeouts));
+		endpoint.setDefaultRequestTimeout(1, TimeUnit.MINUTES);
+		
+		CompletableFuture<Object> future = endpoint.request("foo", "myparam");
+		assertTrue(future.isCompletedExceptionally());
+		// The pending entry has been removed together with its timeout
+		assertTrue(timeouts.get(0).isCancelled());
+	}
+	
+	/**
+	 * A timer that records the scheduled timeouts so tests can inspect them.
+	 */
+	static class RecordingTimer extends HashedWheelTimer {
+		
+		final List<HashedWheelTimer.Timeout> timeouts;
+		
+		RecordingTimer(List<HashedWheelTimer.Timeout> timeouts) {
+			super(10, TimeUnit.MILLISECONDS, 64);
+			this.timeouts = timeouts;
+		}
+		
+		@Override
+		public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+			Timeout timeout = super.schedule(task, delay, unit);
+			timeouts.add(timeout);
+			return timeout;
+		}
+		
+	}
+	
+	@Test
+	public void testRequestDispatcher() {
+		TestEndpoint endp = new TestEndpoint();
+		TestMessageConsumer consumer = new TestMessageConsumer();
+		RemoteEndpoint endpoint = new RemoteEndpoint(consumer, endp);
+		List<Runnable> tasks = new ArrayList<>();
+		RequestDispatcher dispatcher = new RequestDispatcher(tasks::add);
+		dispatcher.setLane("bulk", Lane.BULK);
+		dispatcher.setLane("direct", null);
+		endpoint.setRequestDispatcher(dispatcher);
+		
+		endpoint.consume(init(new RequestMessage(), it -> {
+			it.setId("1");
+			it.setMethod("bulk");
+		}));
+		endpoint.consume(init(new RequestMessage(), it -> {
+			it.setId("2");
+			it.setMethod("bulk");
+		}));
+		endpoint.consume(init(new RequestMessage(), it -> {
+			it.setId("3");
+			it.setMethod("foo");
+		}));
+		endpoint.consume(init(new RequestMessage(), it -> {
+			it.setId("4");
+			it.setMethod("direct");
+		}));
+		
+		// The direct request has been handled, the second bulk request waits for the first one
+		assertEquals(1, endp.requests.size());
+		assertEquals("direct", endp.requests.keySet().iterator().next().getMethod());
+		assertEquals(2, tasks.size());
+		
+		// A request can be cancelled while it waits in its lane
+		endpoint.consume(init(new NotificationMessage(), it -> {
+			it.setMethod("$/cancelRequest");
+			it.setParams(init(new CancelParams(), params -> params.setId("2")));
+		}));
+		ResponseMessage cancelled = (ResponseMessage) consumer.messages.get(0);
+		assertEquals("2", cancelled.getId());
+		assertEquals(ResponseErrorCode.RequestCancelled.getValue(), cancelled.getError().getCode());
+		
+		// The interactive request is not blocked by the bulk lane
+		tasks.remove(1).run();
+		tasks.remove(0).run();
+		List<String> methods = new ArrayList<>();
+		endp.requests.keySet().forEach(request -> methods.add(request.getMethod()));
+		assertEquals(Arrays.asList("direct", "foo", "bulk"), methods);
+		
+		// The cancelled request is skipped when the lane is free again
+		endp.requests.values().forEach(future -> future.complete("done"));
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertEquals(3, endp.requests.size());
+		assertEquals(4, consumer.messages.size());
+		for (Message message : consumer.messages.subList(1, 4)) {
+			assertEquals("done", ((ResponseMessage) message).getResult());
+		}
+	}
+	
+	@Test
+	public void testRequestDispatcherThreads() throws Exception {
+		RequestDispatcher dispatcher = new RequestDispatcher();
+		BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable blockingTask = () -> {
+			threads.add(Thread.currentThread());
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		
+		// The bulk lane runs a single request at a time on its own daemon thread
+		dispatcher.dispatch(Lane.BULK, blockingTask);
+		dispatcher.dispatch(Lane.BULK, blockingTask);
+		Thread bulkThread = threads.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertEquals("lsp4j-request-bulk", bulkThread.getName());
+		assertTrue(bulkThread.isDaemon());
+		
+		// The interactive lane is not blocked by the bulk lane
+		dispatcher.dispatch(Lane.INTERACTIVE, () -> threads.add(Thread.currentThread()));
+		assertEquals("lsp4j-request-interactive", threads.poll(TIMEOUT, TimeUnit.MILLISECONDS).getName());
+		assertTrue(threads.isEmpty());
+		
+		// Raising the limit of the bulk lane starts the waiting request on a second thread of its pool
+		dispatcher.configureLane(Lane.BULK, 2);
+		Thread secondBulkThread = threads.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertEquals("lsp4j-request-bulk", secondBulkThread.getName());
+		Assert.assertNotSame(bulkThread, secondBulkThread);
+		release.countDown();
+	}
+	
 	@Test
 	public void testExceptionInEndpoint() {
 		LogMessageAccumulator logMessages = new LogMessageAccumulator();
@@ -0,0 +1,123 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.jsonrpc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.lsp4j.jsonrpc.RequestIdMap;
+import org.junit.Test;
+
+public class RequestIdMapTest {
+
+	@Test
+	public void testNumericAndStringIds() {
+		RequestIdMap<String> map = new RequestIdMap<>();
+		map.put("1", "one");
+		map.put("01", "zero-one");
+		map.put("-1", "minus-one");
+		map.put("abc", "abc");
+		map.put("123456789012345678901234567890", "large");
+		map.put(null, "null");
+
+		assertEquals("one", map.get("1"));
+		assertEquals("zero-one", map.get("01"));
+		assertEquals("minus-one", map.get("-1"));
+		assertEquals("abc", map.get("abc"));
+		assertEquals("large", map.get("123456789012345678901234567890"));
+		assertNull(map.get(null));
+		assertNull(map.get("2"));
+
+		map.put("1", "uno");
+		assertEquals("uno", map.remove("1"));
+		assertNull(map.remove("1"));
+		assertEquals("zero-one", map.remove("01"));
+		assertEquals("abc", map.remove("abc"));
+		assertNull(map.get("abc"));
+	}
+
+	@Test
+	public void testOverflow() {
+		RequestIdMap<Integer> map = new RequestIdMap<>(8);
+		for (int i = 0; i < 100; i++) {
+			map.put(String.valueOf(i), i);
+		}
+		for (int i = 0; i < 100; i++) {
+			assertEquals(Integer.valueOf(i), map.get(String.valueOf(i)));
+		}
+		for (int i = 0; i < 100; i += 2) {
+			assertEquals(Integer.valueOf(i), map.remove(String.valueOf(i)));
+		}
+		for (int i = 0; i < 100; i++) {
+			if (i % 2 == 0)
+				assertNull(map.get(String.valueOf(i)));
+			else
+				assertEquals(Integer.valueOf(i), map.get(String.valueOf(i)));
+		}
+		// Replace values that are in the overflow map
+		for (int i = 1; i < 100; i += 2) {
+			map.put(String.valueOf(i), -i);
+		}
+		for (int i = 1; i < 100; i += 2) {
+			assertEquals(Integer.valueOf(-i), map.remove(String.valueOf(i)));
+			assertNull(map.get(String.valueOf(i)));
+		}
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		RequestIdMap<Integer> map = new RequestIdMap<>(64);
+		int threadCount = 4;
+		int idsPerThread = 10000;
+		AtomicInteger errors = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			int offset = t * idsPerThread;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = offset; i < offset + idsPerThread; i++) {
+					map.put(String.valueOf(i), i);
+					if (i - offset >= 32) {
+						// Keep a few pending entries per thread, like pending requests
+						Integer removed = map.remove(String.valueOf(i - 32));
+						if (removed == null || removed != i - 32)
+							errors.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, errors.get());
+		for (int t = 0; t < threadCount; t++) {
+			int offset = t * idsPerThread;
+			for (int i = offset + idsPerThread - 32; i < offset + idsPerThread; i++) {
+				assertEquals(Integer.valueOf(i), map.remove(String.valueOf(i)));
+			}
+		}
+	}
+
+}
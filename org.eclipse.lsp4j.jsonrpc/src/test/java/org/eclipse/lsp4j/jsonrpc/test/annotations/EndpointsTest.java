@@ -15,6 +15,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -73,6 +74,38 @@ public class EndpointsTest {
 		public void myNotification(String someArg, Integer someArg2);
 	}
 
+	public static interface Baz {
+		@JsonNotification
+		public void bazNotification(String someArg);
+	}
+	
+	/**
+	 * Stands in for a proxy class that has been generated for {@link Baz}.
+	 */
+	public static class BazEndpointProxy implements Baz, Endpoint {
+		
+		private final Endpoint delegate;
+		
+		public BazEndpointProxy(Endpoint delegate) {
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public void bazNotification(String someArg) {
+			delegate.notify("bazNotification", someArg);
+		}
+		
+		@Override
+		public CompletableFuture<?> request(String method, Object parameter) {
+			return delegate.request(method, parameter);
+		}
+		
+		@Override
+		public void notify(String method, Object parameter) {
+			delegate.notify(method, parameter);
+		}
+	}
+
 	@Test public void testProxy_01() throws Exception {
 		Endpoint endpoint = new Endpoint() {
 			
@@ -115,6 +148,45 @@ public class EndpointsTest {
 		assertEquals("result", bar.doStuff2("param", 2).get(TIMEOUT, TimeUnit.MILLISECONDS));
 	}
 	
+	@Test public void testGeneratedProxy() throws Exception {
+		Map<String, Object> notifications = new HashMap<>();
+		Endpoint endpoint = new Endpoint() {
+			
+			@Override
+			public CompletableFuture<?> request(String method, Object parameter) {
+				throw new UnsupportedOperationException();
+			}
+			
+			@Override
+			public void notify(String method, Object parameter) {
+				notifications.put(method, parameter);
+			}
+		};
+		Baz baz = ServiceEndpoints.toServiceObject(endpoint, Baz.class);
+		assertEquals(BazEndpointProxy.class, baz.getClass());
+		baz.bazNotification("notificationParam");
+		assertEquals("notificationParam", notifications.get("bazNotification"));
+		
+		Object service = ServiceEndpoints.toServiceObject(endpoint, Arrays.asList(Baz.class), Baz.class.getClassLoader());
+		assertEquals(BazEndpointProxy.class, service.getClass());
+		
+		// The generated proxy class is not used if the given class loader does not resolve it
+		ClassLoader classLoader = new ClassLoader(Baz.class.getClassLoader()) {
+			@Override
+			protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				if (name.equals(BazEndpointProxy.class.getName()))
+					throw new ClassNotFoundException(name);
+				return super.loadClass(name, resolve);
+			}
+		};
+		service = ServiceEndpoints.toServiceObject(endpoint, Arrays.asList(Baz.class), classLoader);
+		assertTrue(Proxy.isProxyClass(service.getClass()));
+		assertEquals(classLoader, service.getClass().getClassLoader());
+		
+		// Interfaces without a generated proxy class still get a reflective proxy
+		assertTrue(Proxy.isProxyClass(ServiceEndpoints.toServiceObject(endpoint, Foo.class).getClass()));
+	}
+	
 	@Test public void testBackAndForth() throws Exception {
 		Endpoint endpoint = new Endpoint() {
 			@Override
@@ -11,11 +11,17 @@
  ******************************************************************************/
 package org.eclipse.lsp4j.jsonrpc.test.annotations.impl;
 
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
 import org.eclipse.lsp4j.jsonrpc.services.GenericEndpoint;
 import org.eclipse.lsp4j.jsonrpc.services.JsonDelegate;
 import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
@@ -25,6 +31,8 @@ import org.eclipse.lsp4j.jsonrpc.test.LogMessageAccumulator;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.gson.JsonParseException;
+
 public class GenericEndpointTest {
 
 	public static class Foo implements MyIf, OtherThing {
@@ -282,4 +290,75 @@ public class GenericEndpointTest {
 		}
 	}
 
+	@Test
+	public void testExceptionPropagation() throws Exception {
+		GenericEndpoint endpoint = new GenericEndpoint(new Object() {
+
+			@JsonRequest
+			public CompletableFuture<String> fail(String message) {
+				throw new ResponseErrorException(new ResponseError(ResponseErrorCode.InvalidParams, message, null));
+			}
+
+			@JsonNotification
+			public void failChecked() throws Exception {
+				throw new Exception("checked");
+			}
+
+		});
+		try {
+			endpoint.request("fail", "foo");
+			Assert.fail();
+		} catch (ResponseErrorException e) {
+			Assert.assertEquals("foo", e.getResponseError().getMessage());
+		}
+		try {
+			endpoint.notify("failChecked", null);
+			Assert.fail();
+		} catch (CompletionException e) {
+			Assert.assertEquals("checked", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testCustomArguments() throws Exception {
+		GenericEndpoint endpoint = new GenericEndpoint(new Object() {
+
+			@JsonRequest
+			public CompletableFuture<String> getStringValue(String stringValue) {
+				return CompletableFuture.completedFuture(stringValue);
+			}
+
+		}) {
+			@Override
+			protected Object[] getArguments(Method method, Object arg) {
+				return new Object[] { arg + "bar" };
+			}
+		};
+		Assert.assertEquals("foobar", endpoint.request("getStringValue", "foo").get());
+	}
+
+	@Test
+	public void testLazyParams() throws Exception {
+		GenericEndpoint endpoint = new GenericEndpoint(new Object() {
+
+			@JsonRequest
+			public CompletableFuture<String> getStringValue(String stringValue) {
+				return CompletableFuture.completedFuture(stringValue);
+			}
+
+		});
+		LazyParams params = new LazyParams(null, tokens -> "foo");
+		Assert.assertEquals("foo", endpoint.request("getStringValue", params).get());
+
+		LazyParams invalidParams = new LazyParams(null, tokens -> {
+			throw new JsonParseException("invalid");
+		});
+		try {
+			endpoint.request("getStringValue", invalidParams);
+			Assert.fail();
+		} catch (ResponseErrorException e) {
+			Assert.assertEquals(ResponseErrorCode.ParseError.getValue(), e.getResponseError().getCode());
+		}
+	}
+
 }
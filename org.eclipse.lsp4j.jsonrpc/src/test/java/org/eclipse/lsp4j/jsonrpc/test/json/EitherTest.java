@@ -15,10 +15,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.eclipse.lsp4j.jsonrpc.json.adapters.EitherTypeAdapter;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.EitherTypeAdapter.ListChecker;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.EitherTypeAdapter.PropertyChecker;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.EitherTypeAdapter.TokenChecker;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.jsonrpc.messages.Either3;
 import org.junit.Assert;
@@ -26,7 +32,11 @@ import org.junit.Test;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.reflect.TypeToken;
 
 
 public class EitherTest {
@@ -264,4 +274,58 @@ public class EitherTest {
 		}
 	}
 
+
+	protected static class MyObjectE {
+		public String uri;
+		public int line;
+	}
+
+	protected static class MyObjectF {
+		public String targetUri;
+		public List<Object> tags;
+	}
+
+	@Test
+	public void testPropertyCheckerLookahead() throws IOException {
+		TypeToken<Either<MyObjectE, MyObjectF>> typeToken = new TypeToken<Either<MyObjectE, MyObjectF>>() {};
+		Predicate<JsonElement> rightChecker = new PropertyChecker("kind", "link").and(new PropertyChecker("targetUri"));
+		assertTrue(rightChecker instanceof TokenChecker);
+		EitherTypeAdapter<MyObjectE, MyObjectF> adapter = new EitherTypeAdapter<>(createGson(), typeToken,
+				new PropertyChecker("uri", JsonPrimitive.class), rightChecker);
+
+		Either<MyObjectE, MyObjectF> left = adapter.fromJson("{\"line\": 3, \"uri\": \"file:///a\"}");
+		assertEquals("file:///a", left.getLeft().uri);
+		assertEquals(3, left.getLeft().line);
+
+		Either<MyObjectE, MyObjectF> right = adapter.fromJson(
+				"{\"kind\": \"link\", \"tags\": [\"x\", {\"uri\": 1}], \"targetUri\": \"file:///b\"}");
+		assertEquals("file:///b", right.getRight().targetUri);
+		assertEquals(2, right.getRight().tags.size());
+
+		try {
+			adapter.fromJson("{\"uri\": {\"nested\": \"file:///c\"}}");
+			Assert.fail("Expected a JsonParseException");
+		} catch (JsonParseException e) {
+			// Neither alternative accepts the value
+		}
+
+		// Plain predicates are evaluated on a JSON tree
+		adapter = new EitherTypeAdapter<>(createGson(), typeToken, new PropertyChecker("uri"), t -> true);
+		assertEquals("file:///d", adapter.fromJson("{\"targetUri\": \"file:///d\"}").getRight().targetUri);
+	}
+
+	@Test
+	public void testListCheckerLookahead() throws IOException {
+		TypeToken<Either<List<MyObjectE>, List<MyObjectF>>> typeToken = new TypeToken<Either<List<MyObjectE>, List<MyObjectF>>>() {};
+		EitherTypeAdapter<List<MyObjectE>, List<MyObjectF>> adapter = new EitherTypeAdapter<>(createGson(), typeToken,
+				new ListChecker(new PropertyChecker("uri"), true), new ListChecker(new PropertyChecker("targetUri"), false));
+
+		assertTrue(adapter.fromJson("[]").isLeft());
+		Either<List<MyObjectE>, List<MyObjectF>> left = adapter.fromJson("[{\"uri\": \"a\"}, {\"uri\": \"b\"}]");
+		assertEquals("b", left.getLeft().get(1).uri);
+		Either<List<MyObjectE>, List<MyObjectF>> right = adapter.fromJson("[{\"tags\": []}, {\"targetUri\": \"c\"}]");
+		assertEquals(2, right.getRight().size());
+		assertEquals("c", right.getRight().get(1).targetUri);
+	}
+
 }
@@ -11,6 +11,12 @@
  ******************************************************************************/
 package org.eclipse.lsp4j.jsonrpc.test.json;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -19,11 +25,22 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import org.eclipse.lsp4j.jsonrpc.json.ByteBufferReader;
+import org.eclipse.lsp4j.jsonrpc.json.CborMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.GsonMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.JsonMessageCodec;
 import org.eclipse.lsp4j.jsonrpc.json.JsonRpcMethod;
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.SerializationBuffer;
+import org.eclipse.lsp4j.jsonrpc.json.adapters.StringDeduplicationTypeAdapter;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.messages.LazyParams;
 import org.eclipse.lsp4j.jsonrpc.messages.Message;
 import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
 import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
@@ -32,9 +49,16 @@ import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 public class MessageJsonHandlerTest {
 
@@ -601,6 +625,289 @@ public class MessageJsonHandlerTest {
 				parameters);
 	}
 
+	@Test
+	public void testEnumParamStrings() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<Void>() {}.getType(),
+				new TypeToken<List<MyEnum>>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		handler.setMethodProvider((id) -> "foo");
+		RequestMessage message = (RequestMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+				+ "\"id\":\"2\",\n"
+				+ "\"params\": [\"1\", \"+2\", \"C\", \"0\", \"-1\", \"4\", \"99999999999\", \"-\", \"\"],\n"
+				+ "\"method\":\"foo\"\n"
+				+ "}");
+		List<?> parameters = (List<?>) message.getParams();
+		Assert.assertEquals(Arrays.asList(MyEnum.A, MyEnum.B, MyEnum.C, null, null, null, null, null, null),
+				parameters);
+
+		RequestMessage request = new RequestMessage();
+		request.setId("1");
+		request.setMethod("foo");
+		request.setParams(Arrays.asList(MyEnum.C, MyEnum.A));
+		Assert.assertEquals("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"foo\",\"params\":[3,1]}",
+				handler.serialize(request));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testParamsPrecedingMethod() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<Void>() {}.getType(),
+				new TypeToken<Map<String, List<Entry>>>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		RequestMessage message = (RequestMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+				+ "\"id\":\"2\",\n"
+				+ "\"params\": {\"a\\\"b\": [{\"name\":\"x\\\\y\\n\\u00e4\",\"kind\":1e1,\"location\":{\"uri\":\"dummy://foo\"}}, null],"
+				+ " \"c\": [], \"d\": [{\"unknown\": [true, false, {}], \"kind\": -3}]},\n"
+				+ "\"method\":\"foo\"\n"
+				+ "}");
+		Map<String, List<Entry>> params = (Map<String, List<Entry>>) message.getParams();
+		Assert.assertEquals(Arrays.asList("a\"b", "c", "d"), new ArrayList<>(params.keySet()));
+		Entry entry = params.get("a\"b").get(0);
+		Assert.assertEquals("x\\y\nä", entry.name);
+		Assert.assertEquals(10, entry.kind);
+		Assert.assertEquals("dummy://foo", entry.location.uri);
+		Assert.assertNull(params.get("a\"b").get(1));
+		Assert.assertTrue(params.get("c").isEmpty());
+		Assert.assertEquals(-3, params.get("d").get(0).kind);
+
+		// Without a matching method the recorded parameters are converted into a JSON tree
+		NotificationMessage notification = (NotificationMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+				+ "\"params\": {\"values\": [1.5, \"2\", null]},\n"
+				+ "\"method\":\"bar\"\n"
+				+ "}");
+		Assert.assertEquals("{\"values\":[1.5,\"2\",null]}", notification.getParams().toString());
+
+		// Property names are promoted to map keys of any type
+		supportedMethods.put("baz", JsonRpcMethod.notification("baz",
+				new TypeToken<Map<Integer, Map<String, Boolean>>>() {}.getType()));
+		handler = new MessageJsonHandler(supportedMethods);
+		notification = (NotificationMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+				+ "\"params\": {\"1\": {\"x\": true}, \"22\": {}, \"333\": {\"y\": false, \"z\": null}},\n"
+				+ "\"method\":\"baz\"\n"
+				+ "}");
+		Map<Integer, Map<String, Boolean>> mapParams = (Map<Integer, Map<String, Boolean>>) notification.getParams();
+		Assert.assertEquals(Arrays.asList(1, 22, 333), new ArrayList<>(mapParams.keySet()));
+		Assert.assertEquals(Collections.singletonMap("x", true), mapParams.get(1));
+		Assert.assertTrue(mapParams.get(22).isEmpty());
+		Assert.assertEquals(Arrays.asList("y", "z"), new ArrayList<>(mapParams.get(333).keySet()));
+	}
+
+	@Test
+	public void testResultPrecedingId() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<Location>() {}.getType(),
+				new TypeToken<Void>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		handler.setMethodProvider((id) -> "foo");
+		ResponseMessage message = (ResponseMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+				+ "\"result\": {\"uri\": \"dummy://foo\"},\n"
+				+ "\"id\":\"2\"\n"
+				+ "}");
+		Assert.assertEquals("dummy://foo", ((Location) message.getResult()).uri);
+
+		message = (ResponseMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+				+ "\"result\": null,\n"
+				+ "\"id\":\"2\"\n"
+				+ "}");
+		Assert.assertNull(message.getResult());
+	}
+
+	@SuppressWarnings({ "unchecked" })
+	@Test
+	public void testStreamingResult() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<Stream<Location>>() {}.getType(),
+				new TypeToken<Void>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		handler.setMethodProvider((id) -> "foo");
+
+		AtomicInteger produced = new AtomicInteger();
+		ResponseMessage message = new ResponseMessage();
+		message.setId("1");
+		message.setResult(IntStream.range(0, 3).mapToObj(i -> {
+			produced.incrementAndGet();
+			Location location = new Location();
+			location.uri = "dummy://" + i;
+			return location;
+		}));
+		// Logging the message must not consume the stream
+		MessageJsonHandler.toString(message);
+		Assert.assertEquals(0, produced.get());
+
+		String json = handler.serialize(message);
+		Assert.assertEquals(3, produced.get());
+		Assert.assertEquals("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"result\":"
+				+ "[{\"uri\":\"dummy://0\"},{\"uri\":\"dummy://1\"},{\"uri\":\"dummy://2\"}]}", json);
+
+		ResponseMessage parsed = (ResponseMessage) handler.parseMessage(json);
+		Stream<Location> result = (Stream<Location>) parsed.getResult();
+		Assert.assertEquals(Arrays.asList("dummy://0", "dummy://1", "dummy://2"),
+				result.map(location -> location.uri).collect(Collectors.toList()));
+
+		message.setResult(Arrays.asList("a", null, 1).iterator());
+		Assert.assertEquals("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"result\":[\"a\",null,1]}", handler.serialize(message));
+	}
+
+	@SuppressWarnings({ "unchecked" })
+	@Test
+	public void testStringDeduplication() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<List<Location>>() {}.getType(),
+				new TypeToken<Void>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods, gsonBuilder -> {
+			gsonBuilder.registerTypeAdapterFactory(new StringDeduplicationTypeAdapter.Factory(16, 20));
+		});
+		handler.setMethodProvider((id) -> "foo");
+		ResponseMessage message = (ResponseMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"result\":["
+				+ "{\"uri\":\"dummy://foo\"},{\"uri\":\"dummy://foo\"},"
+				+ "{\"uri\":\"dummy://a/very/long/uri\"},{\"uri\":\"dummy://a/very/long/uri\"},{\"uri\":null}]}");
+		List<Location> result = (List<Location>) message.getResult();
+		Assert.assertEquals("dummy://foo", result.get(0).uri);
+		Assert.assertSame(result.get(0).uri, result.get(1).uri);
+		// Strings exceeding the maximal length are not deduplicated
+		Assert.assertEquals(result.get(2).uri, result.get(3).uri);
+		Assert.assertNotSame(result.get(2).uri, result.get(3).uri);
+		Assert.assertNull(result.get(4).uri);
+
+		// A colliding string does not replace the canonical instance
+		StringDeduplicationTypeAdapter adapter = new StringDeduplicationTypeAdapter(1, 20);
+		String foo = adapter.deduplicate(new String("foo"));
+		String bar = adapter.deduplicate(new String("bar"));
+		Assert.assertNotSame(bar, adapter.deduplicate(new String("bar")));
+		Assert.assertSame(foo, adapter.deduplicate(new String("foo")));
+	}
+
+	@Test
+	public void testNewInstance() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<Location>() {}.getType(),
+				new TypeToken<Void>() {}.getType()));
+		MessageJsonHandler prototype = new MessageJsonHandler(supportedMethods);
+		MessageJsonHandler handler = prototype.newInstance();
+		Assert.assertNotSame(prototype.getGson(), handler.getGson());
+		Assert.assertSame(prototype.getGson().getAdapter(Location.class), handler.getGson().getAdapter(Location.class));
+		Assert.assertSame(prototype.getMethodTypeAdapters("foo"), handler.getMethodTypeAdapters("foo"));
+
+		// Each handler has its own method provider
+		handler.setMethodProvider((id) -> "foo");
+		ResponseMessage message = (ResponseMessage) handler.parseMessage(
+				"{\"jsonrpc\":\"2.0\",\"id\":\"2\",\"result\":{\"uri\":\"dummy://foo\"}}");
+		Assert.assertEquals("dummy://foo", ((Location) message.getResult()).uri);
+		message = (ResponseMessage) prototype.parseMessage(
+				"{\"jsonrpc\":\"2.0\",\"id\":\"2\",\"result\":{\"uri\":\"dummy://foo\"}}");
+		Assert.assertTrue(message.getResult() instanceof JsonObject);
+	}
+
+	@Test
+	public void testNewInstanceKeepsMessageAdapters() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.notification("foo",
+				new TypeToken<Location>() {}.getType()));
+		AtomicInteger readCount = new AtomicInteger();
+		TypeAdapterFactory factory = new TypeAdapterFactory() {
+			@Override
+			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+				if (!Message.class.isAssignableFrom(typeToken.getRawType()))
+					return null;
+				TypeAdapter<T> delegate = gson.getDelegateAdapter(this, typeToken);
+				return new TypeAdapter<T>() {
+					@Override
+					public void write(JsonWriter out, T value) throws IOException {
+						delegate.write(out, value);
+					}
+
+					@Override
+					public T read(JsonReader in) throws IOException {
+						readCount.incrementAndGet();
+						return delegate.read(in);
+					}
+				};
+			}
+		};
+		MessageJsonHandler prototype = new MessageJsonHandler(supportedMethods, gsonBuilder -> {
+			gsonBuilder.registerTypeAdapterFactory(factory);
+		});
+		MessageJsonHandler handler = prototype.newInstance();
+		NotificationMessage message = (NotificationMessage) handler.parseMessage(
+				"{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":{\"uri\":\"dummy://foo\"}}");
+		Assert.assertEquals("dummy://foo", ((Location) message.getParams()).uri);
+		Assert.assertEquals(1, readCount.get());
+	}
+
+	@Test
+	public void testLazyParams() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.notification("foo",
+				new TypeToken<Location>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		handler.setLazyParams(true);
+		String json = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":{\"uri\":\"dummy://foo\",\"line\":1.0}}";
+		NotificationMessage message = (NotificationMessage) handler.parseMessage(json);
+		LazyParams params = (LazyParams) message.getParams();
+		Assert.assertFalse(params.isParsed());
+		// Serializing the message writes the recorded value without parsing it
+		Assert.assertEquals(json, handler.serialize(message));
+		Assert.assertFalse(params.isParsed());
+
+		Location location = (Location) params.get();
+		Assert.assertTrue(params.isParsed());
+		Assert.assertNull(params.getTokens());
+		Assert.assertEquals("dummy://foo", location.uri);
+		Assert.assertSame(location, params.get());
+
+		NotificationMessage invalid = (NotificationMessage) handler.parseMessage(
+				"{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":{\"uri\":[1]}}");
+		try {
+			((LazyParams) invalid.getParams()).get();
+			Assert.fail();
+		} catch (JsonParseException e) {
+		}
+
+		// Lazy parameters that are read directly are parsed into a JSON tree
+		String paramsJson = "{\"uri\":\"dummy://foo\",\"line\":1.0}";
+		LazyParams readParams = handler.getGson().fromJson(paramsJson, LazyParams.class);
+		Assert.assertFalse(readParams.isParsed());
+		Assert.assertEquals(paramsJson, handler.getGson().toJson(readParams));
+		JsonObject tree = (JsonObject) readParams.get();
+		Assert.assertEquals("dummy://foo", tree.get("uri").getAsString());
+	}
+
+	@Test
+	public void testReturnTypeAdapterReused() {
+		AtomicInteger createCount = new AtomicInteger();
+		TypeAdapterFactory factory = new TypeAdapterFactory() {
+			@Override
+			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+				createCount.incrementAndGet();
+				return gson.getAdapter(typeToken);
+			}
+		};
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.request("foo",
+				new TypeToken<Location>() {}.getType(), factory));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		handler.setMethodProvider((id) -> "foo");
+		Assert.assertEquals(0, createCount.get());
+		for (int i = 0; i < 3; i++) {
+			ResponseMessage message = (ResponseMessage) handler.parseMessage("{\"jsonrpc\":\"2.0\","
+					+ "\"id\":\"" + i + "\",\n"
+					+ "\"result\": {\"uri\": \"dummy://foo\"}\n"
+					+ "}");
+			Assert.assertEquals("dummy://foo", ((Location) message.getResult()).uri);
+		}
+		Assert.assertEquals(1, createCount.get());
+		Assert.assertSame(handler.getMethodTypeAdapters("foo"), handler.getMethodTypeAdapters("foo"));
+		Assert.assertNull(handler.getMethodTypeAdapters("bar"));
+	}
+
 	@Test
 	public void testResponseErrorData() {
 		MessageJsonHandler handler = new MessageJsonHandler(Collections.emptyMap());
@@ -780,4 +1087,158 @@ public class MessageJsonHandlerTest {
 			Assert.assertEquals("dummy://mymodel.mydsl", ((Location)params).uri);
 		});
 	}
+
+	@Test
+	public void testParseFromByteBuffer() {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.notification("foo", Location.class));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		String json = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":{\"uri\":\"file:///\u00e4\ud83d\ude00.txt\"}}";
+		byte[] bytes = ("xx" + json + "yy").getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 4);
+		NotificationMessage message = (NotificationMessage) handler.parseMessage(buffer, StandardCharsets.UTF_8);
+		Assert.assertEquals("file:///\u00e4\ud83d\ude00.txt", ((Location) message.getParams()).uri);
+	}
+	
+	@Test
+	public void testByteBufferReaderSingleChars() throws IOException {
+		String text = "a\u00e4\ud83d\ude00b";
+		ByteBufferReader reader = new ByteBufferReader(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+		char[] chars = new char[1];
+		StringBuilder result = new StringBuilder();
+		int count;
+		while ((count = reader.read(chars, 0, 1)) != -1) {
+			Assert.assertEquals(1, count);
+			result.append(chars[0]);
+		}
+		Assert.assertEquals(text, result.toString());
+	}
+	
+	@Test
+	public void testSerializeToBuffer() {
+		MessageJsonHandler handler = new MessageJsonHandler(Collections.emptyMap());
+		NotificationMessage message = new NotificationMessage();
+		message.setMethod("foo");
+		StringBuilder params = new StringBuilder("a\u00e4\u20ac\ud83d\ude00\ud83d-\ude00");
+		for (int i = 0; i < 2000; i++) {
+			params.append((char) ('a' + i % 26)).append('\u00e4');
+		}
+		message.setParams(params.toString());
+		SerializationBuffer buffer = handler.serializeToBuffer(message);
+		byte[] expected = handler.serialize(message).getBytes(StandardCharsets.UTF_8);
+		Assert.assertArrayEquals(expected, buffer.toByteArray());
+	}
+	
+	@Test
+	public void testCustomCodec() {
+		MessageJsonHandler handler = new MessageJsonHandler(Collections.emptyMap());
+		List<Message> parsed = new ArrayList<>();
+		List<Message> serialized = new ArrayList<>();
+		GsonMessageCodec gsonCodec = new GsonMessageCodec(handler.getGson());
+		handler.setCodec(new JsonMessageCodec() {
+			@Override
+			public Message parseMessage(Reader input) {
+				Message message = gsonCodec.parseMessage(input);
+				parsed.add(message);
+				return message;
+			}
+			@Override
+			public void serialize(Message message, Writer output) {
+				serialized.add(message);
+				gsonCodec.serialize(message, output);
+			}
+		});
+		NotificationMessage message = new NotificationMessage();
+		message.setMethod("foo");
+		message.setParams("bar");
+		String json = handler.serialize(message);
+		SerializationBuffer buffer = handler.serializeToBuffer(message);
+		Assert.assertEquals(json, new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertEquals(Arrays.asList(message, message), serialized);
+		
+		Message result = handler.parseMessage(ByteBuffer.wrap(buffer.toByteArray()), StandardCharsets.UTF_8);
+		Assert.assertEquals(Collections.singletonList(result), parsed);
+		Assert.assertEquals("foo", ((NotificationMessage) result).getMethod());
+	}
+	
+	@Test
+	public void testCborCodec() {
+		MessageJsonHandler handler = new MessageJsonHandler(Collections.emptyMap());
+		CborMessageCodec codec = new CborMessageCodec(handler.getGson());
+		Map<String, Object> params = new LinkedHashMap<>();
+		params.put("uri", "file:///tmp/\u00e4\u20ac\ud83d\ude00");
+		params.put("lines", Arrays.asList(0, 23, -1, 256, -70000, 1L << 40, Long.MIN_VALUE));
+		params.put("values", Arrays.asList(1.5, 0.1, -2.25e300));
+		params.put("flags", Arrays.asList(true, false, null));
+		params.put("empty", new LinkedHashMap<>());
+		RequestMessage message = new RequestMessage();
+		message.setId(42);
+		message.setMethod("foo");
+		message.setParams(params);
+		
+		SerializationBuffer buffer = handler.serializeToBuffer(message, codec);
+		byte[] cbor = buffer.toByteArray();
+		String json = handler.serialize(message);
+		Assert.assertTrue(cbor.length < json.getBytes(StandardCharsets.UTF_8).length);
+		
+		Message parsed = codec.parseMessage(ByteBuffer.wrap(cbor), StandardCharsets.UTF_8);
+		Assert.assertEquals(json, handler.serialize(parsed));
+		Assert.assertEquals(42, ((RequestMessage) parsed).getRawId().getRight());
+	}
+	
+	@Test
+	public void testCborTags() {
+		MessageJsonHandler handler = new MessageJsonHandler(Collections.emptyMap());
+		CborMessageCodec codec = new CborMessageCodec(handler.getGson());
+		
+		// A tagged data item is decoded like the untagged item
+		NotificationMessage message = new NotificationMessage();
+		message.setMethod("foo");
+		byte[] cbor = handler.serializeToBuffer(message, codec).toByteArray();
+		byte[] tagged = new byte[cbor.length + 2];
+		tagged[0] = (byte) 0xC1;
+		tagged[1] = (byte) 0xC0;
+		System.arraycopy(cbor, 0, tagged, 2, cbor.length);
+		Message parsed = codec.parseMessage(ByteBuffer.wrap(tagged), StandardCharsets.UTF_8);
+		Assert.assertEquals("foo", ((NotificationMessage) parsed).getMethod());
+		
+		// Long sequences of tags are skipped without recursion
+		byte[] tags = new byte[100000];
+		Arrays.fill(tags, (byte) 0xC0);
+		try {
+			codec.parseMessage(ByteBuffer.wrap(tags), StandardCharsets.UTF_8);
+			Assert.fail("Expected a JsonSyntaxException.");
+		} catch (JsonSyntaxException e) {
+			Assert.assertEquals("Unexpected end of CBOR content.", e.getMessage());
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCborDefiniteLength() throws IOException {
+		Map<String, JsonRpcMethod> supportedMethods = new LinkedHashMap<>();
+		supportedMethods.put("foo", JsonRpcMethod.notification("foo",
+				new TypeToken<Map<Integer, List<Double>>>() {}.getType()));
+		MessageJsonHandler handler = new MessageJsonHandler(supportedMethods);
+		CborMessageCodec codec = new CborMessageCodec(handler.getGson());
+		
+		// Definite length items as written by other encoders, and an unknown property that is skipped
+		ByteArrayOutputStream cbor = new ByteArrayOutputStream();
+		cbor.write(0xA4);
+		cbor.write(0x67); cbor.write("jsonrpc".getBytes(StandardCharsets.UTF_8));
+		cbor.write(0x63); cbor.write("2.0".getBytes(StandardCharsets.UTF_8));
+		cbor.write(0x66); cbor.write("method".getBytes(StandardCharsets.UTF_8));
+		cbor.write(0x63); cbor.write("foo".getBytes(StandardCharsets.UTF_8));
+		cbor.write(0x67); cbor.write("unknown".getBytes(StandardCharsets.UTF_8));
+		cbor.write(new byte[] { (byte) 0x82, (byte) 0xA1, 0x61, 'x', (byte) 0xF6, 0x61, 'y' });
+		cbor.write(0x66); cbor.write("params".getBytes(StandardCharsets.UTF_8));
+		cbor.write(new byte[] { (byte) 0xA2, 0x61, '1', (byte) 0x83, 0x01, 0x21, (byte) 0xF9, 0x3E, 0x00, 0x62, '2', '2', (byte) 0x80 });
+		
+		NotificationMessage message = (NotificationMessage) codec.parseMessage(ByteBuffer.wrap(cbor.toByteArray()), StandardCharsets.UTF_8);
+		Assert.assertEquals("foo", message.getMethod());
+		Map<Integer, List<Double>> params = (Map<Integer, List<Double>>) message.getParams();
+		Assert.assertEquals(Arrays.asList(1, 22), new ArrayList<>(params.keySet()));
+		Assert.assertEquals(Arrays.asList(1.0, -2.0, 1.5), params.get(1));
+		Assert.assertTrue(params.get(22).isEmpty());
+	}
 }
@@ -11,26 +11,56 @@
  ******************************************************************************/
 package org.eclipse.lsp4j.jsonrpc.test.json;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 import java.util.logging.Logger;
 
 import org.eclipse.lsp4j.jsonrpc.JsonRpcException;
+import org.eclipse.lsp4j.jsonrpc.json.CborMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.ChannelMessageProducer;
+import org.eclipse.lsp4j.jsonrpc.json.MessageCompression;
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.SelectorEventLoop;
+import org.eclipse.lsp4j.jsonrpc.json.SelectorMessageProducer;
+import org.eclipse.lsp4j.jsonrpc.json.SerializationBuffer;
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageConsumer;
 import org.eclipse.lsp4j.jsonrpc.json.StreamMessageProducer;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.MessageIssue;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+import org.eclipse.lsp4j.jsonrpc.test.LogMessageAccumulator;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.gson.JsonElement;
+
 public class MessageProducerTest {
 	
 	private static final long TIMEOUT = 2000;
@@ -121,4 +151,355 @@ public class MessageProducerTest {
 		}
 	}
 
+	@Test
+	public void testBufferedFraming() throws Exception {
+		String content1 = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":\"\u00e4\u00f6\u00fc\"}";
+		String content2 = "{\"jsonrpc\":\"2.0\",\"method\":\"bar\",\"params\":\"baz\"}";
+		byte[] bytes1 = content1.getBytes(StandardCharsets.UTF_8);
+		byte[] bytes2 = content2.getBytes(StandardCharsets.ISO_8859_1);
+		String input = "Content-Length: " + bytes1.length + "\r\n\r\n" + content1
+				+ "Content-Type: application/json; charset=ISO-8859-1\r\n"
+				+ "Content-Length:" + bytes2.length + "  \r\n\r\n" + content2;
+		List<Message> messages = new ArrayList<>();
+		StreamMessageProducer messageProducer = new StreamMessageProducer(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new MessageJsonHandler(Collections.emptyMap()));
+		messageProducer.setBufferedFraming(true);
+		messageProducer.listen(messages::add);
+		
+		Assert.assertEquals(2, messages.size());
+		Assert.assertEquals("\u00e4\u00f6\u00fc", ((JsonElement) ((NotificationMessage) messages.get(0)).getParams()).getAsString());
+		Assert.assertEquals("bar", ((NotificationMessage) messages.get(1)).getMethod());
+	}
+	
+	@Test
+	public void testBufferedFramingMissingContentLength() throws Exception {
+		LogMessageAccumulator logMessages = new LogMessageAccumulator();
+		try {
+			logMessages.registerTo(StreamMessageProducer.class);
+			String content = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":null}";
+			String input = "Content-Length: 1x\r\n\r\n"
+					+ "Content-Length: " + content.length() + "\r\n\r\n" + content;
+			List<Message> messages = new ArrayList<>();
+			StreamMessageProducer messageProducer = new StreamMessageProducer(
+					new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new MessageJsonHandler(Collections.emptyMap()));
+			messageProducer.setBufferedFraming(true);
+			messageProducer.listen(messages::add);
+			
+			logMessages.await(Level.SEVERE, "For input string: \"1x\"");
+			logMessages.await(Level.SEVERE, "Missing header Content-Length in input \"Content-Length: 1x\r\n\r\n\"");
+			Assert.assertEquals(1, messages.size());
+			Assert.assertEquals("foo", ((NotificationMessage) messages.get(0)).getMethod());
+		} finally {
+			logMessages.unregister();
+		}
+	}
+
+	@Test
+	public void testBufferedFramingCustomHeader() throws Exception {
+		String content = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":null}";
+		String input = "Length: " + content.length() + "\r\n\r\n" + content;
+		List<Message> messages = new ArrayList<>();
+		StreamMessageProducer messageProducer = new StreamMessageProducer(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new MessageJsonHandler(Collections.emptyMap())) {
+			@Override
+			protected void parseHeader(String line, Headers headers) {
+				if (line.startsWith("Length:"))
+					headers.contentLength = Integer.parseInt(line.substring(7).trim());
+			}
+		};
+		messageProducer.setBufferedFraming(true);
+		messageProducer.listen(messages::add);
+		
+		Assert.assertEquals(1, messages.size());
+		Assert.assertEquals("foo", ((NotificationMessage) messages.get(0)).getMethod());
+	}
+
+	@Test
+	public void testSpillLargeMessage() throws Exception {
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			params.append((char) ('a' + i % 26));
+		}
+		params.append("\u00e4");
+		String content1 = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":\"" + params + "\"}";
+		String content2 = "{\"jsonrpc\":\"2.0\",\"method\":\"bar\",\"params\":\"baz\"}";
+		byte[] bytes1 = content1.getBytes(StandardCharsets.UTF_8);
+		String input = "Content-Length: " + bytes1.length + "\r\n\r\n" + content1
+				+ "Content-Length: " + content2.length() + "\r\n\r\n" + content2;
+		List<Message> messages = new ArrayList<>();
+		StreamMessageProducer messageProducer = new StreamMessageProducer(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new MessageJsonHandler(Collections.emptyMap()));
+		messageProducer.setMaxInMemoryMessageSize(1000);
+		messageProducer.listen(messages::add);
+		
+		Assert.assertEquals(2, messages.size());
+		Assert.assertEquals(params.toString(), ((JsonElement) ((NotificationMessage) messages.get(0)).getParams()).getAsString());
+		Assert.assertEquals("bar", ((NotificationMessage) messages.get(1)).getMethod());
+	}
+	
+	@Test
+	public void testParallelParsing() throws Exception {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			// Messages of different sizes take different times to parse
+			String params = String.join("", Collections.nCopies((i % 7) * 1000, "x"));
+			String content = i == 50 ? "{\"jsonrpc\":\"2.0\",\"method\":" : "{\"jsonrpc\":\"2.0\",\"method\":\"foo" + i + "\",\"params\":\"" + params + "\"}";
+			input.append("Content-Length: " + content.length() + "\r\n\r\n" + content);
+		}
+		List<Message> messages = new ArrayList<>();
+		AtomicBoolean consuming = new AtomicBoolean();
+		List<Throwable> errors = new ArrayList<>();
+		StreamMessageProducer messageProducer = new StreamMessageProducer(
+				new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), new MessageJsonHandler(Collections.emptyMap())) {
+			@Override
+			protected void fireError(Throwable error) {
+				errors.add(error);
+			}
+		};
+		messageProducer.setParseExecutor(executorService);
+		messageProducer.setMaxPendingMessages(8);
+		messageProducer.listen(message -> {
+			Assert.assertTrue("Concurrent delivery", consuming.compareAndSet(false, true));
+			messages.add(message);
+			consuming.set(false);
+		});
+		
+		Assert.assertEquals(99, messages.size());
+		for (int i = 0; i < 99; i++) {
+			Assert.assertEquals("foo" + (i < 50 ? i : i + 1), ((NotificationMessage) messages.get(i)).getMethod());
+		}
+		Assert.assertEquals(1, errors.size());
+	}
+	
+	@Test
+	public void testRejectOversizedMessage() throws Exception {
+		String content1 = "{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"foo\",\"params\":\"" + String.join("", Collections.nCopies(10000, "x")) + "\"}";
+		String content2 = "{\"jsonrpc\":\"2.0\",\"method\":\"bar\",\"params\":\"baz\"}";
+		String input = "Content-Length: " + content1.length() + "\r\n\r\n" + content1
+				+ "Content-Length: " + content2.length() + "\r\n\r\n" + content2;
+		List<Message> messages = new ArrayList<>();
+		List<Message> issueMessages = new ArrayList<>();
+		List<MessageIssue> issues = new ArrayList<>();
+		StreamMessageProducer messageProducer = new StreamMessageProducer(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new MessageJsonHandler(Collections.emptyMap()),
+				(message, messageIssues) -> {
+					issueMessages.add(message);
+					issues.addAll(messageIssues);
+				});
+		messageProducer.setMaxMessageSize(1000);
+		messageProducer.listen(messages::add);
+		
+		Assert.assertEquals(1, messages.size());
+		Assert.assertEquals("bar", ((NotificationMessage) messages.get(0)).getMethod());
+		Assert.assertEquals(1, issueMessages.size());
+		RequestMessage request = (RequestMessage) issueMessages.get(0);
+		Assert.assertEquals("1", request.getId());
+		Assert.assertEquals("foo", request.getMethod());
+		Assert.assertEquals(ResponseErrorCode.InvalidRequest.getValue(), issues.get(0).getIssueCode());
+	}
+
+	@Test
+	public void testChannelMessageSizeLimits() throws Exception {
+		String content1 = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":\"" + String.join("", Collections.nCopies(20000, "x")) + "\"}";
+		String content2 = "{\"jsonrpc\":\"2.0\",\"id\":\"2\",\"method\":\"bar\",\"params\":\"" + String.join("", Collections.nCopies(100000, "y")) + "\"}";
+		String content3 = "{\"jsonrpc\":\"2.0\",\"method\":\"baz\",\"params\":null}";
+		String input = "Content-Length: " + content1.length() + "\r\n\r\n" + content1
+				+ "Content-Length: " + content2.length() + "\r\n\r\n" + content2
+				+ "Content-Length: " + content3.length() + "\r\n\r\n" + content3;
+		List<Message> messages = new ArrayList<>();
+		List<Message> issueMessages = new ArrayList<>();
+		ChannelMessageProducer messageProducer = new ChannelMessageProducer(
+				Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+				new MessageJsonHandler(Collections.emptyMap()), (message, issues) -> issueMessages.add(message));
+		messageProducer.setMaxInMemoryMessageSize(1000);
+		messageProducer.setMaxMessageSize(50000);
+		messageProducer.listen(messages::add);
+		
+		Assert.assertEquals(2, messages.size());
+		Assert.assertEquals(20000, ((JsonElement) ((NotificationMessage) messages.get(0)).getParams()).getAsString().length());
+		Assert.assertEquals("baz", ((NotificationMessage) messages.get(1)).getMethod());
+		Assert.assertEquals(1, issueMessages.size());
+		Assert.assertEquals("2", ((RequestMessage) issueMessages.get(0)).getId());
+	}
+
+	@Test
+	public void testSelectorMessageSizeLimits() throws Exception {
+		String content1 = "{\"jsonrpc\":\"2.0\",\"method\":\"foo\",\"params\":\"" + String.join("", Collections.nCopies(20000, "x")) + "\"}";
+		String content2 = "{\"jsonrpc\":\"2.0\",\"id\":\"2\",\"method\":\"bar\",\"params\":\"" + String.join("", Collections.nCopies(100000, "y")) + "\"}";
+		String content3 = "{\"jsonrpc\":\"2.0\",\"method\":\"baz\",\"params\":null}";
+		String input = "Content-Length: " + content1.length() + "\r\n\r\n" + content1
+				+ "Content-Length: " + content2.length() + "\r\n\r\n" + content2
+				// A header line that exceeds the maximum header size is ignored
+				+ "X-Padding: " + String.join("", Collections.nCopies(20000, "z")) + "\r\n"
+				+ "Content-Length: " + content3.length() + "\r\n\r\n" + content3;
+		List<Message> messages = new ArrayList<>();
+		List<Message> issueMessages = new ArrayList<>();
+		Pipe pipe = Pipe.open();
+		try (SelectorEventLoop eventLoop = new SelectorEventLoop(1)) {
+			SelectorMessageProducer messageProducer = new SelectorMessageProducer(pipe.source(), eventLoop,
+					new MessageJsonHandler(Collections.emptyMap()), (message, issues) -> issueMessages.add(message));
+			messageProducer.setMaxInMemoryMessageSize(1000);
+			messageProducer.setMaxMessageSize(50000);
+			CompletableFuture<Void> listening = messageProducer.beginListening(messages::add);
+			try (Pipe.SinkChannel sink = pipe.sink()) {
+				ByteBuffer inputBuffer = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+				while (inputBuffer.hasRemaining()) {
+					sink.write(inputBuffer);
+				}
+			}
+			listening.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			pipe.source().close();
+		}
+		
+		Assert.assertEquals(2, messages.size());
+		Assert.assertEquals(20000, ((JsonElement) ((NotificationMessage) messages.get(0)).getParams()).getAsString().length());
+		Assert.assertEquals("baz", ((NotificationMessage) messages.get(1)).getMethod());
+		Assert.assertEquals(1, issueMessages.size());
+		Assert.assertEquals("2", ((RequestMessage) issueMessages.get(0)).getId());
+	}
+
+	@Test
+	public void testBinaryContentNegotiation() throws Exception {
+		MessageJsonHandler clientHandler = new MessageJsonHandler(Collections.emptyMap());
+		clientHandler.setBinaryCodec(new CborMessageCodec(clientHandler.getGson()));
+		MessageJsonHandler serverHandler = new MessageJsonHandler(Collections.emptyMap());
+		serverHandler.setBinaryCodec(new CborMessageCodec(serverHandler.getGson()));
+		NotificationMessage notification = new NotificationMessage();
+		notification.setJsonrpc("2.0");
+		notification.setMethod("foo");
+		notification.setParams("bar");
+		
+		// The client sends JSON and advertises the binary format
+		ByteArrayOutputStream clientOutput = new ByteArrayOutputStream();
+		new StreamMessageConsumer(clientOutput, clientHandler).consume(notification);
+		String clientMessage = clientOutput.toString(StandardCharsets.UTF_8.name());
+		Assert.assertTrue(clientMessage, clientMessage.contains("Accept: application/vscode-jsonrpc+cbor\r\n"));
+		
+		// An endpoint without binary support ignores the advertisement
+		List<Message> messages = new ArrayList<>();
+		new StreamMessageProducer(new ByteArrayInputStream(clientOutput.toByteArray()),
+				new MessageJsonHandler(Collections.emptyMap())).listen(messages::add);
+		Assert.assertEquals(Collections.singletonList(notification.toString()), messages.stream().map(Message::toString).collect(Collectors.toList()));
+		
+		// The server accepts the binary format and responds with it
+		messages.clear();
+		new StreamMessageProducer(new ByteArrayInputStream(clientOutput.toByteArray()), serverHandler).listen(messages::add);
+		Assert.assertEquals(Collections.singletonList(notification.toString()), messages.stream().map(Message::toString).collect(Collectors.toList()));
+		Assert.assertTrue(serverHandler.isBinaryAccepted());
+		ByteArrayOutputStream serverOutput = new ByteArrayOutputStream();
+		new StreamMessageConsumer(serverOutput, serverHandler).consume(notification);
+		String serverMessage = serverOutput.toString(StandardCharsets.ISO_8859_1.name());
+		Assert.assertTrue(serverMessage, serverMessage.contains("Content-Type: application/vscode-jsonrpc+cbor\r\n"));
+		Assert.assertFalse(serverMessage, serverMessage.contains("\"jsonrpc\""));
+		
+		// The client parses the binary message and switches to the binary format
+		messages.clear();
+		StreamMessageProducer clientProducer = new StreamMessageProducer(new ByteArrayInputStream(serverOutput.toByteArray()), clientHandler);
+		clientProducer.setBufferedFraming(true);
+		clientProducer.listen(messages::add);
+		Assert.assertEquals(Collections.singletonList(notification.toString()), messages.stream().map(Message::toString).collect(Collectors.toList()));
+		Assert.assertTrue(clientHandler.isBinaryAccepted());
+	}
+
+	@Test
+	public void testCompressionNegotiation() throws Exception {
+		MessageJsonHandler clientHandler = new MessageJsonHandler(Collections.emptyMap());
+		clientHandler.setCompression(new MessageCompression(100));
+		MessageJsonHandler serverHandler = new MessageJsonHandler(Collections.emptyMap());
+		serverHandler.setCompression(new MessageCompression(100));
+		NotificationMessage notification = new NotificationMessage();
+		notification.setJsonrpc("2.0");
+		notification.setMethod("foo");
+		notification.setParams(String.join(",", Collections.nCopies(200, "textDocument")));
+		
+		// The client has not received an Accept-Encoding header yet, so it sends uncompressed content
+		ByteArrayOutputStream clientOutput = new ByteArrayOutputStream();
+		new StreamMessageConsumer(clientOutput, clientHandler).consume(notification);
+		String clientMessage = clientOutput.toString(StandardCharsets.UTF_8.name());
+		Assert.assertTrue(clientMessage, clientMessage.contains("Accept-Encoding: deflate, gzip\r\n"));
+		Assert.assertFalse(clientMessage, clientMessage.contains("Content-Encoding"));
+		
+		List<Message> messages = new ArrayList<>();
+		new StreamMessageProducer(new ByteArrayInputStream(clientOutput.toByteArray()), serverHandler).listen(messages::add);
+		Assert.assertEquals(Collections.singletonList(notification.toString()), messages.stream().map(Message::toString).collect(Collectors.toList()));
+		Assert.assertEquals(MessageCompression.DEFLATE, serverHandler.getCompression().getAcceptedEncoding());
+		
+		// The server compresses its response
+		ByteArrayOutputStream serverOutput = new ByteArrayOutputStream();
+		new StreamMessageConsumer(serverOutput, serverHandler).consume(notification);
+		String serverMessage = serverOutput.toString(StandardCharsets.ISO_8859_1.name());
+		Assert.assertTrue(serverMessage, serverMessage.contains("Content-Encoding: deflate\r\n"));
+		Assert.assertTrue(serverOutput.size() < clientOutput.size() / 5);
+		
+		messages.clear();
+		StreamMessageProducer clientProducer = new StreamMessageProducer(new ByteArrayInputStream(serverOutput.toByteArray()), clientHandler);
+		clientProducer.setBufferedFraming(true);
+		clientProducer.listen(messages::add);
+		Assert.assertEquals(Collections.singletonList(notification.toString()), messages.stream().map(Message::toString).collect(Collectors.toList()));
+		Assert.assertEquals(MessageCompression.DEFLATE, clientHandler.getCompression().getAcceptedEncoding());
+	}
+	
+	@Test
+	public void testGzipContentEncoding() throws Exception {
+		MessageCompression compression = new MessageCompression(0);
+		byte[] content = String.join(",", Collections.nCopies(100, "\"uri\":\"file:///tmp/foo\"")).getBytes(StandardCharsets.UTF_8);
+		SerializationBuffer compressed = compression.compress(content, content.length, MessageCompression.GZIP);
+		try (InputStream gzipInput = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+			ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int count;
+			while ((count = gzipInput.read(buffer)) > 0) {
+				decompressed.write(buffer, 0, count);
+			}
+			Assert.assertArrayEquals(content, decompressed.toByteArray());
+		}
+		
+		ByteBuffer result = compression.decompress(ByteBuffer.wrap(compressed.toByteArray()), MessageCompression.GZIP, content.length);
+		Assert.assertEquals(new String(content, StandardCharsets.UTF_8), StandardCharsets.UTF_8.decode(result).toString());
+		try {
+			compression.decompress(ByteBuffer.wrap(compressed.toByteArray()), MessageCompression.GZIP, content.length - 1);
+			Assert.fail("Expected a ZipException");
+		} catch (ZipException exception) {
+			Assert.assertTrue(exception.getMessage().contains("maximum message size"));
+		}
+		
+		// Decompressed content above the in-memory limit is not kept on the heap
+		result = compression.decompress(ByteBuffer.wrap(compressed.toByteArray()), MessageCompression.GZIP, content.length, 100);
+		Assert.assertFalse(result.hasArray());
+		Assert.assertEquals(new String(content, StandardCharsets.UTF_8), StandardCharsets.UTF_8.decode(result).toString());
+	}
+
+	@Test
+	public void testCompressionDispose() throws Exception {
+		MessageCompression compression = new MessageCompression(0);
+		byte[] content = String.join(",", Collections.nCopies(100, "\"uri\":\"file:///tmp/foo\"")).getBytes(StandardCharsets.UTF_8);
+		
+		// More concurrent users than pooled instances
+		ExecutorService executor = Executors.newFixedThreadPool(2 * MessageCompression.MAX_POOL_SIZE);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < 8 * MessageCompression.MAX_POOL_SIZE; i++) {
+				results.add(executor.submit(() -> {
+					byte[] compressed = compression.compress(content, content.length, MessageCompression.DEFLATE).toByteArray();
+					ByteBuffer result = compression.decompress(ByteBuffer.wrap(compressed), MessageCompression.DEFLATE, content.length);
+					Assert.assertEquals(content.length, result.remaining());
+					return null;
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		// The instance can still be used after the pooled deflaters and inflaters have been ended
+		compression.dispose();
+		SerializationBuffer compressed = compression.compress(content, content.length, MessageCompression.GZIP);
+		ByteBuffer result = compression.decompress(ByteBuffer.wrap(compressed.toByteArray()), MessageCompression.GZIP, content.length);
+		Assert.assertEquals(new String(content, StandardCharsets.UTF_8), StandardCharsets.UTF_8.decode(result).toString());
+		compression.dispose();
+	}
+
 }
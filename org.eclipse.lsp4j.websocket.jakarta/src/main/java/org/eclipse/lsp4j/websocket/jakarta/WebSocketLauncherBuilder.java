@@ -64,6 +64,7 @@ public class WebSocketLauncherBuilder<T> extends Launcher.Builder<T> {
 			remoteEndpoint = new RemoteEndpoint(outgoingMessageStream, localEndpoint);
 		else
 			remoteEndpoint = new RemoteEndpoint(outgoingMessageStream, localEndpoint, exceptionHandler);
+		configureRemoteEndpoint(remoteEndpoint);
 		jsonHandler.setMethodProvider(remoteEndpoint);
 		return remoteEndpoint;
 	}
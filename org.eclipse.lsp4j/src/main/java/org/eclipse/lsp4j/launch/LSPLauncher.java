@@ -17,8 +17,15 @@ import java.io.PrintWriter;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
+import org.eclipse.lsp4j.ProgressParams;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.WorkDoneProgressReport;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.OutboundMessageQueue;
+import org.eclipse.lsp4j.jsonrpc.OutboundMessageQueue.OverflowPolicy;
+import org.eclipse.lsp4j.jsonrpc.RequestDispatcher;
+import org.eclipse.lsp4j.jsonrpc.RequestDispatcher.Lane;
 import org.eclipse.lsp4j.jsonrpc.validation.ReflectiveMessageValidator;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageServer;
@@ -155,6 +162,71 @@ public final class LSPLauncher {
 	 */
 	public static class Builder<T> extends Launcher.Builder<T> {
 		
+		/**
+		 * Log and telemetry notifications drop the oldest pending notification of the same method when the
+		 * outbound queue is full. A pending work done progress report is replaced by a newer report with the
+		 * same token; the begin and end notifications and partial results are never dropped. Pending
+		 * diagnostics of a document are replaced by newer diagnostics of the same document.
+		 */
+		@Override
+		protected void setDefaultOverflowPolicies(OutboundMessageQueue queue) {
+			queue.setReplaceKey("$/progress", params -> {
+				if (params instanceof ProgressParams) {
+					ProgressParams progressParams = (ProgressParams) params;
+					if (progressParams.getValue() != null && progressParams.getValue().getLeft() instanceof WorkDoneProgressReport)
+						return progressParams.getToken();
+				}
+				return null;
+			});
+			queue.setOverflowPolicy("window/logMessage", OverflowPolicy.DROP_OLDEST);
+			queue.setOverflowPolicy("telemetry/event", OverflowPolicy.DROP_OLDEST);
+			queue.setReplaceKey("textDocument/publishDiagnostics", params -> params instanceof PublishDiagnosticsParams
+					? ((PublishDiagnosticsParams) params).getUri() : null);
+		}
+		
+		/**
+		 * The lifecycle requests are handled directly, so they keep their order with the lifecycle notifications.
+		 * Requests that search the workspace or compute results for whole documents use the background lane, and
+		 * formatting and semantic tokens use the bulk lane. All other requests use the interactive lane.
+		 */
+		@Override
+		protected void setDefaultLanes(RequestDispatcher dispatcher) {
+			dispatcher.setLane("initialize", null);
+			dispatcher.setLane("shutdown", null);
+			for (String method : new String[] {
+					"workspace/symbol",
+					"workspace/executeCommand",
+					"workspace/willCreateFiles",
+					"workspace/willRenameFiles",
+					"workspace/willDeleteFiles",
+					"textDocument/references",
+					"textDocument/documentSymbol",
+					"textDocument/codeLens",
+					"codeLens/resolve",
+					"textDocument/documentLink",
+					"documentLink/resolve",
+					"textDocument/documentColor",
+					"textDocument/colorPresentation",
+					"textDocument/foldingRange",
+					"textDocument/rename",
+					"textDocument/typeHierarchy",
+					"typeHierarchy/resolve",
+					"textDocument/prepareCallHierarchy",
+					"callHierarchy/incomingCalls",
+					"callHierarchy/outgoingCalls",
+					"textDocument/moniker" }) {
+				dispatcher.setLane(method, Lane.BACKGROUND);
+			}
+			for (String method : new String[] {
+					"textDocument/formatting",
+					"textDocument/rangeFormatting",
+					"textDocument/semanticTokens/full",
+					"textDocument/semanticTokens/full/delta",
+					"textDocument/semanticTokens/range" }) {
+				dispatcher.setLane(method, Lane.BULK);
+			}
+		}
+		
 	}
 
 }
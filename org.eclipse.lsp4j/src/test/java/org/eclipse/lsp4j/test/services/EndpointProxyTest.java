@@ -0,0 +1,90 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ * 
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ * 
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.test.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.jsonrpc.Endpoint;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
+import org.eclipse.lsp4j.launch.LSPLauncher;
+import org.eclipse.lsp4j.services.LanguageClient;
+import org.eclipse.lsp4j.services.LanguageServer;
+import org.eclipse.lsp4j.services.LanguageServerEndpointProxy;
+import org.eclipse.lsp4j.services.TextDocumentService;
+import org.eclipse.lsp4j.services.TextDocumentServiceEndpointProxy;
+import org.eclipse.lsp4j.services.WorkspaceService;
+import org.eclipse.lsp4j.services.WorkspaceServiceEndpointProxy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EndpointProxyTest {
+
+	private static final List<Class<?>> SERVICE_INTERFACES = Arrays.asList(LanguageServer.class, LanguageClient.class,
+			TextDocumentService.class, WorkspaceService.class);
+
+	private final List<String> methods = new ArrayList<>();
+	private final List<Object> parameters = new ArrayList<>();
+
+	private final Endpoint endpoint = new Endpoint() {
+
+		@Override
+		public CompletableFuture<?> request(String method, Object parameter) {
+			methods.add(method);
+			parameters.add(parameter);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void notify(String method, Object parameter) {
+			methods.add(method);
+			parameters.add(parameter);
+		}
+	};
+
+	@Test public void testGeneratedProxies() {
+		for (Class<?> service : SERVICE_INTERFACES) {
+			String proxyClassName = service.getName() + ServiceEndpoints.GENERATED_PROXY_SUFFIX;
+			Assert.assertEquals(proxyClassName, ServiceEndpoints.toServiceObject(endpoint, service).getClass().getName());
+			Assert.assertEquals(proxyClassName, ServiceEndpoints.toServiceObject(endpoint, Collections.singletonList(service),
+					service.getClassLoader()).getClass().getName());
+		}
+		LanguageServer server = ServiceEndpoints.toServiceObject(endpoint, LanguageServer.class);
+		Assert.assertTrue(server.getTextDocumentService() instanceof TextDocumentServiceEndpointProxy);
+		Assert.assertTrue(server.getWorkspaceService() instanceof WorkspaceServiceEndpointProxy);
+
+		Launcher<LanguageServer> launcher = LSPLauncher.createClientLauncher(new MockLanguageClient(),
+				new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+		Assert.assertTrue(launcher.getRemoteProxy() instanceof LanguageServerEndpointProxy);
+	}
+
+	@Test public void testGeneratedProxyMessages() {
+		LanguageServer server = ServiceEndpoints.toServiceObject(endpoint, LanguageServer.class);
+		InitializeParams initializeParams = new InitializeParams();
+		server.initialize(initializeParams);
+		DidOpenTextDocumentParams didOpenParams = new DidOpenTextDocumentParams();
+		server.getTextDocumentService().didOpen(didOpenParams);
+		server.exit();
+
+		Assert.assertEquals(Arrays.asList("initialize", "textDocument/didOpen", "exit"), methods);
+		Assert.assertEquals(Arrays.asList(initializeParams, didOpenParams, null), parameters);
+	}
+
+}
@@ -18,6 +18,7 @@ import java.util.ArrayList
 import java.util.Collection
 import java.util.HashMap
 import java.util.List
+import java.util.function.Function
 import org.eclipse.lsp4j.ClientCapabilities
 import org.eclipse.lsp4j.CodeAction
 import org.eclipse.lsp4j.CodeActionCapabilities
@@ -86,6 +87,7 @@ import org.eclipse.lsp4j.WorkDoneProgressEnd
 import org.eclipse.lsp4j.WorkDoneProgressNotification
 import org.eclipse.lsp4j.WorkspaceClientCapabilities
 import org.eclipse.lsp4j.WorkspaceEdit
+import org.eclipse.lsp4j.jsonrpc.json.JsonMessageCodec
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler
 import org.eclipse.lsp4j.jsonrpc.messages.Either
 import org.eclipse.lsp4j.jsonrpc.messages.Message
@@ -102,10 +104,26 @@ import org.eclipse.lsp4j.services.LanguageServer
 import org.eclipse.xtend.lib.annotations.FinalFieldsConstructor
 import org.junit.Before
 import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import org.junit.runners.Parameterized.Parameter
+import org.junit.runners.Parameterized.Parameters
 
 import static org.junit.Assert.*
 
+@RunWith(Parameterized)
 class JsonParseTest {
+	
+	@Parameters(name = "{0}")
+	def static Collection<Object[]> codecs() {
+		MessageCodecs.all
+	}
+	
+	@Parameter(0)
+	public String codecName
+	
+	@Parameter(1)
+	public Function<MessageJsonHandler, JsonMessageCodec> codecFactory
 
 	/**
 	 * Gson parses numbers with {@link LazilyParsedNumber}, which is not
@@ -148,6 +166,7 @@ class JsonParseTest {
 		all.putAll(methods)
 		all.putAll(clientMethods)
 		jsonHandler = new MessageJsonHandler(all)
+		jsonHandler.codec = codecFactory.apply(jsonHandler)
 	}
 
 	private def void assertParse(CharSequence json, Message expected) {
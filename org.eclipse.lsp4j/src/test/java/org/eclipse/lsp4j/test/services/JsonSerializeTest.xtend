@@ -13,7 +13,9 @@ package org.eclipse.lsp4j.test.services
 
 import com.google.gson.JsonObject
 import java.util.ArrayList
+import java.util.Collection
 import java.util.HashMap
+import java.util.function.Function
 import org.eclipse.lsp4j.ClientCapabilities
 import org.eclipse.lsp4j.CodeActionCapabilities
 import org.eclipse.lsp4j.CodeLens
@@ -70,6 +72,7 @@ import org.eclipse.lsp4j.WorkDoneProgressEnd
 import org.eclipse.lsp4j.WorkDoneProgressNotification
 import org.eclipse.lsp4j.WorkspaceClientCapabilities
 import org.eclipse.lsp4j.WorkspaceEdit
+import org.eclipse.lsp4j.jsonrpc.json.JsonMessageCodec
 import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler
 import org.eclipse.lsp4j.jsonrpc.messages.Either
 import org.eclipse.lsp4j.jsonrpc.messages.Message
@@ -82,13 +85,29 @@ import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints
 import org.eclipse.lsp4j.services.LanguageServer
 import org.junit.Before
 import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import org.junit.runners.Parameterized.Parameter
+import org.junit.runners.Parameterized.Parameters
 
 import static org.junit.Assert.*
 
 import static extension org.eclipse.lsp4j.test.services.LineEndings.*
 
+@RunWith(Parameterized)
 class JsonSerializeTest {
 	
+	@Parameters(name = "{0}")
+	def static Collection<Object[]> codecs() {
+		MessageCodecs.all
+	}
+	
+	@Parameter(0)
+	public String codecName
+	
+	@Parameter(1)
+	public Function<MessageJsonHandler, JsonMessageCodec> codecFactory
+	
 	MessageJsonHandler jsonHandler
 	
 	@Before
@@ -97,6 +116,7 @@ class JsonSerializeTest {
 		jsonHandler = new MessageJsonHandler(methods) [
 			setPrettyPrinting()
 		]
+		jsonHandler.codec = codecFactory.apply(jsonHandler)
 	}
 	
 	private def assertSerialize(Message message, CharSequence expected) {
@@ -0,0 +1,82 @@
+/******************************************************************************
+ * Copyright (c) 2021 TypeFox and others.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0,
+ * or the Eclipse Distribution License v. 1.0 which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR BSD-3-Clause
+ ******************************************************************************/
+package org.eclipse.lsp4j.test.services;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+import org.eclipse.lsp4j.jsonrpc.json.CborMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.GsonMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.JsonMessageCodec;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.SerializationBuffer;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+
+/**
+ * The message codecs that the JSON tests are run against.
+ */
+public final class MessageCodecs {
+
+	private MessageCodecs() {}
+
+	/**
+	 * Parameters for a {@link org.junit.runners.Parameterized} test: the name of each codec and a function
+	 * that creates it for a JSON handler.
+	 */
+	public static Collection<Object[]> all() {
+		return Arrays.asList(new Object[][] {
+			{ "gson", (Function<MessageJsonHandler, JsonMessageCodec>) handler -> new GsonMessageCodec(handler.getGson()) },
+			{ "cbor", (Function<MessageJsonHandler, JsonMessageCodec>) handler -> new CborTranscodingCodec(handler) }
+		});
+	}
+
+	/**
+	 * Passes all messages through the {@link CborMessageCodec}, so the JSON fixtures can be used for CBOR as well:
+	 * parsed messages are encoded to CBOR and decoded again, and messages are encoded to CBOR and decoded again
+	 * before they are written as JSON.
+	 */
+	static class CborTranscodingCodec implements JsonMessageCodec {
+
+		private final GsonMessageCodec jsonCodec;
+		private final CborMessageCodec cborCodec;
+
+		CborTranscodingCodec(MessageJsonHandler handler) {
+			this.jsonCodec = new GsonMessageCodec(handler.getGson());
+			this.cborCodec = new CborMessageCodec(handler.getGson());
+		}
+
+		@Override
+		public Message parseMessage(Reader input) {
+			return transcode(jsonCodec.parseMessage(input));
+		}
+
+		@Override
+		public void serialize(Message message, Writer output) {
+			jsonCodec.serialize(transcode(message), output);
+		}
+
+		private Message transcode(Message message) {
+			if (message == null)
+				return null;
+			SerializationBuffer buffer = new SerializationBuffer();
+			cborCodec.serialize(message, buffer);
+			return cborCodec.parseMessage(ByteBuffer.wrap(buffer.toByteArray()), StandardCharsets.UTF_8);
+		}
+
+	}
+
+}